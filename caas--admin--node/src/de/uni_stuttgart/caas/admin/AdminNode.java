@@ -5,18 +5,24 @@ import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.Vector;
-import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import de.uni_stuttgart.caas.admin.JoinRequestManager.JoinRequest;
+import de.uni_stuttgart.caas.base.ExecutionPolicy;
 import de.uni_stuttgart.caas.base.FullDuplexMPI;
 import de.uni_stuttgart.caas.base.LogSender;
+import de.uni_stuttgart.caas.base.OwnershipTable;
 import de.uni_stuttgart.caas.messages.ActivateNodeMessage;
 import de.uni_stuttgart.caas.messages.AddToGridMessage;
 import de.uni_stuttgart.caas.messages.ConfirmationMessage;
 import de.uni_stuttgart.caas.messages.IMessage;
 import de.uni_stuttgart.caas.messages.IMessage.MessageType;
 import de.uni_stuttgart.caas.messages.JoinMessage;
+import de.uni_stuttgart.caas.messages.OwnershipTableMessage;
+import de.uni_stuttgart.caas.messages.SubdivisionCommitMessage;
+import de.uni_stuttgart.caas.messages.WeightMessage;
 import delaunay_triangulation.Triangle_dt;
 
 /**
@@ -59,6 +65,12 @@ public class AdminNode /* implements AutoClosable */{
 	private final Thread acceptingThread;
 	private ServerSocket serverSocket;
 
+	/** Transport used for all connections to cache nodes */
+	private final FullDuplexMPI.Transport transport;
+
+	/** Connections to all cache nodes that connected so far */
+	private final CopyOnWriteArrayList<NodeConnector> connectors = new CopyOnWriteArrayList<>();
+
 	private LogSender logger;
 
 	/**
@@ -91,7 +103,18 @@ public class AdminNode /* implements AutoClosable */{
 	 *             if the ServerSocket for the given port could not be obtained.
 	 */
 	public AdminNode(int portNumber, int initialCapacity) throws IOException {
+		this(portNumber, initialCapacity, FullDuplexMPI.DEFAULT_TRANSPORT);
+	}
+
+	/**
+	 * Creates administrative Node using the given transport for its
+	 * connections to cache nodes.
+	 * 
+	 * See AdminNode(int portNumber, int initialCapacity) for more information.
+	 */
+	public AdminNode(int portNumber, int initialCapacity, FullDuplexMPI.Transport transport) throws IOException {
 		state = AdminNodeState.INITIAL_SIGNUP_PHASE;
+		this.transport = transport;
 
 		logger = new LogSender(new InetSocketAddress("localhost", 43215));
 
@@ -112,7 +135,7 @@ public class AdminNode /* implements AutoClosable */{
 		initFinishedCountDown = new CountDownLatch(initialCapacity);
 
 		try {
-			serverSocket = new ServerSocket(PORT_NUMBER);
+			serverSocket = transport.newServerSocket(PORT_NUMBER);
 			serverSocket.setReuseAddress(true);
 		} catch (IOException e) {
 			logger.write("Could not listen on PORT_NUMBER");
@@ -121,10 +144,9 @@ public class AdminNode /* implements AutoClosable */{
 		}
 
 		assert serverSocket != null;
-		final ArrayList<NodeConnector> connectors = new ArrayList<>();
 
 		// fire off a thread to accept incoming connections
-		acceptingThread = new Thread(new Runnable() {
+		acceptingThread = ExecutionPolicy.get().start("caas-admin-accept", new Runnable() {
 			@Override
 			public void run() {
 				while (true) {
@@ -147,11 +169,9 @@ public class AdminNode /* implements AutoClosable */{
 			}
 		});
 
-		acceptingThread.start();
-
 		// fire off a thread to call the onInitComplete() method once we are
 		// ready
-		new Thread(new Runnable() {
+		ExecutionPolicy.get().start("caas-admin-init", new Runnable() {
 
 			@Override
 			public void run() {
@@ -162,10 +182,11 @@ public class AdminNode /* implements AutoClosable */{
 					e.printStackTrace();
 				}
 
+				publishOwnershipTable();
 				onInitComplete();
 			}
 
-		}).start();
+		});
 	}
 
 	/**
@@ -195,7 +216,7 @@ public class AdminNode /* implements AutoClosable */{
 		 * @throws IOException
 		 */
 		public NodeConnector(Socket cS) throws IOException {
-			super(cS, System.out, false);
+			super(cS, System.out, DEFAULT_CODEC, transport, false);
 			nodeId = idSource.getAndIncrement();
 
 			assert cS.getRemoteSocketAddress() instanceof InetSocketAddress;
@@ -224,7 +245,7 @@ public class AdminNode /* implements AutoClosable */{
 				if (response.STATUS_CODE == 0) {
 					// fire off grid construction in a separate thread to have
 					// the message pump stay responsive.
-					new Thread(new InitGridHelper()).start();
+					ExecutionPolicy.get().start("caas-admin-grid", new InitGridHelper());
 				}
 				return response;
 
@@ -234,9 +255,29 @@ public class AdminNode /* implements AutoClosable */{
 				// a long-term view, we need the admin to actually deploy a new
 				// node.
 				System.out.println("admin: grid subdivision no #" + subdivCount.incrementAndGet());
+				synchronized (grid) {
+					grid.addSubdivisionNode(((SubdivisionCommitMessage) message).NEW_NODE_INFO);
+				}
+
+				// nodes still activating get the table once all are active
+				if (initFinishedCountDown.getCount() == 0) {
+					publishOwnershipTable();
+				}
 				return new ConfirmationMessage(1
 						, "ok");
 
+			case WEIGHT: {
+				final WeightMessage weight = (WeightMessage) message;
+				final boolean known;
+				synchronized (grid) {
+					known = grid.updateWeightOfNode(weight.ID, weight.WEIGHT);
+				}
+				if (known && initFinishedCountDown.getCount() == 0) {
+					schedulePublishOwnershipTable();
+				}
+				return new ConfirmationMessage(0, "weight received");
+			}
+
 			default:
 				break;
 			}
@@ -283,6 +324,11 @@ public class AdminNode /* implements AutoClosable */{
 						logger.write("admin: connection to cache node was aborted");
 						// TODO: this is currently a dangling state
 					}
+
+					@Override
+					public void onTimeout() {
+						// no timeout requested
+					}
 				});
 
 				try {
@@ -305,6 +351,11 @@ public class AdminNode /* implements AutoClosable */{
 						logger.write("admin: connection to cache node was aborted while waiting for activation to complete");
 						// TODO: this is currently a dangling state
 					}
+
+					@Override
+					public void onTimeout() {
+						// no timeout requested
+					}
 				});
 			}
 		}
@@ -389,6 +440,54 @@ public class AdminNode /* implements AutoClosable */{
 		return new ActivateNodeMessage();
 	}
 
+	/**
+	 * Send a newly compiled OwnershipTable to all cache nodes. Tables may
+	 * arrive out of order if the grid changes concurrently, cache nodes keep
+	 * the one with the highest version.
+	 */
+	private void publishOwnershipTable() {
+		final OwnershipTable table;
+		synchronized (grid) {
+			table = grid.compileOwnershipTable();
+		}
+
+		final OwnershipTableMessage message = new OwnershipTableMessage(table);
+		for (NodeConnector con : connectors) {
+			con.sendMessageAsync(message);
+		}
+	}
+
+	/**
+	 * Publish an OwnershipTable OWNERSHIP_PUBLISH_DELAY_MILLIS from now,
+	 * unless one is scheduled already. Nodes change their weights in steps,
+	 * often several nodes at once, so the changes are sent in one table.
+	 */
+	private void schedulePublishOwnershipTable() {
+		if (!ownershipPublishScheduled.compareAndSet(false, true)) {
+			return;
+		}
+		ExecutionPolicy.get().start("caas-admin-ownership", new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(OWNERSHIP_PUBLISH_DELAY_MILLIS);
+				} catch (InterruptedException e) {
+					return;
+				}
+				ownershipPublishScheduled.set(false);
+				publishOwnershipTable();
+			}
+		});
+	}
+
+	/**
+	 * Time weight changes are collected for before they are published, see
+	 * schedulePublishOwnershipTable()
+	 */
+	public static final long OWNERSHIP_PUBLISH_DELAY_MILLIS = 500;
+
+	private final AtomicBoolean ownershipPublishScheduled = new AtomicBoolean(false);
+
 	public Vector<Triangle_dt> getTriangles() {
 		return grid.getTriangles();
 	}
@@ -412,25 +511,23 @@ public class AdminNode /* implements AutoClosable */{
 
 	public void generateQueriesUniformlyDistributed(final int numOfQueriesPerNode) {
 
-		Thread t = new Thread(new Runnable() {
+		ExecutionPolicy.get().start("caas-query-generator", new Runnable() {
 
 			@Override
 			public void run() {
 				QuerySender.generateDistributedQueries(numOfQueriesPerNode, grid.getConnectedNodes(), logger, true);
 			}
 		});
-		t.start();
 	}
 
 	public void generateQueriesUniformlyDistributedHotspot(final int numOfQueriesPerNode) {
 
-		Thread t = new Thread(new Runnable() {
+		ExecutionPolicy.get().start("caas-query-generator", new Runnable() {
 
 			@Override
 			public void run() {
 				QuerySender.generateDistributedQueries(numOfQueriesPerNode, grid.getConnectedNodes(), logger, false);
 			}
 		});
-		t.start();
 	}
 }
@@ -14,6 +14,7 @@ import java.util.Vector;
 import de.uni_stuttgart.caas.admin.JoinRequestManager.JoinRequest;
 import de.uni_stuttgart.caas.base.LocationOfNode;
 import de.uni_stuttgart.caas.base.NodeInfo;
+import de.uni_stuttgart.caas.base.OwnershipTable;
 import delaunay_triangulation.Delaunay_Triangulation;
 import delaunay_triangulation.Point_dt;
 import delaunay_triangulation.Triangle_dt;
@@ -36,6 +37,18 @@ public class Grid {
 
 	private Map<LocationOfNode, InetSocketAddress> pointToAddressMapping;
 
+	/**
+	 * Nodes added by cache nodes subdividing a triangle, keyed by their id.
+	 * They have no connection of their own to the admin (yet), so they are
+	 * kept apart from connectedNodes.
+	 */
+	private final Map<Long, NodeInfo> subdivisionNodes = new HashMap<>();
+
+	/**
+	 * Version of the last OwnershipTable compiled
+	 */
+	private long ownershipVersion = 0;
+
 	/**
 	 * bounds for the grid
 	 */
@@ -167,6 +180,57 @@ public class Grid {
 		addPointToTriangulation(p);
 	}
 
+	/**
+	 * Adds a node a cache node created by subdividing a triangle to the
+	 * triangulation. Nodes already known are ignored.
+	 * 
+	 * @param info
+	 *            the new node, including its location
+	 */
+	public void addSubdivisionNode(NodeInfo info) {
+		assert info.getLocationOfNode() != null;
+
+		if (subdivisionNodes.containsKey(info.ID)) {
+			return;
+		}
+		subdivisionNodes.put(info.ID, info);
+		if (!pointToAddressMapping.containsKey(info.getLocationOfNode())) {
+			addPointToTriangulation(info.getLocationOfNode());
+		}
+	}
+
+	/**
+	 * Update the weight of a node, see NodeInfo.getWeight()
+	 * 
+	 * @return false if there is no node with that id
+	 */
+	public boolean updateWeightOfNode(long id, double weight) {
+		NodeInfo info = subdivisionNodes.get(id);
+		if (info == null) {
+			for (NodeInfo n : connectedNodes.values()) {
+				if (n.ID == id) {
+					info = n;
+					break;
+				}
+			}
+		}
+		if (info == null) {
+			return false;
+		}
+		info.setWeight(weight);
+		return true;
+	}
+
+	/**
+	 * Compile the OwnershipTable of all nodes in the grid, with a version
+	 * higher than that of all tables compiled before.
+	 */
+	public OwnershipTable compileOwnershipTable() {
+		final List<NodeInfo> nodes = new ArrayList<>(connectedNodes.values());
+		nodes.addAll(subdivisionNodes.values());
+		return OwnershipTable.compile(++ownershipVersion, nodes, MAX_GRID_INDEX);
+	}
+
 	/**
 	 * update location of a node
 	 * 
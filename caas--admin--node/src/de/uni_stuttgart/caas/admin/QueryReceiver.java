@@ -13,6 +13,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
+import de.uni_stuttgart.caas.base.ExecutionPolicy;
 import de.uni_stuttgart.caas.base.LogSender;
 import de.uni_stuttgart.caas.base.QueryLog;
 import de.uni_stuttgart.caas.messages.QueryMessage;
@@ -28,6 +29,10 @@ public final class QueryReceiver {
 	private volatile boolean stop = false;
 
 	private long times[];
+
+	// results that were served from the cache of the processing node, guarded
+	// by syncPoint
+	private long cacheHits = 0;
 	private final Thread thread;
 
 	public QueryReceiver(LogSender _logger, int numOfQueriesSent, boolean enableLogging) throws IOException {
@@ -62,13 +67,12 @@ public final class QueryReceiver {
 		}
 		writer = buff;
 
-		thread = new Thread(new Runnable() {
+		thread = ExecutionPolicy.get().start("caas-query-receiver", new Runnable() {
 			@Override
 			public void run() {
 				acceptor();
 			}
 		});
-		thread.start();
 	}
 
 	/**
@@ -122,6 +126,17 @@ public final class QueryReceiver {
 		return serverSocket.getInetAddress().getHostAddress();
 	}
 
+	/**
+	 * Get the ratio of received results that were served from the cache of
+	 * the processing node.
+	 * 
+	 * @note Only valid after join() returns
+	 */
+	public double getCacheHitRatio() {
+		assert stop;
+		return times.length == 0 ? 0.0 : (double) cacheHits / times.length;
+	}
+
 	/** @note Only valid after join() returns */
 	public long[] GetTimes() {
 		assert stop;
@@ -130,10 +145,10 @@ public final class QueryReceiver {
 
 	private void acceptor() {
 
-		while (!thread.isInterrupted()) {
+		while (!Thread.currentThread().isInterrupted()) {
 			try {
 				final Socket s = serverSocket.accept();
-				new Thread(new Runnable() {
+				ExecutionPolicy.get().start("caas-query-result-reader", new Runnable() {
 
 					@Override
 					public void run() {
@@ -183,6 +198,9 @@ public final class QueryReceiver {
 								if (writer != null) {
 									l.writeToFile(writer);
 								}
+								if (r.isCacheHit()) {
+									++cacheHits;
+								}
 								long l1 = syncPoint.getCount();
 								times[(int) (l1 - 1)] = l.getTransitTime() / 1000000;
 
@@ -200,7 +218,7 @@ public final class QueryReceiver {
 							e.printStackTrace();
 						}
 					}
-				}).start();
+				});
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -10,6 +10,7 @@ import java.util.Arrays;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.CountDownLatch;
+import de.uni_stuttgart.caas.base.ExecutionPolicy;
 import de.uni_stuttgart.caas.base.LocationOfNode;
 import de.uni_stuttgart.caas.base.LogSender;
 import de.uni_stuttgart.caas.base.NodeInfo;
@@ -75,7 +76,7 @@ public class QuerySender {
 			id += perNode;
 
 			// serialize queries on one cache node to avoid exhausting them
-			Thread t = new Thread(new Runnable() {
+			ExecutionPolicy.get().start("caas-query-sender", new Runnable() {
 				@Override
 				public void run() {
 
@@ -121,7 +122,6 @@ public class QuerySender {
 					count.countDown();
 				}
 			});
-			t.start();
 		}
 
 		try {
@@ -142,6 +142,9 @@ public class QuerySender {
 		// compute mean and median of all timings
 		long[] times = receiver.GetTimes();
 		Arrays.sort(times);
+		assert times.length > 0;
+		final long p95 = times[(int) (times.length * 0.95)];
+		final long p99 = times[Math.min(times.length - 1, (int) (times.length * 0.99))];
 
 		// take the upper 95% (P95)
 		times = Arrays.copyOfRange(times, 0, (int) (times.length * 0.95));
@@ -157,6 +160,8 @@ public class QuerySender {
 
 		System.out.println("mean: " + mean + "ms");
 		System.out.println("median: " + median + "ms");
+		System.out.println("p95: " + p95 + "ms, p99: " + p99 + "ms");
+		System.out.println("cache hit ratio: " + receiver.getCacheHitRatio());
 	}
 
 	private static void sendQuery(QueryMessage m, QueryReceiver r) {
@@ -2,6 +2,9 @@ package de.uni_stuttgart.caas.admin;
 
 import java.io.IOException;
 
+import de.uni_stuttgart.caas.base.ExecutionPolicy;
+import de.uni_stuttgart.caas.base.FullDuplexMPI;
+
 // TODO: benchmarking has technically nothing to do with the admin. Why
 // is it not a separate application, and why was the benchmarking code
 // mangled into the admin in the first place?
@@ -9,6 +12,7 @@ import java.io.IOException;
 public class Startup {
 	
 	private static int configBenchmark = -1, configK = -1;
+	private static FullDuplexMPI.Transport configTransport = FullDuplexMPI.DEFAULT_TRANSPORT;
 	private static AdminNode admin = null;
 	
 	
@@ -22,6 +26,10 @@ public class Startup {
 			super(a, b);
 		}
 
+		public CustomAdminNode(int a, int b, FullDuplexMPI.Transport transport) throws IOException {
+			super(a, b, transport);
+		}
+
 		@Override
 		protected void onInitComplete() {
 			System.out.println("cache overlay now accepts queries");
@@ -50,6 +58,10 @@ public class Startup {
 					System.out.println("Unknown benchmark type: " + type);
 					return false;
 				}
+			} else if (s.equals("-nio")) {
+				configTransport = FullDuplexMPI.Transport.NIO;
+			} else if (s.equals("-virtual")) {
+				ExecutionPolicy.setDefault(ExecutionPolicy.Mode.VIRTUAL);
 			} else if (s.startsWith("k=")) {
 				try {
 					k = Integer.parseInt(s.substring(2));
@@ -89,12 +101,19 @@ public class Startup {
 		final int initialCapacity = Integer.parseInt(args[1]);
 
 		try {
-			admin = new CustomAdminNode(portNumber, initialCapacity);
+			admin = new CustomAdminNode(portNumber, initialCapacity, configTransport);
 		} catch (IllegalArgumentException | IOException e) {
 			System.out.println("Invalid argument");
 			e.printStackTrace();
 		}
 
 		assert admin != null;
+
+		// virtual threads do not keep the JVM alive
+		try {
+			ExecutionPolicy.awaitThreads();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
 	}
 }
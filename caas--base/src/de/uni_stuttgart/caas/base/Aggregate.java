@@ -0,0 +1,92 @@
+package de.uni_stuttgart.caas.base;
+
+import java.io.Serializable;
+
+/**
+ * Number, total payload size and payload size histogram of a set of
+ * SpatialObjects. An aggregate has the same size whatever the number of
+ * objects, and aggregates of disjoint sets of objects combine into the
+ * aggregate of their union by add(), so they can be computed in parts.
+ *
+ * Not threadsafe.
+ */
+public final class Aggregate implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Number of bins of the payload size histogram. Bin 0 counts empty
+	 * payloads, bin i > 0 payloads of 2^(i-1) to 2^i - 1 bytes.
+	 */
+	public static final int HISTOGRAM_BINS = 32;
+
+	/**
+	 * Create the aggregate of no objects
+	 */
+	public Aggregate() {
+		histogram = new long[HISTOGRAM_BINS];
+	}
+
+	/**
+	 * Restores an aggregate, used by codecs.
+	 */
+	public Aggregate(long count, long payloadBytes, long[] histogram) {
+		assert histogram.length == HISTOGRAM_BINS;
+		this.count = count;
+		this.payloadBytes = payloadBytes;
+		this.histogram = histogram.clone();
+	}
+
+	/**
+	 * Get the histogram bin of a payload size
+	 */
+	public static int binOf(int payloadBytes) {
+		assert payloadBytes >= 0;
+		return Integer.SIZE - Integer.numberOfLeadingZeros(payloadBytes);
+	}
+
+	public void add(SpatialObject object) {
+		++count;
+		payloadBytes += object.PAYLOAD.length;
+		++histogram[binOf(object.PAYLOAD.length)];
+	}
+
+	public void add(Aggregate other) {
+		count += other.count;
+		payloadBytes += other.payloadBytes;
+		for (int i = 0; i < HISTOGRAM_BINS; ++i) {
+			histogram[i] += other.histogram[i];
+		}
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Get the total payload size of the objects
+	 */
+	public long getPayloadBytes() {
+		return payloadBytes;
+	}
+
+	/**
+	 * @return Copy of the payload size histogram, see HISTOGRAM_BINS
+	 */
+	public long[] getHistogram() {
+		return histogram.clone();
+	}
+
+	@Override
+	public String toString() {
+		return count + " objects, " + payloadBytes + " bytes";
+	}
+
+	// ---------------------------------
+	// Implementation
+	// ---------------------------------
+
+	private long count;
+	private long payloadBytes;
+	private final long[] histogram;
+}
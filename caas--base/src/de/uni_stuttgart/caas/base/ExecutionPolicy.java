@@ -0,0 +1,277 @@
+package de.uni_stuttgart.caas.base;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides what kind of threads all CaaS components run on. Code that needs a
+ * thread or an executor gets it from here rather than calling new Thread()
+ * itself.
+ *
+ * Two modes are available:
+ *
+ * - PLATFORM: one OS thread per Java thread, the classic model.
+ *
+ * - VIRTUAL: virtual threads as introduced with JDK 21. These are cheap enough
+ * to run thousands of cache nodes (each using dozens of threads) within one
+ * JVM. On older JDKs, PLATFORM is used instead.
+ *
+ * The mode is chosen once per JVM by the caas.threads system property
+ * ("platform" or "virtual", defaults to "platform") or by calling setDefault()
+ * before any threads are created.
+ *
+ * Since the code base is compiled for older JDKs, virtual threads are created
+ * through reflection.
+ */
+public final class ExecutionPolicy {
+
+	public enum Mode {
+		PLATFORM, VIRTUAL
+	}
+
+	/**
+	 * Get the policy in effect for the JVM.
+	 */
+	public static ExecutionPolicy get() {
+		ExecutionPolicy policy = current;
+		if (policy == null) {
+			synchronized (ExecutionPolicy.class) {
+				if (current == null) {
+					current = forMode(parseMode(System.getProperty("caas.threads", "platform")));
+				}
+				policy = current;
+			}
+		}
+		return policy;
+	}
+
+	/**
+	 * Set the policy in effect for the JVM. Threads created before keep
+	 * running in their mode.
+	 *
+	 * @return The policy actually in effect, which uses PLATFORM threads if
+	 *         VIRTUAL was requested, but is not supported.
+	 */
+	public static synchronized ExecutionPolicy setDefault(Mode mode) {
+		current = forMode(mode);
+		return current;
+	}
+
+	/**
+	 * Get a policy for the given mode, falling back to PLATFORM if the mode is
+	 * not supported by the JVM.
+	 */
+	public static ExecutionPolicy forMode(Mode mode) {
+		assert mode != null;
+		if (mode == Mode.VIRTUAL) {
+			if (VirtualThreads.SUPPORTED) {
+				return VIRTUAL;
+			}
+			System.out.println("(ExecutionPolicy) virtual threads require JDK 21 or later, using platform threads");
+		}
+		return PLATFORM;
+	}
+
+	/**
+	 * Policy that always uses platform threads. For threads that spend their
+	 * life in calls that do not go well with virtual threads, such as
+	 * Selector.select().
+	 */
+	public static ExecutionPolicy platform() {
+		return PLATFORM;
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Create and start a thread.
+	 *
+	 * Virtual threads never keep the JVM alive. To keep the behavior of both
+	 * modes the same, threads started through this method are counted until
+	 * they finish, and applications should call awaitThreads() at the end of
+	 * main() rather than relying on the JVM to wait for them.
+	 *
+	 * @note The method is threadsafe.
+	 *
+	 * @param name
+	 *            Thread name, for debugging
+	 * @param task
+	 *            non-null code to run on the thread
+	 * @return The started thread
+	 */
+	public Thread start(String name, final Runnable task) {
+		assert task != null;
+
+		liveThreads.incrementAndGet();
+		final Thread thread = create(name, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					task.run();
+				} finally {
+					if (liveThreads.decrementAndGet() == 0) {
+						synchronized (liveThreads) {
+							liveThreads.notifyAll();
+						}
+					}
+				}
+			}
+		}, false);
+
+		try {
+			thread.start();
+		} catch (RuntimeException | Error e) {
+			liveThreads.decrementAndGet();
+			throw e;
+		}
+		return thread;
+	}
+
+	/**
+	 * Create and start a daemon thread, i.e. one that is not waited for by
+	 * awaitThreads() (or the JVM).
+	 *
+	 * @note The method is threadsafe.
+	 */
+	public Thread startDaemon(String name, Runnable task) {
+		assert task != null;
+
+		final Thread thread = create(name, task, true);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Create an executor that runs each task right away on a thread of its
+	 * own, reusing platform threads where possible. The threads are daemon
+	 * threads.
+	 *
+	 * @param name
+	 *            Prefix for the thread names, for debugging
+	 */
+	public ExecutorService newExecutor(final String name) {
+		final ThreadFactory factory = new ThreadFactory() {
+			private final AtomicInteger counter = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				return create(name + "-" + counter.incrementAndGet(), r, true);
+			}
+		};
+
+		if (mode == Mode.VIRTUAL) {
+			return VirtualThreads.newThreadPerTaskExecutor(factory);
+		}
+		return Executors.newCachedThreadPool(factory);
+	}
+
+	/**
+	 * Wait until all threads created by start() of any policy have finished.
+	 * Meant to be called at the end of main().
+	 */
+	public static void awaitThreads() throws InterruptedException {
+		synchronized (liveThreads) {
+			while (liveThreads.get() > 0) {
+				liveThreads.wait();
+			}
+		}
+	}
+
+	// ---------------------------------
+	// Implementation
+	// ---------------------------------
+
+	private static final ExecutionPolicy PLATFORM = new ExecutionPolicy(Mode.PLATFORM);
+	private static final ExecutionPolicy VIRTUAL = new ExecutionPolicy(Mode.VIRTUAL);
+
+	private static volatile ExecutionPolicy current;
+
+	/** Threads started by start() and not yet finished, across all policies */
+	private static final AtomicInteger liveThreads = new AtomicInteger(0);
+
+	private final Mode mode;
+
+	private ExecutionPolicy(Mode _mode) {
+		mode = _mode;
+	}
+
+	private Thread create(String name, Runnable task, boolean daemon) {
+		if (mode == Mode.VIRTUAL) {
+			// virtual threads are always daemon threads
+			return VirtualThreads.newThread(name, task);
+		}
+
+		final Thread thread = new Thread(task, name);
+		thread.setDaemon(daemon);
+		return thread;
+	}
+
+	private static Mode parseMode(String value) {
+		if ("virtual".equalsIgnoreCase(value)) {
+			return Mode.VIRTUAL;
+		}
+		if (!"platform".equalsIgnoreCase(value)) {
+			System.out.println("(ExecutionPolicy) unknown value for caas.threads: " + value + ", using platform threads");
+		}
+		return Mode.PLATFORM;
+	}
+
+	/**
+	 * Reflective access to the JDK 21 virtual thread API:
+	 *
+	 * Thread.ofVirtual().name(name).unstarted(task) and
+	 * Executors.newThreadPerTaskExecutor(factory)
+	 */
+	private static class VirtualThreads {
+		private static final Method OF_VIRTUAL, NAME, UNSTARTED, NEW_THREAD_PER_TASK_EXECUTOR;
+		public static final boolean SUPPORTED;
+
+		static {
+			Method ofVirtual = null, name = null, unstarted = null, newThreadPerTaskExecutor = null;
+			try {
+				final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+				ofVirtual = Thread.class.getMethod("ofVirtual");
+				name = builder.getMethod("name", String.class);
+				unstarted = builder.getMethod("unstarted", Runnable.class);
+				newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+
+				// preview builds of JDK 19/20 have the methods, but throw
+				// unless preview features are enabled
+				ofVirtual.invoke(null);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				ofVirtual = null;
+			}
+
+			OF_VIRTUAL = ofVirtual;
+			NAME = name;
+			UNSTARTED = unstarted;
+			NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+			SUPPORTED = ofVirtual != null;
+		}
+
+		public static Thread newThread(String name, Runnable task) {
+			assert SUPPORTED;
+			try {
+				Object builder = OF_VIRTUAL.invoke(null);
+				builder = NAME.invoke(builder, name);
+				return (Thread) UNSTARTED.invoke(builder, task);
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException("(ExecutionPolicy) failed to create virtual thread", e);
+			}
+		}
+
+		public static ExecutorService newThreadPerTaskExecutor(ThreadFactory factory) {
+			assert SUPPORTED;
+			try {
+				return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException("(ExecutionPolicy) failed to create virtual thread executor", e);
+			}
+		}
+	}
+}
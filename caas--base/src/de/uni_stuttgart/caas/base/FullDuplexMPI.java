@@ -1,22 +1,41 @@
 package de.uni_stuttgart.caas.base;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InterruptedIOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
-import java.io.Serializable;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.Map;
-import java.util.concurrent.BlockingQueue;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+import de.uni_stuttgart.caas.messages.BinaryCodec;
 import de.uni_stuttgart.caas.messages.IMessage;
+import de.uni_stuttgart.caas.messages.IMessage.MessageType;
+import de.uni_stuttgart.caas.messages.IMessageCodec;
 
 /**
  * Full-duplex Message-Passing-Interface (MPI) implementation based on IMessage.
@@ -30,13 +49,32 @@ import de.uni_stuttgart.caas.messages.IMessage;
  * are always responded to, even if the response is just a dummy. This enables
  * both parties to know whether the other party has processed their message.
  * 
+ * Messages are encoded by a pluggable IMessageCodec (BinaryCodec by default)
+ * and sent as length-prefixed frames. Both parties need to use the same codec,
+ * which is verified by a short header exchanged when the connection starts.
+ * 
  * FullDuplexMPI uses TCP internally. The strong guarantees made by TCP with
  * regard to data consistency are kept, therefore, loss of data is practically
  * guaranteed not to happen. The only error scenario therefore is loss of
  * connection, which currently is undefined behaviour.
  * 
- * The implementation is based on a reader and a writer thread, yet it is
- * lockless, and should therefore scale well.
+ * Two network transports are available (see Transport). The default is
+ * based on a reader and a writer thread, yet it is lockless, and should
+ * therefore scale well. With many connections per JVM, Transport.NIO serves
+ * all connections from a small, fixed set of selector threads instead. Both
+ * transports use the same wire protocol and can talk to each other. If both
+ * parties turn out to live in the same JVM, they switch to Transport.LOOPBACK
+ * and exchange messages in memory, bypassing TCP after the header exchange.
+ * 
+ * Each party limits how many of the other party's messages may be outstanding
+ * (i.e. not yet responded to) at any time by granting send credits, which
+ * come back with the responses. This bounds the amount of queued messages on
+ * both sides; what a sender does once it runs out of credits is selected by
+ * its CreditPolicy.
+ * 
+ * Incoming messages are processed on the reading thread by default. Messages
+ * that take long to process can be handed to an executor instead (see
+ * getDispatch()), so they do not hold up responses and other messages.
  * 
  */
 public abstract class FullDuplexMPI /* implements AutoCloseable */{
@@ -79,6 +117,188 @@ public abstract class FullDuplexMPI /* implements AutoCloseable */{
 		 * (see isErrorState).
 		 * */
 		void onConnectionAborted();
+
+		/**
+		 * Called if a timeout was given when sending the message, and no
+		 * response was received in time. A response arriving later is
+		 * discarded.
+		 * 
+		 * @note The implementation is called from a timer thread shared by all
+		 *       connections, so it must return quickly and may not block.
+		 */
+		void onTimeout();
+	}
+
+	/**
+	 * Selects what sendMessageAsync() does if the connection has no send
+	 * credits left, i.e. the other party has as many messages outstanding as
+	 * it allows for (see getReceiveWindow()).
+	 */
+	public enum CreditPolicy {
+
+		/**
+		 * Wait until the other party responds to an outstanding message.
+		 */
+		BLOCK,
+
+		/**
+		 * Do not send the message, sendMessageAsync() returns false.
+		 */
+		FAIL_FAST,
+
+		/**
+		 * Do not send the message, instead pass it to onNoCredit().
+		 * sendMessageAsync() returns false.
+		 */
+		DIVERT
+	}
+
+	/**
+	 * Selects where an incoming message (other than a response) is handled,
+	 * see getDispatch().
+	 * 
+	 * Responses are always passed to their IResponseHandler right away, so
+	 * they never wait for messages still being processed.
+	 */
+	public enum Dispatch {
+
+		/**
+		 * Handle on the thread reading from the connection, one message at a
+		 * time and in the order received. While the message is processed, no
+		 * other messages - including responses - are received, so this is
+		 * only suitable for messages that are handled quickly.
+		 */
+		INLINE,
+
+		/**
+		 * Handle on the dispatch executor, one message at a time and in the
+		 * order received with respect to all other ORDERED messages of the
+		 * connection in the same lane (see getLane()). Messages of different
+		 * lanes may be handled concurrently.
+		 */
+		ORDERED,
+
+		/**
+		 * Handle on the dispatch executor, possibly concurrently with other
+		 * messages of the connection and in any order.
+		 */
+		CONCURRENT
+	}
+
+	/**
+	 * Priority class of a message, see getLane(). Every lane is a FIFO queue
+	 * of its own, both for sending and for handling received messages, so
+	 * messages only wait behind messages of the same or a higher lane
+	 * (depending on the LaneScheduling).
+	 */
+	public enum Lane {
+
+		/**
+		 * Control traffic that must get through even if the connection is
+		 * congested. Messages in this lane are sent even without send
+		 * credits left, so the lane should only carry small amounts of
+		 * messages. Received responses always go here.
+		 */
+		HIGH,
+
+		/**
+		 * Regular traffic.
+		 */
+		NORMAL,
+
+		/**
+		 * Traffic that may wait.
+		 */
+		LOW
+	}
+
+	/**
+	 * Selects how lanes share a connection, see setLaneScheduling().
+	 */
+	public enum LaneScheduling {
+
+		/**
+		 * A lane is only served while all lanes above it are empty. Lower
+		 * lanes starve as long as higher lanes are busy.
+		 */
+		STRICT,
+
+		/**
+		 * Lanes are served in turn, each giving up to its weight in messages
+		 * (see setLaneWeight()) before the next one is served.
+		 */
+		WEIGHTED
+	}
+
+	/**
+	 * Selects how a FullDuplexMPI instance performs network I/O. The choice is
+	 * local to one end point, the other party may use a different transport.
+	 */
+	public enum Transport {
+
+		/**
+		 * One dedicated blocking reader and writer thread per connection.
+		 */
+		THREADS,
+
+		/**
+		 * Non-blocking I/O on a shared group of selector threads. Incoming
+		 * messages are handed to a shared worker pool for processing, keeping
+		 * their order per connection.
+		 * 
+		 * Requires the socket to be backed by a SocketChannel. Use newSocket(),
+		 * connect() or newServerSocket() to get sockets suitable for both
+		 * transports. For sockets without channel, THREADS is used instead.
+		 */
+		NIO,
+
+		/**
+		 * In-memory transport for parties living in the same JVM. Messages
+		 * are copied (using the codec, so neither party sees changes the
+		 * other makes to a message) straight into a lock-free queue of the
+		 * other party and handled on the shared worker pool, bypassing the
+		 * network stack. The socket is only used to set up the connection.
+		 * 
+		 * Cannot be requested, start() chooses it automatically if the other
+		 * party turns out to be in the same JVM and both parties allow it
+		 * (see isLoopbackAllowed()).
+		 */
+		LOOPBACK;
+
+		/**
+		 * Create an unconnected socket suitable for this transport.
+		 */
+		public Socket newSocket() throws IOException {
+			return this == NIO ? SocketChannel.open().socket() : new Socket();
+		}
+
+		/**
+		 * Create a socket connected to the given address suitable for this
+		 * transport.
+		 */
+		public Socket connect(InetSocketAddress address) throws IOException {
+			final Socket socket = newSocket();
+			try {
+				socket.connect(address);
+			} catch (IOException e) {
+				socket.close();
+				throw e;
+			}
+			return socket;
+		}
+
+		/**
+		 * Create a server socket bound to the given local port (0 picks any
+		 * free port), whose accepted sockets are suitable for this transport.
+		 */
+		public ServerSocket newServerSocket(int port) throws IOException {
+			if (this != NIO) {
+				return new ServerSocket(port);
+			}
+			final ServerSocket serverSocket = ServerSocketChannel.open().socket();
+			serverSocket.bind(new InetSocketAddress(port));
+			return serverSocket;
+		}
 	}
 
 	/**
@@ -103,14 +323,55 @@ public abstract class FullDuplexMPI /* implements AutoCloseable */{
 	 *             upon failure to setup the full duplex connection.
 	 */
 	protected FullDuplexMPI(Socket socket, PrintStream errorOutStream, boolean autoStart) throws IOException {
+		this(socket, errorOutStream, DEFAULT_CODEC, autoStart);
+	}
+
+	/**
+	 * Establish a full-duplex MPI connection given a socket connecting the
+	 * endpoints and the codec to encode messages with.
+	 * 
+	 * See FullDuplexMPI(Socket socket, PrintStream errorOutStream, boolean
+	 * autoStart) for the other parameters.
+	 * 
+	 * @param codec
+	 *            non-null codec used to encode and decode messages. The other
+	 *            party must use a codec with the same id and version.
+	 */
+	protected FullDuplexMPI(Socket socket, PrintStream errorOutStream, IMessageCodec codec, boolean autoStart) throws IOException {
+		this(socket, errorOutStream, codec, DEFAULT_TRANSPORT, autoStart);
+	}
+
+	/**
+	 * Establish a full-duplex MPI connection given a socket connecting the
+	 * endpoints, the codec to encode messages with and the transport to use.
+	 * 
+	 * See FullDuplexMPI(Socket socket, PrintStream errorOutStream,
+	 * IMessageCodec codec, boolean autoStart) for the other parameters.
+	 * 
+	 * @param transport
+	 *            non-null transport to perform network I/O with. If NIO is
+	 *            requested, but the socket is not backed by a SocketChannel,
+	 *            THREADS is used instead.
+	 */
+	protected FullDuplexMPI(Socket socket, PrintStream errorOutStream, IMessageCodec codec, Transport transport, boolean autoStart) throws IOException {
 		assert socket != null;
 		assert errorOutStream != null;
+		assert codec != null;
+		assert transport != null;
+		assert transport != Transport.LOOPBACK : "LOOPBACK is chosen automatically";
 
 		clientSocket = socket;
 		outStream = errorOutStream;
+		this.codec = codec;
+
+		if (transport == Transport.NIO && socket.getChannel() == null) {
+			outStream.println("(FullDuplexMPI) socket has no channel, falling back to THREADS transport");
+			transport = Transport.THREADS;
+		}
+		this.transport = transport;
 
-		writeQueue = new LinkedBlockingQueue<OutgoingMessage>();
-		pendingSentMessages = new ConcurrentHashMap<Integer, OutgoingMessage>();
+		writeQueue = new MultiLaneQueue<OutgoingMessage>(LANE_COUNT);
+		pendingSentMessages = new PendingResponseTable<>(PENDING_TABLE_CAPACITY);
 
 		if (autoStart) {
 			start();
@@ -133,22 +394,37 @@ public abstract class FullDuplexMPI /* implements AutoCloseable */{
 	 *             upon failure to setup the full duplex connection.
 	 */
 	protected void start() throws IOException {
-		assert writer == null && reader == null;
+		assert writer == null && reader == null && nio == null && loopback == null;
+
+		// the headers are exchanged before any transport starts, as they tell
+		// whether the other party lives in the same JVM. Both parties send
+		// their header before waiting for the other one's, so this cannot
+		// deadlock.
+		final long peerConnectionId = exchangeHeaders();
+		if (peerConnectionId != 0) {
+			transport = Transport.LOOPBACK;
+			loopback = new LoopbackConnection(peerConnectionId);
+			loopback.start();
+			return;
+		}
+
+		if (transport == Transport.NIO) {
+			nio = new NioConnection();
+			nio.start();
+			return;
+		}
 
 		// Start both reader and writer threads, forward any exceptions to the
-		// caller. The writer thread needs to be started first: creating object
-		// streams (which is done in the reader/writer thread constructors)
-		// already involves network communication. Therefore, creating readers
-		// first would cause deadlocking.
+		// caller.
 
 		try {
-			(writer = new Thread(new WriterThread())).start();
+			writer = ExecutionPolicy.get().start("caas-mpi-writer", new WriterThread());
 		} catch (IOException e) {
 			throw new IOException("(FullDuplexMPI) failed to start writer thread", e);
 		}
 
 		try {
-			(reader = new Thread(new ReaderThread())).start();
+			reader = ExecutionPolicy.get().start("caas-mpi-reader", new ReaderThread());
 		} catch (IOException e) {
 			throw new IOException("(FullDuplexMPI) failed to start reader thread", e);
 		}
@@ -196,8 +472,18 @@ public abstract class FullDuplexMPI /* implements AutoCloseable */{
 		}
 
 		isShuttingDown = true;
-		reader.interrupt();
-		writer.interrupt();
+
+		// wake up senders waiting for credits, they check isShuttingDown
+		credits.release(1 << 20);
+
+		if (loopback != null) {
+			loopback.close();
+		} else if (nio != null) {
+			nio.close();
+		} else {
+			reader.interrupt();
+			writer.interrupt();
+		}
 
 		try {
 			clientSocket.close();
@@ -211,6 +497,70 @@ public abstract class FullDuplexMPI /* implements AutoCloseable */{
 		reader = writer = null;
 	}
 
+	/**
+	 * Get the transport actually used by the connection.
+	 */
+	public Transport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * Set how long the writer waits for further messages before it writes a
+	 * batch to the network (similar to Nagle's algorithm). Messages that are
+	 * already queued are always sent together, this only adds extra waiting
+	 * time to collect larger batches at the expense of latency.
+	 * 
+	 * Only the THREADS transport lingers, NIO always writes immediately and
+	 * LOOPBACK does not write to the network at all.
+	 * 
+	 * @note The method is threadsafe.
+	 * 
+	 * @param micros
+	 *            Linger time in microseconds, 0 to disable lingering.
+	 */
+	public void setWriteLingerMicros(long micros) {
+		assert micros >= 0;
+		writeLingerMicros = micros;
+	}
+
+	public long getWriteLingerMicros() {
+		return writeLingerMicros;
+	}
+
+	/**
+	 * Get the number of batches written to the network so far. Each batch
+	 * consists of one or more messages.
+	 */
+	public long getWriteBatchCount() {
+		return writeBatchCount;
+	}
+
+	/**
+	 * Get the number of messages (including responses) written to the network
+	 * so far.
+	 */
+	public long getWrittenMessageCount() {
+		return writtenMessageCount;
+	}
+
+	/**
+	 * Get the average number of messages per batch written to the network.
+	 * 
+	 * @return Average batch size, 0 if nothing has been written yet
+	 */
+	public double getAverageWriteBatchSize() {
+		final long batches = writeBatchCount;
+		return batches == 0 ? 0.0 : (double) writtenMessageCount / batches;
+	}
+
+	/**
+	 * Get the number of messages of the given type whose response timed out
+	 * so far (see sendMessageAsync() with timeout).
+	 */
+	public long getTimeoutCount(MessageType type) {
+		return timeoutCounts.get(type.ordinal());
+	}
+
 	/**
 	 * Same as sendMessageAsync(IMessage message, IResponseHandler
 	 * futureResponse), except that it discards the response to the message.
@@ -222,9 +572,11 @@ public abstract class FullDuplexMPI /* implements AutoCloseable */{
 	 * @note The method is threadsafe.
 	 * 
 	 * @param message
+	 * @return see sendMessageAsync(IMessage message, IResponseHandler
+	 *         futureResponse)
 	 */
-	public void sendMessageAsync(IMessage message) {
-		sendMessageAsync(message, null);
+	public boolean sendMessageAsync(IMessage message) {
+		return sendMessageAsync(message, null);
 	}
 
 	/**
@@ -246,7 +598,13 @@ public abstract class FullDuplexMPI /* implements AutoCloseable */{
 	 * }
 	 * </pre>
 	 * 
-	 * TODO: support timeouts?
+	 * The response is waited for indefinitely, see sendMessageAsync(IMessage
+	 * message, IResponseHandler futureResponse, long timeout, TimeUnit unit)
+	 * for bounding the waiting time.
+	 * 
+	 * Every message sent uses up one send credit until its response arrives.
+	 * Without credits left, the message is handled according to the
+	 * connection's CreditPolicy (see setCreditPolicy()).
 	 * 
 	 * @note The method is threadsafe.
 	 * 
@@ -258,18 +616,68 @@ public abstract class FullDuplexMPI /* implements AutoCloseable */{
 	 *            away (but the MPI interface nevertheless expects a response).
 	 * @note If you expect to be interrupted, call isInterrupted() on the thread
 	 *       afterwards as interrupts are swallowed by this method.
+	 * @return true if the message was queued for sending, false if it was
+	 *         refused for lack of send credits (see CreditPolicy). If the
+	 *         connection is closed, futureResponse receives
+	 *         onConnectionAborted() and true is returned.
+	 */
+	public boolean sendMessageAsync(IMessage message, IResponseHandler futureResponse) {
+		return sendMessageAsync(message, futureResponse, 0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Asynchronously send message, giving up on the response after the given
+	 * timeout. The timeout starts with the call, i.e. it includes the time
+	 * the message waits to be sent.
+	 * 
+	 * Upon timeout, the message is forgotten and futureResponse receives
+	 * onTimeout() instead of onResponseReceived(). Timeouts are counted per
+	 * message type, see getTimeoutCount().
+	 * 
+	 * @note The method is threadsafe.
+	 * 
+	 * @param timeout
+	 *            Time to wait for the response, 0 to wait indefinitely.
+	 * 
+	 *            See sendMessageAsync(IMessage message, IResponseHandler
+	 *            futureResponse) for the other parameters and the return
+	 *            value.
 	 */
-	public void sendMessageAsync(IMessage message, IResponseHandler futureResponse) {
+	public boolean sendMessageAsync(IMessage message, IResponseHandler futureResponse, long timeout, TimeUnit unit) {
 		assert message != null;
+		assert timeout >= 0;
 		if (errorState.get()) {
 			if (futureResponse != null) {
 				futureResponse.onConnectionAborted();
 			}
-			return;
+			return true;
+		}
+
+		final Lane lane = getLane(message);
+		if (!acquireCredit(message, futureResponse, lane)) {
+			return false;
+		}
+		if (isShuttingDown) {
+			// woken up by close() while waiting for credits
+			if (futureResponse != null) {
+				futureResponse.onConnectionAborted();
+			}
+			return true;
+		}
+
+		final OutgoingMessage msg = new OutgoingMessage(message, futureResponse, lane);
+		if (timeout > 0) {
+			msg.timeout = HashedWheelTimer.shared().newTimeout(new Runnable() {
+				@Override
+				public void run() {
+					expireMessage(msg);
+				}
+			}, timeout, unit);
 		}
+
 		while (true) {
 			try {
-				writeQueue.put(new OutgoingMessage(message, futureResponse));
+				enqueue(msg);
 				break;
 			} catch (InterruptedException e) {
 				// put() internally does not wait for long, so nobody will
@@ -290,6 +698,87 @@ public abstract class FullDuplexMPI /* implements AutoCloseable */{
 				// threads were interrupted to rule out this case!
 			}
 		}
+		return true;
+	}
+
+	/**
+	 * Called for messages refused for lack of send credits if the connection
+	 * uses CreditPolicy.DIVERT. The implementation may, for example, pass the
+	 * message to another party. The default drops the message.
+	 * 
+	 * @note The implementation is called on the thread that called
+	 *       sendMessageAsync().
+	 * 
+	 * @param message
+	 *            Non-null message that was not sent
+	 * @param futureResponse
+	 *            Response handler passed along with the message, may be null
+	 */
+	protected void onNoCredit(IMessage message, IResponseHandler futureResponse) {
+	}
+
+	/**
+	 * Decide how many messages the other party may have outstanding with us
+	 * at any time, i.e. how many send credits it gets. Messages beyond that
+	 * stay with the other party (see CreditPolicy) instead of piling up here.
+	 * 
+	 * The default is DEFAULT_RECEIVE_WINDOW.
+	 * 
+	 * @note Called once during start(), which may happen before the
+	 *       constructor of a subclass ran. The implementation should
+	 *       therefore return a constant.
+	 * 
+	 * @return Window size, at least MIN_RECEIVE_WINDOW
+	 */
+	protected int getReceiveWindow() {
+		return DEFAULT_RECEIVE_WINDOW;
+	}
+
+	/**
+	 * Set what happens if a message is sent without send credits left.
+	 * Defaults to CreditPolicy.BLOCK.
+	 * 
+	 * Regardless of the policy, sendMessageAsync() never blocks on the thread
+	 * receiving messages for this connection (i.e. from within INLINE message
+	 * processing or response handlers) as this thread is needed to receive
+	 * the responses that return credits. Messages sent from there may exceed
+	 * the window instead.
+	 * 
+	 * @note The method is threadsafe.
+	 */
+	public void setCreditPolicy(CreditPolicy policy) {
+		assert policy != null;
+		creditPolicy = policy;
+	}
+
+	public CreditPolicy getCreditPolicy() {
+		return creditPolicy;
+	}
+
+	/**
+	 * Get the number of messages that can be sent before running out of send
+	 * credits. Together with getQueueDepth(), this tells how busy the other
+	 * party is with our messages.
+	 */
+	public int getAvailableCredits() {
+		return Math.max(0, credits.availablePermits());
+	}
+
+	/**
+	 * Get the number of messages (including responses) waiting to be written
+	 * to the network. Always 0 for LOOPBACK, which hands messages to the
+	 * other party right away.
+	 */
+	public int getQueueDepth() {
+		return writeQueue.size();
+	}
+
+	/**
+	 * Get the number of messages refused so far for lack of send credits (see
+	 * CreditPolicy.FAIL_FAST and CreditPolicy.DIVERT).
+	 */
+	public long getNoCreditCount() {
+		return noCreditCount.get();
 	}
 
 	/**
@@ -302,7 +791,8 @@ public abstract class FullDuplexMPI /* implements AutoCloseable */{
 	 * @note The implementation needs to be threadsafe with respect to the rest
 	 *       of the program (i.e. it must expect to be called from different
 	 *       threads), but it need not be reentrant (i.e. it need not expect to
-	 *       be called from two threads at the same time).
+	 *       be called from two threads at the same time) unless getDispatch()
+	 *       returns CONCURRENT for some messages.
 	 * 
 	 * @note The implementation may not interrupt() the calling thread.
 	 * 
@@ -313,61 +803,495 @@ public abstract class FullDuplexMPI /* implements AutoCloseable */{
 	 */
 	public abstract IMessage processIncomingMessage(IMessage message);
 
-	public InetAddress getLocalAddress() {
-		return clientSocket.getLocalAddress();
+	/**
+	 * Variant of processIncomingMessage() for implementations that cannot
+	 * produce the response to some messages right away, e.g. because they
+	 * have to ask other parties first. Rather than returning the response,
+	 * the implementation passes it to responder.respond(), which may happen
+	 * on any thread after the method returned. Until it does, the message
+	 * keeps using one of the other party's send credits, so implementations
+	 * must respond in bounded time.
+	 * 
+	 * The default responds with the result of processIncomingMessage().
+	 * 
+	 * @note The same notes as for processIncomingMessage() apply.
+	 * 
+	 * @param message
+	 *            Non-null message object representing the incoming message
+	 * @param responder
+	 *            Non-null handle to pass exactly one response to
+	 */
+	protected void processIncomingMessage(IMessage message, Responder responder) {
+		responder.respond(processIncomingMessage(message));
 	}
 
-	// ---------------------------------
-	// Implementation
-	// ---------------------------------
-
-	private static class OutgoingMessage {
-		private static final AtomicInteger uidCounter = new AtomicInteger(0);
+	/**
+	 * Handle for responding to an incoming message, see
+	 * processIncomingMessage(IMessage, Responder).
+	 * 
+	 * @note The class is threadsafe.
+	 */
+	public final class Responder {
 
-		public OutgoingMessage(IMessage _message, IResponseHandler _handler) {
-			this(_message, _handler, uidCounter.incrementAndGet(), true);
+		private Responder(MessageEnvelope _envelope) {
+			envelope = _envelope;
 		}
 
-		public OutgoingMessage(IMessage _message, IResponseHandler _handler, int _uid, boolean _expectResponse) {
-			assert _message != null;
-			// assert _handler != null;
-			assert _expectResponse || _handler == null;
+		/**
+		 * Send the response to the message. Only the first call has an
+		 * effect. Responses to connections that were closed meanwhile are
+		 * dropped.
+		 * 
+		 * @param response
+		 *            Non-null response to the message
+		 */
+		public void respond(IMessage response) {
+			assert response != null;
+			if (!responded.compareAndSet(false, true)) {
+				assert false : "responded twice";
+				return;
+			}
+			if (isShuttingDown || errorState.get()) {
+				return;
+			}
 
-			message = _message;
-			handler = _handler;
-			uid = _uid;
-			expectResponse = _expectResponse;
+			try {
+				enqueue(new OutgoingMessage(response, null, envelope.uid, false, envelope.lane));
+			} catch (InterruptedException e) {
+				// keep the interrupt for the caller to notice
+				Thread.currentThread().interrupt();
+			}
 		}
 
-		public final IMessage message;
-		public final int uid;
-
-		public final boolean expectResponse;
-		public final IResponseHandler handler;
+		private final MessageEnvelope envelope;
+		private final AtomicBoolean responded = new AtomicBoolean(false);
 	}
 
-	private static class MessageEnvelope implements Serializable {
-
-		private static final long serialVersionUID = 5916422368802538995L;
+	/**
+	 * Decide where processIncomingMessage() is called for an incoming message.
+	 * The default handles all messages INLINE. Implementations that take long
+	 * to process some messages should move these off the reading thread to
+	 * keep them from delaying the rest of the traffic on the connection.
+	 * 
+	 * @note The implementation is called on the thread reading from the
+	 *       connection and must return quickly.
+	 * 
+	 * @param message
+	 *            Non-null message object representing the incoming message
+	 * @return non-null dispatch mode for the message
+	 */
+	protected Dispatch getDispatch(IMessage message) {
+		return Dispatch.INLINE;
+	}
 
-		public MessageEnvelope(IMessage _message, int _uid) {
-			assert _message != null;
+	/**
+	 * Decide whether the connection may use Transport.LOOPBACK if the other
+	 * party lives in the same JVM. Both parties must allow it. The default
+	 * is DEFAULT_LOOPBACK.
+	 * 
+	 * @note Called once during start(), which may happen before the
+	 *       constructor of a subclass ran. The implementation should
+	 *       therefore return a constant.
+	 */
+	protected boolean isLoopbackAllowed() {
+		return DEFAULT_LOOPBACK;
+	}
 
-			message = _message;
-			uid = _uid;
+	/**
+	 * Set the executor that handles ORDERED and CONCURRENT messages (see
+	 * getDispatch()). Defaults to a pool shared by all connections.
+	 * 
+	 * Changing the executor while messages are being received may reorder
+	 * ORDERED messages received around the time of the change, so this is
+	 * best done right after construction.
+	 * 
+	 * @note The method is threadsafe.
+	 * 
+	 * @param executor
+	 *            non-null executor, may run tasks on any number of threads.
+	 */
+	public void setDispatchExecutor(Executor executor) {
+		assert executor != null;
+		dispatchExecutor = executor;
+		orderedDispatch = newOrderedDispatch(executor);
+	}
+
+	/**
+	 * Decide which lane a message goes to. This applies to the message when
+	 * sent and, on the receiving side, to handling it (the other party
+	 * decides for itself, except for LOOPBACK where the sender's lane is
+	 * used). The response to a message is sent in the same lane as the
+	 * message. The default puts all messages into Lane.NORMAL.
+	 * 
+	 * @note The implementation is called on the thread sending respectively
+	 *       reading the message and must return quickly.
+	 * 
+	 * @param message
+	 *            Non-null message object
+	 * @return non-null lane of the message
+	 */
+	protected Lane getLane(IMessage message) {
+		return Lane.NORMAL;
+	}
+
+	/**
+	 * Set how lanes share the connection. Defaults to LaneScheduling.STRICT.
+	 * 
+	 * @note The method is threadsafe.
+	 */
+	public void setLaneScheduling(LaneScheduling scheduling) {
+		assert scheduling != null;
+		laneScheduling = scheduling;
+		applyLaneScheduling();
+	}
+
+	public LaneScheduling getLaneScheduling() {
+		return laneScheduling;
+	}
+
+	/**
+	 * Set the number of messages a lane gives at a time under
+	 * LaneScheduling.WEIGHTED. Defaults to 8 (HIGH), 4 (NORMAL) and 1 (LOW).
+	 * 
+	 * @note The method is threadsafe.
+	 * 
+	 * @param weight
+	 *            Positive weight
+	 */
+	public synchronized void setLaneWeight(Lane lane, int weight) {
+		assert weight > 0;
+		final int[] weights = laneWeights.clone();
+		weights[lane.ordinal()] = weight;
+		laneWeights = weights;
+		applyLaneScheduling();
+	}
+
+	public int getLaneWeight(Lane lane) {
+		return laneWeights[lane.ordinal()];
+	}
+
+	/**
+	 * Get the average time messages of the given lane (including responses)
+	 * waited before being handed to the network.
+	 */
+	public double getAverageSendQueueMillis(Lane lane) {
+		return averageMillis(sendQueueCounts, sendQueueNanos, lane);
+	}
+
+	/**
+	 * Get the average time received messages of the given lane waited
+	 * before processIncomingMessage() was called for them, including the
+	 * time spent waiting for a dispatch executor.
+	 */
+	public double getAverageReceiveQueueMillis(Lane lane) {
+		return averageMillis(receiveQueueCounts, receiveQueueNanos, lane);
+	}
+
+	public InetAddress getLocalAddress() {
+		return clientSocket.getLocalAddress();
+	}
+
+	/**
+	 * Codec used by connections that do not specify one explicitly.
+	 */
+	public static final IMessageCodec DEFAULT_CODEC = BinaryCodec.INSTANCE;
+
+	/**
+	 * Transport used by connections that do not specify one explicitly.
+	 */
+	public static final Transport DEFAULT_TRANSPORT = Transport.THREADS;
+
+	/**
+	 * Write linger time in microseconds for new connections, see
+	 * setWriteLingerMicros(). Can be set using the caas.writeLingerMicros
+	 * system property, defaults to 0.
+	 */
+	public static final long DEFAULT_WRITE_LINGER_MICROS = Long.getLong("caas.writeLingerMicros", 0);
+
+	/**
+	 * Credits every connection starts out with, before the other party
+	 * announced its receive window. Smallest receive window allowed.
+	 */
+	public static final int MIN_RECEIVE_WINDOW = 16;
+
+	/**
+	 * Receive window of connections that do not override getReceiveWindow().
+	 * Can be set using the caas.receiveWindow system property, defaults to
+	 * 1024.
+	 */
+	public static final int DEFAULT_RECEIVE_WINDOW = Math.max(MIN_RECEIVE_WINDOW, Integer.getInteger("caas.receiveWindow", 1024));
+
+	/**
+	 * Whether connections that do not override isLoopbackAllowed() use
+	 * Transport.LOOPBACK for parties in the same JVM. Can be set using the
+	 * caas.loopback system property, defaults to true.
+	 */
+	public static final boolean DEFAULT_LOOPBACK = !"false".equalsIgnoreCase(System.getProperty("caas.loopback"));
+
+	// ---------------------------------
+	// Implementation
+	// ---------------------------------
+
+	private static class OutgoingMessage implements PendingResponseTable.Entry, MultiLaneQueue.Element {
+		private static final AtomicInteger uidCounter = new AtomicInteger(0);
+
+		public OutgoingMessage(IMessage _message, IResponseHandler _handler, Lane _lane) {
+			this(_message, _handler, uidCounter.incrementAndGet() & ~RESPONSE_FLAG, true, _lane);
+		}
+
+		public OutgoingMessage(IMessage _message, IResponseHandler _handler, int _uid, boolean _expectResponse, Lane _lane) {
+			assert _message != null;
+			// assert _handler != null;
+			assert _expectResponse || _handler == null;
+			assert _lane != null;
+
+			message = _message;
+			handler = _handler;
+			uid = _uid;
+			expectResponse = _expectResponse;
+			lane = _lane;
 		}
 
 		public final IMessage message;
 		public final int uid;
+		public final Lane lane;
+
+		/** System.nanoTime() when the message was queued for sending */
+		public long queuedAt;
+
+		public final boolean expectResponse;
+		public final IResponseHandler handler;
+
+		/** Pending timeout, if the message was sent with one */
+		public volatile HashedWheelTimer.Timeout timeout;
 
+		private final AtomicBoolean completed = new AtomicBoolean(false);
+
+		/**
+		 * Mark the message as done (response received, timed out or aborted).
+		 * 
+		 * @return true iff the caller is the one to complete the message and
+		 *         therefore to notify the handler.
+		 */
+		public boolean complete() {
+			if (!completed.compareAndSet(false, true)) {
+				return false;
+			}
+			final HashedWheelTimer.Timeout t = timeout;
+			if (t != null) {
+				t.cancel();
+			}
+			return true;
+		}
+
+		public boolean isCompleted() {
+			return completed.get();
+		}
+
+		@Override
+		public int getUid() {
+			return uid;
+		}
+
+		@Override
+		public int getLane() {
+			return lane.ordinal();
+		}
+	}
+
+	private static class MessageEnvelope implements MultiLaneQueue.Element {
+
+		/**
+		 * @param _lane
+		 *            Lane of the message, ignored for responses, which
+		 *            always go to Lane.HIGH.
+		 */
+		public MessageEnvelope(IMessage _message, int _frameUid, Lane _lane) {
+			assert _message != null;
+
+			message = _message;
+			uid = _frameUid & ~RESPONSE_FLAG;
+			isResponse = (_frameUid & RESPONSE_FLAG) != 0;
+			lane = isResponse ? Lane.HIGH : _lane;
+			receivedAt = System.nanoTime();
+		}
+
+		public final IMessage message;
+		public final int uid;
+		public final boolean isResponse;
+		public final Lane lane;
+		public final long receivedAt;
+
+		@Override
+		public int getLane() {
+			return lane.ordinal();
+		}
+	}
+
+	/**
+	 * Growable buffer that collects one or more complete frames (length, uid,
+	 * encoded message) so they can be written to the network in one go.
+	 */
+	private static class FrameBuffer extends ByteArrayOutputStream {
+
+		private final DataOutputStream data = new DataOutputStream(this);
+
+		public FrameBuffer() {
+			super(256);
+		}
+
+		/**
+		 * Append the raw connection header.
+		 */
+		public void writeHeader(IMessageCodec codec, int receiveWindow, long jvmId, long connectionId) throws IOException {
+			data.writeInt(HEADER_MAGIC);
+			data.writeInt(codec.getCodecId());
+			data.writeInt(codec.getVersion());
+			data.writeInt(receiveWindow);
+			data.writeLong(jvmId);
+			data.writeLong(connectionId);
+		}
+
+		/**
+		 * Append one frame. If encoding fails, the buffer is left unchanged.
+		 */
+		public void writeFrame(IMessageCodec codec, IMessage message, int uid) throws IOException {
+			final int start = count;
+			try {
+				data.writeInt(0); // placeholder for the frame length
+				data.writeInt(uid);
+				codec.encode(message, data);
+			} catch (IOException e) {
+				count = start;
+				throw e;
+			}
+
+			final int length = count - start - 4;
+			if (length > MAX_FRAME_LENGTH) {
+				count = start;
+				throw new IOException("(FullDuplexMPI) message too large: " + message.getMessageType() + ", " + length + " bytes");
+			}
+			buf[start] = (byte) (length >>> 24);
+			buf[start + 1] = (byte) (length >>> 16);
+			buf[start + 2] = (byte) (length >>> 8);
+			buf[start + 3] = (byte) length;
+		}
+
+		/**
+		 * Get a ByteBuffer view on the current contents. The view becomes
+		 * invalid as soon as the FrameBuffer is modified.
+		 */
+		public ByteBuffer asByteBuffer() {
+			return ByteBuffer.wrap(buf, 0, count);
+		}
 	}
 
 	private Thread reader, writer;
+	private NioConnection nio;
+	private LoopbackConnection loopback;
+
+	/** Only changed by start(), which happens before the object is shared */
+	private Transport transport;
+
+	/**
+	 * Upper bounds for the amount of messages respectively bytes encoded into
+	 * one batch before it is written to the network.
+	 */
+	private static final int MAX_WRITE_BATCH_MESSAGES = 1024;
+
+	/**
+	 * Upper bound for the length of a frame, its uid and encoded message
+	 */
+	private static final int MAX_FRAME_LENGTH = 4 + IMessageCodec.MAX_MESSAGE_BYTES;
+	private static final int MAX_WRITE_BATCH_BYTES = 256 * 1024;
+
+	private volatile long writeLingerMicros = DEFAULT_WRITE_LINGER_MICROS;
+
+	// only written by the thread doing the writes, hence no atomics needed
+	private volatile long writeBatchCount = 0;
+	private volatile long writtenMessageCount = 0;
+
+	private final MultiLaneQueue<OutgoingMessage> writeQueue;
+	private final PendingResponseTable<OutgoingMessage> pendingSentMessages;
+
+	/**
+	 * Number of slots of pendingSentMessages. Uids are drawn from a counter
+	 * shared by all connections, so the slots used by one connection are
+	 * spread out; the table is sized generously to keep collisions rare.
+	 */
+	private static final int PENDING_TABLE_CAPACITY = 4096;
+
+	private final AtomicLongArray timeoutCounts = new AtomicLongArray(MessageType.values().length);
+
+	private static final int LANE_COUNT = Lane.values().length;
 
-	private final BlockingQueue<OutgoingMessage> writeQueue;
-	private final ConcurrentHashMap<Integer, OutgoingMessage> pendingSentMessages;
+	private volatile LaneScheduling laneScheduling = LaneScheduling.STRICT;
+	private volatile int[] laneWeights = { 8, 4, 1 };
+
+	// per lane: number of messages and total time they were queued
+	private final AtomicLongArray sendQueueCounts = new AtomicLongArray(LANE_COUNT);
+	private final AtomicLongArray sendQueueNanos = new AtomicLongArray(LANE_COUNT);
+	private final AtomicLongArray receiveQueueCounts = new AtomicLongArray(LANE_COUNT);
+	private final AtomicLongArray receiveQueueNanos = new AtomicLongArray(LANE_COUNT);
+
+	/**
+	 * Send credits. Permits can be reduced below zero if messages are sent
+	 * from the receiving thread without credits left.
+	 */
+	private final Credits credits = new Credits(MIN_RECEIVE_WINDOW);
+	private final AtomicLong noCreditCount = new AtomicLong(0);
+	private volatile CreditPolicy creditPolicy = CreditPolicy.BLOCK;
+
+	/** Thread currently receiving messages for this connection, if any */
+	private volatile Thread receivingThread;
+
+	private static final class Credits extends Semaphore {
+		private static final long serialVersionUID = 1L;
+
+		public Credits(int permits) {
+			super(permits);
+		}
+
+		public void overdraw() {
+			reducePermits(1);
+		}
+	}
+
+	private volatile Executor dispatchExecutor = NioEventLoop.workers();
+
+	/** One serial executor per lane, see Dispatch.ORDERED */
+	private volatile Executor[] orderedDispatch = newOrderedDispatch(dispatchExecutor);
+
+	/**
+	 * Set on the uid of frames carrying a response. Message uids are drawn
+	 * from the remaining 31 bits.
+	 */
+	private static final int RESPONSE_FLAG = 0x80000000;
 
 	private final Socket clientSocket;
+	private final IMessageCodec codec;
+
+	/**
+	 * Magic value sent at the beginning of every connection, followed by the
+	 * codec id, version, receive window, JVM id and connection id.
+	 */
+	private static final int HEADER_MAGIC = 0x46444d50; // 'FDMP'
+	private static final int HEADER_SIZE = 32;
+
+	/**
+	 * Random id of the JVM, sent in the header to detect parties in the same
+	 * JVM. Never 0, which is sent if loopback is not allowed.
+	 */
+	private static final long JVM_ID = new Random().nextLong() | 1;
+
+	/** Random id of the connection, used to pair LOOPBACK parties */
+	private final long connectionId = ThreadLocalRandom.current().nextLong() | 1;
+
+	/**
+	 * LOOPBACK connections whose other party has not yet started, keyed by
+	 * the ids of both connections.
+	 */
+	private static final ConcurrentHashMap<String, LoopbackPipe> unpairedPipes = new ConcurrentHashMap<>();
 
 	/**
 	 * Injected PrintStream to receive any error messages that would otherwise
@@ -390,17 +1314,339 @@ public abstract class FullDuplexMPI /* implements AutoCloseable */{
 		close();
 	}
 
+	/**
+	 * Queue a message for sending and make sure the transport picks it up.
+	 */
+	private void enqueue(OutgoingMessage msg) throws InterruptedException {
+		msg.queuedAt = System.nanoTime();
+		if (loopback != null) {
+			loopback.send(msg);
+			return;
+		}
+		writeQueue.put(msg);
+		if (nio != null) {
+			nio.requestFlush();
+		}
+	}
+
+	/**
+	 * Encode an outgoing message into the given buffer, registering it as
+	 * pending if a response is expected.
+	 */
+	private void encodeOutgoing(OutgoingMessage msg, FrameBuffer frames) throws IOException {
+		if (registerOutgoing(msg)) {
+			frames.writeFrame(codec, msg.message, frameUid(msg));
+		}
+	}
+
+	/**
+	 * Register an outgoing message as pending if a response is expected. Must
+	 * be called right before the message is handed to the other party.
+	 * 
+	 * @return false if the message is not to be sent after all
+	 */
+	private boolean registerOutgoing(OutgoingMessage msg) {
+		// for proper lockless operation, it is crucial that we first add the
+		// entry to the map, then send the message to the other party. otherwise
+		// we could receive the response before the entry is in the map,
+		// causing the response to be lost.
+		if (msg.expectResponse) {
+			if (msg.isCompleted()) {
+				// timed out while still queued, nobody waits for it anymore
+				credits.release();
+				return false;
+			}
+			pendingSentMessages.put(msg);
+
+			// expireMessage() may have run concurrently and missed the entry
+			if (msg.isCompleted() && pendingSentMessages.remove(msg)) {
+				credits.release();
+				return false;
+			}
+		}
+
+		final int lane = msg.getLane();
+		sendQueueCounts.incrementAndGet(lane);
+		sendQueueNanos.addAndGet(lane, System.nanoTime() - msg.queuedAt);
+		return true;
+	}
+
+	private static int frameUid(OutgoingMessage msg) {
+		return msg.expectResponse ? msg.uid : msg.uid | RESPONSE_FLAG;
+	}
+
+	/**
+	 * Called by the timer if no response to the message arrived in time.
+	 */
+	private void expireMessage(OutgoingMessage msg) {
+		if (!msg.complete()) {
+			return;
+		}
+		pendingSentMessages.remove(msg);
+		timeoutCounts.incrementAndGet(msg.message.getMessageType().ordinal());
+
+		if (msg.handler != null) {
+			msg.handler.onTimeout();
+		}
+	}
+
+	/**
+	 * Notify the handler of a message that no response is to be expected
+	 * anymore, unless it was already notified otherwise.
+	 */
+	private static void abortMessage(OutgoingMessage msg) {
+		if (msg.complete() && msg.handler != null) {
+			msg.handler.onConnectionAborted();
+		}
+	}
+
+	/**
+	 * Send our connection header and receive the other party's (blocking).
+	 * 
+	 * @return Connection id of the other party if it lives in the same JVM and
+	 *         both parties allow loopback, 0 otherwise.
+	 */
+	private long exchangeHeaders() throws IOException {
+		final boolean allowLoopback = isLoopbackAllowed();
+
+		final FrameBuffer header = new FrameBuffer();
+		header.writeHeader(codec, getReceiveWindow(), allowLoopback ? JVM_ID : 0, connectionId);
+		final OutputStream out = clientSocket.getOutputStream();
+		header.writeTo(out);
+		out.flush();
+
+		// read unbuffered, the transport takes over right after the header
+		final byte[] received = new byte[HEADER_SIZE];
+		new DataInputStream(clientSocket.getInputStream()).readFully(received);
+
+		final ByteBuffer buffer = ByteBuffer.wrap(received);
+		final int magic = buffer.getInt();
+		final int codecId = buffer.getInt();
+		final int version = buffer.getInt();
+		verifyHeader(magic, codecId, version, buffer.getInt());
+
+		final long peerJvmId = buffer.getLong();
+		final long peerConnectionId = buffer.getLong();
+		return allowLoopback && peerJvmId == JVM_ID && peerConnectionId != connectionId ? peerConnectionId : 0;
+	}
+
+	/**
+	 * Check the connection header received from the other party.
+	 */
+	private void verifyHeader(int magic, int codecId, int version, int receiveWindow) throws IOException {
+		if (magic != HEADER_MAGIC) {
+			throw new IOException("(FullDuplexMPI) Protocol: other party is not a FullDuplexMPI instance");
+		}
+		if (codecId != codec.getCodecId() || version != codec.getVersion()) {
+			throw new IOException("(FullDuplexMPI) Protocol: codec mismatch, other party uses codec " + Integer.toHexString(codecId) + " version " + version);
+		}
+		if (receiveWindow < MIN_RECEIVE_WINDOW) {
+			throw new IOException("(FullDuplexMPI) Protocol: invalid receive window " + receiveWindow);
+		}
+
+		// the first MIN_RECEIVE_WINDOW credits were granted up front
+		credits.release(receiveWindow - MIN_RECEIVE_WINDOW);
+	}
+
+	/**
+	 * Take one send credit for the given message, handling the lack of
+	 * credits according to the credit policy.
+	 * 
+	 * @return true iff the message may be sent
+	 */
+	private boolean acquireCredit(IMessage message, IResponseHandler futureResponse, Lane lane) {
+		if (credits.tryAcquire()) {
+			return true;
+		}
+
+		// blocking here would keep the credits from ever coming back, and
+		// control traffic must not wait behind regular traffic
+		if (Thread.currentThread() == receivingThread || lane == Lane.HIGH) {
+			credits.overdraw();
+			return true;
+		}
+
+		switch (creditPolicy) {
+		case BLOCK:
+			credits.acquireUninterruptibly();
+			return true;
+
+		case DIVERT:
+			noCreditCount.incrementAndGet();
+			onNoCredit(message, futureResponse);
+			return false;
+
+		default:
+			noCreditCount.incrementAndGet();
+			return false;
+		}
+	}
+
+	/**
+	 * Handle one received message: either pass it to the response handler of
+	 * the message it responds to, or dispatch it for processing (see
+	 * getDispatch()).
+	 * 
+	 * @throws InterruptedException
+	 *             if user code was interrupted (see note in sendMessageAsync())
+	 */
+	private void handleEnvelope(final MessageEnvelope envelope) throws InterruptedException {
+		if (!envelope.isResponse) {
+			final Dispatch dispatch = getDispatch(envelope.message);
+			if (dispatch != Dispatch.INLINE) {
+				final Runnable task = new Runnable() {
+					@Override
+					public void run() {
+						if (isShuttingDown) {
+							return;
+						}
+						try {
+							processAndRespond(envelope);
+						} catch (InterruptedException e) {
+							// executor threads are never interrupted by us,
+							// but user code might have done so - do not let
+							// it leak into the pool
+							Thread.interrupted();
+						}
+					}
+				};
+				try {
+					(dispatch == Dispatch.ORDERED ? orderedDispatch[envelope.getLane()] : dispatchExecutor).execute(task);
+					return;
+				} catch (RejectedExecutionException e) {
+					outStream.println("(FullDuplexMPI) Dispatch executor rejected message, handling it inline");
+				}
+			}
+			processAndRespond(envelope);
+			return;
+		}
+
+		// the other party is done with the message, even if it was too late
+		credits.release();
+
+		// must remove the entry first
+		final OutgoingMessage message = pendingSentMessages.remove(envelope.uid);
+		if (message == null || !message.complete()) {
+			// the message timed out, drop the late response
+			return;
+		}
+
+		assert message.expectResponse;
+		if (message.handler != null && !isShuttingDown) {
+			message.handler.onResponseReceived(envelope.message);
+			if (Thread.currentThread().isInterrupted()) {
+				// see note in sendMessageAsync()
+				throw new InterruptedException();
+			}
+		}
+	}
+
+	/**
+	 * Process an incoming message, queueing the response once the
+	 * implementation passes it to the Responder.
+	 * 
+	 * @throws InterruptedException
+	 *             if user code was interrupted (see note in sendMessageAsync())
+	 */
+	private void processAndRespond(MessageEnvelope envelope) throws InterruptedException {
+		final int lane = envelope.getLane();
+		receiveQueueCounts.incrementAndGet(lane);
+		receiveQueueNanos.addAndGet(lane, System.nanoTime() - envelope.receivedAt);
+
+		processIncomingMessage(envelope.message, new Responder(envelope));
+		if (Thread.currentThread().isInterrupted()) {
+			// see note in sendMessageAsync()
+			throw new InterruptedException();
+		}
+	}
+
+	/**
+	 * Decode a received frame, without its length. The codec must consume
+	 * the frame exactly, otherwise the parties do not agree on the format of
+	 * the message and the connection is not usable any further.
+	 */
+	private MessageEnvelope decodeFrame(byte[] buf, int offset, int length) throws IOException {
+		final ByteArrayInputStream bytes = new ByteArrayInputStream(buf, offset, length);
+		final DataInputStream in = new DataInputStream(bytes);
+		final int uid = in.readInt();
+		final IMessage message = codec.decode(in);
+		if (bytes.available() != 0) {
+			throw new IOException("(FullDuplexMPI) Protocol: codec left " + bytes.available() + " of " + length + " bytes of a frame");
+		}
+		return receive(message, uid);
+	}
+
+	/**
+	 * Wrap a message just received, deciding on its lane.
+	 */
+	private MessageEnvelope receive(IMessage message, int frameUid) {
+		final boolean isResponse = (frameUid & RESPONSE_FLAG) != 0;
+		return new MessageEnvelope(message, frameUid, isResponse ? Lane.HIGH : getLane(message));
+	}
+
+	private static Executor[] newOrderedDispatch(Executor executor) {
+		final Executor[] executors = new Executor[LANE_COUNT];
+		for (int i = 0; i < executors.length; ++i) {
+			executors[i] = new SerialExecutor(executor);
+		}
+		return executors;
+	}
+
+	/**
+	 * Pass the current lane scheduling on to all queues of the connection.
+	 */
+	private void applyLaneScheduling() {
+		final int[] weights = laneScheduling == LaneScheduling.WEIGHTED ? laneWeights : null;
+		writeQueue.setWeights(weights);
+
+		final InboundQueue inbound = loopback != null ? loopback.getInbound() : nio != null ? nio.inbound : null;
+		if (inbound != null) {
+			inbound.setWeights(weights);
+		}
+	}
+
+	private static double averageMillis(AtomicLongArray counts, AtomicLongArray nanos, Lane lane) {
+		final long count = counts.get(lane.ordinal());
+		return count == 0 ? 0.0 : nanos.get(lane.ordinal()) / (count * 1e6);
+	}
+
+	/**
+	 * Notify the handlers of all messages still waiting for a response that
+	 * none is to be expected.
+	 */
+	private void abortPendingMessages() {
+		final ArrayList<OutgoingMessage> pending = new ArrayList<>();
+		pendingSentMessages.drainTo(pending);
+		for (OutgoingMessage entry : pending) {
+			abortMessage(entry);
+		}
+	}
+
+	/**
+	 * Notify the handlers of all messages not yet sent that they never will.
+	 */
+	private void abortUnsentMessages() {
+		OutgoingMessage entry;
+		while ((entry = writeQueue.poll()) != null) {
+			abortMessage(entry);
+		}
+	}
+
 	private class ReaderThread implements Runnable {
 
-		private final ObjectInputStream in;
+		private final DataInputStream in;
+
+		/** Scratch buffer to read a frame into, grown as needed */
+		private byte[] frame = new byte[8192];
 
 		public ReaderThread() throws IOException {
-			in = new ObjectInputStream(clientSocket.getInputStream());
+			in = new DataInputStream(new BufferedInputStream(clientSocket.getInputStream()));
 		}
 
 		@Override
 		public void run() {
 			assert in != null;
+			receivingThread = Thread.currentThread();
 
 			while (!isShuttingDown) {
 				try {
@@ -414,33 +1660,7 @@ public abstract class FullDuplexMPI /* implements AutoCloseable */{
 						break;
 					}
 
-					final OutgoingMessage message = pendingSentMessages.get((Integer) envelope.uid);
-					if (message == null) {
-						// there is no entry for this message, so it is not a
-						// response to a previous message
-						final IMessage response = processIncomingMessage(envelope.message);
-						if (Thread.currentThread().isInterrupted()) {
-							// see note in sendMessageAsync()
-							throw new InterruptedException();
-						}
-						assert response != null;
-
-						writeResponseAsync(response, envelope.uid);
-						continue;
-					}
-
-					// must remove the entry first
-					pendingSentMessages.remove((Integer) envelope.uid);
-
-					// there exists an entry
-					assert message.expectResponse;
-					if (message.handler != null && !isShuttingDown) {
-						message.handler.onResponseReceived(envelope.message);
-						if (Thread.currentThread().isInterrupted()) {
-							// see note in sendMessageAsync()
-							throw new InterruptedException();
-						}
-					}
+					handleEnvelope(envelope);
 
 				} catch (InterruptedException e) {
 					// interrupt() should only happen during shutdown
@@ -449,23 +1669,20 @@ public abstract class FullDuplexMPI /* implements AutoCloseable */{
 			}
 
 			// abort all pending messages
-			for (Map.Entry<Integer, OutgoingMessage> entry : pendingSentMessages.entrySet()) {
-				if (entry.getValue().handler != null) {
-					entry.getValue().handler.onConnectionAborted();
-				}
-			}
-			pendingSentMessages.clear();
-		}
-
-		private void writeResponseAsync(IMessage response, int uid) throws InterruptedException {
-			assert response != null;
-			writeQueue.put(new OutgoingMessage(response, null, uid, false));
+			abortPendingMessages();
 		}
 
 		private MessageEnvelope readMessageEnvelope() throws InterruptedException, IOException {
-			try { // message, i.e. object, passed over connection, wrapped in
-					// our envelope
-				return (MessageEnvelope) in.readObject(); //
+			try { // frame: length of the remainder, uid, encoded message
+				final int length = in.readInt();
+				if (length < 4 || length > MAX_FRAME_LENGTH) {
+					throw new IOException("(FullDuplexMPI) Protocol: invalid frame length " + length);
+				}
+				if (frame.length < length) {
+					frame = new byte[Math.min(Math.max(length, frame.length * 2), MAX_FRAME_LENGTH)];
+				}
+				in.readFully(frame, 0, length);
+				return decodeFrame(frame, 0, length);
 			}
 
 			catch (InterruptedIOException e) {
@@ -474,19 +1691,6 @@ public abstract class FullDuplexMPI /* implements AutoCloseable */{
 				assert isShuttingDown;
 				throw new InterruptedException();
 
-				// these two happen if the other party is not a FullDuplexMPI
-				// instance of the same version. This is a case that we do not
-				// expect to happen in normal use.
-			} catch (ClassNotFoundException e) {
-				outStream.println("(FullDuplexMPI) Protocol: class not known to VM, expected MessageEnvelope");
-				outStream.println(e.getMessage());
-				e.printStackTrace(outStream);
-
-			} catch (ClassCastException e) {
-				outStream.println("(FullDuplexMPI) Protocol: wrong class type, expected MessageEnvelope");
-				outStream.println(e.getMessage());
-				e.printStackTrace(outStream);
-
 			} catch (IOException e) {
 				// connection loss or otherwise fatal failure. This happens
 				// whenever either party aborts the connection.
@@ -495,17 +1699,25 @@ public abstract class FullDuplexMPI /* implements AutoCloseable */{
 				e.printStackTrace(outStream);
 				throw e;
 			}
-			assert false;
-			return null;
 		}
 	}
 
 	private class WriterThread implements Runnable {
 
-		private final ObjectOutputStream out;
+		private final OutputStream out;
+
+		/**
+		 * Scratch buffer to encode messages into, needed to determine the
+		 * frame length before writing the frame. All messages of a batch are
+		 * encoded into it so that they can be written at once.
+		 */
+		private final FrameBuffer frames = new FrameBuffer();
+
+		/** Messages taken from the queue, but not yet written */
+		private final ArrayList<OutgoingMessage> batch = new ArrayList<>();
 
 		public WriterThread() throws IOException {
-			out = new ObjectOutputStream(clientSocket.getOutputStream());
+			out = clientSocket.getOutputStream();
 		}
 
 		@Override
@@ -517,16 +1729,14 @@ public abstract class FullDuplexMPI /* implements AutoCloseable */{
 					final OutgoingMessage msg = writeQueue.take();
 					assert msg != null;
 
-					// for proper lockless operation, it is crucial that we
-					// first add the entry to the map, then send the message
-					// to the other party. otherwise we could receive the
-					// response before the entry is in the map, causing the
-					// response to be lost.
-					if (msg.expectResponse) {
-						pendingSentMessages.put(msg.uid, msg);
+					batch.add(msg);
+					final long linger = writeLingerMicros;
+					if (linger > 0) {
+						lingerForMessages(linger);
 					}
+					writeQueue.drainTo(batch, MAX_WRITE_BATCH_MESSAGES - batch.size());
 
-					writeMessageEnvelope(new MessageEnvelope(msg.message, msg.uid));
+					writeBatch();
 
 				} catch (InterruptedException e) {
 					// interrupt() should only happen during shutdown
@@ -535,19 +1745,50 @@ public abstract class FullDuplexMPI /* implements AutoCloseable */{
 			}
 
 			// abort all not yet sent messages
-			for (OutgoingMessage entry : writeQueue) {
-				if (entry.handler != null) {
-					entry.handler.onConnectionAborted();
+			for (OutgoingMessage entry : batch) {
+				abortMessage(entry);
+			}
+			batch.clear();
+			abortUnsentMessages();
+		}
+
+		/**
+		 * Collect further messages into the batch until either the linger
+		 * time is over or the batch is full.
+		 */
+		private void lingerForMessages(long micros) throws InterruptedException {
+			final long deadline = System.nanoTime() + micros * 1000;
+			while (batch.size() < MAX_WRITE_BATCH_MESSAGES) {
+				final long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					break;
 				}
+				final OutgoingMessage msg = writeQueue.poll(remaining, TimeUnit.NANOSECONDS);
+				if (msg == null) {
+					break;
+				}
+				batch.add(msg);
 			}
-			writeQueue.clear();
 		}
 
-		void writeMessageEnvelope(MessageEnvelope envelope) {
+		/**
+		 * Encode all messages in the batch and write them using a single
+		 * write.
+		 */
+		void writeBatch() {
 			assert out != null;
-			assert envelope != null;
+			assert !batch.isEmpty();
 			try {
-				out.writeObject(envelope);
+				frames.reset();
+				for (OutgoingMessage msg : batch) {
+					encodeOutgoing(msg, frames);
+				}
+				frames.writeTo(out);
+				out.flush();
+
+				writtenMessageCount += batch.size();
+				++writeBatchCount;
+				batch.clear();
 
 			} catch (IOException e) {
 				// connection loss or otherwise fatal failure, as per se we
@@ -561,4 +1802,408 @@ public abstract class FullDuplexMPI /* implements AutoCloseable */{
 			}
 		}
 	}
+
+	/**
+	 * Transport.NIO implementation. I/O happens on an NioEventLoop thread,
+	 * incoming messages are handled on NioEventLoop.workers(), one at a time
+	 * and in the order they were received.
+	 */
+	private class NioConnection implements NioEventLoop.ChannelHandler {
+
+		/** Initial size of the receive buffer, grows for larger frames */
+		private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+		private final SocketChannel channel;
+		private final NioEventLoop loop;
+		private SelectionKey key;
+
+		// only accessed from the event loop thread
+		private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		private final FrameBuffer frames = new FrameBuffer();
+		private ByteBuffer writeBuffer;
+
+		private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+		private final Runnable flushTask = new Runnable() {
+			@Override
+			public void run() {
+				flushScheduled.set(false);
+				try {
+					flush();
+				} catch (IOException e) {
+					onFailure(e);
+				}
+			}
+		};
+
+		private final InboundQueue inbound = new InboundQueue();
+
+		public NioConnection() {
+			channel = clientSocket.getChannel();
+			loop = NioEventLoop.next();
+		}
+
+		public void start() throws IOException {
+			channel.configureBlocking(false);
+			inbound.attach(FullDuplexMPI.this);
+			loop.register(channel, this);
+		}
+
+		/**
+		 * Make sure the event loop picks up newly queued messages.
+		 * 
+		 * @note The method is threadsafe.
+		 */
+		public void requestFlush() {
+			if (flushScheduled.compareAndSet(false, true)) {
+				loop.execute(flushTask);
+			}
+		}
+
+		public void close() {
+			loop.execute(new Runnable() {
+				@Override
+				public void run() {
+					if (key != null) {
+						key.cancel();
+					}
+				}
+			});
+
+			// handlers are user code, keep them off the event loop
+			NioEventLoop.workers().execute(new Runnable() {
+				@Override
+				public void run() {
+					inbound.clear();
+					abortUnsentMessages();
+					abortPendingMessages();
+				}
+			});
+		}
+
+		@Override
+		public void onRegistered(SelectionKey _key) {
+			key = _key;
+			if (isShuttingDown) {
+				key.cancel();
+				return;
+			}
+			requestFlush();
+		}
+
+		@Override
+		public void onReadable() throws IOException {
+			if (channel.read(readBuffer) < 0) {
+				throw new EOFException("connection closed by other party");
+			}
+			readBuffer.flip();
+
+			// frame: length of the remainder, uid, encoded message
+			int required = 0;
+			while (readBuffer.remaining() >= 4) {
+				final int position = readBuffer.position();
+				final int length = readBuffer.getInt(position);
+				if (length < 4 || length > MAX_FRAME_LENGTH) {
+					throw new IOException("(FullDuplexMPI) Protocol: invalid frame length " + length);
+				}
+				if (readBuffer.remaining() < 4 + length) {
+					required = 4 + length;
+					break;
+				}
+
+				inbound.add(decodeFrame(readBuffer.array(), readBuffer.arrayOffset() + position + 4, length));
+
+				readBuffer.position(position + 4 + length);
+			}
+			readBuffer.compact();
+
+			if (required > readBuffer.capacity()) {
+				final ByteBuffer larger = ByteBuffer.allocate(Math.max(required, readBuffer.capacity() * 2));
+				readBuffer.flip();
+				larger.put(readBuffer);
+				readBuffer = larger;
+			}
+
+			inbound.scheduleDispatch();
+		}
+
+		@Override
+		public void onWritable() throws IOException {
+			flush();
+		}
+
+		@Override
+		public void onFailure(IOException e) {
+			if (isShuttingDown) {
+				return;
+			}
+			// connection loss or otherwise fatal failure. This happens
+			// whenever either party aborts the connection.
+			outStream.println("(FullDuplexMPI) Failure during non-blocking I/O, connection lost or other network failure");
+			outStream.println(e.getMessage());
+			e.printStackTrace(outStream);
+
+			// shutdown with error flag set
+			enterErrorState();
+		}
+
+		/**
+		 * Write as much queued data as the channel accepts without blocking,
+		 * and register for OP_WRITE if anything remains.
+		 */
+		private void flush() throws IOException {
+			assert loop.inEventLoop();
+			if (key == null || !key.isValid()) {
+				// not yet registered (flush happens in onRegistered()) or
+				// already closed.
+				if (isShuttingDown) {
+					abortUnsentMessages();
+				}
+				return;
+			}
+
+			while (true) {
+				if (writeBuffer == null || !writeBuffer.hasRemaining()) {
+					frames.reset();
+					int count = 0;
+					OutgoingMessage msg;
+					while (count < MAX_WRITE_BATCH_MESSAGES && frames.size() < MAX_WRITE_BATCH_BYTES && (msg = writeQueue.poll()) != null) {
+						encodeOutgoing(msg, frames);
+						++count;
+					}
+					if (frames.size() == 0) {
+						writeBuffer = null;
+						key.interestOps(SelectionKey.OP_READ);
+						return;
+					}
+					writeBuffer = frames.asByteBuffer();
+
+					writtenMessageCount += count;
+					++writeBatchCount;
+				}
+
+				channel.write(writeBuffer);
+				if (writeBuffer.hasRemaining()) {
+					key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Received messages waiting to be handled on NioEventLoop.workers(), one
+	 * at a time and, within each lane, in the order they were received. Used
+	 * by the transports that have no reader thread of their own.
+	 * 
+	 * Messages may be added before the queue is attached to the connection
+	 * that handles them, they are dispatched once it is.
+	 */
+	private static final class InboundQueue {
+
+		private final MultiLaneQueue<MessageEnvelope> envelopes = new MultiLaneQueue<>(LANE_COUNT);
+		private final AtomicBoolean dispatchScheduled = new AtomicBoolean(false);
+		private final Runnable dispatchTask = new Runnable() {
+			@Override
+			public void run() {
+				dispatch();
+			}
+		};
+
+		private volatile FullDuplexMPI owner;
+
+		public void attach(FullDuplexMPI _owner) {
+			assert owner == null && _owner != null;
+			owner = _owner;
+			setWeights(_owner.laneScheduling == LaneScheduling.WEIGHTED ? _owner.laneWeights : null);
+			scheduleDispatch();
+		}
+
+		public void setWeights(int[] weights) {
+			envelopes.setWeights(weights);
+		}
+
+		/**
+		 * Add a message. Call scheduleDispatch() afterwards to have it
+		 * handled.
+		 * 
+		 * @note The method is threadsafe.
+		 */
+		public void add(MessageEnvelope envelope) {
+			envelopes.put(envelope);
+		}
+
+		/**
+		 * Make sure a worker handles the messages added so far.
+		 * 
+		 * @note The method is threadsafe.
+		 */
+		public void scheduleDispatch() {
+			if (owner != null && !envelopes.isEmpty() && dispatchScheduled.compareAndSet(false, true)) {
+				NioEventLoop.workers().execute(dispatchTask);
+			}
+		}
+
+		public void clear() {
+			envelopes.clear();
+		}
+
+		private void dispatch() {
+			final FullDuplexMPI connection = owner;
+			connection.receivingThread = Thread.currentThread();
+			while (true) {
+				MessageEnvelope envelope;
+				while ((envelope = envelopes.poll()) != null) {
+					if (connection.isShuttingDown) {
+						envelopes.clear();
+						break;
+					}
+					try {
+						connection.handleEnvelope(envelope);
+					} catch (InterruptedException e) {
+						// workers are never interrupted by us, but user code
+						// might have done so - do not let it leak into the pool
+						Thread.interrupted();
+					}
+				}
+
+				// must be cleared before another worker may take over
+				connection.receivingThread = null;
+				dispatchScheduled.set(false);
+				if (envelopes.isEmpty() || !dispatchScheduled.compareAndSet(false, true)) {
+					return;
+				}
+				connection.receivingThread = Thread.currentThread();
+			}
+		}
+	}
+
+	/**
+	 * The two directions of a LOOPBACK connection, shared by both parties.
+	 * Side 0 belongs to the party with the lower connection id.
+	 */
+	private static final class LoopbackPipe {
+		private final InboundQueue[] inbound = { new InboundQueue(), new InboundQueue() };
+		private final AtomicReferenceArray<FullDuplexMPI> parties = new AtomicReferenceArray<>(2);
+		private volatile boolean closed = false;
+	}
+
+	/**
+	 * Transport.LOOPBACK implementation. Messages are copied into the other
+	 * party's InboundQueue on the sending thread, so there is no writer.
+	 */
+	private class LoopbackConnection {
+
+		private final LoopbackPipe pipe;
+		private final int side;
+
+		public LoopbackConnection(long peerConnectionId) {
+			side = connectionId < peerConnectionId ? 0 : 1;
+
+			// whoever comes first creates the pipe, the other party picks it
+			// up.
+			final String key = Math.min(connectionId, peerConnectionId) + ":" + Math.max(connectionId, peerConnectionId);
+			final LoopbackPipe created = new LoopbackPipe();
+			final LoopbackPipe existing = unpairedPipes.putIfAbsent(key, created);
+			if (existing != null) {
+				unpairedPipes.remove(key);
+				pipe = existing;
+			} else {
+				pipe = created;
+			}
+		}
+
+		public void start() {
+			pipe.parties.set(side, FullDuplexMPI.this);
+			pipe.inbound[side].attach(FullDuplexMPI.this);
+
+			// the other party may have closed before we got here
+			if (pipe.closed) {
+				onPeerClosed();
+			}
+
+			// the socket has served its purpose, do not tie up the descriptor
+			try {
+				clientSocket.close();
+			} catch (IOException e) {
+				// ignore, nothing is sent through it anymore
+			}
+		}
+
+		/**
+		 * Get the queue of messages sent to us.
+		 */
+		public InboundQueue getInbound() {
+			return pipe.inbound[side];
+		}
+
+		/**
+		 * Hand a message to the other party.
+		 * 
+		 * @note The method is threadsafe.
+		 */
+		public void send(OutgoingMessage msg) {
+			if (!registerOutgoing(msg)) {
+				return;
+			}
+
+			final IMessage copy;
+			try {
+				copy = copy(msg.message);
+			} catch (IOException e) {
+				outStream.println("(FullDuplexMPI) Failure copying object for loopback transport");
+				outStream.println(e.getMessage());
+				e.printStackTrace(outStream);
+
+				// shutdown with error flag set, like a failed write would
+				enterErrorState();
+				return;
+			}
+
+			final InboundQueue target = pipe.inbound[1 - side];
+			target.add(new MessageEnvelope(copy, frameUid(msg), msg.lane));
+			target.scheduleDispatch();
+
+			// close() may have drained the pending messages already
+			if (isShuttingDown) {
+				abortPendingMessages();
+			}
+		}
+
+		public void close() {
+			pipe.closed = true;
+			pipe.inbound[side].clear();
+
+			final FullDuplexMPI peer = pipe.parties.get(1 - side);
+			// handlers are user code, run them off the calling thread like
+			// the other transports do
+			NioEventLoop.workers().execute(new Runnable() {
+				@Override
+				public void run() {
+					abortPendingMessages();
+					if (peer != null) {
+						peer.loopback.onPeerClosed();
+					}
+				}
+			});
+		}
+
+		/**
+		 * Same as losing the connection on the other transports.
+		 */
+		private void onPeerClosed() {
+			if (!isShuttingDown) {
+				enterErrorState();
+			}
+		}
+
+		/**
+		 * Copy a message by running it through the codec, so that it looks
+		 * to the other party as if it had come over the network.
+		 */
+		private IMessage copy(IMessage message) throws IOException {
+			final FrameBuffer buffer = new FrameBuffer();
+			codec.encode(message, new DataOutputStream(buffer));
+			return codec.decode(new DataInputStream(new ByteArrayInputStream(buffer.toByteArray())));
+		}
+	}
 }
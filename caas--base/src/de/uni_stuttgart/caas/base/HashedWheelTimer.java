@@ -0,0 +1,235 @@
+package de.uni_stuttgart.caas.base;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Timer optimized for large numbers of timeouts that are usually cancelled
+ * before they expire, such as response timeouts of FullDuplexMPI.
+ *
+ * Timeouts are kept in a ring of buckets (the "wheel"), each covering one tick.
+ * Scheduling and cancelling are O(1) and lock-free, expiry is checked once per
+ * tick by a single thread for the bucket under the wheel's hand only. The price
+ * is precision: timeouts expire up to one tick late.
+ *
+ * One timer (see shared()) serves all connections of the JVM. Expiry tasks run
+ * on the timer thread and therefore must be short and must not block.
+ */
+final class HashedWheelTimer implements Runnable {
+
+	/** Resolution of the shared timer */
+	public static final long TICK_MILLIS = 10;
+
+	/** Number of buckets of the shared timer */
+	public static final int WHEEL_SIZE = 512;
+
+	/**
+	 * Handle for a scheduled task.
+	 */
+	public final class Timeout {
+
+		private static final int STATE_PENDING = 0;
+		private static final int STATE_CANCELLED = 1;
+		private static final int STATE_EXPIRED = 2;
+
+		private final Runnable task;
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger(STATE_PENDING);
+
+		// only accessed by the timer thread
+		private long remainingRounds;
+		private Timeout prev, next;
+		private Bucket bucket;
+
+		private Timeout(Runnable _task, long _deadline) {
+			task = _task;
+			deadline = _deadline;
+		}
+
+		/**
+		 * Cancel the timeout, i.e. make sure the task is not run.
+		 *
+		 * @note The method is threadsafe.
+		 *
+		 * @return true iff the task had not yet been run or cancelled
+		 */
+		public boolean cancel() {
+			if (!state.compareAndSet(STATE_PENDING, STATE_CANCELLED)) {
+				return false;
+			}
+			// let the timer thread unlink it so it does not hold on to the task
+			// until the bucket is visited next time.
+			cancelledTimeouts.add(this);
+			return true;
+		}
+
+		public boolean isExpired() {
+			return state.get() == STATE_EXPIRED;
+		}
+
+		private void expire() {
+			if (!state.compareAndSet(STATE_PENDING, STATE_EXPIRED)) {
+				return;
+			}
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				// never let a single task take the timer down
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Get the timer shared by all users within the JVM.
+	 */
+	public static HashedWheelTimer shared() {
+		return Shared.INSTANCE;
+	}
+
+	/**
+	 * Schedule a task to be run once after the given delay.
+	 *
+	 * @note The method is threadsafe.
+	 *
+	 * @return Handle to cancel the task
+	 */
+	public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+		assert task != null;
+		assert delay >= 0;
+
+		final Timeout timeout = new Timeout(task, System.nanoTime() + unit.toNanos(delay));
+		newTimeouts.add(timeout);
+		return timeout;
+	}
+
+	// ---------------------------------
+	// Implementation
+	// ---------------------------------
+
+	/** Lazy holder for the shared timer, only started if timeouts are used */
+	private static class Shared {
+		private static final HashedWheelTimer INSTANCE = new HashedWheelTimer("caas-timeout-wheel", TICK_MILLIS, WHEEL_SIZE);
+	}
+
+	/** Doubly linked list of the timeouts falling into one tick */
+	private static final class Bucket {
+		private Timeout head, tail;
+
+		void add(Timeout timeout) {
+			assert timeout.bucket == null;
+			timeout.bucket = this;
+			if (head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		void remove(Timeout timeout) {
+			assert timeout.bucket == this;
+			if (timeout.prev != null) {
+				timeout.prev.next = timeout.next;
+			} else {
+				head = timeout.next;
+			}
+			if (timeout.next != null) {
+				timeout.next.prev = timeout.prev;
+			} else {
+				tail = timeout.prev;
+			}
+			timeout.prev = timeout.next = null;
+			timeout.bucket = null;
+		}
+	}
+
+	private final long tickNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+	private final long startTime;
+	private long tick = 0;
+
+	private final ConcurrentLinkedQueue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+	private final ConcurrentLinkedQueue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+
+	private HashedWheelTimer(String name, long tickMillis, int wheelSize) {
+		assert tickMillis > 0;
+		assert wheelSize > 0 && (wheelSize & (wheelSize - 1)) == 0 : "wheel size must be a power of two";
+
+		tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		wheel = new Bucket[wheelSize];
+		for (int i = 0; i < wheel.length; ++i) {
+			wheel[i] = new Bucket();
+		}
+		mask = wheelSize - 1;
+		startTime = System.nanoTime();
+
+		// a platform thread keeps ticks punctual even if all carriers of
+		// virtual threads are busy
+		ExecutionPolicy.platform().startDaemon(name, this);
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			waitForNextTick();
+
+			removeCancelledTimeouts();
+			transferNewTimeouts();
+			expireTimeouts(wheel[(int) (tick & mask)]);
+			++tick;
+		}
+	}
+
+	private void waitForNextTick() {
+		final long deadline = startTime + (tick + 1) * tickNanos;
+		long remaining;
+		while ((remaining = deadline - System.nanoTime()) > 0) {
+			LockSupport.parkNanos(this, remaining);
+		}
+	}
+
+	private void removeCancelledTimeouts() {
+		Timeout timeout;
+		while ((timeout = cancelledTimeouts.poll()) != null) {
+			// may not have been transferred into a bucket yet
+			if (timeout.bucket != null) {
+				timeout.bucket.remove(timeout);
+			}
+		}
+	}
+
+	private void transferNewTimeouts() {
+		Timeout timeout;
+		while ((timeout = newTimeouts.poll()) != null) {
+			if (timeout.state.get() != Timeout.STATE_PENDING) {
+				continue;
+			}
+
+			// round up so timeouts never expire early
+			final long expiryTick = (timeout.deadline - startTime + tickNanos - 1) / tickNanos;
+			timeout.remainingRounds = (expiryTick - tick) / wheel.length;
+
+			// deadlines in the past expire with the current tick
+			wheel[(int) (Math.max(expiryTick, tick) & mask)].add(timeout);
+		}
+	}
+
+	private void expireTimeouts(Bucket bucket) {
+		Timeout timeout = bucket.head;
+		while (timeout != null) {
+			final Timeout next = timeout.next;
+			if (timeout.remainingRounds <= 0) {
+				bucket.remove(timeout);
+				timeout.expire();
+			} else {
+				--timeout.remainingRounds;
+			}
+			timeout = next;
+		}
+	}
+}
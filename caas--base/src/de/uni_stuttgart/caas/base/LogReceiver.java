@@ -47,7 +47,7 @@ public class LogReceiver implements Runnable {
 
 	@Override
 	public void run() {
-		(new Thread(logProcessor)).start();
+		ExecutionPolicy.get().start("caas-log-processor", logProcessor);
 		t = Thread.currentThread();
 		while (!t.isInterrupted()) {
 			DatagramPacket p;
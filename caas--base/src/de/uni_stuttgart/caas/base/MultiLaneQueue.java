@@ -0,0 +1,197 @@
+package de.uni_stuttgart.caas.base;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue made up of several FIFO lanes, each element going to the lane it
+ * names. Lanes are numbered by priority, 0 being the highest. Elements leave
+ * the queue either by strict priority (a lane is only served if all lanes
+ * above are empty) or weighted round robin (each lane in turn gives up to
+ * its weight in elements), see setWeights().
+ *
+ * Adding elements is lock-free. Removal is threadsafe, but meant for a
+ * single consumer at a time: weighted scheduling takes a lock to keep its
+ * state consistent.
+ */
+final class MultiLaneQueue<E extends MultiLaneQueue.Element> {
+
+	/**
+	 * Implemented by the objects kept in the queue.
+	 */
+	public interface Element {
+
+		/**
+		 * @return Lane of the element, must not change while the element is
+		 *         queued.
+		 */
+		int getLane();
+	}
+
+	public MultiLaneQueue(int laneCount) {
+		assert laneCount > 0;
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		final ConcurrentLinkedQueue<E>[] l = new ConcurrentLinkedQueue[laneCount];
+		for (int i = 0; i < l.length; ++i) {
+			l[i] = new ConcurrentLinkedQueue<>();
+		}
+		lanes = l;
+	}
+
+	/**
+	 * Select the scheduling between lanes.
+	 *
+	 * @note The method is threadsafe.
+	 *
+	 * @param _weights
+	 *            null for strict priority, otherwise the positive weight of
+	 *            each lane for weighted round robin.
+	 */
+	public void setWeights(int[] _weights) {
+		assert _weights == null || _weights.length == lanes.length;
+		if (_weights != null) {
+			for (int w : _weights) {
+				assert w > 0 : "lane weights must be positive";
+			}
+		}
+		synchronized (this) {
+			weights = _weights == null ? null : _weights.clone();
+			currentLane = 0;
+			budget = weights == null ? 0 : weights[0];
+		}
+	}
+
+	/**
+	 * Add an element to its lane.
+	 *
+	 * @note The method is threadsafe.
+	 */
+	public void put(E element) {
+		assert element != null;
+		lanes[element.getLane()].add(element);
+		available.release();
+	}
+
+	/**
+	 * Remove the next element, if any.
+	 */
+	public E poll() {
+		return available.tryAcquire() ? next() : null;
+	}
+
+	/**
+	 * Remove the next element, waiting up to the given time for one.
+	 */
+	public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+		return available.tryAcquire(timeout, unit) ? next() : null;
+	}
+
+	/**
+	 * Remove the next element, waiting for one if necessary.
+	 */
+	public E take() throws InterruptedException {
+		available.acquire();
+		return next();
+	}
+
+	/**
+	 * Remove up to max elements (as far as available without waiting) and
+	 * add them to the given collection in the order they leave the queue.
+	 *
+	 * @return Number of elements removed
+	 */
+	public int drainTo(Collection<? super E> target, int max) {
+		int count = 0;
+		while (count < max && available.tryAcquire()) {
+			target.add(next());
+			++count;
+		}
+		return count;
+	}
+
+	/**
+	 * Get the number of queued elements.
+	 */
+	public int size() {
+		return Math.max(0, available.availablePermits());
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Remove all elements.
+	 */
+	public void clear() {
+		while (poll() != null) {
+			// discard
+		}
+	}
+
+	// ---------------------------------
+	// Implementation
+	// ---------------------------------
+
+	private final ConcurrentLinkedQueue<E>[] lanes;
+
+	/**
+	 * One permit per queued element. Elements are added before their permit
+	 * is released, so whoever acquires a permit is guaranteed to find an
+	 * element.
+	 */
+	private final Semaphore available = new Semaphore(0);
+
+	// weighted round robin state, guarded by this
+	private volatile int[] weights = null;
+	private int currentLane = 0;
+	private int budget = 0;
+
+	/**
+	 * Remove the next element. The caller must hold a permit.
+	 */
+	private E next() {
+		if (weights != null) {
+			synchronized (this) {
+				if (weights != null) {
+					final E element = nextWeighted();
+					if (element != null) {
+						return element;
+					}
+				}
+			}
+		}
+
+		while (true) {
+			for (ConcurrentLinkedQueue<E> lane : lanes) {
+				final E element = lane.poll();
+				if (element != null) {
+					return element;
+				}
+			}
+			// a scan only comes up empty if concurrent consumers took the
+			// elements passed over. Each of them holds a permit of its own,
+			// so another scan finds the element left for us.
+		}
+	}
+
+	private E nextWeighted() {
+		// visit every lane once, plus the current one again with a fresh
+		// budget
+		for (int i = 0; i <= lanes.length; ++i) {
+			if (budget > 0) {
+				final E element = lanes[currentLane].poll();
+				if (element != null) {
+					--budget;
+					return element;
+				}
+			}
+			currentLane = (currentLane + 1) % lanes.length;
+			budget = weights[currentLane];
+		}
+		return null;
+	}
+}
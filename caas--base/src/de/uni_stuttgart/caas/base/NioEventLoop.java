@@ -0,0 +1,192 @@
+package de.uni_stuttgart.caas.base;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selector thread serving the non-blocking I/O of many FullDuplexMPI
+ * connections at once (see FullDuplexMPI.Transport.NIO).
+ *
+ * A small, fixed group of event loops is shared by all connections within the
+ * JVM. Connections are assigned to loops round-robin upon registration and stay
+ * on their loop for their entire lifetime, so all I/O callbacks for one
+ * connection happen on the same thread.
+ *
+ * Event loop threads must never block. Everything that may block, which in
+ * particular includes calling user code such as processIncomingMessage(), is
+ * to be handed to workers().
+ */
+final class NioEventLoop implements Runnable {
+
+	/**
+	 * Receives the I/O events of one channel. All methods are called on the
+	 * event loop thread the channel is registered with.
+	 */
+	interface ChannelHandler {
+
+		/** Called once after the channel has been registered */
+		void onRegistered(SelectionKey key);
+
+		/** Called whenever the channel has data available */
+		void onReadable() throws IOException;
+
+		/** Called whenever the channel can accept more data */
+		void onWritable() throws IOException;
+
+		/**
+		 * Called if any of the other methods threw. The key is already
+		 * cancelled at this point.
+		 */
+		void onFailure(IOException e);
+	}
+
+	/** Number of selector threads serving all connections of the JVM */
+	public static final int SELECTOR_COUNT = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+	/**
+	 * Get the next event loop to register a channel with.
+	 */
+	public static NioEventLoop next() {
+		return Group.LOOPS[(Group.roundRobin.getAndIncrement() & Integer.MAX_VALUE) % Group.LOOPS.length];
+	}
+
+	/**
+	 * Get the shared pool that runs potentially blocking work on behalf of
+	 * event loops. Its threads are those of the ExecutionPolicy in effect.
+	 */
+	public static ExecutorService workers() {
+		return Group.WORKERS;
+	}
+
+	/**
+	 * Register a non-blocking channel with the event loop. The handler
+	 * receives onRegistered() once this has happened.
+	 */
+	public void register(final SocketChannel channel, final ChannelHandler handler) {
+		assert channel != null;
+		assert handler != null;
+		assert !channel.isBlocking();
+
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				final SelectionKey key;
+				try {
+					key = channel.register(selector, SelectionKey.OP_READ, handler);
+				} catch (ClosedChannelException e) {
+					handler.onFailure(e);
+					return;
+				}
+				handler.onRegistered(key);
+			}
+		});
+	}
+
+	/**
+	 * Run a task on the event loop thread. The task may not block.
+	 *
+	 * @note The method is threadsafe.
+	 */
+	public void execute(Runnable task) {
+		tasks.add(task);
+		if (Thread.currentThread() != thread) {
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Check whether the caller is running on the event loop thread.
+	 */
+	public boolean inEventLoop() {
+		return Thread.currentThread() == thread;
+	}
+
+	// ---------------------------------
+	// Implementation
+	// ---------------------------------
+
+	/** Lazy holder for the shared loops, only created if NIO is used at all */
+	private static class Group {
+		private static final AtomicInteger roundRobin = new AtomicInteger();
+		private static final NioEventLoop[] LOOPS = new NioEventLoop[SELECTOR_COUNT];
+
+		private static final ExecutorService WORKERS = ExecutionPolicy.get().newExecutor("caas-nio-worker");
+
+		static {
+			for (int i = 0; i < LOOPS.length; ++i) {
+				try {
+					LOOPS[i] = new NioEventLoop(i);
+				} catch (IOException e) {
+					throw new IllegalStateException("(NioEventLoop) failed to open selector", e);
+				}
+			}
+		}
+	}
+
+	private final Selector selector;
+	private final Thread thread;
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+	private NioEventLoop(int index) throws IOException {
+		selector = Selector.open();
+		// selectors block in native code, which would pin a virtual thread
+		thread = ExecutionPolicy.platform().startDaemon("caas-nio-selector-" + index, this);
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				e.printStackTrace();
+				continue;
+			}
+
+			final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+			while (it.hasNext()) {
+				final SelectionKey key = it.next();
+				it.remove();
+
+				final ChannelHandler handler = (ChannelHandler) key.attachment();
+				try {
+					if (key.isReadable()) {
+						handler.onReadable();
+					}
+					if (key.isValid() && key.isWritable()) {
+						handler.onWritable();
+					}
+				} catch (CancelledKeyException e) {
+					// the connection was closed concurrently, nothing to do
+				} catch (IOException e) {
+					key.cancel();
+					handler.onFailure(e);
+				}
+			}
+
+			// tasks submitted from this thread do not wake up the selector, so
+			// they must be picked up before select() is called again.
+			runTasks();
+		}
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				// never let a single task take the event loop down
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -36,9 +36,15 @@ public class NodeInfo implements Serializable {
 	public final InetSocketAddress ADDRESS_FOR_CACHENODE_QUERYLISTENER;
 	
 	/**
-	 * Last known value for the load of the node
+	 * Last known value for the load of the node, as reported by the node
+	 * itself
 	 */
-	private double load = 0;
+	private volatile double load = 0;
+
+	/**
+	 * Last known weight of the node, see getWeight()
+	 */
+	private volatile double weight = 0;
 	
 	/**
 	 * Construct a new NodeInfo given the address of the node
@@ -94,6 +100,22 @@ public class NodeInfo implements Serializable {
 		return load;
 	}
 
+	/**
+	 * Set the weight of the node in the power diagram, see getWeight()
+	 */
+	public void setWeight(double weight) {
+		this.weight = weight;
+	}
+
+	/**
+	 * Get the weight of the node in the power diagram of the grid: a location
+	 * belongs to the node minimizing the squared distance to the location
+	 * minus the weight. With all weights 0, this is the Voronoi diagram.
+	 */
+	public double getWeight() {
+		return weight;
+	}
+
 	@Override
 	public int hashCode() {
 		assert ADDRESS_FOR_CACHENODE_NODECONNECTOR != null;
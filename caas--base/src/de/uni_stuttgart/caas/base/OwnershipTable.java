@@ -0,0 +1,235 @@
+package de.uni_stuttgart.caas.base;
+
+import java.io.Serializable;
+import java.util.Collection;
+
+/**
+ * Point location structure for the partition of the grid: which node owns a
+ * location, i.e. minimizes the squared distance to it minus the node's weight
+ * (see NodeInfo.getWeight()). This is the power diagram of the nodes, their
+ * Voronoi diagram if all weights are 0. The admin compiles it from all nodes
+ * and hands it to the cache nodes, so that they can send a query to its
+ * owner directly instead of routing it greedily hop by hop.
+ *
+ * The square [0, extent)^2 is divided into buckets of equal size. Each bucket
+ * lists the nodes whose cells may intersect it, usually only a few,
+ * so looking up an owner takes a bucket index and a handful of distance
+ * comparisons. Ties are broken as VoronoiRegion does, the lexicographically
+ * smaller site owns points on a bisector.
+ *
+ * Tables are versioned, a table with a higher version replaces one with a
+ * lower version. Instances are immutable and threadsafe.
+ */
+public final class OwnershipTable implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Upper limit for the number of buckets along each side of the table
+	 */
+	public static final int MAX_COLUMNS = 1024;
+
+	/**
+	 * Compile the table of a set of nodes, all of which must have a
+	 * location. Their current weights are taken. There are about two buckets
+	 * per node.
+	 *
+	 * @param version
+	 *            Version of the table, higher than that of any table compiled
+	 *            before for the same grid
+	 * @param extent
+	 *            Size of the square covered by the table, locations outside
+	 *            have no owner
+	 */
+	public static OwnershipTable compile(long version, Collection<NodeInfo> nodes, int extent) {
+		assert extent > 0;
+
+		final NodeInfo[] owners = nodes.toArray(new NodeInfo[nodes.size()]);
+		int columns = 1;
+		while (columns < MAX_COLUMNS && (long) columns * columns < 2L * owners.length) {
+			columns <<= 1;
+		}
+		int shift = 0;
+		while (((long) columns << shift) < extent) {
+			++shift;
+		}
+
+		final int[] x = new int[owners.length], y = new int[owners.length];
+		final double[] w = new double[owners.length];
+		for (int i = 0; i < owners.length; ++i) {
+			final LocationOfNode l = owners[i].getLocationOfNode();
+			assert l != null;
+			x[i] = l.x;
+			y[i] = l.y;
+			w[i] = owners[i].getWeight();
+		}
+
+		// a node can own a point of a bucket only if the bucket's nearest
+		// point to it is no farther than the farthest point of the bucket is
+		// from some other node, both in power distance
+		final int[] bucketStart = new int[columns * columns + 1];
+		int[] candidates = new int[owners.length];
+		int count = 0;
+		final long side = 1L << shift;
+		for (int row = 0; row < columns; ++row) {
+			for (int column = 0; column < columns; ++column) {
+				final long x0 = (long) column << shift, y0 = (long) row << shift;
+
+				double bound = Double.POSITIVE_INFINITY;
+				for (int i = 0; i < owners.length; ++i) {
+					bound = Math.min(bound, maxDistanceSquared(x0, y0, side, x[i], y[i]) - w[i]);
+				}
+				for (int i = 0; i < owners.length; ++i) {
+					if (minDistanceSquared(x0, y0, side, x[i], y[i]) - w[i] <= bound) {
+						if (count == candidates.length) {
+							final int[] grown = new int[candidates.length * 2];
+							System.arraycopy(candidates, 0, grown, 0, count);
+							candidates = grown;
+						}
+						candidates[count++] = i;
+					}
+				}
+				bucketStart[row * columns + column + 1] = count;
+			}
+		}
+
+		final int[] trimmed = new int[count];
+		System.arraycopy(candidates, 0, trimmed, 0, count);
+		return new OwnershipTable(version, extent, shift, columns, owners, bucketStart, trimmed);
+	}
+
+	/**
+	 * Restores a table, used by codecs. The weights are taken from the owners.
+	 */
+	public OwnershipTable(long version, int extent, int shift, int columns, NodeInfo[] owners, int[] bucketStart, int[] candidates) {
+		if (bucketStart.length != columns * columns + 1) {
+			throw new IllegalArgumentException("(OwnershipTable) expected " + (columns * columns + 1) + " bucket offsets, got " + bucketStart.length);
+		}
+
+		this.version = version;
+		this.extent = extent;
+		this.shift = shift;
+		this.columns = columns;
+		this.owners = owners.clone();
+		this.bucketStart = bucketStart.clone();
+		this.candidates = candidates.clone();
+
+		x = new int[owners.length];
+		y = new int[owners.length];
+		w = new double[owners.length];
+		for (int i = 0; i < owners.length; ++i) {
+			final LocationOfNode l = owners[i].getLocationOfNode();
+			x[i] = l.x;
+			y[i] = l.y;
+			w[i] = owners[i].getWeight();
+		}
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Get the node owning a location.
+	 *
+	 * @return Index of the node, see getOwner(), -1 if the location lies
+	 *         outside the table
+	 */
+	public int ownerOf(LocationOfNode location) {
+		if (location.x < 0 || location.y < 0 || location.x >= extent || location.y >= extent) {
+			return -1;
+		}
+
+		final int bucket = (location.y >> shift) * columns + (location.x >> shift);
+		int best = -1;
+		double min = Double.POSITIVE_INFINITY;
+		for (int c = bucketStart[bucket]; c < bucketStart[bucket + 1]; ++c) {
+			final int i = candidates[c];
+			final double dx = (double) x[i] - location.x, dy = (double) y[i] - location.y;
+			final double d = dx * dx + dy * dy - w[i];
+			if (d < min || (d == min && before(i, best))) {
+				min = d;
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	public NodeInfo getOwner(int i) {
+		return owners[i];
+	}
+
+	public int getOwnerCount() {
+		return owners.length;
+	}
+
+	/**
+	 * Get the weight node i had when the table was compiled
+	 */
+	public double getWeight(int i) {
+		return w[i];
+	}
+
+	/**
+	 * Size of the square covered by the table
+	 */
+	public int getExtent() {
+		return extent;
+	}
+
+	/**
+	 * Size of a bucket is 2^shift
+	 */
+	public int getShift() {
+		return shift;
+	}
+
+	/**
+	 * Number of buckets along each side of the table
+	 */
+	public int getColumns() {
+		return columns;
+	}
+
+	/**
+	 * Get the offsets into getCandidates() at which the candidates of each
+	 * bucket start, row by row, followed by the total number of candidates.
+	 */
+	public int[] getBucketStart() {
+		return bucketStart.clone();
+	}
+
+	/**
+	 * Get the indices of the nodes that may own a point of each bucket
+	 */
+	public int[] getCandidates() {
+		return candidates.clone();
+	}
+
+	// ---------------------------------
+	// Implementation
+	// ---------------------------------
+
+	private final long version;
+	private final int extent, shift, columns;
+	private final NodeInfo[] owners;
+	private final int[] x, y;
+	private final double[] w;
+	private final int[] bucketStart, candidates;
+
+	private boolean before(int i, int j) {
+		return x[i] < x[j] || (x[i] == x[j] && y[i] < y[j]);
+	}
+
+	private static double minDistanceSquared(long x0, long y0, long side, int px, int py) {
+		final double dx = Math.max(0, Math.max(x0 - px, px - (x0 + side)));
+		final double dy = Math.max(0, Math.max(y0 - py, py - (y0 + side)));
+		return dx * dx + dy * dy;
+	}
+
+	private static double maxDistanceSquared(long x0, long y0, long side, int px, int py) {
+		final double dx = Math.max(Math.abs(px - x0), Math.abs(x0 + side - px));
+		final double dy = Math.max(Math.abs(py - y0), Math.abs(y0 + side - py));
+		return dx * dx + dy * dy;
+	}
+}
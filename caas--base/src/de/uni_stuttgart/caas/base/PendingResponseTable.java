@@ -0,0 +1,170 @@
+package de.uni_stuttgart.caas.base;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Concurrent table of messages awaiting a response, keyed by their uid.
+ *
+ * Entries live in an open-addressed array indexed by uid modulo capacity.
+ * Since slots are shared by all uids with the same remainder, each entry
+ * carries its full uid, which is compared upon lookup (the remaining bits act
+ * as generation of the slot). Neither put() nor remove() box the key or
+ * allocate nodes, unlike ConcurrentHashMap<Integer, ...>.
+ *
+ * Colliding entries are placed in one of the next MAX_PROBES slots. If all of
+ * them are taken, the entry goes to a (boxing) overflow map instead, which
+ * should only happen if there are far more entries than the capacity.
+ *
+ * All methods are threadsafe and lock-free.
+ */
+public final class PendingResponseTable<V extends PendingResponseTable.Entry> {
+
+	/**
+	 * Implemented by the objects kept in the table.
+	 */
+	public interface Entry {
+
+		/**
+		 * @return Key of the entry, must not change while the entry is in the
+		 *         table.
+		 */
+		int getUid();
+	}
+
+	/** Number of slots looked at for a given uid before overflowing */
+	public static final int MAX_PROBES = 8;
+
+	/**
+	 * @param capacity
+	 *            Number of slots, rounded up to the next power of two. Should
+	 *            be well above the number of entries expected at any time.
+	 */
+	public PendingResponseTable(int capacity) {
+		assert capacity > 0;
+
+		int size = Math.max(MAX_PROBES, Integer.highestOneBit(capacity));
+		if (size < capacity) {
+			size <<= 1;
+		}
+		slots = new AtomicReferenceArray<>(size);
+		mask = size - 1;
+	}
+
+	/**
+	 * Add an entry. No other entry with the same uid may be in the table.
+	 */
+	public void put(V value) {
+		assert value != null;
+
+		final int start = value.getUid() & mask;
+		for (int i = 0; i < MAX_PROBES; ++i) {
+			final int index = (start + i) & mask;
+			if (slots.get(index) == null && slots.compareAndSet(index, null, value)) {
+				return;
+			}
+		}
+
+		overflowCount.incrementAndGet();
+		overflow.put(value.getUid(), value);
+	}
+
+	/**
+	 * Remove the entry with the given uid.
+	 *
+	 * @return The entry removed, or null if there was none.
+	 */
+	public V remove(int uid) {
+		final int start = uid & mask;
+		for (int i = 0; i < MAX_PROBES; ++i) {
+			final int index = (start + i) & mask;
+			final V value = slots.get(index);
+
+			// there is no early exit on empty slots, as removals leave holes
+			// in probe sequences.
+			if (value != null && value.getUid() == uid && slots.compareAndSet(index, value, null)) {
+				return value;
+			}
+		}
+
+		if (overflowCount.get() == 0) {
+			return null;
+		}
+		final V value = overflow.remove(uid);
+		if (value != null) {
+			overflowCount.decrementAndGet();
+		}
+		return value;
+	}
+
+	/**
+	 * Remove the given entry, if it is still in the table.
+	 *
+	 * @return true iff the entry was removed by this call.
+	 */
+	public boolean remove(V value) {
+		assert value != null;
+
+		final int uid = value.getUid();
+		final int start = uid & mask;
+		for (int i = 0; i < MAX_PROBES; ++i) {
+			final int index = (start + i) & mask;
+			if (slots.get(index) == value && slots.compareAndSet(index, value, null)) {
+				return true;
+			}
+		}
+
+		if (overflowCount.get() == 0) {
+			return false;
+		}
+		if (overflow.remove(uid, value)) {
+			overflowCount.decrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Remove all entries, adding them to the given collection.
+	 *
+	 * @return Number of entries removed by this call
+	 */
+	public int drainTo(Collection<? super V> target) {
+		int count = 0;
+		for (int index = 0; index <= mask; ++index) {
+			final V value = slots.get(index);
+			if (value != null && slots.compareAndSet(index, value, null)) {
+				target.add(value);
+				++count;
+			}
+		}
+
+		for (V value : overflow.values()) {
+			if (remove(value)) {
+				target.add(value);
+				++count;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Get the number of entries currently kept in the overflow map because
+	 * they did not fit into the array.
+	 */
+	public int getOverflowCount() {
+		return overflowCount.get();
+	}
+
+	// ---------------------------------
+	// Implementation
+	// ---------------------------------
+
+	private final AtomicReferenceArray<V> slots;
+	private final int mask;
+
+	private final ConcurrentHashMap<Integer, V> overflow = new ConcurrentHashMap<>();
+	private final AtomicInteger overflowCount = new AtomicInteger(0);
+}
@@ -0,0 +1,85 @@
+package de.uni_stuttgart.caas.base;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs tasks one at a time and in submission order on top of another
+ * (possibly multi-threaded) executor. At most one thread of the underlying
+ * executor is occupied at any time, and none while there is nothing to do.
+ */
+public final class SerialExecutor implements Executor {
+
+	private final Executor executor;
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+	private final Runnable drainTask = new Runnable() {
+		@Override
+		public void run() {
+			drain();
+		}
+	};
+
+	public SerialExecutor(Executor _executor) {
+		assert _executor != null;
+		executor = _executor;
+	}
+
+	/**
+	 * @note The method is threadsafe.
+	 * @throws RejectedExecutionException
+	 *             if the underlying executor rejected to drain the queue, the
+	 *             task is then not queued and will not run.
+	 */
+	@Override
+	public void execute(Runnable task) {
+		assert task != null;
+		tasks.add(task);
+		if (scheduled.compareAndSet(false, true)) {
+			try {
+				executor.execute(drainTask);
+			} catch (RejectedExecutionException e) {
+				// the caller deals with the task itself, so a later drain must
+				// not run it a second time. Remove it before clearing the flag,
+				// no drain can poll it while the flag is ours.
+				tasks.remove(task);
+				scheduled.set(false);
+				throw e;
+			}
+		}
+	}
+
+	private void schedule() {
+		if (!tasks.isEmpty() && scheduled.compareAndSet(false, true)) {
+			try {
+				executor.execute(drainTask);
+			} catch (RejectedExecutionException e) {
+				scheduled.set(false);
+				throw e;
+			}
+		}
+	}
+
+	private void drain() {
+		try {
+			Runnable task;
+			while ((task = tasks.poll()) != null) {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					// a failing task must not stall the ones behind it
+					e.printStackTrace();
+				}
+			}
+		} finally {
+			scheduled.set(false);
+		}
+
+		// tasks added after poll() returned null, but before the flag was
+		// cleared, did not schedule a drain themselves.
+		schedule();
+	}
+}
@@ -0,0 +1,47 @@
+package de.uni_stuttgart.caas.base;
+
+import java.io.Serializable;
+
+/**
+ * An object at a fixed location in the grid, as served by the cache. What the
+ * payload means is up to the application, the cache only cares about its
+ * size.
+ */
+public final class SpatialObject implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Rough number of bytes an object takes up besides its payload, used for
+	 * the size estimate of getSize().
+	 */
+	public static final int OVERHEAD_BYTES = 48;
+
+	public final LocationOfNode LOCATION;
+
+	/**
+	 * Payload of the object. Must not be modified once the object is
+	 * constructed, as objects are shared between the cache and query results.
+	 */
+	public final byte[] PAYLOAD;
+
+	public SpatialObject(LocationOfNode location, byte[] payload) {
+		assert location != null;
+		assert payload != null;
+
+		LOCATION = location;
+		PAYLOAD = payload;
+	}
+
+	/**
+	 * Get the estimated number of bytes the object takes up in memory.
+	 */
+	public int getSize() {
+		return OVERHEAD_BYTES + PAYLOAD.length;
+	}
+
+	@Override
+	public String toString() {
+		return LOCATION + ": " + PAYLOAD.length + " bytes";
+	}
+}
@@ -0,0 +1,64 @@
+package de.uni_stuttgart.caas.messages;
+
+import java.net.InetSocketAddress;
+
+import de.uni_stuttgart.caas.base.LocationOfNode;
+
+/**
+ * Query for the Aggregate of all objects within RADIUS of QUERY_LOCATION,
+ * i.e. their number, total payload size and payload size histogram rather
+ * than the objects themselves.
+ * 
+ * Each node aggregates the objects in its own cell and merges the aggregates
+ * of the neighbors it passed the query on to, so only aggregates are sent
+ * back, and the result has the same size whatever the region holds.
+ */
+public class AggregateQueryMessage extends RegionQueryMessage {
+
+	/**
+	 * Radius of the query in grid units
+	 */
+	public final double RADIUS;
+
+	public AggregateQueryMessage(LocationOfNode center, double radius, String ip, int port, long id) {
+		this(center, radius, ip, port, null, id);
+	}
+
+	public AggregateQueryMessage(LocationOfNode center, double radius, String ip, int port, InetSocketAddress entryLocation, long id) {
+		super(center, ip, port, entryLocation, id);
+		assert radius >= 0;
+		RADIUS = radius;
+	}
+
+	/**
+	 * Restores an aggregate query including its routing state, used by
+	 * codecs.
+	 */
+	AggregateQueryMessage(LocationOfNode center, double radius, String ip, int port, InetSocketAddress entryLocation, long id,
+			boolean allowPropagation, String debuggingInfo, long[] visited, long timeoutMillis) {
+		super(center, ip, port, entryLocation, id, allowPropagation, debuggingInfo, visited, timeoutMillis);
+		RADIUS = radius;
+	}
+
+	@Override
+	public MessageType getMessageType() {
+		return MessageType.AGGREGATE_QUERY;
+	}
+
+	@Override
+	public double getRadius() {
+		return RADIUS;
+	}
+
+	@Override
+	public int getLimit() {
+		return 0;
+	}
+
+	@Override
+	public AggregateQueryMessage subquery(double radius, long[] visited, long timeoutMillis) {
+		assert radius <= RADIUS;
+		return new AggregateQueryMessage(QUERY_LOCATION, radius, CLIENT_IP, CLIENT_PORT, ENTRY_LOCATION, ID, false, getDebuggingInfo(), visited,
+				timeoutMillis);
+	}
+}
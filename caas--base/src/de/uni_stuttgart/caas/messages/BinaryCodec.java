@@ -0,0 +1,724 @@
+package de.uni_stuttgart.caas.messages;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import de.uni_stuttgart.caas.base.Aggregate;
+import de.uni_stuttgart.caas.base.LocationOfNode;
+import de.uni_stuttgart.caas.base.NodeInfo;
+import de.uni_stuttgart.caas.base.OwnershipTable;
+import de.uni_stuttgart.caas.base.SpatialObject;
+
+/**
+ * Compact, hand-written binary IMessageCodec.
+ *
+ * Every message starts with a one byte tag identifying its type, followed by
+ * its fields in declaration order. Tags are fixed constants and do not depend
+ * on the ordinal of IMessage.MessageType, so reordering the enum does not
+ * break the wire format. Message classes not known to the codec (including
+ * subclasses of known messages) are written using SerializationCodec behind
+ * TAG_SERIALIZED.
+ *
+ * Wire format version 9 (version 1 lacked the cache hit flag and the objects
+ * of QueryResult, version 2 the range and kNN queries, version 3 their
+ * limit and subquery state, version 4 the search of kNN queries, version 5
+ * aggregate queries and results, version 6 ownership tables, version 7
+ * replicas, version 8 node weights and cell handovers).
+ */
+public class BinaryCodec implements IMessageCodec {
+
+	public static final int CODEC_ID = 0x43414153; // 'CAAS'
+	public static final int VERSION = 9;
+
+	public static final BinaryCodec INSTANCE = new BinaryCodec();
+
+	/**
+	 * Upper limit for the number of elements of an array or list in a
+	 * message, e.g. the candidates of an OwnershipTable
+	 */
+	public static final int MAX_ELEMENTS = 1 << 22;
+
+	private static final byte TAG_SERIALIZED = 0;
+	private static final byte TAG_JOIN = 1;
+	private static final byte TAG_ADD_TO_GRID = 2;
+	private static final byte TAG_ACTIVATE = 3;
+	private static final byte TAG_CONFIRM = 4;
+	private static final byte TAG_QUERY_MESSAGE = 5;
+	private static final byte TAG_QUERY_RESULT = 6;
+	private static final byte TAG_PUBLISH_ID = 7;
+	private static final byte TAG_LOAD_MESSAGE = 8;
+	private static final byte TAG_SUBDIV_REQUEST = 9;
+	private static final byte TAG_SUBDIV_CONFIRM = 10;
+	private static final byte TAG_SUBDIV_COMMIT = 11;
+	private static final byte TAG_RANGE_QUERY = 12;
+	private static final byte TAG_KNN_QUERY = 13;
+	private static final byte TAG_AGGREGATE_QUERY = 14;
+	private static final byte TAG_OWNERSHIP_TABLE = 15;
+	private static final byte TAG_REPLICA = 16;
+	private static final byte TAG_WEIGHT = 17;
+	private static final byte TAG_CELL_HANDOVER = 18;
+
+	// markers for InetSocketAddress encoding
+	private static final byte ADDR_NULL = 0;
+	private static final byte ADDR_RESOLVED = 1;
+	private static final byte ADDR_UNRESOLVED = 2;
+
+	// markers for KnnQueryMessage.Search encoding
+	private static final byte SEARCH_BROADCAST = 0;
+	private static final byte SEARCH_EXPANDING_RING = 1;
+
+	@Override
+	public int getCodecId() {
+		return CODEC_ID;
+	}
+
+	@Override
+	public int getVersion() {
+		return VERSION;
+	}
+
+	@Override
+	public void encode(IMessage message, DataOutput out) throws IOException {
+		assert message != null;
+
+		switch (message.getMessageType()) {
+		case JOIN:
+			if (message.getClass() == JoinMessage.class) {
+				final JoinMessage m = (JoinMessage) message;
+				out.writeByte(TAG_JOIN);
+				writeAddress(m.ADDRESS_FOR_CACHENODE_NEIGHBORCONNECTOR, out);
+				writeAddress(m.ADDRESS_FOR_CACHENODE_QUERYLISTENER, out);
+				return;
+			}
+			break;
+
+		case ADD_TO_GRID:
+			if (message.getClass() == AddToGridMessage.class) {
+				final AddToGridMessage m = (AddToGridMessage) message;
+				out.writeByte(TAG_ADD_TO_GRID);
+				out.writeLong(m.id);
+				writeLocation(m.locationOfNode, out);
+				final Collection<NodeInfo> neighbors = m.getNeighboringNodes();
+				if (neighbors == null) {
+					out.writeInt(-1);
+				} else {
+					out.writeInt(neighbors.size());
+					for (NodeInfo info : neighbors) {
+						writeNodeInfo(info, out);
+					}
+				}
+				return;
+			}
+			break;
+
+		case ACTIVATE:
+			if (message.getClass() == ActivateNodeMessage.class) {
+				out.writeByte(TAG_ACTIVATE);
+				return;
+			}
+			break;
+
+		case CONFIRM:
+			if (message.getClass() == ConfirmationMessage.class) {
+				final ConfirmationMessage m = (ConfirmationMessage) message;
+				out.writeByte(TAG_CONFIRM);
+				out.writeInt(m.STATUS_CODE);
+				writeString(m.MESSAGE, out);
+				return;
+			}
+			break;
+
+		case QUERY_MESSAGE:
+			if (message.getClass() == QueryMessage.class) {
+				final QueryMessage m = (QueryMessage) message;
+				out.writeByte(TAG_QUERY_MESSAGE);
+				writeQuery(m, out);
+				return;
+			}
+			break;
+
+		case QUERY_RESULT:
+			if (message.getClass() == QueryResult.class) {
+				final QueryResult m = (QueryResult) message;
+				out.writeByte(TAG_QUERY_RESULT);
+				out.writeLong(m.ID);
+				writeString(m.getDebuggingInfo(), out);
+				out.writeBoolean(m.isCacheHit());
+				writeObjects(m.getObjects(), out);
+				writeAggregate(m.getAggregate(), out);
+				return;
+			}
+			break;
+
+		case PUBLISH_ID:
+			if (message.getClass() == PublishIdMessage.class) {
+				out.writeByte(TAG_PUBLISH_ID);
+				out.writeLong(((PublishIdMessage) message).ID);
+				return;
+			}
+			break;
+
+		case LOAD_MESSAGE:
+			if (message.getClass() == LoadMessage.class) {
+				out.writeByte(TAG_LOAD_MESSAGE);
+				out.writeDouble(((LoadMessage) message).LOAD);
+				return;
+			}
+			break;
+
+		case SUBDIV_REQUEST:
+			if (message.getClass() == SubdivisionRequestMessage.class) {
+				final SubdivisionRequestMessage m = (SubdivisionRequestMessage) message;
+				out.writeByte(TAG_SUBDIV_REQUEST);
+				out.writeLong(m.ORIGIN_VERTEX);
+				out.writeLong(m.FIRST_VERTEX);
+				out.writeDouble(m.accumLoad);
+				out.writeInt(m.ttl);
+				return;
+			}
+			break;
+
+		case SUBDIV_CONFIRM:
+			if (message.getClass() == SubdivisionConfirmMessage.class) {
+				final SubdivisionConfirmMessage m = (SubdivisionConfirmMessage) message;
+				out.writeByte(TAG_SUBDIV_CONFIRM);
+				out.writeLong(m.V0);
+				out.writeLong(m.V1);
+				out.writeLong(m.V2);
+				return;
+			}
+			break;
+
+		case SUBDIV_COMMIT:
+			if (message.getClass() == SubdivisionCommitMessage.class) {
+				final SubdivisionCommitMessage m = (SubdivisionCommitMessage) message;
+				out.writeByte(TAG_SUBDIV_COMMIT);
+				out.writeLong(m.NEW_NODE_ID);
+				writeNodeInfo(m.NEW_NODE_INFO, out);
+				return;
+			}
+			break;
+
+		case RANGE_QUERY:
+			if (message.getClass() == RangeQueryMessage.class) {
+				final RangeQueryMessage m = (RangeQueryMessage) message;
+				out.writeByte(TAG_RANGE_QUERY);
+				writeQuery(m, out);
+				out.writeDouble(m.RADIUS);
+				out.writeInt(m.LIMIT);
+				writeSubquery(m, out);
+				return;
+			}
+			break;
+
+		case KNN_QUERY:
+			if (message.getClass() == KnnQueryMessage.class) {
+				final KnnQueryMessage m = (KnnQueryMessage) message;
+				out.writeByte(TAG_KNN_QUERY);
+				writeQuery(m, out);
+				out.writeInt(m.K);
+				out.writeDouble(m.MAX_DISTANCE);
+				out.writeByte(m.SEARCH == KnnQueryMessage.Search.EXPANDING_RING ? SEARCH_EXPANDING_RING : SEARCH_BROADCAST);
+				writeSubquery(m, out);
+				return;
+			}
+			break;
+
+		case AGGREGATE_QUERY:
+			if (message.getClass() == AggregateQueryMessage.class) {
+				final AggregateQueryMessage m = (AggregateQueryMessage) message;
+				out.writeByte(TAG_AGGREGATE_QUERY);
+				writeQuery(m, out);
+				out.writeDouble(m.RADIUS);
+				writeSubquery(m, out);
+				return;
+			}
+			break;
+
+		case OWNERSHIP_TABLE:
+			if (message.getClass() == OwnershipTableMessage.class) {
+				out.writeByte(TAG_OWNERSHIP_TABLE);
+				writeOwnershipTable(((OwnershipTableMessage) message).TABLE, out);
+				return;
+			}
+			break;
+
+		case REPLICA:
+			if (message.getClass() == ReplicaMessage.class) {
+				final ReplicaMessage m = (ReplicaMessage) message;
+				out.writeByte(TAG_REPLICA);
+				out.writeLong(m.CELL);
+				out.writeLong(m.OWNER_ID);
+				out.writeLong(m.VERSION);
+				out.writeLong(m.LEASE_MILLIS);
+				writeObjects(m.OBJECTS, out);
+				return;
+			}
+			break;
+
+		case WEIGHT:
+			if (message.getClass() == WeightMessage.class) {
+				final WeightMessage m = (WeightMessage) message;
+				out.writeByte(TAG_WEIGHT);
+				out.writeLong(m.ID);
+				out.writeDouble(m.WEIGHT);
+				return;
+			}
+			break;
+
+		case CELL_HANDOVER:
+			if (message.getClass() == CellHandoverMessage.class) {
+				final CellHandoverMessage m = (CellHandoverMessage) message;
+				out.writeByte(TAG_CELL_HANDOVER);
+				out.writeLong(m.CELL);
+				writeObjects(m.OBJECTS, out);
+				return;
+			}
+			break;
+
+		default:
+			break;
+		}
+
+		// unknown message type or a subclass with possibly extra state
+		out.writeByte(TAG_SERIALIZED);
+		SerializationCodec.INSTANCE.encode(message, out);
+	}
+
+	@Override
+	public IMessage decode(DataInput in) throws IOException {
+		final byte tag = in.readByte();
+		switch (tag) {
+		case TAG_SERIALIZED:
+			return SerializationCodec.INSTANCE.decode(in);
+
+		case TAG_JOIN: {
+			final InetSocketAddress neighborConnector = readAddress(in);
+			final InetSocketAddress queryListener = readAddress(in);
+			return new JoinMessage(neighborConnector, queryListener);
+		}
+
+		case TAG_ADD_TO_GRID: {
+			final long id = in.readLong();
+			final LocationOfNode location = readLocation(in);
+			final int count = in.readInt();
+			ArrayList<NodeInfo> neighbors = null;
+			if (count != -1) {
+				neighbors = new ArrayList<>(checkCount(count, 1));
+				for (int i = 0; i < count; ++i) {
+					neighbors.add(readNodeInfo(in));
+				}
+			}
+			return new AddToGridMessage(location, neighbors, id);
+		}
+
+		case TAG_ACTIVATE:
+			return new ActivateNodeMessage();
+
+		case TAG_CONFIRM: {
+			final int statusCode = in.readInt();
+			return new ConfirmationMessage(statusCode, readString(in));
+		}
+
+		case TAG_QUERY_MESSAGE: {
+			final long id = in.readLong();
+			final LocationOfNode location = readLocation(in);
+			final String clientIp = readString(in);
+			final int clientPort = in.readInt();
+			final InetSocketAddress entryLocation = readAddress(in);
+			final boolean allowPropagation = in.readBoolean();
+			final String debuggingInfo = readString(in);
+			return new QueryMessage(location, clientIp, clientPort, entryLocation, id, allowPropagation, debuggingInfo);
+		}
+
+		case TAG_QUERY_RESULT: {
+			final long id = in.readLong();
+			final String debuggingInfo = readString(in);
+			final boolean cacheHit = in.readBoolean();
+			final List<SpatialObject> objects = readObjects(in);
+			final Aggregate aggregate = readAggregate(in);
+			return aggregate != null ? new QueryResult(debuggingInfo, id, cacheHit, aggregate) : new QueryResult(debuggingInfo, id, cacheHit,
+					objects);
+		}
+
+		case TAG_PUBLISH_ID:
+			return new PublishIdMessage(in.readLong());
+
+		case TAG_LOAD_MESSAGE:
+			return new LoadMessage(in.readDouble());
+
+		case TAG_SUBDIV_REQUEST: {
+			final long origin = in.readLong();
+			final long firstVertex = in.readLong();
+			final SubdivisionRequestMessage m = new SubdivisionRequestMessage(origin, firstVertex);
+			m.accumLoad = in.readDouble();
+			m.ttl = in.readInt();
+			return m;
+		}
+
+		case TAG_SUBDIV_CONFIRM: {
+			final long v0 = in.readLong();
+			final long v1 = in.readLong();
+			final long v2 = in.readLong();
+			return new SubdivisionConfirmMessage(v0, v1, v2);
+		}
+
+		case TAG_SUBDIV_COMMIT: {
+			final long newNodeId = in.readLong();
+			return new SubdivisionCommitMessage(newNodeId, readNodeInfo(in));
+		}
+
+		case TAG_RANGE_QUERY: {
+			final long id = in.readLong();
+			final LocationOfNode location = readLocation(in);
+			final String clientIp = readString(in);
+			final int clientPort = in.readInt();
+			final InetSocketAddress entryLocation = readAddress(in);
+			final boolean allowPropagation = in.readBoolean();
+			final String debuggingInfo = readString(in);
+			final double radius = in.readDouble();
+			final int limit = in.readInt();
+			final long[] visited = readVisited(in);
+			final long timeoutMillis = in.readLong();
+			return new RangeQueryMessage(location, radius, limit, clientIp, clientPort, entryLocation, id, allowPropagation, debuggingInfo, visited,
+					timeoutMillis);
+		}
+
+		case TAG_KNN_QUERY: {
+			final long id = in.readLong();
+			final LocationOfNode location = readLocation(in);
+			final String clientIp = readString(in);
+			final int clientPort = in.readInt();
+			final InetSocketAddress entryLocation = readAddress(in);
+			final boolean allowPropagation = in.readBoolean();
+			final String debuggingInfo = readString(in);
+			final int k = in.readInt();
+			final double maxDistance = in.readDouble();
+			final KnnQueryMessage.Search search = readSearch(in);
+			final long[] visited = readVisited(in);
+			final long timeoutMillis = in.readLong();
+			return new KnnQueryMessage(location, k, maxDistance, search, clientIp, clientPort, entryLocation, id, allowPropagation, debuggingInfo, visited,
+					timeoutMillis);
+		}
+
+		case TAG_AGGREGATE_QUERY: {
+			final long id = in.readLong();
+			final LocationOfNode location = readLocation(in);
+			final String clientIp = readString(in);
+			final int clientPort = in.readInt();
+			final InetSocketAddress entryLocation = readAddress(in);
+			final boolean allowPropagation = in.readBoolean();
+			final String debuggingInfo = readString(in);
+			final double radius = in.readDouble();
+			final long[] visited = readVisited(in);
+			final long timeoutMillis = in.readLong();
+			return new AggregateQueryMessage(location, radius, clientIp, clientPort, entryLocation, id, allowPropagation, debuggingInfo, visited,
+					timeoutMillis);
+		}
+
+		case TAG_OWNERSHIP_TABLE:
+			return new OwnershipTableMessage(readOwnershipTable(in));
+
+		case TAG_REPLICA: {
+			final long cell = in.readLong();
+			final long ownerId = in.readLong();
+			final long version = in.readLong();
+			final long leaseMillis = in.readLong();
+			return new ReplicaMessage(cell, ownerId, version, leaseMillis, readObjects(in));
+		}
+
+		case TAG_WEIGHT: {
+			final long id = in.readLong();
+			return new WeightMessage(id, in.readDouble());
+		}
+
+		case TAG_CELL_HANDOVER: {
+			final long cell = in.readLong();
+			return new CellHandoverMessage(cell, readObjects(in));
+		}
+
+		default:
+			throw new IOException("(BinaryCodec) unknown message tag: " + tag);
+		}
+	}
+
+	// ---------------------------------
+	// Field encoders
+	// ---------------------------------
+
+	/**
+	 * Write the fields all query messages have in common
+	 */
+	private static void writeQuery(QueryMessage m, DataOutput out) throws IOException {
+		out.writeLong(m.ID);
+		writeLocation(m.QUERY_LOCATION, out);
+		writeString(m.CLIENT_IP, out);
+		out.writeInt(m.CLIENT_PORT);
+		writeAddress(m.ENTRY_LOCATION, out);
+		out.writeBoolean(m.isPropagtionThroughNetworkAllowed());
+		writeString(m.getDebuggingInfo(), out);
+	}
+
+	/**
+	 * Write the subquery state of a region query, -1 visited nodes for
+	 * queries from clients
+	 */
+	private static void writeSubquery(RegionQueryMessage m, DataOutput out) throws IOException {
+		if (m.isSubquery()) {
+			final long[] visited = m.getVisited();
+			out.writeInt(visited.length);
+			for (long id : visited) {
+				out.writeLong(id);
+			}
+		} else {
+			out.writeInt(-1);
+		}
+		out.writeLong(m.getTimeoutMillis());
+	}
+
+	private static long[] readVisited(DataInput in) throws IOException {
+		final int count = in.readInt();
+		if (count == -1) {
+			return null;
+		}
+		final long[] visited = new long[checkCount(count, 8)];
+		for (int i = 0; i < count; ++i) {
+			visited[i] = in.readLong();
+		}
+		return visited;
+	}
+
+	private static KnnQueryMessage.Search readSearch(DataInput in) throws IOException {
+		final byte kind = in.readByte();
+		switch (kind) {
+		case SEARCH_BROADCAST:
+			return KnnQueryMessage.Search.BROADCAST;
+
+		case SEARCH_EXPANDING_RING:
+			return KnnQueryMessage.Search.EXPANDING_RING;
+
+		default:
+			throw new IOException("(BinaryCodec) unknown kNN search marker: " + kind);
+		}
+	}
+
+	private static void writeString(String s, DataOutput out) throws IOException {
+		out.writeBoolean(s != null);
+		if (s != null) {
+			out.writeUTF(s);
+		}
+	}
+
+	private static String readString(DataInput in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	private static void writeLocation(LocationOfNode l, DataOutput out) throws IOException {
+		out.writeBoolean(l != null);
+		if (l != null) {
+			out.writeInt(l.x);
+			out.writeInt(l.y);
+		}
+	}
+
+	private static LocationOfNode readLocation(DataInput in) throws IOException {
+		if (!in.readBoolean()) {
+			return null;
+		}
+		final int x = in.readInt();
+		return new LocationOfNode(x, in.readInt());
+	}
+
+	private static void writeObjects(List<SpatialObject> objects, DataOutput out) throws IOException {
+		out.writeInt(objects.size());
+		for (SpatialObject o : objects) {
+			writeLocation(o.LOCATION, out);
+			out.writeInt(o.PAYLOAD.length);
+			out.write(o.PAYLOAD);
+		}
+	}
+
+	private static List<SpatialObject> readObjects(DataInput in) throws IOException {
+		final int count = checkCount(in.readInt(), 12);
+		final List<SpatialObject> objects = new ArrayList<>(count);
+		for (int i = 0; i < count; ++i) {
+			final LocationOfNode location = readLocation(in);
+			final int length = in.readInt();
+			if (length < 0 || length > MAX_MESSAGE_BYTES) {
+				throw new IOException("(BinaryCodec) invalid payload length " + length);
+			}
+			final byte[] payload = new byte[length];
+			in.readFully(payload);
+			objects.add(new SpatialObject(location, payload));
+		}
+		return objects;
+	}
+
+	private static void writeAggregate(Aggregate a, DataOutput out) throws IOException {
+		out.writeBoolean(a != null);
+		if (a != null) {
+			out.writeLong(a.getCount());
+			out.writeLong(a.getPayloadBytes());
+			for (long bin : a.getHistogram()) {
+				out.writeLong(bin);
+			}
+		}
+	}
+
+	private static Aggregate readAggregate(DataInput in) throws IOException {
+		if (!in.readBoolean()) {
+			return null;
+		}
+		final long count = in.readLong();
+		final long payloadBytes = in.readLong();
+		final long[] histogram = new long[Aggregate.HISTOGRAM_BINS];
+		for (int i = 0; i < histogram.length; ++i) {
+			histogram[i] = in.readLong();
+		}
+		return new Aggregate(count, payloadBytes, histogram);
+	}
+
+	private static void writeOwnershipTable(OwnershipTable table, DataOutput out) throws IOException {
+		out.writeLong(table.getVersion());
+		out.writeInt(table.getExtent());
+		out.writeInt(table.getShift());
+		out.writeInt(table.getColumns());
+		out.writeInt(table.getOwnerCount());
+		for (int i = 0; i < table.getOwnerCount(); ++i) {
+			writeNodeInfo(table.getOwner(i), out);
+		}
+		writeInts(table.getBucketStart(), out);
+		writeInts(table.getCandidates(), out);
+	}
+
+	private static OwnershipTable readOwnershipTable(DataInput in) throws IOException {
+		final long version = in.readLong();
+		final int extent = in.readInt();
+		final int shift = in.readInt();
+		final int columns = in.readInt();
+		final NodeInfo[] owners = new NodeInfo[checkCount(in.readInt(), 1)];
+		for (int i = 0; i < owners.length; ++i) {
+			owners[i] = readNodeInfo(in);
+		}
+		final int[] bucketStart = readInts(in);
+		final int[] candidates = readInts(in);
+		try {
+			return new OwnershipTable(version, extent, shift, columns, owners, bucketStart, candidates);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("(BinaryCodec) malformed ownership table", e);
+		}
+	}
+
+	/**
+	 * Check a count of elements read from the wire, each of which takes at
+	 * least minBytes there.
+	 * 
+	 * @return The count
+	 * @throws IOException
+	 *             if the count is negative, exceeds MAX_ELEMENTS, or the
+	 *             elements could not fit into MAX_MESSAGE_BYTES
+	 */
+	private static int checkCount(int count, int minBytes) throws IOException {
+		if (count < 0 || count > MAX_ELEMENTS || (long) count * minBytes > MAX_MESSAGE_BYTES) {
+			throw new IOException("(BinaryCodec) invalid count " + count);
+		}
+		return count;
+	}
+
+	private static void writeInts(int[] values, DataOutput out) throws IOException {
+		out.writeInt(values.length);
+		for (int v : values) {
+			out.writeInt(v);
+		}
+	}
+
+	private static int[] readInts(DataInput in) throws IOException {
+		final int[] values = new int[checkCount(in.readInt(), 4)];
+		for (int i = 0; i < values.length; ++i) {
+			values[i] = in.readInt();
+		}
+		return values;
+	}
+
+	/**
+	 * Resolved addresses are written as raw address bytes so that decoding them
+	 * never triggers a name lookup.
+	 */
+	private static void writeAddress(InetSocketAddress a, DataOutput out) throws IOException {
+		if (a == null) {
+			out.writeByte(ADDR_NULL);
+			return;
+		}
+		if (a.isUnresolved()) {
+			out.writeByte(ADDR_UNRESOLVED);
+			out.writeUTF(a.getHostString());
+		} else {
+			final byte[] raw = a.getAddress().getAddress();
+			out.writeByte(ADDR_RESOLVED);
+			out.writeUTF(a.getHostString());
+			out.writeByte(raw.length);
+			out.write(raw);
+		}
+		out.writeShort(a.getPort());
+	}
+
+	private static InetSocketAddress readAddress(DataInput in) throws IOException {
+		final byte kind = in.readByte();
+		switch (kind) {
+		case ADDR_NULL:
+			return null;
+
+		case ADDR_UNRESOLVED: {
+			final String host = in.readUTF();
+			return InetSocketAddress.createUnresolved(host, in.readUnsignedShort());
+		}
+
+		case ADDR_RESOLVED: {
+			final String host = in.readUTF();
+			final byte[] raw = new byte[in.readUnsignedByte()];
+			in.readFully(raw);
+			return new InetSocketAddress(InetAddress.getByAddress(host, raw), in.readUnsignedShort());
+		}
+
+		default:
+			throw new IOException("(BinaryCodec) unknown address marker: " + kind);
+		}
+	}
+
+	private static void writeNodeInfo(NodeInfo info, DataOutput out) throws IOException {
+		out.writeBoolean(info != null);
+		if (info == null) {
+			return;
+		}
+		out.writeLong(info.ID);
+		writeAddress(info.NODE_ADDRESS, out);
+		writeLocation(info.getLocationOfNode(), out);
+		writeAddress(info.ADDRESS_FOR_CACHENODE_NODECONNECTOR, out);
+		writeAddress(info.ADDRESS_FOR_CACHENODE_QUERYLISTENER, out);
+		out.writeDouble(info.getLoad());
+		out.writeDouble(info.getWeight());
+	}
+
+	private static NodeInfo readNodeInfo(DataInput in) throws IOException {
+		if (!in.readBoolean()) {
+			return null;
+		}
+		final long id = in.readLong();
+		final InetSocketAddress nodeAddress = readAddress(in);
+		final LocationOfNode location = readLocation(in);
+		final InetSocketAddress neighborConnector = readAddress(in);
+		final InetSocketAddress queryListener = readAddress(in);
+
+		final NodeInfo info = new NodeInfo(nodeAddress, neighborConnector, queryListener, id);
+		info.updateLocation(location);
+		info.setLoad(in.readDouble());
+		info.setWeight(in.readDouble());
+		return info;
+	}
+}
@@ -0,0 +1,30 @@
+package de.uni_stuttgart.caas.messages;
+
+import java.util.List;
+
+import de.uni_stuttgart.caas.base.SpatialObject;
+
+/**
+ * Sent by a cache node to a neighbor that became the owner of a cell of the
+ * SpatialCache grid because their weights changed, carrying the cell's
+ * objects so the neighbor does not have to fetch them from the origin again.
+ * Answered with a ConfirmationMessage.
+ */
+public class CellHandoverMessage implements IMessage {
+
+	public final long CELL;
+
+	public final List<SpatialObject> OBJECTS;
+
+	public CellHandoverMessage(long cell, List<SpatialObject> objects) {
+		assert objects != null;
+
+		CELL = cell;
+		OBJECTS = objects;
+	}
+
+	@Override
+	public MessageType getMessageType() {
+		return MessageType.CELL_HANDOVER;
+	}
+}
@@ -55,6 +55,52 @@ public interface IMessage extends Serializable {
 		SUBDIV_REQUEST,
 		SUBDIV_CONFIRM,
 		SUBDIV_COMMIT,
+
+		/**
+		 * Query for the objects within a radius of a location
+		 */
+		RANGE_QUERY,
+
+		/**
+		 * Query for the k objects nearest to a location
+		 */
+		KNN_QUERY,
+
+		/**
+		 * Query for the aggregate of the objects within a radius of a
+		 * location
+		 */
+		AGGREGATE_QUERY,
+
+		/**
+		 * sent by the admin to cache nodes, holds the table of which node
+		 * owns which part of the grid. Expect response: OK
+		 */
+		OWNERSHIP_TABLE,
+
+		/**
+		 * sent by the owner of a query's location to the query listener of
+		 * the node the query entered the grid at, no response
+		 */
+		ROUTE_HINT,
+
+		/**
+		 * sent by the owner of a hot cell to a neighbor, holds a read replica
+		 * of the cell's objects. Expect response: OK
+		 */
+		REPLICA,
+
+		/**
+		 * sent by a cache node to its neighbors and the admin, holds the
+		 * node's new weight. Expect response: OK
+		 */
+		WEIGHT,
+
+		/**
+		 * sent by a cache node to the neighbor that took over one of its
+		 * cells, holds the cell's objects. Expect response: OK
+		 */
+		CELL_HANDOVER,
 	}
 
 	/**
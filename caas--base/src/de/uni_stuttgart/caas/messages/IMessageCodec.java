@@ -0,0 +1,62 @@
+package de.uni_stuttgart.caas.messages;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Converts IMessage instances to and from their wire representation.
+ *
+ * FullDuplexMPI delegates all (de)serialization of message payloads to an
+ * IMessageCodec, which allows swapping the wire format without touching the
+ * transport. Both parties of a connection must use the same codec - this is
+ * verified during the connection handshake using getCodecId() and
+ * getVersion().
+ *
+ * Implementations must be stateless with respect to individual messages and
+ * threadsafe, as one codec instance is shared by all connections.
+ */
+public interface IMessageCodec {
+
+	/**
+	 * Upper limit for the size of an encoded message. Transports refuse to
+	 * send or receive larger ones, and decoders reject lengths and counts
+	 * that could not fit, rather than allocating memory for them.
+	 */
+	int MAX_MESSAGE_BYTES = 64 << 20;
+
+	/**
+	 * Unique identifier of the wire format produced by the codec.
+	 */
+	int getCodecId();
+
+	/**
+	 * Version of the wire format. Increment this whenever the encoding of any
+	 * message changes in an incompatible way.
+	 */
+	int getVersion();
+
+	/**
+	 * Encode a message.
+	 *
+	 * @param message
+	 *            non-null message to be encoded
+	 * @param out
+	 *            non-null sink to receive the encoded message
+	 * @throws IOException
+	 *             forwarded from the sink, or if the message cannot be encoded
+	 */
+	void encode(IMessage message, DataOutput out) throws IOException;
+
+	/**
+	 * Decode a message previously encoded with encode().
+	 *
+	 * @param in
+	 *            non-null source positioned at the beginning of the message
+	 * @return non-null decoded message
+	 * @throws IOException
+	 *             forwarded from the source, or if the data is malformed,
+	 *             including lengths or counts exceeding MAX_MESSAGE_BYTES
+	 */
+	IMessage decode(DataInput in) throws IOException;
+}
@@ -0,0 +1,98 @@
+package de.uni_stuttgart.caas.messages;
+
+import java.net.InetSocketAddress;
+
+import de.uni_stuttgart.caas.base.LocationOfNode;
+
+/**
+ * Query for the K objects nearest to QUERY_LOCATION.
+ */
+public class KnnQueryMessage extends RegionQueryMessage {
+
+	/**
+	 * How the nodes search for the nearest objects
+	 */
+	public enum Search {
+		/**
+		 * Each node sends subqueries to all neighbors whose cells may hold
+		 * objects nearer than the k-th nearest one it found itself, at once.
+		 * Fast, but the neighbors are asked before any of them narrowed the
+		 * search down.
+		 */
+		BROADCAST,
+
+		/**
+		 * Each node asks one neighbor at a time, the one whose cell comes
+		 * nearest to QUERY_LOCATION first, and narrows the search down with
+		 * every answer before asking the next one. The search grows outwards
+		 * in rings over the neighbor graph and stops once no cell left can
+		 * hold a nearer object, so fewer nodes are asked at the cost of
+		 * latency.
+		 */
+		EXPANDING_RING
+	}
+
+	/**
+	 * Number of objects asked for
+	 */
+	public final int K;
+
+	/**
+	 * Objects farther away than this from QUERY_LOCATION are not needed. Set
+	 * on subqueries to the distance of the k-th nearest object the sending
+	 * node knows of already, infinite otherwise.
+	 */
+	public final double MAX_DISTANCE;
+
+	public final Search SEARCH;
+
+	public KnnQueryMessage(LocationOfNode center, int k, String ip, int port, long id) {
+		this(center, k, ip, port, null, id);
+	}
+
+	public KnnQueryMessage(LocationOfNode center, int k, String ip, int port, InetSocketAddress entryLocation, long id) {
+		this(center, k, Search.BROADCAST, ip, port, entryLocation, id);
+	}
+
+	public KnnQueryMessage(LocationOfNode center, int k, Search search, String ip, int port, InetSocketAddress entryLocation, long id) {
+		super(center, ip, port, entryLocation, id);
+		assert k > 0;
+		assert search != null;
+		K = k;
+		MAX_DISTANCE = Double.POSITIVE_INFINITY;
+		SEARCH = search;
+	}
+
+	/**
+	 * Restores a kNN query including its routing state, used by codecs.
+	 */
+	KnnQueryMessage(LocationOfNode center, int k, double maxDistance, Search search, String ip, int port, InetSocketAddress entryLocation, long id,
+			boolean allowPropagation, String debuggingInfo, long[] visited, long timeoutMillis) {
+		super(center, ip, port, entryLocation, id, allowPropagation, debuggingInfo, visited, timeoutMillis);
+		K = k;
+		MAX_DISTANCE = maxDistance;
+		SEARCH = search;
+	}
+
+	@Override
+	public MessageType getMessageType() {
+		return MessageType.KNN_QUERY;
+	}
+
+	@Override
+	public double getRadius() {
+		return MAX_DISTANCE;
+	}
+
+	@Override
+	public int getLimit() {
+		return K;
+	}
+
+	@Override
+	public KnnQueryMessage subquery(double maxDistance, long[] visited, long timeoutMillis) {
+		assert maxDistance <= MAX_DISTANCE;
+		return new KnnQueryMessage(QUERY_LOCATION, K, maxDistance, SEARCH, CLIENT_IP, CLIENT_PORT, ENTRY_LOCATION, ID, false, getDebuggingInfo(), visited,
+				timeoutMillis);
+	}
+}
@@ -0,0 +1,22 @@
+package de.uni_stuttgart.caas.messages;
+
+import de.uni_stuttgart.caas.base.OwnershipTable;
+
+/**
+ * Sent by the admin to all cache nodes once the grid is running and whenever
+ * it changes, carrying the current OwnershipTable.
+ */
+public class OwnershipTableMessage implements IMessage {
+
+	public final OwnershipTable TABLE;
+
+	public OwnershipTableMessage(OwnershipTable table) {
+		assert table != null;
+		TABLE = table;
+	}
+
+	@Override
+	public MessageType getMessageType() {
+		return MessageType.OWNERSHIP_TABLE;
+	}
+}
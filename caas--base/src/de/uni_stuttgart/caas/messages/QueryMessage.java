@@ -62,6 +62,15 @@ public class QueryMessage implements IMessage {
 		ID = id;
 	}
 	
+	/**
+	 * Restores a query message including its routing state, used by codecs.
+	 */
+	QueryMessage(LocationOfNode l, String ip, int port, InetSocketAddress entryLocation, long id, boolean allowPropagation, String debuggingInfo) {
+		this(l, ip, port, entryLocation, id);
+		allowPropagationThroughNetwork = allowPropagation;
+		this.debuggingInfo = debuggingInfo;
+	}
+	
 	@Override
 	public MessageType getMessageType() {
 		return MessageType.QUERY_MESSAGE;
@@ -82,5 +91,28 @@ public class QueryMessage implements IMessage {
 	public String getDebuggingInfo() {
 		return debuggingInfo;
 	}
+	
+	/**
+	 * Get the number of nodes the query visited, i.e. that appended their id
+	 * and a '-' to the debugging info.
+	 */
+	public int getVisitedNodeCount() {
+		return getVisitedNodeCount(debuggingInfo);
+	}
+
+	/**
+	 * Get the number of nodes listed in the debugging info of a query, or of
+	 * the QueryResult answering it. Ids may be negative, so only a '-'
+	 * following a digit ends an id.
+	 */
+	public static int getVisitedNodeCount(String debuggingInfo) {
+		int count = 0;
+		for (int i = 1; i < debuggingInfo.length(); ++i) {
+			if (debuggingInfo.charAt(i) == '-' && Character.isDigit(debuggingInfo.charAt(i - 1))) {
+				++count;
+			}
+		}
+		return count;
+	}
 
 }
@@ -1,30 +1,91 @@
 package de.uni_stuttgart.caas.messages;
 
+import java.util.Collections;
+import java.util.List;
+
+import de.uni_stuttgart.caas.base.Aggregate;
+import de.uni_stuttgart.caas.base.SpatialObject;
+
 public class QueryResult implements IMessage {
 
-	
-	
+
+
 	private String debuggingInfo;
-	
+
 	public final long ID;
-	
-	
+
+	/**
+	 * Whether the node that processed the query found the objects in its
+	 * cache
+	 */
+	private final boolean cacheHit;
+
+	/**
+	 * Objects found for the query location
+	 */
+	private final List<SpatialObject> objects;
+
+	/**
+	 * Aggregate of the objects found for aggregate queries, null otherwise
+	 */
+	private final Aggregate aggregate;
+
 	public QueryResult(String debuggingInfo, long id) {
+		this(debuggingInfo, id, false, Collections.<SpatialObject> emptyList());
+	}
+
+	public QueryResult(String debuggingInfo, long id, boolean cacheHit, List<SpatialObject> objects) {
+		assert objects != null;
+		this.debuggingInfo = debuggingInfo;
+		ID = id;
+		this.cacheHit = cacheHit;
+		this.objects = Collections.unmodifiableList(objects);
+		aggregate = null;
+	}
+
+	/**
+	 * Result of an aggregate query. The aggregate must not be modified
+	 * afterwards.
+	 */
+	public QueryResult(String debuggingInfo, long id, boolean cacheHit, Aggregate aggregate) {
+		assert aggregate != null;
 		this.debuggingInfo = debuggingInfo;
 		ID = id;
+		this.cacheHit = cacheHit;
+		objects = Collections.emptyList();
+		this.aggregate = aggregate;
 	}
-	
+
 	@Override
 	public MessageType getMessageType() {
 		return MessageType.QUERY_RESULT;
 	}
-	
+
 	public void appendToDebbugingInfo(String s) {
 		debuggingInfo += s;
 	}
-	
+
 	public String getDebuggingInfo() {
 		return debuggingInfo;
 	}
 
+	public boolean isCacheHit() {
+		return cacheHit;
+	}
+
+	/**
+	 * @return Non-null, unmodifiable list of the objects found
+	 */
+	public List<SpatialObject> getObjects() {
+		return objects;
+	}
+
+	/**
+	 * @return Aggregate of the objects found for aggregate queries, null for
+	 *         other queries
+	 */
+	public Aggregate getAggregate() {
+		return aggregate;
+	}
+
 }
@@ -0,0 +1,71 @@
+package de.uni_stuttgart.caas.messages;
+
+import java.net.InetSocketAddress;
+
+import de.uni_stuttgart.caas.base.LocationOfNode;
+
+/**
+ * Query for all objects within RADIUS of QUERY_LOCATION, or the LIMIT ones
+ * nearest to it.
+ */
+public class RangeQueryMessage extends RegionQueryMessage {
+
+	/**
+	 * Radius of the query in grid units
+	 */
+	public final double RADIUS;
+
+	/**
+	 * Maximum number of objects to return, the ones nearest to QUERY_LOCATION
+	 * are kept. 0 for no limit.
+	 */
+	public final int LIMIT;
+
+	public RangeQueryMessage(LocationOfNode center, double radius, String ip, int port, long id) {
+		this(center, radius, 0, ip, port, null, id);
+	}
+
+	public RangeQueryMessage(LocationOfNode center, double radius, String ip, int port, InetSocketAddress entryLocation, long id) {
+		this(center, radius, 0, ip, port, entryLocation, id);
+	}
+
+	public RangeQueryMessage(LocationOfNode center, double radius, int limit, String ip, int port, InetSocketAddress entryLocation, long id) {
+		super(center, ip, port, entryLocation, id);
+		assert radius >= 0;
+		assert limit >= 0;
+		RADIUS = radius;
+		LIMIT = limit;
+	}
+
+	/**
+	 * Restores a range query including its routing state, used by codecs.
+	 */
+	RangeQueryMessage(LocationOfNode center, double radius, int limit, String ip, int port, InetSocketAddress entryLocation, long id,
+			boolean allowPropagation, String debuggingInfo, long[] visited, long timeoutMillis) {
+		super(center, ip, port, entryLocation, id, allowPropagation, debuggingInfo, visited, timeoutMillis);
+		RADIUS = radius;
+		LIMIT = limit;
+	}
+
+	@Override
+	public MessageType getMessageType() {
+		return MessageType.RANGE_QUERY;
+	}
+
+	@Override
+	public double getRadius() {
+		return RADIUS;
+	}
+
+	@Override
+	public int getLimit() {
+		return LIMIT;
+	}
+
+	@Override
+	public RangeQueryMessage subquery(double radius, long[] visited, long timeoutMillis) {
+		assert radius <= RADIUS;
+		return new RangeQueryMessage(QUERY_LOCATION, radius, LIMIT, CLIENT_IP, CLIENT_PORT, ENTRY_LOCATION, ID, false, getDebuggingInfo(), visited,
+				timeoutMillis);
+	}
+}
@@ -0,0 +1,113 @@
+package de.uni_stuttgart.caas.messages;
+
+import java.net.InetSocketAddress;
+
+import de.uni_stuttgart.caas.base.LocationOfNode;
+
+/**
+ * Base class of queries that ask for the objects in a region around
+ * QUERY_LOCATION rather than at a single point. The region may extend into
+ * the Voronoi cells of many nodes.
+ * 
+ * The query is routed to the node owning QUERY_LOCATION like any other query.
+ * That node coordinates it: it answers for its own cell and sends subqueries
+ * to the neighbors whose cells the region reaches, which do the same for
+ * their neighbors in turn. Subqueries are answered with a QueryResult as the
+ * response message, which each node merges with its own objects before
+ * responding itself, so the client gets a single result from the
+ * coordinator.
+ * 
+ * To keep nodes from answering twice, a subquery carries the ids of all
+ * nodes it was sent to so far.
+ */
+public abstract class RegionQueryMessage extends QueryMessage {
+
+	/**
+	 * Whether this is a subquery sent by another node
+	 */
+	private final boolean subquery;
+
+	/**
+	 * Ids of the nodes the query was sent to already, null for queries from
+	 * clients
+	 */
+	private final long[] visited;
+
+	/**
+	 * Time the sender waits for the answer to a subquery, in milliseconds
+	 */
+	private final long timeoutMillis;
+
+	protected RegionQueryMessage(LocationOfNode center, String ip, int port, InetSocketAddress entryLocation, long id) {
+		super(center, ip, port, entryLocation, id);
+		subquery = false;
+		visited = null;
+		timeoutMillis = 0;
+	}
+
+	/**
+	 * Restores a region query including its routing state, used by codecs
+	 * and by subquery().
+	 */
+	RegionQueryMessage(LocationOfNode center, String ip, int port, InetSocketAddress entryLocation, long id, boolean allowPropagation,
+			String debuggingInfo, long[] visited, long timeoutMillis) {
+		super(center, ip, port, entryLocation, id, allowPropagation, debuggingInfo);
+		subquery = visited != null;
+		this.visited = visited;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	public boolean isSubquery() {
+		return subquery;
+	}
+
+	/**
+	 * Check whether the query was sent to a node already
+	 */
+	public boolean wasSentTo(long nodeId) {
+		if (visited != null) {
+			for (long id : visited) {
+				if (id == nodeId) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return Copy of the ids of the nodes the query was sent to already,
+	 *         empty for queries from clients
+	 */
+	public long[] getVisited() {
+		return visited == null ? new long[0] : visited.clone();
+	}
+
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	/**
+	 * Get the radius of the region around QUERY_LOCATION, possibly infinite
+	 */
+	public abstract double getRadius();
+
+	/**
+	 * Get the number of objects nearest to QUERY_LOCATION the query asks for
+	 * at most, 0 for all objects in the region.
+	 */
+	public abstract int getLimit();
+
+	/**
+	 * Create a subquery to send to other nodes.
+	 * 
+	 * @param radius
+	 *            Radius of the region to ask for, at most getRadius()
+	 * @param visited
+	 *            Ids of all nodes the query was sent to, including the ones
+	 *            the subquery goes to
+	 * @param timeoutMillis
+	 *            Time the sender waits for the answer
+	 */
+	public abstract RegionQueryMessage subquery(double radius, long[] visited, long timeoutMillis);
+}
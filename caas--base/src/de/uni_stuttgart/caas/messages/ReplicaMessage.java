@@ -0,0 +1,45 @@
+package de.uni_stuttgart.caas.messages;
+
+import java.util.List;
+
+import de.uni_stuttgart.caas.base.SpatialObject;
+
+/**
+ * Sent by the owner of a hot cell of the SpatialCache grid to a neighbor,
+ * carrying a read replica of the cell's objects. The neighbor may answer
+ * queries for the cell from it until the lease runs out, counted from when
+ * the message arrives. A replica replaces one of the same cell with a lower
+ * version. Answered with a ConfirmationMessage.
+ */
+public class ReplicaMessage implements IMessage {
+
+	public final long CELL;
+
+	public final long OWNER_ID;
+
+	/**
+	 * Version of the cell's objects at the owner, increasing whenever the
+	 * owner fetches them anew
+	 */
+	public final long VERSION;
+
+	public final long LEASE_MILLIS;
+
+	public final List<SpatialObject> OBJECTS;
+
+	public ReplicaMessage(long cell, long ownerId, long version, long leaseMillis, List<SpatialObject> objects) {
+		assert leaseMillis > 0;
+		assert objects != null;
+
+		CELL = cell;
+		OWNER_ID = ownerId;
+		VERSION = version;
+		LEASE_MILLIS = leaseMillis;
+		OBJECTS = objects;
+	}
+
+	@Override
+	public MessageType getMessageType() {
+		return MessageType.REPLICA;
+	}
+}
@@ -0,0 +1,37 @@
+package de.uni_stuttgart.caas.messages;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Sent by the owner of a query's location to the query listener of the node
+ * the query entered the grid at, if the query took more than one hop to get
+ * to the owner. Tells the entry node which buckets of the grid around the
+ * location the owner owns entirely, so it can send later queries for them
+ * directly.
+ */
+public class RouteHintMessage implements IMessage {
+
+	/**
+	 * Buckets owned, packed like the cells of the SpatialCache grid, see
+	 * RouteCache
+	 */
+	public final long[] BUCKETS;
+
+	public final long OWNER_ID;
+
+	/**
+	 * Address of the owner's query listener
+	 */
+	public final InetSocketAddress OWNER_ADDRESS;
+
+	public RouteHintMessage(long[] buckets, long ownerId, InetSocketAddress ownerAddress) {
+		BUCKETS = buckets;
+		OWNER_ID = ownerId;
+		OWNER_ADDRESS = ownerAddress;
+	}
+
+	@Override
+	public MessageType getMessageType() {
+		return MessageType.ROUTE_HINT;
+	}
+}
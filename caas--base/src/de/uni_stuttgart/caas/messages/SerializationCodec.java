@@ -0,0 +1,71 @@
+package de.uni_stuttgart.caas.messages;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * IMessageCodec based on plain Java serialization. Every message is written as
+ * a length-prefixed, self-contained serialization stream.
+ *
+ * This is the most general codec as it handles any IMessage, but it is also
+ * the slowest and produces the largest messages as class descriptors are
+ * repeated for every single message. BinaryCodec uses it as a fallback for
+ * message types it does not know.
+ */
+public class SerializationCodec implements IMessageCodec {
+
+	public static final int CODEC_ID = 0x4a415641; // 'JAVA'
+	public static final int VERSION = 1;
+
+	public static final SerializationCodec INSTANCE = new SerializationCodec();
+
+	@Override
+	public int getCodecId() {
+		return CODEC_ID;
+	}
+
+	@Override
+	public int getVersion() {
+		return VERSION;
+	}
+
+	@Override
+	public void encode(IMessage message, DataOutput out) throws IOException {
+		assert message != null;
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		final ObjectOutputStream objOut = new ObjectOutputStream(bytes);
+		objOut.writeObject(message);
+		objOut.close();
+
+		out.writeInt(bytes.size());
+		out.write(bytes.toByteArray());
+	}
+
+	@Override
+	public IMessage decode(DataInput in) throws IOException {
+		final int length = in.readInt();
+		if (length < 0 || length > MAX_MESSAGE_BYTES) {
+			throw new IOException("(SerializationCodec) invalid message length " + length);
+		}
+
+		final byte[] bytes = new byte[length];
+		in.readFully(bytes);
+
+		final ObjectInputStream objIn = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		try {
+			return (IMessage) objIn.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("(SerializationCodec) class not known to VM", e);
+		} catch (ClassCastException e) {
+			throw new IOException("(SerializationCodec) wrong class type, expected IMessage", e);
+		} finally {
+			objIn.close();
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package de.uni_stuttgart.caas.messages;
+
+/**
+ * Sent by a cache node to its neighbors and to the admin whenever it changed
+ * its weight, see NodeInfo.getWeight(). Nodes spawned by a subdivision share
+ * their connection to the admin, hence the id of the node. Answered with a
+ * ConfirmationMessage.
+ */
+public class WeightMessage implements IMessage {
+
+	public final long ID;
+
+	public final double WEIGHT;
+
+	public WeightMessage(long id, double weight) {
+		ID = id;
+		WEIGHT = weight;
+	}
+
+	@Override
+	public MessageType getMessageType() {
+		return MessageType.WEIGHT;
+	}
+}
@@ -4,8 +4,9 @@ public enum CacheBehaviourFlags {
 
 	/**
 	 * LoadBalancing: if a node is set to process a given query, but its own
-	 * load exceeds a threshold value, the work is propagated to a random
-	 * neighbor node (which is forced to process the query).
+	 * load exceeds a threshold value, the work is propagated to the less
+	 * loaded of two random neighbor nodes (which is forced to process the
+	 * query). Nodes send their load to their neighbors for this.
 	 */
 	NEIGHBOR_PROPAGATION,
 
@@ -31,4 +32,69 @@ public enum CacheBehaviourFlags {
 	 */
 	ADD_FAKE_NEIGHBOR_LATENCY,
 
+	/**
+	 * Use non-blocking I/O (FullDuplexMPI.Transport.NIO) for the connections
+	 * to neighbors and to the admin instead of two threads per connection.
+	 */
+	NIO_TRANSPORT,
+
+	/**
+	 * Keep the objects in the node's cache in off-heap memory (see
+	 * OffHeapCellStore) rather than on the Java heap.
+	 */
+	OFF_HEAP_CACHE,
+
+	/**
+	 * Only admit cells into the node's cache that were queried more often
+	 * recently than the cell they would evict (TinyLFU), see SpatialCache.
+	 */
+	FREQUENCY_ADMISSION,
+
+	/**
+	 * Keep the aggregates of the cells aggregate queries visit in a
+	 * DensityGrid, so later aggregate queries covering them need not look at
+	 * or fetch their objects.
+	 */
+	DENSITY_GRID,
+
+	/**
+	 * Send queries entering the grid at a node directly to the node owning
+	 * their location, as told by the OwnershipTable the admin sends, instead
+	 * of routing them greedily from neighbor to neighbor.
+	 */
+	ONE_HOP_ROUTING,
+
+	/**
+	 * Learn which node owns the locations of queries entering the grid at a
+	 * node from the owners, and send later queries for nearby locations to
+	 * them directly, see RouteCache.
+	 */
+	ROUTE_CACHE,
+
+	/**
+	 * Keep CacheNode.LONG_RANGE_LINK_COUNT connections to nodes other than the
+	 * neighbors, picked with a probability falling with the square of their
+	 * distance (see LongRangeLinks), and route queries greedily along them as
+	 * well. They are picked anew from each OwnershipTable the admin sends.
+	 */
+	LONG_RANGE_LINKS,
+
+	/**
+	 * Owners of cells of the SpatialCache grid that get many queries send read
+	 * replicas of them to lightly loaded neighbors, and spread the queries for
+	 * them over themselves and the replicas by load. Replicas are versioned and
+	 * leased, see ReplicaStore.
+	 */
+	HOT_CELL_REPLICAS,
+
+	/**
+	 * Nodes own the cells of the power diagram of their weighted locations
+	 * rather than of their Voronoi diagram. Nodes owning more queries than
+	 * they can answer shrink their weight and lightly loaded neighbors grow
+	 * theirs, moving boundaries and the cached cells behind them instead of
+	 * adding nodes. Routing, regions and the admin's OwnershipTable all use
+	 * the weights, see VoronoiRegion.
+	 */
+	WEIGHTED_OWNERSHIP,
+
 }
@@ -7,21 +7,38 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import de.uni_stuttgart.caas.base.Aggregate;
+import de.uni_stuttgart.caas.base.ExecutionPolicy;
 import de.uni_stuttgart.caas.base.FullDuplexMPI;
 import de.uni_stuttgart.caas.base.FullDuplexMPI.IResponseHandler;
 import de.uni_stuttgart.caas.base.LocationOfNode;
 import de.uni_stuttgart.caas.base.LogSender;
 import de.uni_stuttgart.caas.base.NodeInfo;
+import de.uni_stuttgart.caas.base.OwnershipTable;
+import de.uni_stuttgart.caas.base.SerialExecutor;
+import de.uni_stuttgart.caas.base.SpatialObject;
 import de.uni_stuttgart.caas.messages.*;
 import de.uni_stuttgart.caas.messages.IMessage.MessageType;
 
@@ -33,6 +50,12 @@ public class CacheNode {
 
 	private final EnumSet<CacheBehaviourFlags> config;
 
+	/**
+	 * Transport used for all FullDuplexMPI connections of the node, derived
+	 * from CacheBehaviourFlags.NIO_TRANSPORT.
+	 */
+	private final FullDuplexMPI.Transport transport;
+
 	/**
 	 * Number of connections per second allowed before the node starts
 	 * forwarding queries to neighbors.
@@ -41,14 +64,104 @@ public class CacheNode {
 	private final LoadTracker tracker;
 
 	/**
-	 * Fake time for processing a query if the query produces a cache hit
-	 * respectively a cache miss, in milliseconds.
+	 * Nominal time for processing a query that hits the cache, in
+	 * milliseconds. Hits are actually served from memory, the constant only
+	 * serves as the unit of QUERY_PROCESSING_TIME_MISS.
 	 */
 	public static final int QUERY_PROCESSING_TIME_HIT = 1000 / MAX_QUERIES_PER_SECOND;
+
+	/**
+	 * Latency of the default origin, i.e. the fake time for fetching the
+	 * objects of a cell from the backing store on a cache miss, in
+	 * milliseconds.
+	 */
 	public static final int QUERY_PROCESSING_TIME_MISS = QUERY_PROCESSING_TIME_HIT * 10;
 
+	/**
+	 * Default maximum size of the objects a node caches, see SpatialCache.
+	 */
+	public static final long CACHE_CAPACITY_BYTES = 1024 * 1024;
+	private final SpatialCache cache;
+
+	/**
+	 * Fetches cells missing from the cache, shared by concurrent misses.
+	 */
+	private final CellLoader loader;
+
+	/**
+	 * Answers range and kNN queries for the objects in the node's Voronoi
+	 * cell.
+	 */
+	private final SpatialIndex index;
+
+	/**
+	 * Largest radius of a range query, in grid units. Larger radii are
+	 * clamped, so that a query cannot make a node fetch an unbounded number
+	 * of cells.
+	 */
+	public static final double MAX_RANGE_RADIUS = 8L << SpatialCache.CELL_SHIFT;
+
+	/**
+	 * Largest radius of an aggregate query, in grid units, larger radii are
+	 * clamped. Aggregate queries return the same amount of data whatever
+	 * their radius, but still make nodes look at all cells they cover.
+	 */
+	public static final double MAX_AGGREGATE_RADIUS = 16L << SpatialCache.CELL_SHIFT;
+
+	/**
+	 * Number of cells the DensityGrid of a node holds at most, see
+	 * CacheBehaviourFlags.DENSITY_GRID
+	 */
+	public static final int DENSITY_GRID_CELLS = 16 * 1024;
+
+	/**
+	 * Largest number of objects a kNN query may ask for, larger values are
+	 * clamped.
+	 */
+	public static final int MAX_KNN_K = 1024;
+
+	/**
+	 * Distance beyond which kNN queries do not look for objects, in grid
+	 * units. SpatialIndex.nearest() does not find objects beyond MAX_RINGS
+	 * rings of cells anyway, so without enough objects nearer than this the
+	 * query would otherwise be passed on to every node without any of them
+	 * finding more.
+	 */
+	public static final double MAX_KNN_DISTANCE = Math.sqrt(2) * (SpatialIndex.MAX_RINGS << SpatialCache.CELL_SHIFT);
+
+	/**
+	 * Time the coordinator of a range or kNN query waits for neighbors to
+	 * answer its subqueries before answering the client without their
+	 * objects.
+	 */
+	public static final long REGION_QUERY_TIMEOUT_MILLIS = 10000;
+
+	/**
+	 * A node answering a subquery plans to do so this much earlier than its
+	 * sender stops waiting, so the answer arrives in time.
+	 */
+	public static final long REGION_QUERY_HOP_MARGIN_MILLIS = 1000;
+
+	/**
+	 * Number of region queries a node remembers having answered, beyond
+	 * which old ones are forgotten.
+	 */
+	public static final int MAX_RECENT_REGION_QUERIES = 1024;
+
 	public static final double SUBDIVISION_LOAD_THRESHOLD = 2.0;
 
+	/**
+	 * Time to wait for the other vertices of a triangle to respond during
+	 * scale-in before giving up.
+	 */
+	public static final long SUBDIVISION_TIMEOUT_MILLIS = 5000;
+
+	/**
+	 * Number of messages waiting to be sent to a neighbor above which the
+	 * neighbor is considered congested, see isCongested().
+	 */
+	public static final int NEIGHBOR_QUEUE_DEPTH_LIMIT = 64;
+
 	/**
 	 * Fake latency introduced into any messages received from neighboring nodes
 	 * to simulate a real, physical network instead of loopback. Set to 0 if the
@@ -56,6 +169,24 @@ public class CacheNode {
 	 */
 	public static final int FAKE_NEIGHBOR_LATENCY = 2;
 
+	/**
+	 * Minimum time between two LoadMessages a node sends its neighbors, see
+	 * gossipLoad()
+	 */
+	public static final long LOAD_GOSSIP_INTERVAL_MILLIS = 100;
+
+	/**
+	 * Change of the load since it was last sent to the neighbors below which
+	 * it is not sent again
+	 */
+	public static final double LOAD_GOSSIP_DELTA = 0.1;
+
+	/**
+	 * Time after which the load is sent to the neighbors even if it did not
+	 * change, so new neighbors learn about it
+	 */
+	public static final long LOAD_GOSSIP_REFRESH_MILLIS = 2000;
+
 	/** Default port to send log messages to on the logging node */
 	public static final int DEFAULT_LOG_RECEIVER_PORT = 43215;
 
@@ -80,6 +211,164 @@ public class CacheNode {
 	private volatile HashMap<NodeInfo, NeighborConnector> neighborConnectors;
 	private final Object regenerateNeighborConnectorsMonitor = new Object();
 
+	/**
+	 * Snapshot of neighborConnectors and longRangeLinks for processQuery(),
+	 * replaced along with them by setNeighborConnectors() and
+	 * setLongRangeLinks()
+	 */
+	private volatile RoutingTable<NeighborConnector> routes;
+
+	/**
+	 * Long-range links of the node to nodes other than its neighbors, keyed
+	 * by the node they lead to, see CacheBehaviourFlags.LONG_RANGE_LINKS.
+	 * Only updateLongRangeLinks() builds a new map, holding
+	 * longRangeLinksMonitor while it does, and then
+	 * regenerateNeighborConnectorsMonitor to write the reference back. The
+	 * locks must be taken in that order. close() only holds the latter.
+	 */
+	private volatile HashMap<NodeInfo, NeighborConnector> longRangeLinks = new HashMap<>();
+	private final Object longRangeLinksMonitor = new Object();
+
+	/**
+	 * Runs updateLongRangeLinks() one call after the other. An update that
+	 * is queued already picks up any newer OwnershipTable, so no further one
+	 * is queued while it waits.
+	 */
+	private final ExecutorService longRangeLinkThreads = ExecutionPolicy.get().newExecutor("caas-long-range-links");
+	private final Executor longRangeLinkUpdates = new SerialExecutor(longRangeLinkThreads);
+	private final AtomicBoolean longRangeLinkUpdateQueued = new AtomicBoolean();
+
+	/**
+	 * Connections other nodes opened to this node as their long-range links
+	 */
+	private final Set<NeighborConnector> incomingLinks = Collections.newSetFromMap(new ConcurrentHashMap<NeighborConnector, Boolean>());
+
+	/**
+	 * Number of long-range links a node keeps, see
+	 * CacheBehaviourFlags.LONG_RANGE_LINKS
+	 */
+	public static final int LONG_RANGE_LINK_COUNT = Integer.getInteger("caas.longRangeLinks", 2);
+
+	/**
+	 * Nodes created by subdivision that are yet to connect to this node as
+	 * their neighbor, keyed by their id
+	 */
+	private final Map<Long, NodeInfo> expectedNeighbors = new ConcurrentHashMap<>();
+
+	/**
+	 * Table of which node owns which location, as last sent by the admin,
+	 * null until the first one arrives. See
+	 * CacheBehaviourFlags.ONE_HOP_ROUTING.
+	 */
+	private volatile OwnershipTable ownership;
+
+	/**
+	 * Owners of locations of queries that entered the grid at this node, null
+	 * unless CacheBehaviourFlags.ROUTE_CACHE is set. Cleared whenever the
+	 * neighbors or the OwnershipTable change.
+	 */
+	private final RouteCache routeCache;
+
+	/**
+	 * Number of routes the RouteCache of a node holds at most
+	 */
+	public static final int ROUTE_CACHE_ENTRIES = 4096;
+
+	/**
+	 * Number of buckets an owner tells an entry node about at most, see
+	 * sendRouteHint()
+	 */
+	public static final int MAX_ROUTE_HINT_BUCKETS = 256;
+
+	/**
+	 * Number of queries a cell of the SpatialCache grid has to get within
+	 * HOT_CELL_WINDOW_MILLIS to be hot, see CacheBehaviourFlags.HOT_CELL_REPLICAS
+	 */
+	public static final int HOT_CELL_QUERIES = MAX_QUERIES_PER_SECOND / 4;
+	public static final long HOT_CELL_WINDOW_MILLIS = 1000;
+
+	/**
+	 * Number of neighbors the owner of a hot cell sends replicas of it to
+	 */
+	public static final int REPLICAS_PER_HOT_CELL = 2;
+
+	/**
+	 * Time a replica may be read for, the owner renews it after half of it
+	 * while the cell stays hot
+	 */
+	public static final long REPLICA_LEASE_MILLIS = 4000;
+
+	/**
+	 * Number of replicas of other nodes' cells a node holds at most
+	 */
+	public static final int MAX_REPLICAS = 1024;
+
+	/**
+	 * Queries per cell the node owns, null unless
+	 * CacheBehaviourFlags.HOT_CELL_REPLICAS is set
+	 */
+	private final HotCellTracker hotCells;
+
+	/**
+	 * Replicas the node holds of hot cells of its neighbors, null unless
+	 * CacheBehaviourFlags.HOT_CELL_REPLICAS is set
+	 */
+	private final ReplicaStore replicas;
+
+	/**
+	 * Neighbors holding replicas of the hot cells of this node, keyed by
+	 * cell, see replicateHotCell()
+	 */
+	private final ConcurrentHashMap<Long, ReplicaSet<Entry<NodeInfo, NeighborConnector>>> replicaHolders = new ConcurrentHashMap<>();
+	private final AtomicLong replicaVersions = new AtomicLong();
+
+	/**
+	 * Time between two adjustments of a node's weight, see adjustWeight()
+	 */
+	public static final long WEIGHT_ADJUST_INTERVAL_MILLIS = 1000;
+
+	/**
+	 * Change of a node's weight per adjustment, as a fraction of the squared
+	 * distance to its nearest neighbor
+	 */
+	public static final double WEIGHT_STEP_FRACTION = 0.05;
+
+	/**
+	 * Largest weight a node takes on either way, as a fraction of the squared
+	 * distance to its nearest neighbor. The bisector between two nodes then
+	 * moves by at most a quarter of their distance, so every node keeps its
+	 * own location and the neighbors of its unweighted cell.
+	 */
+	public static final double MAX_WEIGHT_FRACTION = 0.25;
+
+	/**
+	 * Queries owned, relative to MAX_QUERIES_PER_SECOND, below which a node
+	 * takes over cells from its neighbors
+	 */
+	public static final double WEIGHT_LOW_DEMAND = 0.5;
+
+	/**
+	 * Weight of the node in the power diagram partitioning the grid, see
+	 * CacheBehaviourFlags.WEIGHTED_OWNERSHIP. Changed while holding
+	 * weightMonitor, as are the weights of the neighbors.
+	 */
+	private volatile double weight = 0;
+	private final Object weightMonitor = new Object();
+	private volatile long lastWeightSent;
+
+	/**
+	 * Queries for locations the node owns, whether it answers them itself or
+	 * not, null unless CacheBehaviourFlags.WEIGHTED_OWNERSHIP is set
+	 */
+	private final LoadTracker demand;
+	private final AtomicLong cellHandoversSent = new AtomicLong();
+
+	/**
+	 * Address other nodes reach the node's QueryListener at, null for nodes
+	 * created by subdivision, which have none
+	 */
+	private InetSocketAddress queryListenerAddress;
+
 	/**
 	 * Current state - volatile because it is read and written to concurrently
 	 */
@@ -110,16 +399,47 @@ public class CacheNode {
 	private final ScaleInController scaleIn = new ScaleInController();
 
 	/**
-	 * Construct a new cache node given the address of the admin node
+	 * Construct a new cache node given the address of the admin node. Cache
+	 * misses are served by a SyntheticOrigin with a latency of
+	 * QUERY_PROCESSING_TIME_MISS.
 	 * 
 	 * @param addr
 	 *            address info of the admin node
 	 * @throws IOException
 	 */
 	public CacheNode(InetSocketAddress addr, EnumSet<CacheBehaviourFlags> _config) throws IOException {
+		this(addr, _config, new SyntheticOrigin(QUERY_PROCESSING_TIME_MISS), CACHE_CAPACITY_BYTES);
+	}
+
+	/**
+	 * Construct a new cache node given the address of the admin node
+	 * 
+	 * @param addr
+	 *            address info of the admin node
+	 * @param origin
+	 *            Backing store to serve cache misses from, also used by all
+	 *            nodes this node creates during scale-in
+	 * @param cacheCapacityBytes
+	 *            Maximum size of the objects the node caches, on the heap or,
+	 *            with CacheBehaviourFlags.OFF_HEAP_CACHE, off-heap. Nodes
+	 *            created during scale-in get the same capacity.
+	 * @throws IOException
+	 */
+	public CacheNode(InetSocketAddress addr, EnumSet<CacheBehaviourFlags> _config, Origin origin, long cacheCapacityBytes) throws IOException {
+		assert origin != null;
+
 		tracker = new LoadTracker(MAX_QUERIES_PER_SECOND, 1000);
 
 		config = _config == null ? EnumSet.noneOf(CacheBehaviourFlags.class) : _config;
+		cache = new SpatialCache(cacheCapacityBytes, config.contains(CacheBehaviourFlags.OFF_HEAP_CACHE),
+				config.contains(CacheBehaviourFlags.FREQUENCY_ADMISSION));
+		loader = new CellLoader(cache, origin);
+		index = new SpatialIndex(loader, config.contains(CacheBehaviourFlags.DENSITY_GRID) ? new DensityGrid(DENSITY_GRID_CELLS) : null);
+		transport = selectTransport(config);
+		routeCache = config.contains(CacheBehaviourFlags.ROUTE_CACHE) ? new RouteCache(ROUTE_CACHE_ENTRIES) : null;
+		hotCells = config.contains(CacheBehaviourFlags.HOT_CELL_REPLICAS) ? new HotCellTracker(HOT_CELL_QUERIES, HOT_CELL_WINDOW_MILLIS) : null;
+		replicas = config.contains(CacheBehaviourFlags.HOT_CELL_REPLICAS) ? new ReplicaStore(MAX_REPLICAS) : null;
+		demand = config.contains(CacheBehaviourFlags.WEIGHTED_OWNERSHIP) ? new LoadTracker(MAX_QUERIES_PER_SECOND, 1000) : null;
 		logger = new LogSender(new InetSocketAddress("localhost", DEFAULT_LOG_RECEIVER_PORT));
 
 		if (addr.isUnresolved()) {
@@ -128,10 +448,11 @@ public class CacheNode {
 
 		// bind it to a random port since more than one CacheNode might reside
 		// on the same Computer
-		serverSocket = new ServerSocket(0);
-		new Thread(queryListener = new QueryListener(this, logger)).start();
+		serverSocket = transport.newServerSocket(0);
+		ExecutionPolicy.get().start("caas-query-listener", queryListener = new QueryListener(this, logger));
 
 		final int port = queryListener.getPort();
+		queryListenerAddress = new InetSocketAddress(Inet4Address.getLocalHost().getHostAddress(), port);
 		logger.write("listening for queries on port" + port);
 
 		// constructing the AdminConnector fires up the CacheNode's lifecycle
@@ -162,13 +483,14 @@ public class CacheNode {
 	 * @throws IOException
 	 */
 	private CacheNode(long _id, LocationOfNode _position, List<NodeInfo> neighbors, LogSender _logger, ServerSocket _serverSocket,
-			EnumSet<CacheBehaviourFlags> _config, AdminConnector _existingAdminChannel) throws IOException {
+			EnumSet<CacheBehaviourFlags> _config, AdminConnector _existingAdminChannel, Origin origin, long cacheCapacityBytes) throws IOException {
 
 		assert _config != null;
 		assert neighbors != null;
 		assert _logger != null;
 		assert _serverSocket != null;
 		assert _position != null;
+		assert origin != null;
 
 		tracker = new LoadTracker(MAX_QUERIES_PER_SECOND, 1000);
 
@@ -176,18 +498,36 @@ public class CacheNode {
 		connectionToAdmin = _existingAdminChannel;
 
 		config = _config;
+		cache = new SpatialCache(cacheCapacityBytes, config.contains(CacheBehaviourFlags.OFF_HEAP_CACHE),
+				config.contains(CacheBehaviourFlags.FREQUENCY_ADMISSION));
+		loader = new CellLoader(cache, origin);
+		index = new SpatialIndex(loader, config.contains(CacheBehaviourFlags.DENSITY_GRID) ? new DensityGrid(DENSITY_GRID_CELLS) : null);
+		transport = selectTransport(config);
+		routeCache = config.contains(CacheBehaviourFlags.ROUTE_CACHE) ? new RouteCache(ROUTE_CACHE_ENTRIES) : null;
+		hotCells = config.contains(CacheBehaviourFlags.HOT_CELL_REPLICAS) ? new HotCellTracker(HOT_CELL_QUERIES, HOT_CELL_WINDOW_MILLIS) : null;
+		replicas = config.contains(CacheBehaviourFlags.HOT_CELL_REPLICAS) ? new ReplicaStore(MAX_REPLICAS) : null;
+		demand = config.contains(CacheBehaviourFlags.WEIGHTED_OWNERSHIP) ? new LoadTracker(MAX_QUERIES_PER_SECOND, 1000) : null;
 		serverSocket = _serverSocket;
 
 		id = _id;
 		position = _position;
-		neighborConnectors = new HashMap<>();
+		final HashMap<NodeInfo, NeighborConnector> connectors = new HashMap<>();
+		neighborConnectors = connectors;
 
 		logger = _logger;
 
 		currentState = CacheNodeState.AWAITING_ACTIVATION;
 		for (NodeInfo n : neighbors) {
-			connectToNeighborAsClient(n, neighborConnectors);
+			connectToNeighborAsClient(n, connectors);
 		}
+		setNeighborConnectors(connectors);
+		ExecutionPolicy.get().start("caas-neighbor-accept", new Runnable() {
+			@Override
+			public void run() {
+				acceptConnections();
+			}
+		});
+
 		// TODO: copypaste from admin connector - make this nicer
 		synchronized (activationMonitor) {
 			currentState = CacheNodeState.ACTIVE;
@@ -195,6 +535,12 @@ public class CacheNode {
 			scaleIn.preventScaleIn(false);
 			activationMonitor.notifyAll();
 		}
+		startLoadGossip();
+		startWeightBalancing();
+	}
+
+	private static FullDuplexMPI.Transport selectTransport(EnumSet<CacheBehaviourFlags> config) {
+		return config.contains(CacheBehaviourFlags.NIO_TRANSPORT) ? FullDuplexMPI.Transport.NIO : FullDuplexMPI.Transport.THREADS;
 	}
 
 	/**
@@ -214,7 +560,23 @@ public class CacheNode {
 			for (NeighborConnector con : neighborConnectors.values()) {
 				con.close();
 			}
-			neighborConnectors = null;
+			for (NeighborConnector con : longRangeLinks.values()) {
+				con.close();
+			}
+			longRangeLinks = new HashMap<>();
+			setNeighborConnectors(null);
+		}
+		for (NeighborConnector con : incomingLinks) {
+			con.close();
+		}
+		queryLinks.close();
+		longRangeLinkThreads.shutdown();
+
+		try {
+			// this causes accept() in acceptConnections() to throw
+			serverSocket.close();
+		} catch (IOException e) {
+			// ignore
 		}
 	}
 
@@ -229,9 +591,44 @@ public class CacheNode {
 		this.position = message.locationOfNode;
 
 		// only store nodes for now. onActivate() then establishes connections
-		neighborConnectors = new HashMap<>();
+		final HashMap<NodeInfo, NeighborConnector> connectors = new HashMap<>();
 		for (NodeInfo info : message.getNeighboringNodes()) {
-			neighborConnectors.put(info, null);
+			connectors.put(info, null);
+		}
+		setNeighborConnectors(connectors);
+	}
+
+	/**
+	 * Replace the neighbor connections, and the routing table with them
+	 */
+	private void setNeighborConnectors(HashMap<NodeInfo, NeighborConnector> connectors) {
+		neighborConnectors = connectors;
+		routes = connectors != null ? new RoutingTable<>(position, weight, connectors, longRangeLinks) : null;
+		if (routeCache != null) {
+			routeCache.clear();
+		}
+	}
+
+	/**
+	 * Replace the long-range links, and the routing table with them
+	 */
+	private void setLongRangeLinks(HashMap<NodeInfo, NeighborConnector> links) {
+		longRangeLinks = links;
+		if (neighborConnectors != null) {
+			routes = new RoutingTable<>(position, weight, neighborConnectors, links);
+		}
+	}
+
+	/**
+	 * Rebuild the routing table after the weight of the node or of a neighbor
+	 * changed. Unlike setNeighborConnectors(), the RouteCache is kept, owners
+	 * named by routes gone stale pass the queries on.
+	 */
+	private void rebuildRoutes() {
+		synchronized (regenerateNeighborConnectorsMonitor) {
+			if (neighborConnectors != null) {
+				routes = new RoutingTable<>(position, weight, neighborConnectors, longRangeLinks);
+			}
 		}
 	}
 
@@ -298,7 +695,7 @@ public class CacheNode {
 			confirm[0] = null;
 
 			final CountDownLatch counter = new CountDownLatch(m + 1);
-			Thread t = new Thread(new Runnable() {
+			ExecutionPolicy.get().start("caas-neighbor-accept", new Runnable() {
 
 				@Override
 				public void run() {
@@ -338,9 +735,12 @@ public class CacheNode {
 						}
 					}
 					counter.countDown();
+
+					if (confirm[0] == null) {
+						acceptConnections();
+					}
 				}
 			});
-			t.start();
 
 			// handle connections where we are the client
 			for (NodeInfo info : neighborConnectors.keySet()) {
@@ -366,20 +766,58 @@ public class CacheNode {
 			}
 
 			// throw away the temporary connector list and set the new one
-			neighborConnectors = newMap;
+			setNeighborConnectors(newMap);
 			logger.write("cache node: established " + neighborConnectors.size() + " neighbor links");
 			return new ConfirmationMessage(0, "cache node is now active and connected to neighbors");
 		}
 	}
 
+	/**
+	 * Accept connections on the ServerSocket once the node is connected to its
+	 * neighbors, until the node is closed. They come from nodes created by
+	 * subdivision (see ScaleInController.onReceiveSubdivisionCommit()), or
+	 * are the long-range links of other nodes. The PUBLISH_ID message sent
+	 * over a connection tells which.
+	 */
+	private void acceptConnections() {
+		while (!serverSocket.isClosed()) {
+			try {
+				final Socket sock = serverSocket.accept();
+				new NeighborConnector(sock) {
+					@Override
+					protected void onReceiveId(PublishIdMessage message) {
+						super.onReceiveId(message);
+
+						final NodeInfo info = expectedNeighbors.remove(GetNeighborId());
+						if (info != null) {
+							scaleIn.onSubdivisionNeighborConnected(info, this);
+						} else {
+							incomingLinks.add(this);
+						}
+					}
+
+					@Override
+					protected void onReachErrorState() {
+						super.onReachErrorState();
+						incomingLinks.remove(this);
+					}
+				};
+			} catch (IOException e) {
+				if (!serverSocket.isClosed()) {
+					e.printStackTrace();
+					logger.write("cache node: failed to accept incoming connection");
+				}
+			}
+		}
+	}
+
 	/**
 	 * Establish connection to a - listening - neighbor node and place a
 	 * NeighborConnector in a map keyed by the neighbor NodeInfo.
 	 */
 	private boolean connectToNeighborAsClient(NodeInfo info, HashMap<NodeInfo, NeighborConnector> outMap) {
 		try {
-			Socket sock = new Socket();
-			sock.connect(info.ADDRESS_FOR_CACHENODE_NODECONNECTOR);
+			Socket sock = transport.connect(info.ADDRESS_FOR_CACHENODE_NODECONNECTOR);
 			// this implicitly sends PUBLISH_ID messages with _this_ id
 			outMap.put(info, new NeighborConnector(sock, info.ID));
 		} catch (IOException e) {
@@ -417,7 +855,11 @@ public class CacheNode {
 		 *             Any network errors are forwarded
 		 */
 		public NeighborConnector(Socket sock) throws IOException {
-			super(sock, System.out, true);
+			super(sock, System.out, DEFAULT_CODEC, transport, false);
+
+			// start only now, messages may arrive right away and need nid to
+			// be initialized
+			start();
 		}
 
 		/**
@@ -435,14 +877,59 @@ public class CacheNode {
 		 *             Any network errors are forwarded
 		 */
 		public NeighborConnector(Socket sock, long nid) throws IOException {
-			super(sock, System.out, true);
+			super(sock, System.out, DEFAULT_CODEC, transport, false);
 			this.nid = nid;
+			start();
 
 			sendMessageAsync(new PublishIdMessage(id));
 		}
 
+		/**
+		 * Queries may take long to process (see processQueryLocally()), so
+		 * they run concurrently and off the reading thread. Control messages
+		 * must be handled in order, but must not wait for queries either.
+		 */
 		@Override
-		public IMessage processIncomingMessage(IMessage message) {
+		protected Dispatch getDispatch(IMessage message) {
+			switch (message.getMessageType()) {
+			case QUERY_MESSAGE:
+			case RANGE_QUERY:
+			case KNN_QUERY:
+			case AGGREGATE_QUERY:
+				return Dispatch.CONCURRENT;
+			default:
+				return Dispatch.ORDERED;
+			}
+		}
+
+		/**
+		 * Control messages (subdivision votes, ids, load) are few and small,
+		 * but the grid stalls if they wait behind a backlog of queries.
+		 * Replicas and handed over cells are bulky and go with the queries,
+		 * ahead of those sent to the neighbor after them.
+		 */
+		@Override
+		protected Lane getLane(IMessage message) {
+			switch (message.getMessageType()) {
+			case QUERY_MESSAGE:
+			case RANGE_QUERY:
+			case KNN_QUERY:
+			case AGGREGATE_QUERY:
+			case REPLICA:
+			case CELL_HANDOVER:
+				return Lane.NORMAL;
+			default:
+				break;
+			}
+			return Lane.HIGH;
+		}
+
+		/**
+		 * Subqueries of region queries are answered only once the neighbors
+		 * they are passed on to answered, see executeRegionQuery().
+		 */
+		@Override
+		protected void processIncomingMessage(IMessage message, Responder responder) {
 			final MessageType kind = message.getMessageType();
 			logger.write("cache node: received: " + kind + " from neighbor connection " + toString());
 
@@ -455,11 +942,29 @@ public class CacheNode {
 				}
 			}
 
-			switch (kind) {
+			if (message instanceof RegionQueryMessage && ((RegionQueryMessage) message).isSubquery()) {
+				answerSubquery((RegionQueryMessage) message, responder);
+				return;
+			}
+			super.processIncomingMessage(message, responder);
+		}
+
+		@Override
+		public IMessage processIncomingMessage(IMessage message) {
+			switch (message.getMessageType()) {
 			case QUERY_MESSAGE:
 				processQuery((QueryMessage) message);
 				return new ConfirmationMessage(1, "message processed");
 
+			case RANGE_QUERY:
+			case KNN_QUERY:
+			case AGGREGATE_QUERY:
+				// subqueries are handled by processIncomingMessage(message,
+				// responder)
+				assert !((RegionQueryMessage) message).isSubquery();
+				processQuery((QueryMessage) message);
+				return new ConfirmationMessage(1, "message processed");
+
 			case PUBLISH_ID:
 				onReceiveId((PublishIdMessage) message);
 				return new ConfirmationMessage(0, "id received");
@@ -471,7 +976,19 @@ public class CacheNode {
 						break;
 					}
 				}
-				break;
+				return new ConfirmationMessage(0, "load received");
+
+			case REPLICA:
+				onReceiveReplica((ReplicaMessage) message);
+				return new ConfirmationMessage(0, "replica received");
+
+			case WEIGHT:
+				onReceiveWeight((WeightMessage) message);
+				return new ConfirmationMessage(0, "weight received");
+
+			case CELL_HANDOVER:
+				onReceiveCellHandover((CellHandoverMessage) message);
+				return new ConfirmationMessage(0, "cell received");
 
 			case SUBDIV_REQUEST:
 				scaleIn.onReceiveSubdivisionRequest((SubdivisionRequestMessage) message, nid);
@@ -486,7 +1003,8 @@ public class CacheNode {
 				break;
 			}
 
-			return null;
+			// every message is answered, see FullDuplexMPI.processIncomingMessage()
+			return new ConfirmationMessage(-1, "unexpected message type: " + message.getMessageType());
 		}
 
 		protected void onReceiveId(PublishIdMessage message) {
@@ -515,14 +1033,13 @@ public class CacheNode {
 		 *             if the Socket can't be created, pass the error up
 		 */
 		public AdminConnector(InetSocketAddress address) throws IOException {
-			super(new Socket(address.getAddress(), address.getPort()), System.out, true);
+			super(transport.connect(address), System.out, DEFAULT_CODEC, transport, true);
 			ADDRESS = address;
 
 			final String localHost = Inet4Address.getLocalHost().getHostAddress();
 			final InetSocketAddress neighborAdr = new InetSocketAddress(localHost, serverSocket.getLocalPort());
-			final InetSocketAddress queryAdr = new InetSocketAddress(localHost, queryListener.getPort());
 
-			sendMessageAsync(new JoinMessage(neighborAdr, queryAdr), new IResponseHandler() {
+			sendMessageAsync(new JoinMessage(neighborAdr, queryListenerAddress), new IResponseHandler() {
 
 				@Override
 				public void onResponseReceived(IMessage response) {
@@ -533,6 +1050,11 @@ public class CacheNode {
 				public void onConnectionAborted() {
 					logger.write("cache node: connection to admin was closed");
 				}
+
+				@Override
+				public void onTimeout() {
+					// no timeout requested
+				}
 			});
 		}
 
@@ -591,13 +1113,18 @@ public class CacheNode {
 						scaleIn.preventScaleIn(false);
 						activationMonitor.notifyAll();
 					}
+					startLoadGossip();
+					startWeightBalancing();
 				} else {
 					// TODO - introduce failure state?
 				}
 				return response;
 
 			case ACTIVE:
-				// TODO what comes here?
+				if (type == MessageType.OWNERSHIP_TABLE) {
+					onReceiveOwnershipTable(((OwnershipTableMessage) message).TABLE);
+					return new ConfirmationMessage(0, "ownership table received");
+				}
 				break;
 
 			default:
@@ -618,129 +1145,1394 @@ public class CacheNode {
 	}
 
 	/**
-	 * Processes a query either by fetching the result, or by forwarding/routing
-	 * it to a different node.
+	 * With CacheBehaviourFlags.NEIGHBOR_PROPAGATION, keep the neighbors
+	 * informed about the node's load for forwardMessageToNeighbor(), until
+	 * the node is closed. Besides every LOAD_GOSSIP_INTERVAL_MILLIS, the load
+	 * is sent whenever the node processes a query, see gossipLoad().
 	 */
-	public void processQuery(QueryMessage message) {
-
-		// it is possible that we receive queries before all neighbor
-		// connections have been fully established. In this case, we
-		// simply synchronize on the completion of this stage.
-		//
-		// we are guaranteed that this does not cause deadlock as we can never
-		// be waiting on establishing a network connection with the node that
-		// we got this message from (and on whose message queue we are blocking)
-		synchronized (activationMonitor) {
-			while (currentState != CacheNodeState.ACTIVE) {
-				try {
-					activationMonitor.wait();
-				} catch (InterruptedException e) {
-					assert false; // this thread is not interrupted
-					e.printStackTrace();
+	private void startLoadGossip() {
+		if (!config.contains(CacheBehaviourFlags.NEIGHBOR_PROPAGATION)) {
+			return;
+		}
+		ExecutionPolicy.get().start("caas-load-gossip", new Runnable() {
+			@Override
+			public void run() {
+				while (currentState != CacheNodeState.DEAD) {
+					gossipLoad();
+					try {
+						Thread.sleep(LOAD_GOSSIP_INTERVAL_MILLIS);
+					} catch (InterruptedException e) {
+						return;
+					}
 				}
 			}
+		});
+	}
+
+	/**
+	 * Send the node's load to all neighbors, unless it was sent less than
+	 * LOAD_GOSSIP_INTERVAL_MILLIS ago, or it changed by less than
+	 * LOAD_GOSSIP_DELTA and was sent less than LOAD_GOSSIP_REFRESH_MILLIS ago.
+	 */
+	private void gossipLoad() {
+		final double load = getLoad();
+		if (!loadGossip.shouldSend(load, System.currentTimeMillis())) {
+			return;
 		}
 
-		assert currentState == CacheNodeState.ACTIVE;
+		final HashMap<NodeInfo, NeighborConnector> neighbors = neighborConnectors;
+		if (neighbors == null) {
+			return;
+		}
+		final LoadMessage message = new LoadMessage(load);
+		for (NeighborConnector n : neighbors.values()) {
+			if (n != null) {
+				n.sendMessageAsync(message);
+				loadMessagesSent.incrementAndGet();
+			}
+		}
+	}
 
-		message.appendToDebuggingInfo(id + "-");
+	private final LoadGossip loadGossip = new LoadGossip(LOAD_GOSSIP_INTERVAL_MILLIS, LOAD_GOSSIP_DELTA, LOAD_GOSSIP_REFRESH_MILLIS);
+	private final AtomicLong loadMessagesSent = new AtomicLong();
+
+	/**
+	 * Get the number of LoadMessages the node sent to its neighbors so far
+	 */
+	public long getLoadMessagesSent() {
+		return loadMessagesSent.get();
+	}
+
+	/**
+	 * With CacheBehaviourFlags.WEIGHTED_OWNERSHIP, adjust the node's weight
+	 * every WEIGHT_ADJUST_INTERVAL_MILLIS until the node is closed.
+	 */
+	private void startWeightBalancing() {
+		if (demand == null) {
+			return;
+		}
+		ExecutionPolicy.get().start("caas-weight-balancer", new Runnable() {
+			@Override
+			public void run() {
+				while (currentState != CacheNodeState.DEAD) {
+					try {
+						Thread.sleep(WEIGHT_ADJUST_INTERVAL_MILLIS);
+					} catch (InterruptedException e) {
+						return;
+					}
+					adjustWeight();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Shift load between the node and its neighbors by moving the boundaries
+	 * of their cells. A node owning more queries than it can answer shrinks
+	 * its weight by a step, giving cells to all of its neighbors. A node
+	 * owning less than WEIGHT_LOW_DEMAND grows its weight up to the opposite
+	 * of the most shrunk neighbor's, taking over more of that neighbor's
+	 * cells, or else relaxes it towards 0. In between, the weight is kept so
+	 * it does not oscillate.
+	 */
+	private void adjustWeight() {
+		final HashMap<NodeInfo, NeighborConnector> neighbors = neighborConnectors;
+		if (neighbors == null || neighbors.isEmpty()) {
+			return;
+		}
+		double nearest = Double.POSITIVE_INFINITY;
+		double shrunk = 0;
+		for (NodeInfo n : neighbors.keySet()) {
+			final double d = VoronoiRegion.distance(position, n.getLocationOfNode());
+			nearest = Math.min(nearest, d * d);
+			shrunk = Math.min(shrunk, n.getWeight());
+		}
+		final double step = WEIGHT_STEP_FRACTION * nearest;
+		final double bound = MAX_WEIGHT_FRACTION * nearest;
+
+		final double load = demand.getLoad();
+		final double current = weight;
+		double next = current;
+		if (load > 1) {
+			next = current - step;
+		} else if (load < WEIGHT_LOW_DEMAND) {
+			if (current < -shrunk) {
+				next = Math.min(current + step, -shrunk);
+			} else if (current > 0) {
+				next = Math.max(current - step, 0);
+			} else {
+				next = Math.min(current + step, 0);
+			}
+		}
+		next = Math.max(-bound, Math.min(bound, next));
+
+		if (next != current) {
+			setWeight(next);
+		} else if (current != 0 && System.currentTimeMillis() - lastWeightSent >= LOAD_GOSSIP_REFRESH_MILLIS) {
+			// new neighbors learn about it
+			sendWeight();
+		}
+	}
+
+	/**
+	 * Change the weight of the node, tell the neighbors and the admin about
+	 * it, and hand over the cells the node no longer owns.
+	 */
+	private void setWeight(double next) {
+		final List<CellHandover> handovers;
+		synchronized (weightMonitor) {
+			final VoronoiRegion before = currentRegion();
+			weight = next;
+			rebuildRoutes();
+			sendWeight();
+			handovers = findCellHandovers(before, currentRegion());
+		}
+		logger.write("cache node: weight now " + next);
+		for (CellHandover handover : handovers) {
+			handover.send();
+		}
+	}
+
+	private void sendWeight() {
+		final WeightMessage message = new WeightMessage(id, weight);
+		lastWeightSent = System.currentTimeMillis();
+		for (NeighborConnector n : neighborConnectors.values()) {
+			if (n != null) {
+				n.sendMessageAsync(message);
+			}
+		}
+		final AdminConnector admin = connectionToAdmin;
+		if (admin != null) {
+			admin.sendMessageAsync(message);
+		}
+	}
+
+	/**
+	 * Called by NeighborConnector for the weights of the neighbors
+	 */
+	private void onReceiveWeight(WeightMessage message) {
+		final List<CellHandover> handovers;
+		synchronized (weightMonitor) {
+			NodeInfo sender = null;
+			for (NodeInfo n : neighborConnectors.keySet()) {
+				if (n.ID == message.ID) {
+					sender = n;
+					break;
+				}
+			}
+			if (sender == null || sender.getWeight() == message.WEIGHT) {
+				return;
+			}
+			final VoronoiRegion before = currentRegion();
+			sender.setWeight(message.WEIGHT);
+			rebuildRoutes();
+			handovers = findCellHandovers(before, currentRegion());
+		}
+		for (CellHandover handover : handovers) {
+			handover.send();
+		}
+	}
+
+	/**
+	 * Find the cached cells that left the node's cell of the power diagram
+	 * entirely, to move them to the neighbors now owning them, so they need
+	 * not fetch them from the origin again. Cells the boundary only moved
+	 * across stay, the node still owns part of them, as do cells the node did
+	 * not own before.
+	 *
+	 * Sending may wait for credits, so it is left to the caller, after
+	 * releasing weightMonitor.
+	 */
+	private List<CellHandover> findCellHandovers(VoronoiRegion before, VoronoiRegion after) {
+		final List<CellHandover> handovers = new ArrayList<>();
+		final RoutingTable<NeighborConnector> table = routes;
+		if (table == null) {
+			return handovers;
+		}
+		final long half = 1L << (SpatialCache.CELL_SHIFT - 1);
+		for (long cell : cache.cells()) {
+			if (!before.mayIntersect(cell) || after.mayIntersect(cell)) {
+				continue;
+			}
+			final LocationOfNode center = new LocationOfNode((int) (((long) SpatialCache.cellX(cell) << SpatialCache.CELL_SHIFT) + half),
+					(int) (((long) SpatialCache.cellY(cell) << SpatialCache.CELL_SHIFT) + half));
+			final int owner = table.nextHop(center);
+			final SpatialObject[] objects = cache.peek(cell);
+			if (owner < 0 || objects == null) {
+				continue;
+			}
+			handovers.add(new CellHandover(table.getTarget(owner), cell, objects));
+		}
+		return handovers;
+	}
+
+	/**
+	 * A cached cell on its way to the neighbor now owning it. The node drops
+	 * the cell once the neighbor confirmed it, and keeps it if the neighbor
+	 * cannot take it.
+	 */
+	private final class CellHandover implements IResponseHandler {
+		private final NeighborConnector target;
+		private final long cell;
+		private final SpatialObject[] objects;
+
+		CellHandover(NeighborConnector target, long cell, SpatialObject[] objects) {
+			this.target = target;
+			this.cell = cell;
+			this.objects = objects;
+		}
+
+		void send() {
+			target.sendMessageAsync(new CellHandoverMessage(cell, Arrays.asList(objects)), this);
+		}
+
+		@Override
+		public void onResponseReceived(IMessage response) {
+			cache.invalidate(cell);
+			replicaHolders.remove(cell);
+			cellHandoversSent.incrementAndGet();
+		}
+
+		@Override
+		public void onConnectionAborted() {
+			// the cell stays cached until evicted
+		}
+
+		@Override
+		public void onTimeout() {
+			// no timeout requested
+		}
+	}
+
+	/**
+	 * Called by NeighborConnector for cells a neighbor no longer owns. Cells
+	 * the node fetched itself meanwhile are kept.
+	 */
+	private void onReceiveCellHandover(CellHandoverMessage message) {
+		if (!cache.contains(message.CELL)) {
+			cache.put(message.CELL, message.OBJECTS.toArray(new SpatialObject[message.OBJECTS.size()]));
+		}
+	}
+
+	/**
+	 * Get the node's weight in the power diagram partitioning the grid, see
+	 * CacheBehaviourFlags.WEIGHTED_OWNERSHIP
+	 */
+	public double getWeight() {
+		return weight;
+	}
+
+	/**
+	 * Get the number of cached cells the node handed over to its neighbors
+	 * so far, see findCellHandovers()
+	 */
+	public long getCellHandoversSent() {
+		return cellHandoversSent.get();
+	}
+
+	/**
+	 * Keep a table of the admin unless the node already has a newer one. Only
+	 * called by the AdminConnector, which handles messages one at a time.
+	 */
+	private void onReceiveOwnershipTable(OwnershipTable table) {
+		if (ownership == null || ownership.getVersion() < table.getVersion()) {
+			ownership = table;
+			if (routeCache != null) {
+				routeCache.clear();
+			}
+
+			if (config.contains(CacheBehaviourFlags.LONG_RANGE_LINKS) && longRangeLinkUpdateQueued.compareAndSet(false, true)) {
+				try {
+					longRangeLinkUpdates.execute(new Runnable() {
+						@Override
+						public void run() {
+							longRangeLinkUpdateQueued.set(false);
+							updateLongRangeLinks();
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					// the node was closed
+					longRangeLinkUpdateQueued.set(false);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Bring the long-range links up to date with the latest OwnershipTable,
+	 * which lists all nodes of the grid. Links to nodes that left the grid or
+	 * became neighbors are closed, the others kept. New links replace them,
+	 * to nodes picked by LongRangeLinks.choose().
+	 */
+	private void updateLongRangeLinks() {
+		synchronized (longRangeLinksMonitor) {
+			final OwnershipTable table = ownership;
+			if (table == null || currentState == CacheNodeState.DEAD) {
+				return;
+			}
+
+			final HashMap<Long, NodeInfo> candidates = new HashMap<>();
+			for (int i = 0; i < table.getOwnerCount(); ++i) {
+				candidates.put(table.getOwner(i).ID, table.getOwner(i));
+			}
+			candidates.remove(id);
+			for (NodeInfo n : neighborConnectors.keySet()) {
+				candidates.remove(n.ID);
+			}
+
+			final HashMap<NodeInfo, NeighborConnector> links = new HashMap<>();
+			final List<NeighborConnector> dropped = new ArrayList<>();
+			for (Entry<NodeInfo, NeighborConnector> link : longRangeLinks.entrySet()) {
+				if (candidates.remove(link.getKey().ID) != null && !link.getValue().isErrorState()) {
+					links.put(link.getKey(), link.getValue());
+				} else {
+					dropped.add(link.getValue());
+				}
+			}
+
+			for (NodeInfo target : LongRangeLinks.choose(position, candidates.values(), LONG_RANGE_LINK_COUNT - links.size(), new Random())) {
+				// nodes created by subdivision share the address of the admin
+				// and thus compare equal, see NodeInfo.equals()
+				if (links.containsKey(target)) {
+					continue;
+				}
+				try {
+					final Socket sock = transport.connect(target.ADDRESS_FOR_CACHENODE_NODECONNECTOR);
+					links.put(target, new NeighborConnector(sock, target.ID));
+				} catch (IOException e) {
+					logger.write("cache node: failed to open long-range link to " + target.ADDRESS_FOR_CACHENODE_NODECONNECTOR + ": " + e.getMessage());
+				}
+			}
+
+			synchronized (regenerateNeighborConnectorsMonitor) {
+				if (currentState == CacheNodeState.DEAD) {
+					dropped.addAll(links.values());
+				} else {
+					setLongRangeLinks(links);
+				}
+			}
+			for (NeighborConnector con : dropped) {
+				con.close();
+			}
+			logger.write("cache node: keeping " + links.size() + " long-range links");
+		}
+	}
+
+	/**
+	 * Get the number of long-range links the node keeps to other nodes, see
+	 * CacheBehaviourFlags.LONG_RANGE_LINKS.
+	 */
+	public int getLongRangeLinkCount() {
+		return longRangeLinks.size();
+	}
+
+	/**
+	 * Get the number of queries the node sent directly to their owners, see
+	 * CacheBehaviourFlags.ONE_HOP_ROUTING.
+	 */
+	public long getOwnerForwardsSent() {
+		return ownerForwardsSent.get();
+	}
+
+	/**
+	 * Get the number of region subqueries the node sent to its neighbors so
+	 * far.
+	 */
+	public long getRegionSubqueriesSent() {
+		return regionSubqueriesSent.get();
+	}
+
+	/**
+	 * Processes a query either by fetching the result, or by forwarding/routing
+	 * it to a different node.
+	 */
+	public void processQuery(QueryMessage message) {
+
+		// it is possible that we receive queries before all neighbor
+		// connections have been fully established. In this case, we
+		// simply synchronize on the completion of this stage.
+		//
+		// we are guaranteed that this does not cause deadlock as we can never
+		// be waiting on establishing a network connection with the node that
+		// we got this message from (and on whose message queue we are blocking)
+		synchronized (activationMonitor) {
+			while (currentState != CacheNodeState.ACTIVE) {
+				try {
+					activationMonitor.wait();
+				} catch (InterruptedException e) {
+					assert false; // this thread is not interrupted
+					e.printStackTrace();
+				}
+			}
+		}
+
+		assert currentState == CacheNodeState.ACTIVE;
+
+		// queries from clients did not visit any node yet
+		final boolean entering = message.getDebuggingInfo().isEmpty();
+		message.appendToDebuggingInfo(id + "-");
 		if (!message.isPropagtionThroughNetworkAllowed()) {
 			logger.write("got forwarded message, no further propagation possible");
 			processQueryLocally(message);
 
-			if (getLoad() > 1 && config.contains(CacheBehaviourFlags.SCALEIN)) {
-				scaleIn.attemptScaleIn();
+			if (getLoad() > 1 && config.contains(CacheBehaviourFlags.SCALEIN)) {
+				scaleIn.attemptScaleIn();
+			}
+			return;
+		}
+
+		final RoutingTable<NeighborConnector> table = routes;
+		if (entering && config.contains(CacheBehaviourFlags.ONE_HOP_ROUTING) && sendToOwner(message, table)) {
+			return;
+		}
+		if (entering && routeCache != null && sendToCachedOwner(message)) {
+			return;
+		}
+
+		final int nextHop = table.nextHop(message.QUERY_LOCATION);
+		if (nextHop >= 0) {
+			// greedy routing
+			table.getTarget(nextHop).sendMessageAsync(message);
+			return;
+		}
+
+		if (demand != null) {
+			demand.addEvent();
+		}
+
+		if (routeCache != null) {
+			sendRouteHint(message);
+		}
+		if (hotCells != null && spreadToReplica(message)) {
+			return;
+		}
+		if (getLoad() > 1) {
+			if (config.contains(CacheBehaviourFlags.NEIGHBOR_PROPAGATION)) {
+				logger.write("forwarding message as local load becomes too high");
+				forwardMessageToNeighbor(message);
+			} else {
+				processQueryLocally(message);
+			}
+
+			if (config.contains(CacheBehaviourFlags.SCALEIN)) {
+				scaleIn.attemptScaleIn();
+			}
+		} else {
+			processQueryLocally(message);
+		}
+	}
+
+	/**
+	 * Send a query directly to the query listener of the node owning its
+	 * location according to the OwnershipTable. The owner treats it as any
+	 * query sent to it by a neighbor, so if the table is outdated, the query
+	 * continues greedily from there.
+	 * 
+	 * @return false if greedy routing takes the query to the owner in one hop
+	 *         anyway (the node or one of its neighbors owns it), or the owner
+	 *         is unknown or could not be reached
+	 */
+	private boolean sendToOwner(QueryMessage message, RoutingTable<NeighborConnector> table) {
+		final OwnershipTable owners = ownership;
+		if (owners == null) {
+			return false;
+		}
+		final int owner = owners.ownerOf(message.QUERY_LOCATION);
+		if (owner < 0) {
+			return false;
+		}
+
+		final NodeInfo info = owners.getOwner(owner);
+		if (info.ID == id || info.ADDRESS_FOR_CACHENODE_QUERYLISTENER == null) {
+			return false;
+		}
+		for (int i = 0; i < table.size(); ++i) {
+			if (table.getNeighbor(i).ID == info.ID) {
+				return false;
+			}
+		}
+
+		if (!sendToQueryListener(info.ADDRESS_FOR_CACHENODE_QUERYLISTENER, message)) {
+			return false;
+		}
+		ownerForwardsSent.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Send a query directly to the owner of its location the RouteCache
+	 * knows of. If the route is stale, the query continues greedily from the
+	 * node it names, and the actual owner sends a new route.
+	 * 
+	 * @return false if no route is known or its owner could not be reached
+	 */
+	private boolean sendToCachedOwner(QueryMessage message) {
+		final RouteCache.Route route = routeCache.get(message.QUERY_LOCATION);
+		if (route == null || route.OWNER_ID == id) {
+			return false;
+		}
+		if (!sendToQueryListener(route.OWNER_ADDRESS, message)) {
+			routeCache.remove(message.QUERY_LOCATION);
+			return false;
+		}
+		ownerForwardsSent.incrementAndGet();
+		return true;
+	}
+
+	private final AtomicLong ownerForwardsSent = new AtomicLong();
+
+	private final QueryLinks queryLinks = new QueryLinks();
+
+	/**
+	 * Tell the node a query entered the grid at which buckets around the
+	 * query's location this node owns, if the query took more than one hop to
+	 * get here. Buckets only partly in the node's Voronoi cell are left out.
+	 */
+	private void sendRouteHint(QueryMessage message) {
+		if (message.getVisitedNodeCount() < 3 || message.ENTRY_LOCATION == null || queryListenerAddress == null) {
+			return;
+		}
+
+		final long[] buckets = ownedBuckets(message.QUERY_LOCATION);
+		if (buckets.length > 0) {
+			sendToQueryListener(message.ENTRY_LOCATION, new RouteHintMessage(buckets, id, queryListenerAddress));
+		}
+	}
+
+	/**
+	 * Get up to MAX_ROUTE_HINT_BUCKETS buckets of the RouteCache lying
+	 * entirely in the node's Voronoi cell, those nearest to a location first.
+	 * Only buckets within the distance of the farthest neighbor are looked
+	 * at, as the cells of nodes on the hull of the grid are unbounded.
+	 */
+	private long[] ownedBuckets(final LocationOfNode location) {
+		final VoronoiRegion region = currentRegion();
+		double reach = 0;
+		for (NodeInfo n : neighborConnectors.keySet()) {
+			reach = Math.max(reach, VoronoiRegion.distance(position, n.getLocationOfNode()));
+		}
+
+		final long side = 1L << RouteCache.SHIFT;
+		final long minX = (long) Math.floor((position.x - reach) / side), maxX = (long) Math.floor((position.x + reach) / side);
+		final long minY = (long) Math.floor((position.y - reach) / side), maxY = (long) Math.floor((position.y + reach) / side);
+		final List<long[]> owned = new ArrayList<>();
+		for (long bx = minX; bx <= maxX; ++bx) {
+			for (long by = minY; by <= maxY; ++by) {
+				if (region.containsSquare(bx << RouteCache.SHIFT, by << RouteCache.SHIFT, side)) {
+					owned.add(new long[] { bx, by });
+				}
+			}
+		}
+
+		final long qx = location.x >> RouteCache.SHIFT, qy = location.y >> RouteCache.SHIFT;
+		Collections.sort(owned, new Comparator<long[]>() {
+			@Override
+			public int compare(long[] a, long[] b) {
+				return Long.compare(Math.max(Math.abs(a[0] - qx), Math.abs(a[1] - qy)), Math.max(Math.abs(b[0] - qx), Math.abs(b[1] - qy)));
+			}
+		});
+		final long[] buckets = new long[Math.min(owned.size(), MAX_ROUTE_HINT_BUCKETS)];
+		for (int i = 0; i < buckets.length; ++i) {
+			buckets[i] = RouteCache.bucketAt(owned.get(i)[0], owned.get(i)[1]);
+		}
+		return buckets;
+	}
+
+	/**
+	 * Called by the QueryListener for routes sent by the owners of queries
+	 * that entered the grid at this node.
+	 */
+	void onReceiveRouteHint(RouteHintMessage hint) {
+		if (routeCache != null && hint.OWNER_ID != id) {
+			routeCache.put(hint.BUCKETS, hint.OWNER_ID, hint.OWNER_ADDRESS);
+		}
+	}
+
+	/**
+	 * Send a message to the query listener of another node, over the
+	 * connection the node keeps to it (see QueryLinks).
+	 * 
+	 * @return false if the message could not be sent
+	 */
+	private boolean sendToQueryListener(InetSocketAddress address, IMessage message) {
+		try {
+			queryLinks.send(address, message);
+		} catch (IOException e) {
+			logger.write("cache node: failed to send " + message.getMessageType() + " to " + address + ": " + e.getMessage());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Count a query the node owns towards the heat of its cell. If the cell
+	 * is hot, make sure neighbors hold replicas of it, and pick who answers
+	 * the query among the node and the holders by the loads they last
+	 * reported (see gossipLoad() and LoadBalancing.pickByLoad()).
+	 * 
+	 * @return true if the query was sent to a holder
+	 */
+	private boolean spreadToReplica(QueryMessage message) {
+		if (message instanceof RegionQueryMessage) {
+			// region queries span several cells
+			return false;
+		}
+		final long cell = SpatialCache.cellOf(message.QUERY_LOCATION);
+		if (!hotCells.record(cell)) {
+			return false;
+		}
+		final ReplicaSet<Entry<NodeInfo, NeighborConnector>> set = replicateHotCell(cell);
+		if (set == null) {
+			return false;
+		}
+
+		// the node's own load goes last
+		final List<Entry<NodeInfo, NeighborConnector>> holders = set.getHolders();
+		final double[] loads = new double[holders.size() + 1];
+		for (int i = 0; i < holders.size(); ++i) {
+			final NeighborConnector connector = holders.get(i).getValue();
+			loads[i] = connector.isErrorState() || isCongested(connector) ? Double.POSITIVE_INFINITY : holders.get(i).getKey().getLoad();
+		}
+		loads[holders.size()] = getLoad();
+
+		final int picked = LoadBalancing.pickByLoad(loads, ThreadLocalRandom.current());
+		if (picked < 0 || picked == holders.size()) {
+			return false;
+		}
+		final Entry<NodeInfo, NeighborConnector> holder = holders.get(picked);
+
+		// as in forwardMessageToNeighbor()
+		holder.getKey().setLoad(holder.getKey().getLoad() + 1.0 / MAX_QUERIES_PER_SECOND);
+		message.stopPropagationOfTheMessage();
+		holder.getValue().sendMessageAsync(message);
+		replicaForwardsSent.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Send replicas of a hot cell to REPLICAS_PER_HOT_CELL neighbors, the
+	 * least loaded ones, unless they were sent recently. Renewals go to the
+	 * same neighbors, as long as they are connected.
+	 * 
+	 * @return The neighbors holding replicas of the cell, null if there are
+	 *         none
+	 */
+	private ReplicaSet<Entry<NodeInfo, NeighborConnector>> replicateHotCell(long cell) {
+		final long now = System.currentTimeMillis();
+		final ReplicaSet<Entry<NodeInfo, NeighborConnector>> set = replicaHolders.get(cell);
+		if (set != null && !set.isRenewalDue(now)) {
+			return set;
+		}
+
+		final SpatialObject[] objects = cache.peek(cell);
+		if (objects == null) {
+			// the owner fetches the cell first
+			return set != null && !set.isExpired(now) ? set : null;
+		}
+
+		final List<Entry<NodeInfo, NeighborConnector>> holders = new ArrayList<>();
+		if (set != null) {
+			for (Entry<NodeInfo, NeighborConnector> holder : set.getHolders()) {
+				if (!holder.getValue().isErrorState()) {
+					holders.add(holder);
+				}
+			}
+		}
+		if (holders.isEmpty()) {
+			final List<Entry<NodeInfo, NeighborConnector>> neighbors = new ArrayList<>();
+			for (Entry<NodeInfo, NeighborConnector> n : neighborConnectors.entrySet()) {
+				if (n.getValue() != null && !n.getValue().isErrorState()) {
+					neighbors.add(n);
+				}
+			}
+			// ties, e.g. without NEIGHBOR_PROPAGATION there are no reports,
+			// are broken at random
+			Collections.shuffle(neighbors);
+			Collections.sort(neighbors, new Comparator<Entry<NodeInfo, NeighborConnector>>() {
+				@Override
+				public int compare(Entry<NodeInfo, NeighborConnector> a, Entry<NodeInfo, NeighborConnector> b) {
+					return Double.compare(a.getKey().getLoad(), b.getKey().getLoad());
+				}
+			});
+			holders.addAll(neighbors.subList(0, Math.min(REPLICAS_PER_HOT_CELL, neighbors.size())));
+		}
+		if (holders.isEmpty()) {
+			return null;
+		}
+
+		final long version = set != null ? set.getVersion() : replicaVersions.incrementAndGet();
+		final ReplicaMessage replica = new ReplicaMessage(cell, id, version, REPLICA_LEASE_MILLIS, Arrays.asList(objects));
+		for (Entry<NodeInfo, NeighborConnector> holder : holders) {
+			holder.getValue().sendMessageAsync(replica);
+		}
+
+		final ReplicaSet<Entry<NodeInfo, NeighborConnector>> sent = new ReplicaSet<>(version, now, REPLICA_LEASE_MILLIS, holders);
+		replicaHolders.put(cell, sent);
+		if (replicaHolders.size() > MAX_REPLICAS) {
+			// forget the cells that went cold
+			final Iterator<ReplicaSet<Entry<NodeInfo, NeighborConnector>>> it = replicaHolders.values().iterator();
+			while (it.hasNext()) {
+				if (it.next().isExpired(now)) {
+					it.remove();
+				}
+			}
+		}
+		return sent;
+	}
+
+	/**
+	 * Called by a NeighborConnector for replicas a neighbor sends
+	 */
+	private void onReceiveReplica(ReplicaMessage message) {
+		if (replicas != null) {
+			replicas.put(message.CELL, message.OWNER_ID, message.VERSION, message.LEASE_MILLIS,
+					message.OBJECTS.toArray(new SpatialObject[message.OBJECTS.size()]));
+		}
+	}
+
+	private final AtomicLong replicaForwardsSent = new AtomicLong();
+
+	/**
+	 * Get the number of queries for hot cells the node sent to neighbors
+	 * holding replicas of them
+	 */
+	public long getReplicaForwardsSent() {
+		return replicaForwardsSent.get();
+	}
+
+	/**
+	 * Get the replicas the node holds of its neighbors' hot cells, null
+	 * unless CacheBehaviourFlags.HOT_CELL_REPLICAS is set
+	 */
+	public ReplicaStore getReplicaStore() {
+		return replicas;
+	}
+
+	/**
+	 * Forwards a query to a lightly loaded neighbor and prevents further
+	 * propagation. Of two neighbors picked at random, the one that reported
+	 * the lower load gets the query, see LoadBalancing.pickLessLoadedOfTwo().
+	 * 
+	 * Neighbors holding a replica of the query's cell are preferred, see
+	 * CacheBehaviourFlags.HOT_CELL_REPLICAS. Neighbors that are congested,
+	 * i.e. have all our send credits in use, are skipped. If all of them
+	 * are, the query is processed locally.
+	 */
+	private void forwardMessageToNeighbor(QueryMessage message) {
+		assert message != null;
+
+		final List<Entry<NodeInfo, NeighborConnector>> candidates = new ArrayList<>();
+		final ReplicaSet<Entry<NodeInfo, NeighborConnector>> set = hotCells != null ? replicaHolders.get(SpatialCache.cellOf(message.QUERY_LOCATION)) : null;
+		if (set != null && !set.isExpired(System.currentTimeMillis()) && !(message instanceof RegionQueryMessage)) {
+			for (Entry<NodeInfo, NeighborConnector> n : set.getHolders()) {
+				if (!n.getValue().isErrorState() && !isCongested(n.getValue())) {
+					candidates.add(n);
+				}
+			}
+		}
+		if (candidates.isEmpty()) {
+			for (Entry<NodeInfo, NeighborConnector> n : neighborConnectors.entrySet()) {
+				if (!isCongested(n.getValue())) {
+					candidates.add(n);
+				}
+			}
+		}
+		if (candidates.isEmpty()) {
+			logger.write("all neighbors congested, processing query locally");
+			processQueryLocally(message);
+			return;
+		}
+
+		final double[] loads = new double[candidates.size()];
+		for (int i = 0; i < loads.length; ++i) {
+			loads[i] = candidates.get(i).getKey().getLoad();
+		}
+		final Entry<NodeInfo, NeighborConnector> target = candidates.get(LoadBalancing.pickLessLoadedOfTwo(loads, ThreadLocalRandom.current()));
+
+		final NodeInfo info = target.getKey();
+
+		// count the query towards the neighbor's load until it reports its
+		// load again, so the next queries do not all go the same way
+		info.setLoad(info.getLoad() + 1.0 / MAX_QUERIES_PER_SECOND);
+		message.stopPropagationOfTheMessage();
+		target.getValue().sendMessageAsync(message);
+	}
+
+	/**
+	 * Check whether a neighbor is congested, i.e. it has so many of our
+	 * messages outstanding that sending another one would have to wait.
+	 */
+	private static boolean isCongested(NeighborConnector n) {
+		return n.getAvailableCredits() == 0 || n.getQueueDepth() >= NEIGHBOR_QUEUE_DEPTH_LIMIT;
+	}
+
+	/**
+	 * This method processes the query on this node and ensures a result is
+	 * returned to the client. The result holds the objects of the cell the
+	 * query location falls into, taken from the cache or, on a miss, fetched
+	 * from the origin and added to the cache. Concurrent misses for the same
+	 * cell share one fetch (see CellLoader). If the fetch fails, the result
+	 * holds no objects.
+	 * 
+	 * @param message
+	 */
+	private void processQueryLocally(QueryMessage message) {
+		assert message != null;
+
+		// remember the message's time of processing so we can calculate the
+		// load over a sliding window of recent queries.
+		tracker.addEvent();
+		if (config.contains(CacheBehaviourFlags.NEIGHBOR_PROPAGATION)) {
+			gossipLoad();
+		}
+
+		if (message instanceof RegionQueryMessage) {
+			coordinateRegionQuery((RegionQueryMessage) message);
+			return;
+		}
+
+		final long cell = SpatialCache.cellOf(message.QUERY_LOCATION);
+		SpatialObject[] objects = cache.get(cell);
+		if (objects == null && replicas != null) {
+			objects = replicas.get(cell);
+		}
+		final boolean hit = objects != null;
+		if (!hit) {
+			// replicas sent before hold the objects fetched before
+			replicaHolders.remove(cell);
+			try {
+				objects = loader.load(cell);
+			} catch (IOException e) {
+				logger.write("failed to fetch cell " + cell + ": " + e.getMessage());
+				e.printStackTrace();
+				objects = new SpatialObject[0];
+			}
+		}
+
+		try {
+			sendQueryResultToClient(message, new QueryResult(message.getDebuggingInfo(), message.ID, hit, Arrays.asList(objects)));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Receives the merged result of a region query once a node and all nodes
+	 * it sent subqueries to answered.
+	 */
+	private interface RegionCallback {
+		void onComplete(QueryResult result);
+	}
+
+	/**
+	 * Answer a range or kNN query as the node owning its location, see
+	 * executeRegionQuery(), and send the merged result to the client.
+	 */
+	private void coordinateRegionQuery(final RegionQueryMessage message) {
+		rememberRegionQuery(message);
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(REGION_QUERY_TIMEOUT_MILLIS);
+		executeRegionQuery(message, new long[] { id }, deadline, new RegionCallback() {
+
+			@Override
+			public void onComplete(QueryResult result) {
+				try {
+					sendQueryResultToClient(message, result);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Answer a subquery of a region query sent by a neighbor, see
+	 * executeRegionQuery(). If the subquery reached us before on another
+	 * path, the answer is empty.
+	 */
+	private void answerSubquery(final RegionQueryMessage message, final FullDuplexMPI.Responder responder) {
+		tracker.addEvent();
+		message.appendToDebuggingInfo(id + "-");
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(message.getTimeoutMillis() - REGION_QUERY_HOP_MARGIN_MILLIS);
+
+		if (!rememberRegionQuery(message)) {
+			logger.write("got query " + message.ID + " again, answering without objects");
+			responder.respond(new QueryResult(message.getDebuggingInfo(), message.ID, true, Collections.<SpatialObject> emptyList()));
+			return;
+		}
+
+		executeRegionQuery(message, message.getVisited(), deadline, new RegionCallback() {
+
+			@Override
+			public void onComplete(QueryResult result) {
+				responder.respond(result);
+			}
+		});
+	}
+
+	/**
+	 * Find the objects of a region query in our own Voronoi cell, and pass
+	 * the query on to the neighbors whose cells the region reaches into,
+	 * unless it was sent to them already. Their answers are merged with ours.
+	 * 
+	 * If the query has a limit (always for kNN), only that many objects
+	 * nearest to the query location are kept at each node. Once we found as
+	 * many, the region passed on shrinks to the circle holding them, as
+	 * objects farther away cannot be part of the result.
+	 * 
+	 * For aggregate queries, each node sends back the aggregate of its
+	 * objects merged with the aggregates of its neighbors instead.
+	 * 
+	 * The subqueries are sent all at once, except for EXPANDING_RING kNN
+	 * queries, see RingSearch. Queries without a limit are passed on before
+	 * we look for our own objects, so the neighbors look for theirs
+	 * meanwhile.
+	 * 
+	 * @param visited
+	 *            Ids of the nodes the query was sent to so far, including us
+	 * @param deadline
+	 *            System.nanoTime() by which the merged objects are due. The
+	 *            time left when passing the query on is how long we wait for
+	 *            the neighbors' answers. If it is too short, the query is not
+	 *            sent to any neighbors.
+	 * @param callback
+	 *            Called once with the merged result, on any thread
+	 */
+	private void executeRegionQuery(RegionQueryMessage message, long[] visited, long deadline, RegionCallback callback) {
+		final LocationOfNode center = message.QUERY_LOCATION;
+		final int limit = Math.min(message.getLimit(), MAX_KNN_K);
+		final double maxRadius = message instanceof RangeQueryMessage ? MAX_RANGE_RADIUS
+				: message instanceof AggregateQueryMessage ? MAX_AGGREGATE_RADIUS : MAX_KNN_DISTANCE;
+		final double radius = Math.min(message.getRadius(), maxRadius);
+
+		if (limit == 0) {
+			// our own objects do not narrow the region down
+			final RegionGather gather = scatter(message, limit, radius, visited, deadline, callback);
+			gather.add(searchLocally(message, limit, radius));
+			return;
+		}
+
+		final SpatialIndex.Result local = searchLocally(message, limit, radius);
+		double bound = radius;
+		if (local != null && local.objects.size() >= limit) {
+			bound = Math.min(radius, VoronoiRegion.distance(local.objects.get(limit - 1).LOCATION, center));
+		}
+
+		if (message instanceof KnnQueryMessage && ((KnnQueryMessage) message).SEARCH == KnnQueryMessage.Search.EXPANDING_RING) {
+			final List<Entry<NodeInfo, NeighborConnector>> targets = selectTargets(center, bound, visited, deadline);
+			final RingSearch search = new RingSearch((KnnQueryMessage) message, limit, bound, targets, visitedWith(visited, targets), deadline,
+					callback);
+			if (local != null) {
+				search.start(local.objects, local.cacheHit);
+			} else {
+				search.start(Collections.<SpatialObject> emptyList(), false);
+			}
+			return;
+		}
+
+		scatter(message, limit, bound, visited, deadline, callback).add(local);
+	}
+
+	/**
+	 * Find the objects of a region query in our own Voronoi cell
+	 * 
+	 * @return The objects found, null if cells could not be fetched
+	 */
+	private SpatialIndex.Result searchLocally(RegionQueryMessage message, int limit, double radius) {
+		try {
+			final VoronoiRegion region = currentRegion();
+			if (message instanceof AggregateQueryMessage) {
+				return index.aggregate(region, message.QUERY_LOCATION, radius);
+			} else if (limit > 0) {
+				return index.nearest(region, message.QUERY_LOCATION, limit, radius);
+			} else {
+				return index.range(region, message.QUERY_LOCATION, radius);
+			}
+		} catch (IOException e) {
+			logger.write("failed to fetch cells for query " + message.ID + ": " + e.getMessage());
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Get the neighbors whose cells a region reaches into and that the query
+	 * was not sent to yet. If too little time is left to pass the query on,
+	 * there are none.
+	 */
+	private List<Entry<NodeInfo, NeighborConnector>> selectTargets(LocationOfNode center, double radius, long[] visited, long deadline) {
+		final List<Entry<NodeInfo, NeighborConnector>> targets = new ArrayList<>();
+		if (TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()) >= REGION_QUERY_HOP_MARGIN_MILLIS) {
+			for (Entry<NodeInfo, NeighborConnector> n : neighborConnectors.entrySet()) {
+				final NodeInfo info = n.getKey();
+				if (!contains(visited, info.ID) && VoronoiRegion.reaches(position, weight, info.getLocationOfNode(), info.getWeight(), center, radius)) {
+					targets.add(n);
+				}
 			}
-			return;
 		}
+		return targets;
+	}
 
-		LocationOfNode queryLocation = message.QUERY_LOCATION;
-		Entry<NodeInfo, NeighborConnector> closestNodeToQuery = null, tempNode;
+	/**
+	 * We ask the targets ourselves, so the nodes we ask need not
+	 */
+	private static long[] visitedWith(long[] visited, List<Entry<NodeInfo, NeighborConnector>> targets) {
+		final long[] nowVisited = Arrays.copyOf(visited, visited.length + targets.size());
+		for (int i = 0; i < targets.size(); ++i) {
+			nowVisited[visited.length + i] = targets.get(i).getKey().ID;
+		}
+		return nowVisited;
+	}
 
-		Iterator<Entry<NodeInfo, NeighborConnector>> iterator = neighborConnectors.entrySet().iterator();
-		closestNodeToQuery = iterator.next();
+	/**
+	 * Send subqueries to all neighbors whose cells a region reaches into at
+	 * once.
+	 * 
+	 * @return Gather for the answers, which completes once our own objects
+	 *         are added as well
+	 */
+	private RegionGather scatter(RegionQueryMessage message, int limit, double radius, long[] visited, long deadline, RegionCallback callback) {
+		final List<Entry<NodeInfo, NeighborConnector>> targets = selectTargets(message.QUERY_LOCATION, radius, visited, deadline);
+		final RegionGather gather = new RegionGather(message, limit, targets.size(), callback);
+		if (targets.isEmpty()) {
+			return gather;
+		}
 
-		// initialize minimum distance with distance between location of
-		// this node and the query.
-		double minDistance = calculateDistance(position, queryLocation), tempDistance;
-		while (iterator.hasNext()) {
-			tempNode = iterator.next();
-			tempDistance = calculateDistance(tempNode.getKey(), queryLocation);
-			if (tempDistance < minDistance) {
-				minDistance = tempDistance;
-				closestNodeToQuery = tempNode;
+		final long timeoutMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+		final RegionQueryMessage subquery = message.subquery(radius, visitedWith(visited, targets), timeoutMillis);
+		for (Entry<NodeInfo, NeighborConnector> n : targets) {
+			final IResponseHandler handler = gather.newHandler();
+			regionSubqueriesSent.incrementAndGet();
+			if (!n.getValue().sendMessageAsync(subquery, handler, timeoutMillis, TimeUnit.MILLISECONDS)) {
+				handler.onConnectionAborted();
 			}
 		}
+		return gather;
+	}
 
-		if (minDistance < calculateDistance(position, queryLocation)) {
-			// greedy routing
-			closestNodeToQuery.getValue().sendMessageAsync(message);
-		} else if (getLoad() > 1) {
-			if (config.contains(CacheBehaviourFlags.NEIGHBOR_PROPAGATION)) {
-				logger.write("forwarding message as local load becomes too high");
-				forwardMessageToNeighbor(message);
-			} else {
-				processQueryLocally(message);
+	private final AtomicLong regionSubqueriesSent = new AtomicLong();
+
+	private static boolean contains(long[] ids, long id) {
+		for (long i : ids) {
+			if (i == id) {
+				return true;
 			}
+		}
+		return false;
+	}
 
-			if (config.contains(CacheBehaviourFlags.SCALEIN)) {
-				scaleIn.attemptScaleIn();
+	/**
+	 * Ids of the region queries we answered recently, with the time we got
+	 * them at
+	 */
+	private final ConcurrentHashMap<String, Long> recentRegionQueries = new ConcurrentHashMap<>();
+
+	/**
+	 * Remember that we answered a region query, so we do not answer it again
+	 * if it reaches us on another path.
+	 * 
+	 * @return false if we answered it before
+	 */
+	private boolean rememberRegionQuery(RegionQueryMessage message) {
+		final String key = message.CLIENT_IP + ":" + message.CLIENT_PORT + "/" + message.ID;
+		final long now = System.currentTimeMillis();
+		final Long previous = recentRegionQueries.put(key, now);
+
+		if (recentRegionQueries.size() > MAX_RECENT_REGION_QUERIES) {
+			final Iterator<Long> times = recentRegionQueries.values().iterator();
+			while (times.hasNext()) {
+				if (now - times.next() > 2 * REGION_QUERY_TIMEOUT_MILLIS) {
+					times.remove();
+				}
 			}
-		} else {
-			processQueryLocally(message);
 		}
+
+		// clients may reuse ids after a while
+		return previous == null || now - previous > 2 * REGION_QUERY_TIMEOUT_MILLIS;
 	}
 
-	/** Forwards a query to a random neighbor and prevents further propagation */
-	private void forwardMessageToNeighbor(QueryMessage message) {
-		assert message != null;
+	/**
+	 * Get our current Voronoi cell, weighted as the partition of the grid is
+	 */
+	private VoronoiRegion currentRegion() {
+		return new VoronoiRegion(position, weight, neighborConnectors.keySet());
+	}
 
-		int randomNum = (int) (Math.random() * neighborConnectors.size());
-		for (NodeInfo n : neighborConnectors.keySet()) {
-			if (randomNum == 0) {
-				message.stopPropagationOfTheMessage();
-				neighborConnectors.get(n).sendMessageAsync(message);
-				break;
+	/**
+	 * Collects the objects (or aggregates) of a region query from this node
+	 * and the neighbors it sent subqueries to, and passes them on once all of
+	 * them are in. Subqueries that fail or time out count as answered without
+	 * objects.
+	 */
+	private final class RegionGather {
+		private final RegionQueryMessage message;
+		private final int limit;
+		private final RegionCallback callback;
+		private final List<SpatialObject> objects = new ArrayList<>();
+		private final Aggregate aggregate;
+		private boolean cacheHit = true;
+		private final AtomicInteger remaining;
+
+		/**
+		 * @param subqueries
+		 *            Number of subquery answers to wait for in addition to
+		 *            our own objects
+		 */
+		public RegionGather(RegionQueryMessage message, int limit, int subqueries, RegionCallback callback) {
+			this.message = message;
+			this.limit = limit;
+			this.callback = callback;
+			aggregate = message instanceof AggregateQueryMessage ? new Aggregate() : null;
+			remaining = new AtomicInteger(subqueries + 1);
+		}
+
+		/**
+		 * Add the objects we found ourselves, or none if we failed to
+		 */
+		public void add(SpatialIndex.Result local) {
+			if (local != null) {
+				add(local.objects, local.aggregate, local.cacheHit);
+			} else {
+				add(Collections.<SpatialObject> emptyList(), null, false);
+			}
+		}
+
+		/**
+		 * @param partial
+		 *            Aggregate of the objects found for aggregate queries,
+		 *            null if there is none
+		 */
+		public void add(List<SpatialObject> found, Aggregate partial, boolean hit) {
+			synchronized (this) {
+				objects.addAll(found);
+				if (partial != null) {
+					aggregate.add(partial);
+				}
+				cacheHit &= hit;
+			}
+			if (remaining.decrementAndGet() == 0) {
+				complete();
+			}
+		}
+
+		public IResponseHandler newHandler() {
+			return new IResponseHandler() {
+
+				@Override
+				public void onResponseReceived(IMessage response) {
+					final QueryResult result = (QueryResult) response;
+					add(result.getObjects(), result.getAggregate(), result.isCacheHit());
+				}
+
+				@Override
+				public void onConnectionAborted() {
+					add(Collections.<SpatialObject> emptyList(), null, false);
+				}
+
+				@Override
+				public void onTimeout() {
+					logger.write("subquery of query " + message.ID + " timed out");
+					// completing may connect to the client, which the timer
+					// thread may not wait for
+					ExecutionPolicy.get().start("caas-region-timeout", new Runnable() {
+						@Override
+						public void run() {
+							add(Collections.<SpatialObject> emptyList(), null, false);
+						}
+					});
+				}
+			};
+		}
+
+		private void complete() {
+			List<SpatialObject> result;
+			boolean hit;
+			synchronized (this) {
+				result = new ArrayList<>(objects);
+				hit = cacheHit;
 			}
-			--randomNum;
+
+			if (aggregate != null) {
+				callback.onComplete(new QueryResult(message.getDebuggingInfo(), message.ID, hit, aggregate));
+				return;
+			}
+			if (limit > 0) {
+				result = nearest(result, message.QUERY_LOCATION, limit);
+			}
+			callback.onComplete(new QueryResult(message.getDebuggingInfo(), message.ID, hit, result));
 		}
 	}
 
 	/**
-	 * This method processes the query on this node and ensures a result is
-	 * returned to the client. Since we are not really serving the cache, we can
-	 * simulate the cache by sleeping for some time
-	 * 
-	 * @param message
+	 * Get the limit objects of a list nearest to center, sorted by distance
 	 */
-	private void processQueryLocally(QueryMessage message) {
-		assert message != null;
+	private static List<SpatialObject> nearest(List<SpatialObject> objects, final LocationOfNode center, int limit) {
+		final List<SpatialObject> sorted = new ArrayList<>(objects);
+		Collections.sort(sorted, new Comparator<SpatialObject>() {
+			@Override
+			public int compare(SpatialObject a, SpatialObject b) {
+				return Double.compare(VoronoiRegion.distance(a.LOCATION, center), VoronoiRegion.distance(b.LOCATION, center));
+			}
+		});
+		return sorted.size() > limit ? new ArrayList<>(sorted.subList(0, limit)) : sorted;
+	}
 
-		// remember the message's time of processing so we can calculate the
-		// load over a sliding window of recent queries.
-		tracker.addEvent();
+	/**
+	 * Passes an EXPANDING_RING kNN query on from this node. Rather than all at
+	 * once, the neighbors are asked one after the other, the one whose cell
+	 * may come nearest to the query location first. Each answer is merged
+	 * before the next neighbor is asked, with the distance of the k-th
+	 * nearest object known by then as the radius, and the search stops at
+	 * the first neighbor whose cell is farther away than that. As every node
+	 * asked does the same, the search grows outwards over the neighbor graph
+	 * only as far as objects nearer than the k-th are left to find.
+	 */
+	private final class RingSearch implements IResponseHandler {
+		private final KnnQueryMessage message;
+		private final int limit;
+		private final List<Entry<NodeInfo, NeighborConnector>> targets;
+		private final long[] visited;
+		private final long deadline;
+		private final RegionCallback callback;
+		private List<SpatialObject> objects = Collections.emptyList();
+		private boolean cacheHit = true;
+		private double radius;
+		private int next = 0;
+		private boolean completed = false;
 
-		// TODO: simulate real caching behavior ...
-		try {
-			Thread.sleep(QUERY_PROCESSING_TIME_HIT);
-		} catch (InterruptedException e) {
-			e.printStackTrace();
+		/**
+		 * @param targets
+		 *            Neighbors the query may be passed on to
+		 * @param visited
+		 *            Ids of the nodes the query was sent to so far, including
+		 *            all targets
+		 */
+		public RingSearch(KnnQueryMessage message, int limit, double radius, List<Entry<NodeInfo, NeighborConnector>> targets, long[] visited,
+				long deadline, RegionCallback callback) {
+			this.message = message;
+			this.limit = limit;
+			this.radius = radius;
+			this.targets = new ArrayList<>(targets);
+			this.visited = visited;
+			this.deadline = deadline;
+			this.callback = callback;
+
+			final LocationOfNode center = message.QUERY_LOCATION;
+			Collections.sort(this.targets, new Comparator<Entry<NodeInfo, NeighborConnector>>() {
+				@Override
+				public int compare(Entry<NodeInfo, NeighborConnector> a, Entry<NodeInfo, NeighborConnector> b) {
+					return Double.compare(VoronoiRegion.bisectorDistance(position, weight, b.getKey().getLocationOfNode(), b.getKey().getWeight(), center),
+							VoronoiRegion.bisectorDistance(position, weight, a.getKey().getLocationOfNode(), a.getKey().getWeight(), center));
+				}
+			});
 		}
 
-		try {
-			sendQueryResultToClient(message);
-		} catch (IOException e) {
-			e.printStackTrace();
+		/**
+		 * Start with the objects we found ourselves
+		 */
+		public synchronized void start(List<SpatialObject> found, boolean hit) {
+			merge(found, hit);
+			askNext();
+		}
+
+		@Override
+		public synchronized void onResponseReceived(IMessage response) {
+			final QueryResult result = (QueryResult) response;
+			merge(result.getObjects(), result.isCacheHit());
+			askNext();
+		}
+
+		@Override
+		public synchronized void onConnectionAborted() {
+			cacheHit = false;
+			askNext();
+		}
+
+		@Override
+		public void onTimeout() {
+			logger.write("subquery of query " + message.ID + " timed out");
+			// asking the next neighbor may connect to the client, which the
+			// timer thread may not wait for
+			ExecutionPolicy.get().start("caas-region-timeout", new Runnable() {
+				@Override
+				public void run() {
+					synchronized (RingSearch.this) {
+						cacheHit = false;
+						askNext();
+					}
+				}
+			});
+		}
+
+		private void merge(List<SpatialObject> found, boolean hit) {
+			final List<SpatialObject> all = new ArrayList<>(objects);
+			all.addAll(found);
+			objects = nearest(all, message.QUERY_LOCATION, limit);
+			cacheHit &= hit;
+			if (objects.size() >= limit) {
+				radius = Math.min(radius, VoronoiRegion.distance(objects.get(limit - 1).LOCATION, message.QUERY_LOCATION));
+			}
+		}
+
+		/**
+		 * Send the query to the next neighbor whose cell the radius still
+		 * reaches, or complete if there is none
+		 */
+		private void askNext() {
+			if (completed) {
+				return;
+			}
+			while (next < targets.size()) {
+				final Entry<NodeInfo, NeighborConnector> n = targets.get(next++);
+				// the targets are sorted by how near their cells may come, so
+				// once one is out of reach, all following ones are
+				if (!VoronoiRegion.reaches(position, weight, n.getKey().getLocationOfNode(), n.getKey().getWeight(), message.QUERY_LOCATION, radius)) {
+					break;
+				}
+				final long timeoutMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (timeoutMillis < REGION_QUERY_HOP_MARGIN_MILLIS) {
+					break;
+				}
+
+				regionSubqueriesSent.incrementAndGet();
+				if (n.getValue().sendMessageAsync(message.subquery(radius, visited, timeoutMillis), this, timeoutMillis, TimeUnit.MILLISECONDS)) {
+					return;
+				}
+				cacheHit = false;
+			}
+			completed = true;
+			callback.onComplete(new QueryResult(message.getDebuggingInfo(), message.ID, cacheHit, objects));
 		}
 	}
 
+	/**
+	 * Get the statistics of the node's cache.
+	 */
+	public SpatialCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Get the node's RouteCache, e.g. for its statistics, null unless
+	 * CacheBehaviourFlags.ROUTE_CACHE is set.
+	 */
+	public RouteCache getRouteCache() {
+		return routeCache;
+	}
+
+	/**
+	 * Get the loader filling the node's cache, e.g. for its statistics.
+	 */
+	public CellLoader getCellLoader() {
+		return loader;
+	}
+
 	private ConcurrentHashMap<String, ClientConnection> pendingClientConnections = new ConcurrentHashMap<>();
 
 	/**
 	 * Send a processed query result back to the client where the query
-	 * originated. Right now, the response is a dummy.
+	 * originated.
 	 * */
-	private void sendQueryResultToClient(final QueryMessage message) throws IOException {
+	private void sendQueryResultToClient(final QueryMessage message, QueryResult result) throws IOException {
 		assert message != null;
 
 		final String key = message.CLIENT_IP + message.CLIENT_PORT;
@@ -761,7 +2553,7 @@ public class CacheNode {
 			con = new ClientConnection(message.CLIENT_IP, message.CLIENT_PORT, true);
 		}
 
-		con.enqueueResponse(message);
+		con.enqueueResponse(result);
 	}
 
 	/** Handles the Scale-In method of Load Balancing. */
@@ -802,9 +2594,81 @@ public class CacheNode {
 		}
 
 		private volatile boolean subdivBlock = true;
-		private volatile boolean subdivCancel = false;
 		private volatile long subdivOriginator = -1;
 
+		/**
+		 * Collects the responses of the two other vertices of a triangle to a
+		 * message sent to both of them. Each vertex either responds, times out
+		 * (see SUBDIVISION_TIMEOUT_MILLIS) or its connection is aborted.
+		 * 
+		 * Once all are in, onComplete() runs on a thread of its own, as it may
+		 * block (e.g. spawn a cache node) and response handlers may not.
+		 */
+		private abstract class TriangleVote {
+			private final AtomicInteger remaining = new AtomicInteger(2);
+			private volatile boolean failed = false;
+			private volatile boolean rejected = false;
+
+			/**
+			 * Send a message to one of the other vertices and count its
+			 * response towards the vote.
+			 */
+			public void send(NeighborConnector n, IMessage message) {
+				n.sendMessageAsync(message, new IResponseHandler() {
+
+					@Override
+					public void onResponseReceived(IMessage response) {
+						assert response instanceof ConfirmationMessage;
+						if (((ConfirmationMessage) response).STATUS_CODE < 0) {
+							rejected = true;
+						}
+						arrive();
+					}
+
+					@Override
+					public void onConnectionAborted() {
+						failed = true;
+						arrive();
+					}
+
+					@Override
+					public void onTimeout() {
+						failed = true;
+						arrive();
+					}
+				}, SUBDIVISION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+			}
+
+			/**
+			 * Count a vertex that could not be sent a message to (i.e. it is
+			 * not among our neighbors) as failed.
+			 */
+			public void missing() {
+				failed = true;
+				arrive();
+			}
+
+			/**
+			 * @param failed
+			 *            At least one vertex did not respond in time
+			 * @param rejected
+			 *            At least one vertex responded with an error status
+			 */
+			protected abstract void onComplete(boolean failed, boolean rejected);
+
+			private void arrive() {
+				if (remaining.decrementAndGet() != 0) {
+					return;
+				}
+				ExecutionPolicy.get().start("caas-subdivision-vote", new Runnable() {
+					@Override
+					public void run() {
+						onComplete(failed, rejected);
+					}
+				});
+			}
+		}
+
 		/**
 		 * Called in response to us receiving a subdivision request message from
 		 * another node. The action taken is different depending on which vertex
@@ -856,54 +2720,23 @@ public class CacheNode {
 				// triangle confirm this, though.
 				subdivBlock = true;
 
-				// run this in a separate thread to avoid deadlock if the
-				// calling thread is a neighbor message pump.
-				new Thread(new Runnable() {
-					@Override
-					public void run() {
-
-						final CountDownLatch cd = new CountDownLatch(2);
-						subdivCancel = false;
-
-						final SubdivisionConfirmMessage triangle = new SubdivisionConfirmMessage(id, message.FIRST_VERTEX, sourceId);
-						subdivOriginator = id;
-
-						for (NeighborConnector n : neighborConnectors.values()) {
-							if (n.nid == message.FIRST_VERTEX || n.nid == sourceId) {
-								n.sendMessageAsync(triangle, new IResponseHandler() {
-
-									@Override
-									public void onResponseReceived(IMessage response) {
-										assert response instanceof ConfirmationMessage;
-										if (((ConfirmationMessage) response).STATUS_CODE < 0) {
-											subdivCancel = true;
-										}
-
-										cd.countDown();
-									}
-
-									@Override
-									public void onConnectionAborted() {
-										// TODO
-									}
-								});
-							}
-						}
+				final SubdivisionConfirmMessage triangle = new SubdivisionConfirmMessage(id, message.FIRST_VERTEX, sourceId);
+				subdivOriginator = id;
 
-						try {
-							if (!cd.await(5, TimeUnit.SECONDS)) {
-								// maybe neighbor failure or timeout - make this
-								// node available for subdivision again to avoid
-								// a permanent stall
-								subdivBlock = false;
-								return;
-							}
-						} catch (InterruptedException e) {
-							e.printStackTrace();
-							assert false;
+				// sending does not block, so this is safe even if the calling
+				// thread is a neighbor message pump.
+				final TriangleVote vote = new TriangleVote() {
+					@Override
+					protected void onComplete(boolean failed, boolean rejected) {
+						if (failed) {
+							// maybe neighbor failure or timeout - make this
+							// node available for subdivision again to avoid
+							// a permanent stall
+							subdivBlock = false;
+							return;
 						}
 
-						if (subdivCancel) {
+						if (rejected) {
 							System.out.println("cancel op");
 							// at least one node disagreed, therefore, cancel
 							// the operation
@@ -912,9 +2745,19 @@ public class CacheNode {
 
 						// both neighbors agree to subdivide, so proceed.
 						spawnSubdivisionCacheNode(triangle);
-						subdivBlock = false;
 					}
-				}).start();
+				};
+
+				int sent = 0;
+				for (NeighborConnector n : neighborConnectors.values()) {
+					if (n.nid == message.FIRST_VERTEX || n.nid == sourceId) {
+						vote.send(n, triangle);
+						++sent;
+					}
+				}
+				for (; sent < 2; ++sent) {
+					vote.missing();
+				}
 			}
 		}
 
@@ -941,62 +2784,42 @@ public class CacheNode {
 			// neighbors
 			assert sourceId == subdivOriginator;
 
-			// accept one incoming neighbor connection coming from the newly
-			// added node.
+			// the newly added node connects to us, acceptConnections() hands
+			// the connection over to onSubdivisionNeighborConnected()
+			assert message.NEW_NODE_INFO != null;
+			expectedNeighbors.put(message.NEW_NODE_ID, message.NEW_NODE_INFO);
 
-			new Thread(new Runnable() {
-				@Override
-				public void run() {
-					try {
-						Socket sock = serverSocket.accept();
-						new NeighborConnector(sock) {
-							@SuppressWarnings("unchecked")
-							@Override
-							protected void onReceiveId(PublishIdMessage pid) {
-								super.onReceiveId(pid);
-								final long nid = GetNeighborId();
-
-								// TODO: review this assumption
-								assert nid == message.NEW_NODE_ID;
-								assert message.NEW_NODE_INFO != null;
-
-								// operate on a copy of the neighbor list. The
-								// monitor is used to ensure we don't loose
-								// updates if two threads try to modify the HM
-								// at the same time. Note that working on a copy
-								// is required as access to the
-								// `neighborConnectors` itself is not
-								// synchronized.
-								synchronized (regenerateNeighborConnectorsMonitor) {
-
-									HashMap<NodeInfo, NeighborConnector> clone = (HashMap<NodeInfo, NeighborConnector>) neighborConnectors.clone();
-									clone.put(message.NEW_NODE_INFO, this);
-
-									neighborConnectors = clone;
-								}
+			return new ConfirmationMessage(0, "");
+		}
 
-								// reset the load tracker to avoid excessive
-								// adding of nodes in regions with high load. We
-								// should rather wait a bit and see if adding
-								// the new improved the situation.
-								tracker.reset();
-								subdivBlock = false;
-							}
-						};
-					} catch (IOException e) {
-						e.printStackTrace();
-						final String msg = "failed to accept incoming neighbor connection for subdivided node";
-						logger.write("cache node: " + msg);
-					}
-				}
-			}).start();
+		/**
+		 * Called once a node created by subdivision connected to us as its
+		 * neighbor.
+		 */
+		@SuppressWarnings("unchecked")
+		private void onSubdivisionNeighborConnected(NodeInfo info, NeighborConnector connector) {
+			// operate on a copy of the neighbor list. The monitor is used to
+			// ensure we don't loose updates if two threads try to modify the
+			// HM at the same time. Note that working on a copy is required as
+			// access to the `neighborConnectors` itself is not synchronized.
+			synchronized (regenerateNeighborConnectorsMonitor) {
+
+				HashMap<NodeInfo, NeighborConnector> clone = (HashMap<NodeInfo, NeighborConnector>) neighborConnectors.clone();
+				clone.put(info, connector);
+
+				setNeighborConnectors(clone);
+			}
 
-			return new ConfirmationMessage(0, "");
+			// reset the load tracker to avoid excessive adding of nodes in
+			// regions with high load. We should rather wait a bit and see if
+			// adding the new improved the situation.
+			tracker.reset();
+			subdivBlock = false;
 		}
 
 		/**
 		 * Spawns a subdivision cache node in the given triangle. This assumes
-		 * all vertices have confirmed.
+		 * all vertices have confirmed. Once done, scale-in is unblocked again.
 		 */
 		private void spawnSubdivisionCacheNode(final SubdivisionConfirmMessage triangle) {
 			assert subdivBlock;
@@ -1005,15 +2828,16 @@ public class CacheNode {
 			// the risk of a collision is really small, but nevertheless
 			// nonzero.
 			final long newId = (new Random()).nextLong();
-			final CountDownLatch cd = new CountDownLatch(2);
 
 			final ServerSocket sockFutureNeighbors = allocateFutureNodeSocket();
 			if (sockFutureNeighbors == null) {
+				subdivBlock = false;
 				return;
 			}
 
 			final InetSocketAddress adr = getFutureNodeAdr(sockFutureNeighbors);
 			if (adr == null) {
+				subdivBlock = false;
 				return;
 			}
 
@@ -1032,9 +2856,43 @@ public class CacheNode {
 			final SubdivisionCommitMessage message = new SubdivisionCommitMessage(newId, nodeInfo);
 			final List<NodeInfo> neighbors = new ArrayList<NodeInfo>();
 
+			final TriangleVote vote = new TriangleVote() {
+				@Override
+				protected void onComplete(boolean failed, boolean rejected) {
+					if (failed) {
+						System.out.println("timeout during scale-in");
+						try {
+							sockFutureNeighbors.close();
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
+						subdivBlock = false;
+						return;
+					}
+
+					// (hack) ensure it is always visible in the GUI
+					System.out.println("scale-in: adding intermediate cache node");
+
+					// actually spawn the cache node
+					try {
+						new CacheNode(newId, locationOfNode, neighbors, logger, sockFutureNeighbors, config, connectionToAdmin, loader.getOrigin(), cache.getCapacityBytes());
+					} catch (IOException e) {
+						logger.write("failure spawning cache node");
+						e.printStackTrace();
+					}
+
+					// if we do have a valid admin connection, inform admin
+					if (connectionToAdmin != null) {
+						connectionToAdmin.sendMessageAsync(message);
+					}
+					subdivBlock = false;
+				}
+			};
+
 			// notify all triangle vertices - including ourselves! - to expect
 			// another neighbor connection. This safe as we are not running on a
 			// message pump thread.
+			int sent = 0;
 			for (Entry<NodeInfo, NeighborConnector> kv : neighborConnectors.entrySet()) {
 				final NeighborConnector n = kv.getValue();
 				if (n.nid == triangle.V0 || n.nid == triangle.V1 || n.nid == triangle.V2) {
@@ -1043,58 +2901,19 @@ public class CacheNode {
 					if (n.nid == triangle.V0) {
 						onReceiveSubdivisionCommit(message, id);
 					} else {
-						n.sendMessageAsync(message, new IResponseHandler() {
-
-							@Override
-							public void onResponseReceived(IMessage response) {
-								assert response instanceof ConfirmationMessage;
-								cd.countDown();
-							}
-
-							@Override
-							public void onConnectionAborted() {
-								// nothing to do - timeout happens on `cd`
-							}
-						});
-					}
-				}
-			}
-
-			try {
-				if (!cd.await(5, TimeUnit.SECONDS)) {
-					System.out.println("timeout during scale-in");
-					try {
-						sockFutureNeighbors.close();
-					} catch (IOException e) {
-						e.printStackTrace();
+						vote.send(n, message);
+						++sent;
 					}
-					return;
 				}
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-				assert false;
 			}
-
-			// (hack) ensure it is always visible in the GUI
-			System.out.println("scale-in: adding intermediate cache node");
-
-			// actually spawn the cache node
-			try {
-				new CacheNode(newId, locationOfNode, neighbors, logger, sockFutureNeighbors, config, connectionToAdmin);
-			} catch (IOException e) {
-				logger.write("failure spawning cache node");
-				e.printStackTrace();
-			}
-
-			// if we do have a valid admin connection, inform admin
-			if (connectionToAdmin != null) {
-				connectionToAdmin.sendMessageAsync(message);
+			for (; sent < 2; ++sent) {
+				vote.missing();
 			}
 		}
 
 		private ServerSocket allocateFutureNodeSocket() {
 			try {
-				return new ServerSocket(0);
+				return transport.newServerSocket(0);
 			} catch (IOException e2) {
 				e2.printStackTrace();
 				logger.write("failed to allocate ServerSocket for new cache node");
@@ -1134,31 +2953,4 @@ public class CacheNode {
 			return new LocationOfNode((int)(xpos / 3), (int)(ypos / 3) );
 		}
 	}
-
-	/**
-	 * Helper method to calculate the square distance between a queryLocation
-	 * and a CacheNode center
-	 * 
-	 * @param node
-	 *            the cacheNode
-	 * @param queryLocation
-	 *            the queryLocation
-	 * @return the distance between the node and the location of the query
-	 */
-	private static final double calculateDistance(NodeInfo node, LocationOfNode queryLocation) {
-		return calculateDistance(node.getLocationOfNode(), queryLocation);
-	}
-
-	/**
-	 * Helper method to calculate the square distance between to points
-	 * 
-	 * @param a
-	 *            first point
-	 * @param b
-	 *            second point
-	 * @return the distance between the two points
-	 */
-	private static final double calculateDistance(LocationOfNode a, LocationOfNode b) {
-		return Math.pow(a.x - b.x, 2) + Math.pow(a.y - b.y, 2);
-	}
 }
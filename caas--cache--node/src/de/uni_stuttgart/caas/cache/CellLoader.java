@@ -0,0 +1,225 @@
+package de.uni_stuttgart.caas.cache;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.uni_stuttgart.caas.base.ExecutionPolicy;
+import de.uni_stuttgart.caas.base.SpatialObject;
+
+/**
+ * Fills a SpatialCache from an Origin on cache misses. Concurrent misses for
+ * the same cell are coalesced: the first thread to miss fetches the cell,
+ * later ones wait for that fetch to complete and share its result rather than
+ * fetching the cell again.
+ *
+ * All methods are threadsafe.
+ */
+public final class CellLoader {
+
+	/**
+	 * Maximum number of fetches getAll() runs at the same time
+	 */
+	public static final int MAX_PARALLEL_FETCHES = 16;
+
+	public CellLoader(SpatialCache _cache, Origin _origin) {
+		assert _cache != null;
+		assert _origin != null;
+
+		cache = _cache;
+		origin = _origin;
+	}
+
+	/**
+	 * Get the objects of a cell that missed the cache, fetching it from the
+	 * origin unless a fetch for the cell is already in flight. In both cases,
+	 * the call blocks until the objects are available.
+	 *
+	 * @throws IOException
+	 *             if the fetch failed. All threads waiting for the fetch get
+	 *             the same exception.
+	 */
+	public SpatialObject[] load(long cell) throws IOException {
+		final Flight flight = new Flight();
+		final Flight existing = inFlight.putIfAbsent(cell, flight);
+		if (existing != null) {
+			coalescedCount.incrementAndGet();
+			return existing.await();
+		}
+
+		try {
+			// a flight for the cell may have completed between the caller's
+			// cache miss and us registering ours
+			SpatialObject[] objects = cache.peek(cell);
+			if (objects == null) {
+				fetchCount.incrementAndGet();
+				objects = origin.fetch(cell);
+				cache.put(cell, objects);
+			}
+			flight.objects = objects;
+			return objects;
+		} catch (IOException | RuntimeException e) {
+			flight.failure = e;
+			throw e;
+		} finally {
+			// remove before waking followers, so later misses start a new
+			// fetch rather than waiting for one that is over
+			inFlight.remove(cell);
+			flight.done.countDown();
+		}
+	}
+
+	/**
+	 * Get the objects of several cells, from the cache where possible. Cells
+	 * that miss the cache are loaded in parallel, at most
+	 * MAX_PARALLEL_FETCHES at a time. The call blocks until all cells are
+	 * available.
+	 *
+	 * @param out
+	 *            Receives the objects of cells[i] at index i
+	 * @return Number of cells that were found in the cache
+	 * @throws IOException
+	 *             if any fetch failed, after all other fetches completed
+	 */
+	public int getAll(final long[] cells, final SpatialObject[][] out) throws IOException {
+		assert out.length >= cells.length;
+
+		final int[] misses = new int[cells.length];
+		int missCount = 0;
+		for (int i = 0; i < cells.length; ++i) {
+			out[i] = cache.get(cells[i]);
+			if (out[i] == null) {
+				misses[missCount++] = i;
+			}
+		}
+		if (missCount == 0) {
+			return cells.length;
+		}
+
+		final int total = missCount;
+		final AtomicInteger next = new AtomicInteger(0);
+		final IOException[] failure = new IOException[1];
+		final Runnable worker = new Runnable() {
+			@Override
+			public void run() {
+				int i;
+				while ((i = next.getAndIncrement()) < total) {
+					try {
+						out[misses[i]] = load(cells[misses[i]]);
+					} catch (IOException e) {
+						synchronized (failure) {
+							failure[0] = e;
+						}
+					}
+				}
+			}
+		};
+
+		// the calling thread is one of the workers
+		final int helpers = Math.min(total, MAX_PARALLEL_FETCHES) - 1;
+		final CountDownLatch done = new CountDownLatch(helpers);
+		for (int h = 0; h < helpers; ++h) {
+			FETCHERS.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						worker.run();
+					} finally {
+						done.countDown();
+					}
+				}
+			});
+		}
+		worker.run();
+
+		boolean interrupted = false;
+		while (true) {
+			try {
+				done.await();
+				break;
+			} catch (InterruptedException e) {
+				// fetches finish in bounded time, keep waiting
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		synchronized (failure) {
+			if (failure[0] != null) {
+				throw failure[0];
+			}
+		}
+		return cells.length - total;
+	}
+
+	public Origin getOrigin() {
+		return origin;
+	}
+
+	/**
+	 * Get the number of fetches started.
+	 */
+	public long getFetchCount() {
+		return fetchCount.get();
+	}
+
+	/**
+	 * Get the number of misses that waited for a fetch already in flight
+	 * instead of starting their own.
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+	// ---------------------------------
+	// Implementation
+	// ---------------------------------
+
+	private static final ExecutorService FETCHERS = ExecutionPolicy.get().newExecutor("caas-cell-fetch");
+
+	private final SpatialCache cache;
+	private final Origin origin;
+
+	private final ConcurrentHashMap<Long, Flight> inFlight = new ConcurrentHashMap<>();
+	private final AtomicLong fetchCount = new AtomicLong(0);
+	private final AtomicLong coalescedCount = new AtomicLong(0);
+
+	/**
+	 * A fetch in progress. The result fields are written before done is
+	 * counted down, which makes them visible to the followers.
+	 */
+	private static final class Flight {
+		private final CountDownLatch done = new CountDownLatch(1);
+		private SpatialObject[] objects;
+		private Exception failure;
+
+		public SpatialObject[] await() throws IOException {
+			boolean interrupted = false;
+			while (true) {
+				try {
+					done.await();
+					break;
+				} catch (InterruptedException e) {
+					// the leader finishes in bounded time, keep waiting
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+
+			if (failure instanceof IOException) {
+				throw new IOException("(CellLoader) coalesced fetch failed", failure);
+			}
+			if (failure != null) {
+				throw (RuntimeException) failure;
+			}
+			return objects;
+		}
+	}
+}
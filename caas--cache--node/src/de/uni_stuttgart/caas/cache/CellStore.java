@@ -0,0 +1,70 @@
+package de.uni_stuttgart.caas.cache;
+
+import de.uni_stuttgart.caas.base.SpatialObject;
+
+/**
+ * Storage engine behind a SpatialCache. Implementations decide where the
+ * objects of a cell are kept and which cells to evict once full, the cache
+ * does the bookkeeping of hits and misses.
+ *
+ * Implementations need not be threadsafe, SpatialCache serializes all calls.
+ */
+interface CellStore {
+
+	/**
+	 * Get the objects of a cell. This counts as a use of the cell for the
+	 * eviction policy.
+	 *
+	 * @return The objects of the cell or null if the cell is not stored. The
+	 *         array must not be modified.
+	 */
+	SpatialObject[] get(long cell);
+
+	boolean contains(long cell);
+
+	/**
+	 * Add or replace the objects of a cell, evicting other cells as necessary.
+	 *
+	 * @return Number of cells evicted, or -1 if the cell could not be stored
+	 *         (any previous version is removed in that case).
+	 */
+	int put(long cell, SpatialObject[] objects);
+
+	/**
+	 * Check whether storing a cell not stored yet would evict another one.
+	 */
+	boolean needsEviction(SpatialObject[] objects);
+
+	/**
+	 * Get the cell that would be evicted first to store a cell not stored
+	 * yet. Only valid if needsEviction() is true for the objects.
+	 */
+	long victim(SpatialObject[] objects);
+
+	/**
+	 * Remove a cell, if stored.
+	 */
+	void remove(long cell);
+
+	void clear();
+
+	int getCellCount();
+
+	/**
+	 * Get the keys of all stored cells, without affecting eviction order.
+	 */
+	long[] cells();
+
+	/**
+	 * Get the number of bytes taken up by the stored cells.
+	 */
+	long getSizeBytes();
+
+	long getCapacityBytes();
+
+	/**
+	 * Get the share of the bytes taken up by stored cells (see getSizeBytes())
+	 * that does not hold any data, between 0 and 1.
+	 */
+	double getFragmentation();
+}
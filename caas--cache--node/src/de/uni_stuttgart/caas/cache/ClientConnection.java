@@ -5,7 +5,7 @@ import java.io.ObjectOutputStream;
 import java.net.Socket;
 import java.util.concurrent.LinkedBlockingQueue;
 
-import de.uni_stuttgart.caas.messages.QueryMessage;
+import de.uni_stuttgart.caas.base.ExecutionPolicy;
 import de.uni_stuttgart.caas.messages.QueryResult;
 
 /**
@@ -18,14 +18,13 @@ class ClientConnection {
 		client = new Socket(host, port);
 		clientOut = new ObjectOutputStream(client.getOutputStream());
 
-		new Thread(new Runnable() {
+		ExecutionPolicy.get().start("caas-client-connection", new Runnable() {
 			@Override
 			public void run() {
 				try {
 					// TODO: handle closing and error scenarios
 					do {
-						final QueryMessage message = messages.take();
-						clientOut.writeObject(new QueryResult(message.getDebuggingInfo(), message.ID));
+						clientOut.writeObject(results.take());
 						clientOut.flush();
 					} while (!singleUse);
 				} catch (Exception e) {
@@ -39,14 +38,14 @@ class ClientConnection {
 					e.printStackTrace();
 				}
 			}
-		}).start();
+		});
 	}
 
-	public void enqueueResponse(final QueryMessage message) {
-		messages.add(message);
+	public void enqueueResponse(final QueryResult result) {
+		results.add(result);
 	}
 
 	private Socket client;
 	private ObjectOutputStream clientOut;
-	private LinkedBlockingQueue<QueryMessage> messages = new LinkedBlockingQueue<>();
+	private LinkedBlockingQueue<QueryResult> results = new LinkedBlockingQueue<>();
 };
@@ -0,0 +1,93 @@
+package de.uni_stuttgart.caas.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.uni_stuttgart.caas.base.Aggregate;
+import de.uni_stuttgart.caas.base.SpatialObject;
+
+/**
+ * Aggregates of the objects of whole cells of the SpatialCache grid. Aggregate
+ * queries take the aggregate of a cell they cover entirely from here rather
+ * than from the cell's objects, so they do not need the objects, nor fetch
+ * them from the origin if the cell was evicted from the cache meanwhile.
+ *
+ * The grid is filled by SpatialIndex with the cells it loads for aggregate
+ * queries. An aggregate takes up a few hundred bytes whatever the number of
+ * objects, so the grid holds many more cells than the cache. Beyond
+ * maxCells, the least recently used cells are dropped.
+ *
+ * All methods are threadsafe.
+ */
+public final class DensityGrid {
+
+	public DensityGrid(int maxCells) {
+		assert maxCells > 0;
+		this.maxCells = maxCells;
+	}
+
+	/**
+	 * Get the aggregate of a cell's objects.
+	 *
+	 * @return The aggregate or null if the grid does not hold the cell. The
+	 *         aggregate must not be modified.
+	 */
+	public synchronized Aggregate get(long cell) {
+		final Aggregate a = cells.get(cell);
+		if (a != null) {
+			++hitCount;
+		} else {
+			++missCount;
+		}
+		return a;
+	}
+
+	/**
+	 * Record the objects of a cell, replacing what was recorded for it before.
+	 */
+	public void put(long cell, SpatialObject[] objects) {
+		final Aggregate a = new Aggregate();
+		for (SpatialObject o : objects) {
+			a.add(o);
+		}
+		synchronized (this) {
+			cells.put(cell, a);
+		}
+	}
+
+	/**
+	 * Drop the aggregate of a cell, to be called whenever its objects change.
+	 */
+	public synchronized void invalidate(long cell) {
+		cells.remove(cell);
+	}
+
+	public synchronized int getCellCount() {
+		return cells.size();
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	// ---------------------------------
+	// Implementation
+	// ---------------------------------
+
+	private final int maxCells;
+	private long hitCount;
+	private long missCount;
+
+	private final LinkedHashMap<Long, Aggregate> cells = new LinkedHashMap<Long, Aggregate>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Aggregate> eldest) {
+			return size() > maxCells;
+		}
+	};
+}
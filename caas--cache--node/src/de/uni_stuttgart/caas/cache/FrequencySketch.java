@@ -0,0 +1,113 @@
+package de.uni_stuttgart.caas.cache;
+
+import java.util.Arrays;
+
+/**
+ * Count-min sketch estimating how often each cell was accessed recently, used
+ * by SpatialCache to decide whether a new cell is worth evicting another one
+ * for (TinyLFU admission).
+ *
+ * Counters are 4 bits wide, 16 to a long, and each cell maps to one counter in
+ * each of DEPTH rows. The estimate is the minimum of these counters. To make
+ * old accesses count less than recent ones, all counters are halved once the
+ * number of increments reaches 10 times the width of the sketch (aging).
+ *
+ * The class is not threadsafe.
+ */
+final class FrequencySketch {
+
+	public static final int DEPTH = 4;
+	public static final int MAX_COUNT = 15;
+
+	/**
+	 * @param expectedCells
+	 *            Number of cells the cache is expected to hold at most. The
+	 *            sketch gets a counter per row for each, rounded up to a
+	 *            power of 2.
+	 */
+	public FrequencySketch(int expectedCells) {
+		assert expectedCells > 0;
+		final int width = Integer.highestOneBit(Math.max(64, expectedCells - 1) << 1);
+		rows = new long[DEPTH][width / 16];
+		mask = width - 1;
+		sampleSize = 10 * width;
+	}
+
+	/**
+	 * Record an access to a cell.
+	 */
+	public void increment(long cell) {
+		boolean added = false;
+		for (int row = 0; row < DEPTH; ++row) {
+			final int index = indexOf(cell, row);
+			final long[] counters = rows[row];
+			final int shift = (index & 15) << 2;
+			if (((counters[index >>> 4] >>> shift) & 0xf) < MAX_COUNT) {
+				counters[index >>> 4] += 1L << shift;
+				added = true;
+			}
+		}
+
+		if (added && ++size >= sampleSize) {
+			age();
+		}
+	}
+
+	/**
+	 * Get the estimated number of recent accesses to a cell, at most
+	 * MAX_COUNT.
+	 */
+	public int frequency(long cell) {
+		int min = MAX_COUNT;
+		for (int row = 0; row < DEPTH; ++row) {
+			final int index = indexOf(cell, row);
+			min = Math.min(min, (int) ((rows[row][index >>> 4] >>> ((index & 15) << 2)) & 0xf));
+		}
+		return min;
+	}
+
+	/**
+	 * Get the number of times the counters were halved so far.
+	 */
+	public long getAgingCount() {
+		return agings;
+	}
+
+	public void clear() {
+		for (long[] counters : rows) {
+			Arrays.fill(counters, 0);
+		}
+		size = 0;
+	}
+
+	// ---------------------------------
+	// Implementation
+	// ---------------------------------
+
+	private static final long[] SEEDS = { 0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L };
+
+	// halves each 4 bit counter when applied after a shift by one
+	private static final long HALF_MASK = 0x7777777777777777L;
+
+	private final long[][] rows;
+	private final int mask;
+	private final int sampleSize;
+	private int size = 0;
+	private long agings = 0;
+
+	private int indexOf(long cell, int row) {
+		long h = (cell + SEEDS[row]) * SEEDS[(row + 1) % DEPTH];
+		h ^= h >>> 29;
+		return (int) h & mask;
+	}
+
+	private void age() {
+		for (long[] counters : rows) {
+			for (int i = 0; i < counters.length; ++i) {
+				counters[i] = (counters[i] >>> 1) & HALF_MASK;
+			}
+		}
+		size /= 2;
+		++agings;
+	}
+}
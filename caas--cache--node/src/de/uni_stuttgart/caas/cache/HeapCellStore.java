@@ -0,0 +1,115 @@
+package de.uni_stuttgart.caas.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import de.uni_stuttgart.caas.base.SpatialObject;
+
+/**
+ * CellStore keeping the objects on the Java heap, evicting the least recently
+ * used cells. Sizes are estimates, see SpatialCache.sizeOf().
+ */
+final class HeapCellStore implements CellStore {
+
+	public HeapCellStore(long capacityBytes) {
+		assert capacityBytes > 0;
+		capacity = capacityBytes;
+	}
+
+	@Override
+	public SpatialObject[] get(long cell) {
+		return cells.get(cell);
+	}
+
+	@Override
+	public boolean contains(long cell) {
+		return cells.containsKey(cell);
+	}
+
+	@Override
+	public int put(long cell, SpatialObject[] objects) {
+		remove(cell);
+
+		final long cellSize = SpatialCache.sizeOf(objects);
+		if (cellSize > capacity) {
+			return -1;
+		}
+
+		int evicted = 0;
+		final Iterator<SpatialObject[]> lru = cells.values().iterator();
+		while (size + cellSize > capacity) {
+			size -= SpatialCache.sizeOf(lru.next());
+			lru.remove();
+			++evicted;
+		}
+
+		cells.put(cell, objects);
+		size += cellSize;
+		return evicted;
+	}
+
+	@Override
+	public boolean needsEviction(SpatialObject[] objects) {
+		return !cells.isEmpty() && size + SpatialCache.sizeOf(objects) > capacity;
+	}
+
+	@Override
+	public long victim(SpatialObject[] objects) {
+		assert needsEviction(objects);
+		return cells.keySet().iterator().next();
+	}
+
+	@Override
+	public void remove(long cell) {
+		final SpatialObject[] previous = cells.remove(cell);
+		if (previous != null) {
+			size -= SpatialCache.sizeOf(previous);
+		}
+	}
+
+	@Override
+	public void clear() {
+		cells.clear();
+		size = 0;
+	}
+
+	@Override
+	public int getCellCount() {
+		return cells.size();
+	}
+
+	@Override
+	public long[] cells() {
+		final long[] keys = new long[cells.size()];
+		int i = 0;
+		for (Long cell : cells.keySet()) {
+			keys[i++] = cell;
+		}
+		return keys;
+	}
+
+	@Override
+	public long getSizeBytes() {
+		return size;
+	}
+
+	@Override
+	public long getCapacityBytes() {
+		return capacity;
+	}
+
+	@Override
+	public double getFragmentation() {
+		return 0.0;
+	}
+
+	// ---------------------------------
+	// Implementation
+	// ---------------------------------
+
+	private final long capacity;
+
+	// access ordered, so iteration starts at the least recently used cell
+	private final LinkedHashMap<Long, SpatialObject[]> cells = new LinkedHashMap<>(16, 0.75f, true);
+	private long size = 0;
+}
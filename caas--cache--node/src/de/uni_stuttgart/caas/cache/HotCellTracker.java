@@ -0,0 +1,73 @@
+package de.uni_stuttgart.caas.cache;
+
+import java.util.HashMap;
+
+/**
+ * Counts the queries for each cell of the SpatialCache grid a node owns over
+ * fixed windows of time, to tell which cells are hot, i.e. got at least
+ * `threshold` queries within the current or the last window.
+ *
+ * Only the counts of two windows are kept, so the memory needed is bounded by
+ * the number of queries per window. All methods are threadsafe.
+ */
+public final class HotCellTracker {
+
+	public HotCellTracker(int threshold, long windowMillis) {
+		assert threshold > 0;
+		assert windowMillis > 0;
+
+		this.threshold = threshold;
+		this.windowMillis = windowMillis;
+	}
+
+	/**
+	 * Count a query for a cell.
+	 *
+	 * @return Whether the cell is hot, including this query
+	 */
+	public synchronized boolean record(long cell) {
+		rotate();
+		final Integer count = current.get(cell);
+		final int updated = count == null ? 1 : count + 1;
+		current.put(cell, updated);
+		return updated >= threshold || isHotBefore(cell);
+	}
+
+	public synchronized boolean isHot(long cell) {
+		rotate();
+		final Integer count = current.get(cell);
+		return (count != null && count >= threshold) || isHotBefore(cell);
+	}
+
+	// ---------------------------------
+	// Implementation
+	// ---------------------------------
+
+	private final int threshold;
+	private final long windowMillis;
+	private long windowStart = System.currentTimeMillis();
+
+	private HashMap<Long, Integer> current = new HashMap<>();
+	private HashMap<Long, Integer> last = new HashMap<>();
+
+	private boolean isHotBefore(long cell) {
+		final Integer count = last.get(cell);
+		return count != null && count >= threshold;
+	}
+
+	private void rotate() {
+		final long now = System.currentTimeMillis();
+		if (now - windowStart < windowMillis) {
+			return;
+		}
+
+		// a window without queries in between leaves nothing hot
+		if (now - windowStart < 2 * windowMillis) {
+			last = current;
+		} else {
+			last = new HashMap<>();
+		}
+		current = new HashMap<>();
+		windowStart = now;
+	}
+}
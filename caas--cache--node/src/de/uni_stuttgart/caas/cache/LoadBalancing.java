@@ -0,0 +1,70 @@
+package de.uni_stuttgart.caas.cache;
+
+import java.util.Random;
+
+/**
+ * Choices between nodes by the loads they reported, used to spread queries
+ * over neighbors.
+ */
+public final class LoadBalancing {
+
+	/**
+	 * Pick two of the nodes at random and take the one with the lower load
+	 * (power of two choices). Always taking the least loaded node instead
+	 * would send everything to the same one until its load is known again.
+	 *
+	 * @param loads
+	 *            non-empty loads of the nodes to choose from
+	 * @return Index of the picked node
+	 */
+	public static int pickLessLoadedOfTwo(double[] loads, Random random) {
+		assert loads.length > 0;
+
+		final int first = random.nextInt(loads.length);
+		if (loads.length == 1) {
+			return first;
+		}
+		final int second = random.nextInt(loads.length - 1);
+		final int other = second < first ? second : second + 1;
+		return loads[other] < loads[first] ? other : first;
+	}
+
+	/**
+	 * Pick a node at random, each with a weight of 1 / (1 + load), so lightly
+	 * loaded nodes get more of the queries, but all of them get some. Nodes
+	 * with an infinite load are never picked.
+	 *
+	 * @param loads
+	 *            non-negative loads of the nodes to choose from
+	 * @return Index of the picked node, -1 if all loads are infinite
+	 */
+	public static int pickByLoad(double[] loads, Random random) {
+		double total = 0;
+		for (double load : loads) {
+			assert load >= 0;
+			total += 1 / (1 + load);
+		}
+
+		double r = random.nextDouble() * total;
+		int last = -1;
+		for (int i = 0; i < loads.length; ++i) {
+			final double weight = 1 / (1 + loads[i]);
+			if (weight > 0) {
+				if (r < weight) {
+					return i;
+				}
+				r -= weight;
+				last = i;
+			}
+		}
+		// rounding
+		return last;
+	}
+
+	// ---------------------------------
+	// Implementation
+	// ---------------------------------
+
+	private LoadBalancing() {
+	}
+}
@@ -0,0 +1,59 @@
+package de.uni_stuttgart.caas.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when a node sends its load to its neighbors: at most once every
+ * `interval` milliseconds, and only if the load changed by at least `delta`
+ * since it was last sent, or was last sent at least `refresh` milliseconds
+ * ago, so new neighbors learn about it.
+ *
+ * All methods are threadsafe. Of several threads deciding at the same time,
+ * at most one is told to send.
+ */
+public final class LoadGossip {
+
+	public LoadGossip(long intervalMillis, double delta, long refreshMillis) {
+		assert intervalMillis >= 0;
+		assert delta >= 0;
+		assert refreshMillis >= intervalMillis;
+
+		this.intervalMillis = intervalMillis;
+		this.delta = delta;
+		this.refreshMillis = refreshMillis;
+	}
+
+	/**
+	 * Decide whether to send the load now. If so, the load counts as sent at
+	 * `now`.
+	 *
+	 * @param now
+	 *            Current time in milliseconds
+	 */
+	public boolean shouldSend(double load, long now) {
+		final long last = lastSent.get();
+		if (now - last < intervalMillis) {
+			return false;
+		}
+		if (Math.abs(load - lastLoad) < delta && now - last < refreshMillis) {
+			return false;
+		}
+		if (!lastSent.compareAndSet(last, now)) {
+			// another thread is sending it right now
+			return false;
+		}
+		lastLoad = load;
+		return true;
+	}
+
+	// ---------------------------------
+	// Implementation
+	// ---------------------------------
+
+	private final long intervalMillis;
+	private final double delta;
+	private final long refreshMillis;
+
+	private final AtomicLong lastSent = new AtomicLong(Long.MIN_VALUE / 2);
+	private volatile double lastLoad;
+}
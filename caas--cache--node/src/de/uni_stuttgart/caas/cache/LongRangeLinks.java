@@ -0,0 +1,75 @@
+package de.uni_stuttgart.caas.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import de.uni_stuttgart.caas.base.LocationOfNode;
+import de.uni_stuttgart.caas.base.NodeInfo;
+
+/**
+ * Picks the targets of a node's long-range links (Kleinberg's small-world
+ * model): a node links to another node with a probability proportional to
+ * d^-EXPONENT, d being the distance between them. With an exponent equal to
+ * the dimension of the grid, greedy routing along the links and the Delaunay
+ * neighbors takes O(log^2 n) hops instead of O(sqrt n).
+ */
+public final class LongRangeLinks {
+
+	/**
+	 * Exponent of the distance in the probability of a link, 2 for a plane
+	 */
+	public static final double EXPONENT = 2;
+
+	/**
+	 * Pick distinct targets among a set of nodes, without replacement. Nodes
+	 * at the location of the node itself are never picked.
+	 *
+	 * @param self
+	 *            Location of the node the links start at
+	 * @param candidates
+	 *            Nodes that can be linked to, all of which must have a
+	 *            location
+	 * @param count
+	 *            Number of targets to pick, fewer are returned if there are
+	 *            not enough candidates
+	 */
+	public static List<NodeInfo> choose(LocationOfNode self, Collection<NodeInfo> candidates, int count, Random random) {
+		final NodeInfo[] nodes = new NodeInfo[candidates.size()];
+		final double[] weights = new double[nodes.length];
+		double total = 0;
+		int n = 0;
+		for (NodeInfo info : candidates) {
+			final double d = VoronoiRegion.distance(self, info.getLocationOfNode());
+			if (d == 0) {
+				continue;
+			}
+			nodes[n] = info;
+			weights[n] = Math.pow(d, -EXPONENT);
+			total += weights[n];
+			++n;
+		}
+
+		final List<NodeInfo> chosen = new ArrayList<>();
+		while (chosen.size() < count && n > 0) {
+			double r = random.nextDouble() * total;
+			int i = 0;
+			while (i < n - 1 && r >= weights[i]) {
+				r -= weights[i];
+				++i;
+			}
+			chosen.add(nodes[i]);
+
+			// remove the pick by moving the last candidate into its place
+			total -= weights[i];
+			--n;
+			nodes[i] = nodes[n];
+			weights[i] = weights[n];
+		}
+		return chosen;
+	}
+
+	private LongRangeLinks() {
+	}
+}
@@ -0,0 +1,511 @@
+package de.uni_stuttgart.caas.cache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import de.uni_stuttgart.caas.base.LocationOfNode;
+import de.uni_stuttgart.caas.base.SpatialObject;
+
+/**
+ * CellStore keeping the objects of each cell serialized in off-heap memory,
+ * so large caches do not add to the work of the garbage collector.
+ *
+ * Memory is managed by a slab allocator: direct ByteBuffers of a fixed size
+ * (pages) are allocated on demand until the capacity is reached. Each
+ * page is assigned to a size class when first needed and split into chunks of
+ * that class's size. A cell goes into one chunk of the smallest class it fits.
+ * Once a class has no free chunks and no pages are left, the least recently
+ * used cell of the same class is evicted. Pages are never moved between
+ * classes, so a shift in cell sizes may leave memory assigned to classes that
+ * are no longer used.
+ *
+ * The only per-cell state on the heap is the index: a few primitive array
+ * elements per cell (key, chunk handle, LRU links) plus an open-addressed
+ * hash table of slot numbers. get() decodes the objects into fresh heap
+ * objects, which become garbage once the query is answered.
+ *
+ * Chunk layout: [int object count] then per object [int x][int y][int payload
+ * length][payload].
+ */
+final class OffHeapCellStore implements CellStore {
+
+	/**
+	 * Bounds of the page size. Within these, pages are about 1/PAGES_PER_CACHE
+	 * of the capacity, so there are enough pages to go around the size
+	 * classes in use.
+	 */
+	public static final int MIN_PAGE_SIZE = 16 * 1024;
+	public static final int MAX_PAGE_SIZE = 1024 * 1024;
+	public static final int PAGES_PER_CACHE = 64;
+
+	/**
+	 * Size of the smallest chunk class and growth factor from one class to
+	 * the next.
+	 */
+	public static final int MIN_CHUNK_SIZE = 96;
+	public static final double CHUNK_GROWTH_FACTOR = 1.25;
+
+	private static final int CELL_HEADER_BYTES = 4;
+	private static final int OBJECT_HEADER_BYTES = 12;
+
+	/**
+	 * @param capacityBytes
+	 *            Maximum off-heap memory to use, rounded down to whole pages
+	 *            (but at least one page)
+	 */
+	public OffHeapCellStore(long capacityBytes) {
+		assert capacityBytes > 0;
+		pageSize = (int) Math.max(MIN_PAGE_SIZE, Math.min(MAX_PAGE_SIZE, Long.highestOneBit(capacityBytes / PAGES_PER_CACHE)));
+		maxPages = (int) Math.max(1, Math.min(Integer.MAX_VALUE, capacityBytes / pageSize));
+
+		final ArrayList<Integer> sizes = new ArrayList<>();
+		for (int size = MIN_CHUNK_SIZE; size < pageSize; size = align((int) (size * CHUNK_GROWTH_FACTOR))) {
+			sizes.add(size);
+		}
+		sizes.add(pageSize);
+
+		chunkSizes = new int[sizes.size()];
+		for (int i = 0; i < chunkSizes.length; ++i) {
+			chunkSizes[i] = sizes.get(i);
+		}
+
+		freeChunks = new long[chunkSizes.length][];
+		freeCount = new int[chunkSizes.length];
+		lruHead = new int[chunkSizes.length];
+		lruTail = new int[chunkSizes.length];
+		clear();
+	}
+
+	@Override
+	public SpatialObject[] get(long cell) {
+		final int slot = find(cell);
+		if (slot < 0) {
+			return null;
+		}
+		final int c = classOf(slotHandle[slot]);
+		unlink(slot, c);
+		linkTail(slot, c);
+		return decode(slotHandle[slot]);
+	}
+
+	@Override
+	public boolean contains(long cell) {
+		return find(cell) >= 0;
+	}
+
+	@Override
+	public int put(long cell, SpatialObject[] objects) {
+		remove(cell);
+
+		final int length = encodedSize(objects);
+		final int c = classFor(length);
+		if (c < 0) {
+			return -1;
+		}
+
+		int evicted = 0;
+		long handle;
+		while ((handle = allocate(c)) < 0) {
+			if (lruHead[c] < 0) {
+				// no pages left and none assigned to this class
+				++rejected;
+				return -1;
+			}
+			removeSlot(lruHead[c]);
+			++evicted;
+		}
+
+		encode(objects, handle);
+
+		final int slot = newSlot();
+		slotKey[slot] = cell;
+		slotHandle[slot] = handle;
+		slotLength[slot] = length;
+		linkTail(slot, c);
+		insert(slot);
+
+		dataBytes += length;
+		chunkBytes += chunkSizes[c];
+		return evicted;
+	}
+
+	/**
+	 * Eviction only takes place within the size class of the new cell, so
+	 * this is true once that class has neither a free chunk nor a page to
+	 * take one from.
+	 */
+	@Override
+	public boolean needsEviction(SpatialObject[] objects) {
+		final int c = classFor(encodedSize(objects));
+		return c >= 0 && freeCount[c] == 0 && pages.size() >= maxPages && lruHead[c] >= 0;
+	}
+
+	@Override
+	public long victim(SpatialObject[] objects) {
+		assert needsEviction(objects);
+		return slotKey[lruHead[classFor(encodedSize(objects))]];
+	}
+
+	@Override
+	public void remove(long cell) {
+		final int slot = find(cell);
+		if (slot >= 0) {
+			removeSlot(slot);
+		}
+	}
+
+	@Override
+	public void clear() {
+		// dropping the buffers lets the collector release the memory
+		pages.clear();
+		pageClass = new int[16];
+		Arrays.fill(freeCount, 0);
+		for (int c = 0; c < chunkSizes.length; ++c) {
+			freeChunks[c] = new long[16];
+		}
+		Arrays.fill(lruHead, -1);
+		Arrays.fill(lruTail, -1);
+
+		slotKey = new long[INITIAL_SLOTS];
+		slotHandle = new long[INITIAL_SLOTS];
+		slotLength = new int[INITIAL_SLOTS];
+		slotPrev = new int[INITIAL_SLOTS];
+		slotNext = new int[INITIAL_SLOTS];
+		slotsUsed = 0;
+		freeSlot = -1;
+
+		table = new int[INITIAL_SLOTS * 2];
+		cellCount = 0;
+
+		dataBytes = chunkBytes = 0;
+		rejected = 0;
+	}
+
+	@Override
+	public int getCellCount() {
+		return cellCount;
+	}
+
+	@Override
+	public long[] cells() {
+		final long[] keys = new long[cellCount];
+		int i = 0;
+		for (int bucket : table) {
+			if (bucket != 0) {
+				keys[i++] = slotKey[bucket - 1];
+			}
+		}
+		assert i == cellCount;
+		return keys;
+	}
+
+	/**
+	 * Get the bytes of the chunks holding cells.
+	 */
+	@Override
+	public long getSizeBytes() {
+		return chunkBytes;
+	}
+
+	@Override
+	public long getCapacityBytes() {
+		return (long) maxPages * pageSize;
+	}
+
+	/**
+	 * Get the share of chunk bytes in use that is not taken up by the cells
+	 * in them, i.e. the internal fragmentation caused by size classes.
+	 */
+	@Override
+	public double getFragmentation() {
+		return chunkBytes == 0 ? 0.0 : 1.0 - (double) dataBytes / chunkBytes;
+	}
+
+	/**
+	 * Get the off-heap memory allocated so far.
+	 */
+	public long getAllocatedBytes() {
+		return (long) pages.size() * pageSize;
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * Get the number of bytes of the cells stored, without chunk slack.
+	 */
+	public long getDataBytes() {
+		return dataBytes;
+	}
+
+	/**
+	 * Get the number of cells that could not be stored because their size
+	 * class had no memory while all pages were assigned to other classes.
+	 */
+	public long getRejectedCount() {
+		return rejected;
+	}
+
+	// ---------------------------------
+	// Implementation
+	// ---------------------------------
+
+	private static final int INITIAL_SLOTS = 1024;
+
+	private final int pageSize;
+	private final int maxPages;
+	private final int[] chunkSizes;
+
+	private final ArrayList<ByteBuffer> pages = new ArrayList<>();
+	private int[] pageClass;
+
+	// per class: stack of free chunk handles, LRU list of slots
+	private final long[][] freeChunks;
+	private final int[] freeCount;
+	private final int[] lruHead, lruTail;
+
+	// index entries ("slots"), unused slots are chained through slotNext
+	private long[] slotKey;
+	private long[] slotHandle;
+	private int[] slotLength;
+	private int[] slotPrev, slotNext;
+	private int slotsUsed;
+	private int freeSlot;
+
+	// open-addressed hash table of slot + 1, 0 marking an empty bucket
+	private int[] table;
+	private int cellCount;
+
+	private long dataBytes, chunkBytes;
+	private long rejected;
+
+	private static int align(int size) {
+		return (size + 7) & ~7;
+	}
+
+	private int classFor(int length) {
+		for (int c = 0; c < chunkSizes.length; ++c) {
+			if (chunkSizes[c] >= length) {
+				return c;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * A chunk handle is the page number in the upper and the offset within the
+	 * page in the lower 32 bits.
+	 */
+	private static long handle(int page, int offset) {
+		return ((long) page << 32) | offset;
+	}
+
+	private static int pageOf(long handle) {
+		return (int) (handle >>> 32);
+	}
+
+	private static int offsetOf(long handle) {
+		return (int) handle;
+	}
+
+	private int classOf(long handle) {
+		return pageClass[pageOf(handle)];
+	}
+
+	/**
+	 * Get a free chunk of the given class, assigning a new page to the class
+	 * if necessary.
+	 *
+	 * @return Chunk handle or -1 if there is none
+	 */
+	private long allocate(int c) {
+		if (freeCount[c] > 0) {
+			return freeChunks[c][--freeCount[c]];
+		}
+		if (pages.size() >= maxPages) {
+			return -1;
+		}
+
+		final int page = pages.size();
+		pages.add(ByteBuffer.allocateDirect(pageSize));
+		if (page == pageClass.length) {
+			pageClass = Arrays.copyOf(pageClass, page * 2);
+		}
+		pageClass[page] = c;
+
+		// hand out the first chunk, keep the others - pushed from the back
+		// so chunks are handed out in address order
+		final int chunks = pageSize / chunkSizes[c];
+		for (int i = chunks - 1; i > 0; --i) {
+			free(c, handle(page, i * chunkSizes[c]));
+		}
+		return handle(page, 0);
+	}
+
+	private void free(int c, long handle) {
+		if (freeCount[c] == freeChunks[c].length) {
+			freeChunks[c] = Arrays.copyOf(freeChunks[c], freeCount[c] * 2);
+		}
+		freeChunks[c][freeCount[c]++] = handle;
+	}
+
+	private void removeSlot(int slot) {
+		final long handle = slotHandle[slot];
+		final int c = classOf(handle);
+
+		unlink(slot, c);
+		delete(slot);
+		free(c, handle);
+
+		dataBytes -= slotLength[slot];
+		chunkBytes -= chunkSizes[c];
+
+		slotNext[slot] = freeSlot;
+		freeSlot = slot;
+	}
+
+	private int newSlot() {
+		if (freeSlot >= 0) {
+			final int slot = freeSlot;
+			freeSlot = slotNext[slot];
+			return slot;
+		}
+		if (slotsUsed == slotKey.length) {
+			final int n = slotsUsed * 2;
+			slotKey = Arrays.copyOf(slotKey, n);
+			slotHandle = Arrays.copyOf(slotHandle, n);
+			slotLength = Arrays.copyOf(slotLength, n);
+			slotPrev = Arrays.copyOf(slotPrev, n);
+			slotNext = Arrays.copyOf(slotNext, n);
+		}
+		return slotsUsed++;
+	}
+
+	private void linkTail(int slot, int c) {
+		slotPrev[slot] = lruTail[c];
+		slotNext[slot] = -1;
+		if (lruTail[c] >= 0) {
+			slotNext[lruTail[c]] = slot;
+		} else {
+			lruHead[c] = slot;
+		}
+		lruTail[c] = slot;
+	}
+
+	private void unlink(int slot, int c) {
+		final int prev = slotPrev[slot], next = slotNext[slot];
+		if (prev >= 0) {
+			slotNext[prev] = next;
+		} else {
+			lruHead[c] = next;
+		}
+		if (next >= 0) {
+			slotPrev[next] = prev;
+		} else {
+			lruTail[c] = prev;
+		}
+	}
+
+	private int bucketOf(long key) {
+		final long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & (table.length - 1);
+	}
+
+	private int find(long key) {
+		final int mask = table.length - 1;
+		for (int i = bucketOf(key);; i = (i + 1) & mask) {
+			final int slot = table[i] - 1;
+			if (slot < 0) {
+				return -1;
+			}
+			if (slotKey[slot] == key) {
+				return slot;
+			}
+		}
+	}
+
+	private void insert(int slot) {
+		if ((cellCount + 1) * 2 > table.length) {
+			final int[] old = table;
+			table = new int[old.length * 2];
+			for (int s : old) {
+				if (s != 0) {
+					place(s - 1);
+				}
+			}
+		}
+		place(slot);
+		++cellCount;
+	}
+
+	private void place(int slot) {
+		final int mask = table.length - 1;
+		int i = bucketOf(slotKey[slot]);
+		while (table[i] != 0) {
+			i = (i + 1) & mask;
+		}
+		table[i] = slot + 1;
+	}
+
+	/**
+	 * Remove a slot from the hash table, shifting later entries of the probe
+	 * sequence back so lookups need no tombstones.
+	 */
+	private void delete(int slot) {
+		final int mask = table.length - 1;
+		int i = bucketOf(slotKey[slot]);
+		while (table[i] != slot + 1) {
+			i = (i + 1) & mask;
+		}
+		table[i] = 0;
+		--cellCount;
+
+		for (int j = (i + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+			final int home = bucketOf(slotKey[table[j] - 1]);
+			// the entry at j may fill the gap at i unless its home bucket
+			// lies cyclically within (i, j]
+			final boolean between = i <= j ? (home > i && home <= j) : (home > i || home <= j);
+			if (!between) {
+				table[i] = table[j];
+				table[j] = 0;
+				i = j;
+			}
+		}
+	}
+
+	private static int encodedSize(SpatialObject[] objects) {
+		long size = CELL_HEADER_BYTES;
+		for (SpatialObject o : objects) {
+			size += OBJECT_HEADER_BYTES + o.PAYLOAD.length;
+		}
+		return (int) Math.min(Integer.MAX_VALUE, size);
+	}
+
+	private void encode(SpatialObject[] objects, long handle) {
+		final ByteBuffer page = pages.get(pageOf(handle));
+		page.clear().position(offsetOf(handle));
+		page.putInt(objects.length);
+		for (SpatialObject o : objects) {
+			page.putInt(o.LOCATION.x);
+			page.putInt(o.LOCATION.y);
+			page.putInt(o.PAYLOAD.length);
+			page.put(o.PAYLOAD);
+		}
+	}
+
+	private SpatialObject[] decode(long handle) {
+		final ByteBuffer page = pages.get(pageOf(handle));
+		page.clear().position(offsetOf(handle));
+		final SpatialObject[] objects = new SpatialObject[page.getInt()];
+		for (int i = 0; i < objects.length; ++i) {
+			final int x = page.getInt();
+			final int y = page.getInt();
+			final byte[] payload = new byte[page.getInt()];
+			page.get(payload);
+			objects[i] = new SpatialObject(new LocationOfNode(x, y), payload);
+		}
+		return objects;
+	}
+}
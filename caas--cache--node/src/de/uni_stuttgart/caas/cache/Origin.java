@@ -0,0 +1,27 @@
+package de.uni_stuttgart.caas.cache;
+
+import java.io.IOException;
+
+import de.uni_stuttgart.caas.base.SpatialObject;
+
+/**
+ * Backing store a CacheNode fetches cells from on a cache miss.
+ *
+ * Implementations are shared by all nodes created from a node through
+ * scale-in and must be threadsafe. CellLoader makes sure a node has at most
+ * one fetch per cell in flight.
+ */
+public interface Origin {
+
+	/**
+	 * Fetch all objects of a cell, blocking until they are available.
+	 *
+	 * @param cell
+	 *            Cell key, see SpatialCache.cellOf()
+	 * @return Non-null objects of the cell, possibly none. The array is
+	 *         handed to the cache and must not be modified afterwards.
+	 * @throws IOException
+	 *             if the cell could not be fetched
+	 */
+	SpatialObject[] fetch(long cell) throws IOException;
+}
@@ -0,0 +1,167 @@
+package de.uni_stuttgart.caas.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.uni_stuttgart.caas.messages.BinaryCodec;
+import de.uni_stuttgart.caas.messages.IMessage;
+
+/**
+ * Connections to the query listeners of other nodes, which the node sends
+ * queries forwarded to their owners in one hop and route hints over (see
+ * CacheBehaviourFlags.ONE_HOP_ROUTING). Clients connect for each query and
+ * send it serialized, nodes keep one connection per listener instead and
+ * send messages back to back, encoded with BinaryCodec and each preceded by
+ * its length. The connection starts with a header (HEADER_MAGIC, codec id
+ * and version) that tells the QueryListener apart from a client's.
+ *
+ * Only the MAX_LINKS listeners sent to most recently keep their connection.
+ * A connection that fails is dropped, the next message to the listener opens
+ * a new one.
+ *
+ * @note Instances are threadsafe.
+ */
+final class QueryLinks {
+
+	/**
+	 * First int sent over a connection, differs from the magic of a Java
+	 * serialization stream
+	 */
+	public static final int HEADER_MAGIC = 0x43514C4B; // 'CQLK'
+
+	/**
+	 * Maximum number of connections kept open
+	 */
+	public static final int MAX_LINKS = Integer.getInteger("caas.query.links", 64);
+
+	/**
+	 * Send a message to the query listener at an address.
+	 *
+	 * @throws IOException
+	 *             if the message could not be encoded, or neither the open
+	 *             connection to the listener nor a new one took it
+	 */
+	public void send(InetSocketAddress address, IMessage message) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryCodec.INSTANCE.encode(message, new DataOutputStream(bytes));
+		final byte[] encoded = bytes.toByteArray();
+
+		Link link;
+		synchronized (links) {
+			link = links.get(address);
+		}
+		if (link != null) {
+			try {
+				link.write(encoded);
+				return;
+			} catch (IOException e) {
+				// the listener might have closed an idle connection, try once
+				// more on a new one
+				drop(address, link);
+			}
+		}
+
+		link = connect(address);
+		try {
+			link.write(encoded);
+		} catch (IOException e) {
+			drop(address, link);
+			throw e;
+		}
+	}
+
+	/**
+	 * Close all connections
+	 */
+	public void close() {
+		final List<Link> open;
+		synchronized (links) {
+			open = new ArrayList<>(links.values());
+			links.clear();
+		}
+		for (Link link : open) {
+			link.close();
+		}
+	}
+
+	// ---------------------------------
+	// Implementation
+	// ---------------------------------
+
+	private static final class Link {
+		private final Socket socket;
+		private final DataOutputStream out;
+
+		Link(InetSocketAddress address) throws IOException {
+			socket = new Socket(address.getAddress(), address.getPort());
+			socket.setTcpNoDelay(true);
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			out.writeInt(HEADER_MAGIC);
+			out.writeInt(BinaryCodec.INSTANCE.getCodecId());
+			out.writeInt(BinaryCodec.INSTANCE.getVersion());
+		}
+
+		synchronized void write(byte[] encoded) throws IOException {
+			out.writeInt(encoded.length);
+			out.write(encoded);
+			out.flush();
+		}
+
+		void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	private final LinkedHashMap<InetSocketAddress, Link> links = new LinkedHashMap<InetSocketAddress, Link>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<InetSocketAddress, Link> eldest) {
+			if (size() <= MAX_LINKS) {
+				return false;
+			}
+			// a message being written fails and is sent again on a new
+			// connection
+			eldest.getValue().close();
+			return true;
+		}
+	};
+
+	/**
+	 * Open a connection, or take the one another thread opened meanwhile
+	 */
+	private Link connect(InetSocketAddress address) throws IOException {
+		final Link link = new Link(address);
+		final Link other;
+		synchronized (links) {
+			other = links.get(address);
+			if (other == null) {
+				links.put(address, link);
+				return link;
+			}
+		}
+		link.close();
+		return other;
+	}
+
+	private void drop(InetSocketAddress address, Link link) {
+		synchronized (links) {
+			if (links.get(address) == link) {
+				links.remove(address);
+			}
+		}
+		link.close();
+	}
+}
@@ -1,5 +1,9 @@
 package de.uni_stuttgart.caas.cache;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -7,9 +11,17 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
+import de.uni_stuttgart.caas.base.ExecutionPolicy;
 import de.uni_stuttgart.caas.base.LogSender;
+import de.uni_stuttgart.caas.messages.BinaryCodec;
+import de.uni_stuttgart.caas.messages.IMessage;
+import de.uni_stuttgart.caas.messages.IMessageCodec;
 import de.uni_stuttgart.caas.messages.QueryMessage;
+import de.uni_stuttgart.caas.messages.RouteHintMessage;
 
 public class QueryListener implements Runnable {
 
@@ -17,6 +29,21 @@ public class QueryListener implements Runnable {
 	private ServerSocket serverSocket;
 	private Thread t;
 	private LogSender logger;
+
+	/**
+	 * Runs queries other nodes sent directly to this one, see
+	 * CacheBehaviourFlags.ONE_HOP_ROUTING. The node owns their locations, so
+	 * they are processed here rather than just passed on, and must not wait
+	 * for each other, just like queries arriving over neighbor connections.
+	 * Nor must they wait for queries from clients the node processes itself,
+	 * so those run here as well.
+	 */
+	private final ExecutorService queries = ExecutionPolicy.get().newExecutor("caas-query");
+
+	/**
+	 * Connections other nodes keep open, see QueryLinks
+	 */
+	private final Set<Socket> links = new HashSet<>();
 	
 	public QueryListener(CacheNode cacheNode, LogSender logger) {
 		
@@ -40,7 +67,8 @@ public class QueryListener implements Runnable {
 				clientSocket = serverSocket.accept();
 				logger.write("client connected requesting data");
 				
-				// no thread here - this is too expensive and we do not typically block for long			
+				// no thread here - reading the query does not block for long,
+				// processing it is handed to the queries executor
 				Runnable r = new ListenerThread(clientSocket);
 				r.run();
 				
@@ -54,6 +82,16 @@ public class QueryListener implements Runnable {
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		synchronized (links) {
+			for (Socket link : links) {
+				try {
+					link.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+		queries.shutdown();
 	}
 	
 	/**
@@ -84,16 +122,17 @@ public class QueryListener implements Runnable {
 		@Override
 		public void run() {
 			try {
-				ObjectInputStream in = new ObjectInputStream(clientSocket.getInputStream());
-	
-				Object o = in.readObject();
-				if (o instanceof QueryMessage) {
-					logger.write("passing QueryMessage to CacheNode");
-					cacheNode.processQuery((QueryMessage) o);
-				} 
-				else {
-					assert false;
+				final BufferedInputStream in = new BufferedInputStream(clientSocket.getInputStream());
+				in.mark(4);
+				final DataInputStream data = new DataInputStream(in);
+				if (data.readInt() == QueryLinks.HEADER_MAGIC) {
+					acceptLink(data);
+					return;
 				}
+				in.reset();
+
+				Object o = new ObjectInputStream(in).readObject();
+				dispatch(o);
 				in.close();
 				clientSocket.close();
 			} catch (IOException e) {
@@ -102,6 +141,91 @@ public class QueryListener implements Runnable {
 				e.printStackTrace();
 			} 
 		}
+
+		/**
+		 * Read the messages another node sends over a connection it keeps
+		 * open, see QueryLinks, on a thread of their own.
+		 */
+		private void acceptLink(final DataInputStream data) throws IOException {
+			final int codecId = data.readInt();
+			final int version = data.readInt();
+			if (codecId != BinaryCodec.INSTANCE.getCodecId() || version != BinaryCodec.INSTANCE.getVersion()) {
+				logger.write("query listener: rejected link with codec " + codecId + " version " + version);
+				clientSocket.close();
+				return;
+			}
+
+			synchronized (links) {
+				links.add(clientSocket);
+			}
+			ExecutionPolicy.get().startDaemon("caas-query-link", new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (true) {
+							dispatch(readLinkMessage(data));
+						}
+					} catch (EOFException e) {
+						// the other node closed the connection
+					} catch (IOException e) {
+						if (!clientSocket.isClosed()) {
+							logger.write("query listener: link failed: " + e.getMessage());
+						}
+					} finally {
+						synchronized (links) {
+							links.remove(clientSocket);
+						}
+						try {
+							clientSocket.close();
+						} catch (IOException e) {
+							// ignore
+						}
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Read one length-prefixed message from a link. The length is checked
+	 * before anything is allocated for the message, and the message must
+	 * take up exactly that many bytes.
+	 */
+	private static IMessage readLinkMessage(DataInputStream data) throws IOException {
+		final int length = data.readInt();
+		if (length < 1 || length > IMessageCodec.MAX_MESSAGE_BYTES) {
+			throw new IOException("(QueryListener) invalid message length " + length);
+		}
+		final byte[] encoded = new byte[length];
+		data.readFully(encoded);
+
+		final ByteArrayInputStream bytes = new ByteArrayInputStream(encoded);
+		final IMessage message = BinaryCodec.INSTANCE.decode(new DataInputStream(bytes));
+		if (bytes.available() != 0) {
+			throw new IOException("(QueryListener) " + bytes.available() + " of " + length + " bytes of a message left");
+		}
+		return message;
+	}
+
+	/**
+	 * Pass a received message to the node
+	 */
+	private void dispatch(Object o) {
+		if (o instanceof QueryMessage) {
+			logger.write("passing QueryMessage to CacheNode");
+			final QueryMessage message = (QueryMessage) o;
+			queries.execute(new Runnable() {
+				@Override
+				public void run() {
+					cacheNode.processQuery(message);
+				}
+			});
+		} else if (o instanceof RouteHintMessage) {
+			cacheNode.onReceiveRouteHint((RouteHintMessage) o);
+		} 
+		else {
+			assert false;
+		}
 	}
 
 
@@ -0,0 +1,61 @@
+package de.uni_stuttgart.caas.cache;
+
+import java.util.List;
+
+/**
+ * The neighbors a node sent replicas of one of its hot cells to. The lease of
+ * the replicas starts when they are sent, they are sent again halfway through
+ * it. The holders do not start counting the lease before the replica arrives,
+ * so they keep it at least until isExpired().
+ *
+ * Instances are immutable.
+ *
+ * @param <T>
+ *            Type of the holders
+ */
+public final class ReplicaSet<T> {
+
+	public ReplicaSet(long version, long sentAt, long leaseMillis, List<T> holders) {
+		assert leaseMillis > 0;
+		assert !holders.isEmpty();
+
+		this.version = version;
+		this.renewAt = sentAt + leaseMillis / 2;
+		this.expiresAt = sentAt + leaseMillis;
+		this.holders = holders;
+	}
+
+	/**
+	 * Version of the replicas, renewals keep it
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	public List<T> getHolders() {
+		return holders;
+	}
+
+	/**
+	 * Check whether the replicas are to be sent again to renew their lease
+	 */
+	public boolean isRenewalDue(long now) {
+		return now >= renewAt;
+	}
+
+	/**
+	 * Check whether the replicas may have run out
+	 */
+	public boolean isExpired(long now) {
+		return now >= expiresAt;
+	}
+
+	// ---------------------------------
+	// Implementation
+	// ---------------------------------
+
+	private final long version;
+	private final long renewAt;
+	private final long expiresAt;
+	private final List<T> holders;
+}
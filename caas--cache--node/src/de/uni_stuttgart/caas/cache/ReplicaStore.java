@@ -0,0 +1,115 @@
+package de.uni_stuttgart.caas.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.uni_stuttgart.caas.base.SpatialObject;
+
+/**
+ * Read replicas a node holds of hot cells of the SpatialCache grid owned by
+ * its neighbors (see ReplicaMessage). They are kept apart from the node's own
+ * SpatialCache, so they neither evict the cells the node owns nor count as
+ * such.
+ *
+ * A replica may be read until its lease runs out. A replica with a higher
+ * version, or one from another owner, replaces the one held for the cell, one
+ * with the same version renews its lease. Beyond maxReplicas, the least
+ * recently used replicas are dropped.
+ *
+ * All methods are threadsafe.
+ */
+public final class ReplicaStore {
+
+	public ReplicaStore(int maxReplicas) {
+		assert maxReplicas > 0;
+		this.maxReplicas = maxReplicas;
+	}
+
+	/**
+	 * Hold a replica of a cell.
+	 *
+	 * @param leaseMillis
+	 *            Time from now on during which the replica may be read
+	 * @return false if a replica with a higher version of the same owner is
+	 *         held already
+	 */
+	public synchronized boolean put(long cell, long ownerId, long version, long leaseMillis, SpatialObject[] objects) {
+		assert objects != null;
+
+		final Replica held = replicas.get(cell);
+		if (held != null && held.ownerId == ownerId && held.version > version) {
+			return false;
+		}
+		replicas.put(cell, new Replica(ownerId, version, System.currentTimeMillis() + leaseMillis, objects));
+		return true;
+	}
+
+	/**
+	 * Get the objects of a cell.
+	 *
+	 * @return null if no replica of the cell is held, or its lease ran out
+	 */
+	public synchronized SpatialObject[] get(long cell) {
+		final Replica replica = replicas.get(cell);
+		if (replica == null) {
+			++missCount;
+			return null;
+		}
+		if (replica.expiresAt <= System.currentTimeMillis()) {
+			replicas.remove(cell);
+			++missCount;
+			return null;
+		}
+		++hitCount;
+		return replica.objects;
+	}
+
+	/**
+	 * Get the version of the replica held for a cell, -1 if there is none
+	 */
+	public synchronized long getVersion(long cell) {
+		final Replica replica = replicas.get(cell);
+		return replica != null ? replica.version : -1;
+	}
+
+	public synchronized int getReplicaCount() {
+		return replicas.size();
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	// ---------------------------------
+	// Implementation
+	// ---------------------------------
+
+	private static final class Replica {
+		final long ownerId, version, expiresAt;
+		final SpatialObject[] objects;
+
+		Replica(long ownerId, long version, long expiresAt, SpatialObject[] objects) {
+			this.ownerId = ownerId;
+			this.version = version;
+			this.expiresAt = expiresAt;
+			this.objects = objects;
+		}
+	}
+
+	private final int maxReplicas;
+	private long hitCount;
+	private long missCount;
+
+	private final LinkedHashMap<Long, Replica> replicas = new LinkedHashMap<Long, Replica>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Replica> eldest) {
+			return size() > maxReplicas;
+		}
+	};
+}
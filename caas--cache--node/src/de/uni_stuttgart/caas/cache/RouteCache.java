@@ -0,0 +1,138 @@
+package de.uni_stuttgart.caas.cache;
+
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.uni_stuttgart.caas.base.LocationOfNode;
+
+/**
+ * Which node owns the locations of buckets of the grid, as learned by an entry
+ * node from the owners of queries that took more than one hop to reach them
+ * (see RouteHintMessage). Queries entering the grid at the node for a
+ * location in a known bucket are sent to its owner directly.
+ *
+ * Buckets are squares of side 2^SHIFT, a few cells of the SpatialCache grid
+ * wide. An owner reports the buckets that lie entirely in its Voronoi cell,
+ * so a bucket never has two owners and one report covers many locations
+ * around the query.
+ *
+ * Routes may go stale when the grid changes, the owner they name then routes
+ * the query on greedily. Beyond maxRoutes, the least recently used routes are
+ * dropped.
+ *
+ * All methods are threadsafe.
+ */
+public final class RouteCache {
+
+	/**
+	 * log2 of the side of a bucket
+	 */
+	public static final int SHIFT = SpatialCache.CELL_SHIFT + 2;
+
+	/**
+	 * Owner of a bucket
+	 */
+	public static final class Route {
+		public final long OWNER_ID;
+
+		/**
+		 * Address of the owner's query listener
+		 */
+		public final InetSocketAddress OWNER_ADDRESS;
+
+		Route(long ownerId, InetSocketAddress ownerAddress) {
+			OWNER_ID = ownerId;
+			OWNER_ADDRESS = ownerAddress;
+		}
+	}
+
+	public RouteCache(int maxRoutes) {
+		assert maxRoutes > 0;
+		this.maxRoutes = maxRoutes;
+	}
+
+	/**
+	 * Get the bucket holding a location, packed like the cells of the
+	 * SpatialCache grid
+	 */
+	public static long bucketOf(LocationOfNode location) {
+		return bucketAt(location.x >> SHIFT, location.y >> SHIFT);
+	}
+
+	public static long bucketAt(long bx, long by) {
+		return (bx << 32) | (by & 0xffffffffL);
+	}
+
+	/**
+	 * Get the owner of a location.
+	 *
+	 * @return The owner or null if no route is known
+	 */
+	public synchronized Route get(LocationOfNode location) {
+		final Route route = routes.get(bucketOf(location));
+		if (route != null) {
+			++hitCount;
+		} else {
+			++missCount;
+		}
+		return route;
+	}
+
+	/**
+	 * Record the owner of buckets, replacing the routes known for them
+	 * before.
+	 */
+	public synchronized void put(long[] buckets, long ownerId, InetSocketAddress ownerAddress) {
+		assert ownerAddress != null;
+
+		final Route route = new Route(ownerId, ownerAddress);
+		for (long bucket : buckets) {
+			routes.put(bucket, route);
+		}
+	}
+
+	/**
+	 * Drop the route known for the bucket of a location, e.g. because its
+	 * owner could not be reached.
+	 */
+	public synchronized void remove(LocationOfNode location) {
+		routes.remove(bucketOf(location));
+	}
+
+	/**
+	 * Drop all routes, to be called when the grid changes near the node.
+	 */
+	public synchronized void clear() {
+		routes.clear();
+	}
+
+	public synchronized int getRouteCount() {
+		return routes.size();
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	// ---------------------------------
+	// Implementation
+	// ---------------------------------
+
+	private final int maxRoutes;
+	private long hitCount;
+	private long missCount;
+
+	private final LinkedHashMap<Long, Route> routes = new LinkedHashMap<Long, Route>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Route> eldest) {
+			return size() > maxRoutes;
+		}
+	};
+}
@@ -0,0 +1,156 @@
+package de.uni_stuttgart.caas.cache;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import de.uni_stuttgart.caas.base.LocationOfNode;
+import de.uni_stuttgart.caas.base.NodeInfo;
+
+/**
+ * Snapshot of a node's neighbors for greedy routing: the locations of the
+ * node and its neighbors as primitive arrays, along with what to send to each
+ * neighbor (its connection). Picking the next hop for a query does not
+ * allocate, box or look anything up in the neighbor map.
+ *
+ * Distances are power distances, the squared distance minus the weight of
+ * the node (see NodeInfo.getWeight()), so that queries end up at the owner
+ * of their location in the power diagram. The weights of the neighbors are
+ * those they had when the table was built.
+ *
+ * Instances are immutable, build a new one whenever the neighbors change.
+ *
+ * @param <T>
+ *            Connection to a neighbor
+ */
+public final class RoutingTable<T> {
+
+	/**
+	 * @param self
+	 *            Location of the node
+	 * @param neighbors
+	 *            Neighbors of the node and their connections. Neighbors
+	 *            without a connection (null) are left out.
+	 */
+	public RoutingTable(LocationOfNode self, Map<NodeInfo, T> neighbors) {
+		this(self, neighbors, Collections.<NodeInfo, T> emptyMap());
+	}
+
+	/**
+	 * @param self
+	 *            Location of the node
+	 * @param neighbors
+	 *            Neighbors of the node and their connections. Neighbors
+	 *            without a connection (null) are left out.
+	 * @param links
+	 *            Further nodes the node is connected to, such as its
+	 *            long-range links, routed to as if they were neighbors
+	 */
+	public RoutingTable(LocationOfNode self, Map<NodeInfo, T> neighbors, Map<NodeInfo, T> links) {
+		this(self, 0, neighbors, links);
+	}
+
+	/**
+	 * @param self
+	 *            Location of the node
+	 * @param selfWeight
+	 *            Weight of the node
+	 * @param neighbors
+	 *            Neighbors of the node and their connections. Neighbors
+	 *            without a connection (null) are left out.
+	 * @param links
+	 *            Further nodes the node is connected to, such as its
+	 *            long-range links, routed to as if they were neighbors
+	 */
+	public RoutingTable(LocationOfNode self, double selfWeight, Map<NodeInfo, T> neighbors, Map<NodeInfo, T> links) {
+		assert self != null;
+
+		selfX = self.x;
+		selfY = self.y;
+		this.selfWeight = selfWeight;
+
+		int count = 0;
+		for (T target : neighbors.values()) {
+			if (target != null) {
+				++count;
+			}
+		}
+		for (T target : links.values()) {
+			if (target != null) {
+				++count;
+			}
+		}
+
+		x = new double[count];
+		y = new double[count];
+		w = new double[count];
+		infos = new NodeInfo[count];
+		targets = new Object[count];
+
+		final int added = add(links, add(neighbors, 0));
+		assert added == count;
+	}
+
+	/**
+	 * Get the neighbor nearest to a location in power distance, if it is
+	 * nearer than the node itself.
+	 *
+	 * @return Index of the neighbor, -1 if no neighbor is nearer than the
+	 *         node
+	 */
+	public int nextHop(LocationOfNode location) {
+		final double qx = location.x, qy = location.y;
+
+		double dx = selfX - qx, dy = selfY - qy;
+		double min = dx * dx + dy * dy - selfWeight;
+		int best = -1;
+		for (int i = 0; i < x.length; ++i) {
+			dx = x[i] - qx;
+			dy = y[i] - qy;
+			final double d = dx * dx + dy * dy - w[i];
+			if (d < min) {
+				min = d;
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	public int size() {
+		return targets.length;
+	}
+
+	public NodeInfo getNeighbor(int i) {
+		return infos[i];
+	}
+
+	@SuppressWarnings("unchecked")
+	public T getTarget(int i) {
+		return (T) targets[i];
+	}
+
+	// ---------------------------------
+	// Implementation
+	// ---------------------------------
+
+	private final double selfX, selfY, selfWeight;
+	private final double[] x, y, w;
+	private final NodeInfo[] infos;
+	private final Object[] targets;
+
+	private int add(Map<NodeInfo, T> nodes, int i) {
+		for (Entry<NodeInfo, T> n : nodes.entrySet()) {
+			if (n.getValue() == null) {
+				continue;
+			}
+			final LocationOfNode location = n.getKey().getLocationOfNode();
+			x[i] = location.x;
+			y[i] = location.y;
+			w[i] = n.getKey().getWeight();
+			infos[i] = n.getKey();
+			targets[i] = n.getValue();
+			++i;
+		}
+		return i;
+	}
+}
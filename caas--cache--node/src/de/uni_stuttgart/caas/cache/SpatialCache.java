@@ -0,0 +1,287 @@
+package de.uni_stuttgart.caas.cache;
+
+import de.uni_stuttgart.caas.base.LocationOfNode;
+import de.uni_stuttgart.caas.base.SpatialObject;
+
+/**
+ * Cache of the spatial objects a CacheNode serves. The grid is divided into
+ * square cells of 2^CELL_SHIFT units, and the objects of a cell are cached and
+ * evicted together. Cells are identified by a long key, see cellOf().
+ *
+ * The cache is bounded by the number of bytes of the objects it holds. Once
+ * full, the least recently used cells are evicted. The objects are stored
+ * either on the Java heap or, to keep large caches away from the garbage
+ * collector, serialized in off-heap memory (see OffHeapCellStore).
+ *
+ * Optionally, new cells are only admitted if that does not evict a cell
+ * accessed more often recently (TinyLFU). Access frequencies are estimated by
+ * a FrequencySketch counting every lookup, hit or miss. This keeps cells that
+ * are queried constantly from being flushed out by a stream of cells that are
+ * queried once.
+ *
+ * All methods are threadsafe.
+ */
+public final class SpatialCache {
+
+	/**
+	 * log2 of the side length of a cell
+	 */
+	public static final int CELL_SHIFT = 23;
+
+	/**
+	 * Rough number of bytes a cell takes up besides its objects
+	 */
+	public static final int CELL_OVERHEAD_BYTES = 64;
+
+	/**
+	 * Cell size assumed to estimate the number of cells a cache holds, which
+	 * determines the size of the FrequencySketch.
+	 */
+	public static final int TYPICAL_CELL_BYTES = 1024;
+
+	/**
+	 * Get the key of the cell a location falls into.
+	 */
+	public static long cellOf(LocationOfNode location) {
+		return cellOf(location.x, location.y);
+	}
+
+	public static long cellOf(int x, int y) {
+		// arithmetic shifts round towards negative infinity, so cells have
+		// the same size on both sides of 0
+		return ((long) (x >> CELL_SHIFT) << 32) | ((y >> CELL_SHIFT) & 0xffffffffL);
+	}
+
+	/**
+	 * Get the x index of a cell, i.e. the cell's lower x bound is cellX(cell)
+	 * << CELL_SHIFT.
+	 */
+	public static int cellX(long cell) {
+		return (int) (cell >> 32);
+	}
+
+	public static int cellY(long cell) {
+		return (int) cell;
+	}
+
+	/**
+	 * Create a cache keeping its objects on the heap.
+	 *
+	 * @param capacityBytes
+	 *            Maximum estimated size of all cached cells
+	 */
+	public SpatialCache(long capacityBytes) {
+		this(capacityBytes, false, false);
+	}
+
+	/**
+	 * @param capacityBytes
+	 *            Maximum size of all cached cells. For off-heap storage, this
+	 *            is the memory allocated at most, in whole pages (see
+	 *            OffHeapCellStore).
+	 * @param offHeap
+	 *            Whether to keep the objects in off-heap memory
+	 * @param frequencyAdmission
+	 *            Whether to admit new cells based on access frequency
+	 *            (TinyLFU) rather than always
+	 */
+	public SpatialCache(long capacityBytes, boolean offHeap, boolean frequencyAdmission) {
+		assert capacityBytes > 0;
+		store = offHeap ? new OffHeapCellStore(capacityBytes) : new HeapCellStore(capacityBytes);
+		sketch = frequencyAdmission ? new FrequencySketch((int) Math.min(1 << 24, Math.max(1, capacityBytes / TYPICAL_CELL_BYTES))) : null;
+	}
+
+	/**
+	 * Look up the objects of a cell, counting a hit or a miss.
+	 *
+	 * @return The objects of the cell or null if the cell is not cached. The
+	 *         array must not be modified.
+	 */
+	public synchronized SpatialObject[] get(long cell) {
+		if (sketch != null) {
+			sketch.increment(cell);
+		}
+		final SpatialObject[] objects = store.get(cell);
+		if (objects == null) {
+			++misses;
+		} else {
+			++hits;
+		}
+		return objects;
+	}
+
+	/**
+	 * Look up the objects of a cell without counting a hit or miss.
+	 *
+	 * @return The objects of the cell or null if the cell is not cached. The
+	 *         array must not be modified.
+	 */
+	public synchronized SpatialObject[] peek(long cell) {
+		return store.get(cell);
+	}
+
+	/**
+	 * Check whether a cell is cached, without counting a hit or miss or
+	 * affecting eviction order.
+	 */
+	public synchronized boolean contains(long cell) {
+		return store.contains(cell);
+	}
+
+	/**
+	 * Add or replace the objects of a cell, evicting other cells as necessary.
+	 * Cells larger than the entire cache (or, off-heap, than a page) are not
+	 * cached. With frequency admission, a new cell is not cached either if it
+	 * was accessed less often than the cell it would evict first.
+	 *
+	 * @param objects
+	 *            Non-null objects of the cell, the array must not be modified
+	 *            afterwards.
+	 */
+	public synchronized void put(long cell, SpatialObject[] objects) {
+		assert objects != null;
+
+		if (sketch != null && !store.contains(cell) && store.needsEviction(objects)) {
+			if (sketch.frequency(cell) <= sketch.frequency(store.victim(objects))) {
+				++rejections;
+				return;
+			}
+		}
+
+		final int evicted = store.put(cell, objects);
+		if (evicted > 0) {
+			evictions += evicted;
+		}
+	}
+
+	/**
+	 * Remove a cell from the cache.
+	 */
+	public synchronized void invalidate(long cell) {
+		store.remove(cell);
+	}
+
+	/**
+	 * Remove all cells and reset the statistics.
+	 */
+	public synchronized void clear() {
+		store.clear();
+		if (sketch != null) {
+			sketch.clear();
+		}
+		hits = misses = evictions = rejections = 0;
+	}
+
+	public boolean isOffHeap() {
+		return store instanceof OffHeapCellStore;
+	}
+
+	public synchronized long getCapacityBytes() {
+		return store.getCapacityBytes();
+	}
+
+	/**
+	 * Get the size of all cached cells, estimated for the heap, and in whole
+	 * chunks for off-heap storage.
+	 */
+	public synchronized long getSizeBytes() {
+		return store.getSizeBytes();
+	}
+
+	/**
+	 * Get the share of the capacity in use by cached cells, between 0 and 1.
+	 */
+	public synchronized double getOccupancy() {
+		return (double) store.getSizeBytes() / store.getCapacityBytes();
+	}
+
+	/**
+	 * Get the share of the bytes in use by cached cells that does not hold any
+	 * data, between 0 and 1. Always 0 on the heap, off-heap this is the slack
+	 * of cells in chunks larger than they need.
+	 */
+	public synchronized double getFragmentation() {
+		return store.getFragmentation();
+	}
+
+	/**
+	 * Get the off-heap memory allocated, 0 for a heap cache.
+	 */
+	public synchronized long getOffHeapBytes() {
+		return isOffHeap() ? ((OffHeapCellStore) store).getAllocatedBytes() : 0;
+	}
+
+	/**
+	 * Get the keys of all cached cells, without counting hits or misses or
+	 * affecting eviction order.
+	 */
+	public synchronized long[] cells() {
+		return store.cells();
+	}
+
+	/**
+	 * Get the number of cached cells.
+	 */
+	public synchronized int getCellCount() {
+		return store.getCellCount();
+	}
+
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	public boolean hasFrequencyAdmission() {
+		return sketch != null;
+	}
+
+	/**
+	 * Get the number of cells not admitted because they were accessed less
+	 * often than the cell they would have evicted.
+	 */
+	public synchronized long getRejectionCount() {
+		return rejections;
+	}
+
+	/**
+	 * Get the ratio of lookups that were hits, or 0 if there were none.
+	 */
+	public synchronized double getHitRatio() {
+		final long lookups = hits + misses;
+		return lookups == 0 ? 0.0 : (double) hits / lookups;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d cells, %d/%d bytes%s, fragmentation %.3f, hit ratio %.3f, %d evictions", store.getCellCount(), store.getSizeBytes(),
+				store.getCapacityBytes(), isOffHeap() ? " off-heap" : "", store.getFragmentation(), getHitRatio(), evictions);
+	}
+
+	/**
+	 * Get the estimated number of bytes of a cell with the given objects.
+	 */
+	public static long sizeOf(SpatialObject[] objects) {
+		long size = CELL_OVERHEAD_BYTES;
+		for (SpatialObject o : objects) {
+			size += o.getSize();
+		}
+		return size;
+	}
+
+	// ---------------------------------
+	// Implementation
+	// ---------------------------------
+
+	// guarded by this
+	private final CellStore store;
+	private final FrequencySketch sketch;
+	private long rejections = 0;
+	private long hits = 0, misses = 0, evictions = 0;
+}
@@ -0,0 +1,334 @@
+package de.uni_stuttgart.caas.cache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import de.uni_stuttgart.caas.base.Aggregate;
+import de.uni_stuttgart.caas.base.LocationOfNode;
+import de.uni_stuttgart.caas.base.SpatialObject;
+
+/**
+ * Answers range, k-nearest-neighbor and aggregate queries for the objects a
+ * node owns, i.e. those in its VoronoiRegion.
+ *
+ * The index is the grid the SpatialCache already buckets objects by: a query
+ * visits only the cells that overlap both its region and the Voronoi region,
+ * and takes their objects from the cache, fetching cells that miss it through
+ * the CellLoader. kNN queries visit cells in rings of growing distance around
+ * the query location and stop once no cell can hold an object nearer than
+ * the k-th nearest one found. Aggregate queries take the aggregates of cells
+ * they cover entirely from a DensityGrid if there is one.
+ *
+ * All methods are threadsafe.
+ */
+public final class SpatialIndex {
+
+	/**
+	 * Number of rings of cells a kNN query visits at most before giving up on
+	 * finding more objects
+	 */
+	public static final int MAX_RINGS = 16;
+
+	/**
+	 * Objects found by a query, sorted by distance from the query location
+	 * for kNN queries
+	 */
+	public static final class Result {
+
+		public final List<SpatialObject> objects;
+
+		/**
+		 * Aggregate of the objects found by aggregate queries, which leave
+		 * the objects empty, null for other queries
+		 */
+		public final Aggregate aggregate;
+
+		/**
+		 * Whether all cells visited were found in the cache
+		 */
+		public final boolean cacheHit;
+
+		/**
+		 * Number of cells visited
+		 */
+		public final int cells;
+
+		Result(List<SpatialObject> objects, boolean cacheHit, int cells) {
+			this.objects = objects;
+			this.aggregate = null;
+			this.cacheHit = cacheHit;
+			this.cells = cells;
+		}
+
+		Result(Aggregate aggregate, boolean cacheHit, int cells) {
+			this.objects = Collections.emptyList();
+			this.aggregate = aggregate;
+			this.cacheHit = cacheHit;
+			this.cells = cells;
+		}
+	}
+
+	public SpatialIndex(CellLoader loader) {
+		this(loader, null);
+	}
+
+	/**
+	 * @param densityGrid
+	 *            Grid to keep the aggregates of cells in for aggregate
+	 *            queries, null to aggregate their objects every time
+	 */
+	public SpatialIndex(CellLoader loader, DensityGrid densityGrid) {
+		assert loader != null;
+		this.loader = loader;
+		this.densityGrid = densityGrid;
+	}
+
+	/**
+	 * Find all objects of a region within radius of center.
+	 *
+	 * @throws IOException
+	 *             if cells could not be fetched from the origin
+	 */
+	public Result range(VoronoiRegion region, LocationOfNode center, double radius) throws IOException {
+		assert radius >= 0;
+
+		final long side = 1L << SpatialCache.CELL_SHIFT;
+		final long minX = (long) Math.floor((center.x - radius) / side), maxX = (long) Math.floor((center.x + radius) / side);
+		final long minY = (long) Math.floor((center.y - radius) / side), maxY = (long) Math.floor((center.y + radius) / side);
+
+		final long[] candidates = new long[(int) ((maxX - minX + 1) * (maxY - minY + 1))];
+		int count = 0;
+		for (long cx = minX; cx <= maxX; ++cx) {
+			for (long cy = minY; cy <= maxY; ++cy) {
+				final long cell = cellAt(cx, cy);
+				if (VoronoiRegion.minDistance(cell, center) <= radius && region.mayIntersect(cell)) {
+					candidates[count++] = cell;
+				}
+			}
+		}
+
+		final long[] cells = trim(candidates, count);
+		final SpatialObject[][] objects = new SpatialObject[cells.length][];
+		final int hits = loader.getAll(cells, objects);
+
+		final List<SpatialObject> found = new ArrayList<>();
+		for (SpatialObject[] cellObjects : objects) {
+			for (SpatialObject o : cellObjects) {
+				if (VoronoiRegion.distance(o.LOCATION, center) <= radius && region.contains(o.LOCATION)) {
+					found.add(o);
+				}
+			}
+		}
+		return new Result(found, hits == cells.length, cells.length);
+	}
+
+	/**
+	 * Aggregate all objects of a region within radius of center.
+	 *
+	 * @throws IOException
+	 *             if cells could not be fetched from the origin
+	 */
+	public Result aggregate(VoronoiRegion region, LocationOfNode center, double radius) throws IOException {
+		assert radius >= 0;
+
+		final long side = 1L << SpatialCache.CELL_SHIFT;
+		final long minX = (long) Math.floor((center.x - radius) / side), maxX = (long) Math.floor((center.x + radius) / side);
+		final long minY = (long) Math.floor((center.y - radius) / side), maxY = (long) Math.floor((center.y + radius) / side);
+
+		final Aggregate aggregate = new Aggregate();
+		final int size = (int) ((maxX - minX + 1) * (maxY - minY + 1));
+		final long[] candidates = new long[size];
+		final boolean[] whole = new boolean[size];
+		int count = 0, visited = 0;
+		for (long cx = minX; cx <= maxX; ++cx) {
+			for (long cy = minY; cy <= maxY; ++cy) {
+				final long cell = cellAt(cx, cy);
+				if (VoronoiRegion.minDistance(cell, center) > radius || !region.mayIntersect(cell)) {
+					continue;
+				}
+				++visited;
+
+				// the objects of cells covered entirely need not be checked
+				// one by one
+				final boolean covered = VoronoiRegion.maxDistance(cell, center) <= radius && region.containsCell(cell);
+				if (covered && densityGrid != null) {
+					final Aggregate cached = densityGrid.get(cell);
+					if (cached != null) {
+						aggregate.add(cached);
+						continue;
+					}
+				}
+				whole[count] = covered;
+				candidates[count++] = cell;
+			}
+		}
+
+		final long[] cells = trim(candidates, count);
+		final SpatialObject[][] objects = new SpatialObject[cells.length][];
+		final int hits = loader.getAll(cells, objects);
+
+		for (int i = 0; i < cells.length; ++i) {
+			if (whole[i]) {
+				if (densityGrid != null) {
+					densityGrid.put(cells[i], objects[i]);
+				}
+				for (SpatialObject o : objects[i]) {
+					aggregate.add(o);
+				}
+				continue;
+			}
+			for (SpatialObject o : objects[i]) {
+				if (VoronoiRegion.distance(o.LOCATION, center) <= radius && region.contains(o.LOCATION)) {
+					aggregate.add(o);
+				}
+			}
+		}
+		return new Result(aggregate, hits == cells.length, visited);
+	}
+
+	/**
+	 * Find the k objects of a region nearest to center, leaving out objects
+	 * farther away than maxDistance. Fewer objects are returned if the region
+	 * has fewer within MAX_RINGS rings of cells.
+	 *
+	 * @throws IOException
+	 *             if cells could not be fetched from the origin
+	 */
+	public Result nearest(VoronoiRegion region, final LocationOfNode center, int k, double maxDistance) throws IOException {
+		assert k > 0;
+
+		// farthest candidate first, so it is the one replaced
+		final PriorityQueue<Candidate> candidates = new PriorityQueue<>(k, new Comparator<Candidate>() {
+			@Override
+			public int compare(Candidate a, Candidate b) {
+				return Double.compare(b.distance, a.distance);
+			}
+		});
+
+		final long side = 1L << SpatialCache.CELL_SHIFT;
+		final long centerX = center.x >> SpatialCache.CELL_SHIFT, centerY = center.y >> SpatialCache.CELL_SHIFT;
+		final boolean ownsCenter = region.contains(center);
+		boolean allHits = true;
+		int visited = 0;
+
+		for (int ring = 0; ring < MAX_RINGS; ++ring) {
+			final double bound = candidates.size() < k ? maxDistance : Math.min(maxDistance, candidates.peek().distance);
+			// no cell in this ring is closer than this
+			if (ring > 0 && (double) (ring - 1) * side > bound) {
+				break;
+			}
+
+			final long[] ringCells = ring(centerX, centerY, ring);
+			final long[] inRegion = new long[ringCells.length];
+			int count = 0;
+			boolean ringReachesRegion = false;
+			for (long cell : ringCells) {
+				if (!region.mayIntersect(cell)) {
+					continue;
+				}
+				ringReachesRegion = true;
+				if (VoronoiRegion.minDistance(cell, center) <= bound) {
+					inRegion[count++] = cell;
+				}
+			}
+
+			// the region is convex, so if it holds the center, the rings do
+			// not get back into it once they left it
+			if (!ringReachesRegion) {
+				if (ownsCenter) {
+					break;
+				}
+				continue;
+			}
+
+			final long[] cells = trim(inRegion, count);
+			final SpatialObject[][] objects = new SpatialObject[cells.length][];
+			allHits &= loader.getAll(cells, objects) == cells.length;
+			visited += cells.length;
+
+			for (SpatialObject[] cellObjects : objects) {
+				for (SpatialObject o : cellObjects) {
+					final double distance = VoronoiRegion.distance(o.LOCATION, center);
+					if (distance > maxDistance || !region.contains(o.LOCATION)) {
+						continue;
+					}
+					if (candidates.size() < k) {
+						candidates.add(new Candidate(o, distance));
+					} else if (distance < candidates.peek().distance) {
+						candidates.poll();
+						candidates.add(new Candidate(o, distance));
+					}
+				}
+			}
+		}
+
+		final List<Candidate> sorted = new ArrayList<>(candidates);
+		Collections.sort(sorted, new Comparator<Candidate>() {
+			@Override
+			public int compare(Candidate a, Candidate b) {
+				return Double.compare(a.distance, b.distance);
+			}
+		});
+		final List<SpatialObject> found = new ArrayList<>(sorted.size());
+		for (Candidate c : sorted) {
+			found.add(c.object);
+		}
+		return new Result(found, allHits, visited);
+	}
+
+	// ---------------------------------
+	// Implementation
+	// ---------------------------------
+
+	private final CellLoader loader;
+	private final DensityGrid densityGrid;
+
+	private static final class Candidate {
+		final SpatialObject object;
+		final double distance;
+
+		Candidate(SpatialObject object, double distance) {
+			this.object = object;
+			this.distance = distance;
+		}
+	}
+
+	private static long cellAt(long cx, long cy) {
+		return (cx << 32) | (cy & 0xffffffffL);
+	}
+
+	/**
+	 * Get the cells whose Chebyshev distance from the center cell is ring
+	 */
+	private static long[] ring(long cx, long cy, int ring) {
+		if (ring == 0) {
+			return new long[] { cellAt(cx, cy) };
+		}
+
+		final long[] cells = new long[8 * ring];
+		int i = 0;
+		for (long d = -ring; d <= ring; ++d) {
+			cells[i++] = cellAt(cx + d, cy - ring);
+			cells[i++] = cellAt(cx + d, cy + ring);
+		}
+		for (long d = -ring + 1; d <= ring - 1; ++d) {
+			cells[i++] = cellAt(cx - ring, cy + d);
+			cells[i++] = cellAt(cx + ring, cy + d);
+		}
+		assert i == cells.length;
+		return cells;
+	}
+
+	private static long[] trim(long[] cells, int count) {
+		if (count == cells.length) {
+			return cells;
+		}
+		final long[] trimmed = new long[count];
+		System.arraycopy(cells, 0, trimmed, 0, count);
+		return trimmed;
+	}
+}
@@ -4,6 +4,8 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.EnumSet;
 
+import de.uni_stuttgart.caas.base.ExecutionPolicy;
+
 
 
 public class Startup {
@@ -13,7 +15,9 @@ public class Startup {
 	 * 
 	 * @param args
 	 *            the ip address of the admin and the port, the admin is
-	 *            listening on
+	 *            listening on, followed by options. -originlatency=ms sets
+	 *            the time the origin takes to serve a cache miss,
+	 *            -cachebytes=n the capacity of the cache.
 	 */
 	public static void main(String[] args) {
 		if (args.length < 2) {
@@ -21,6 +25,8 @@ public class Startup {
 		}
 
 		EnumSet<CacheBehaviourFlags> config = EnumSet.noneOf(CacheBehaviourFlags.class);
+		long originLatency = CacheNode.QUERY_PROCESSING_TIME_MISS;
+		long cacheBytes = CacheNode.CACHE_CAPACITY_BYTES;
 		for (String s : args) {
 			if (s.equals("-scalein")) {
 				config.add(CacheBehaviourFlags.SCALEIN);
@@ -32,11 +38,26 @@ public class Startup {
 				config.add(CacheBehaviourFlags.REUSE_CLIENT_CONN);
 			} else if (s.equals("-fakeneighborlatency")) {
 				config.add(CacheBehaviourFlags.ADD_FAKE_NEIGHBOR_LATENCY);
+			} else if (s.equals("-nio")) {
+				config.add(CacheBehaviourFlags.NIO_TRANSPORT);
+			} else if (s.equals("-virtual")) {
+				ExecutionPolicy.setDefault(ExecutionPolicy.Mode.VIRTUAL);
+			} else if (s.equals("-offheap")) {
+				config.add(CacheBehaviourFlags.OFF_HEAP_CACHE);
+			} else if (s.equals("-admission")) {
+				config.add(CacheBehaviourFlags.FREQUENCY_ADMISSION);
+			} else if (s.startsWith("-cachebytes=")) {
+				cacheBytes = Long.parseLong(s.substring("-cachebytes=".length()));
+			} else if (s.startsWith("-originlatency=")) {
+				originLatency = Long.parseLong(s.substring("-originlatency=".length()));
 			}
 		}
 		try {
-			new CacheNode(args[0], Integer.parseInt(args[1]), config);
-		} catch (IOException e) {
+			new CacheNode(new InetSocketAddress(args[0], Integer.parseInt(args[1])), config, new SyntheticOrigin(originLatency), cacheBytes);
+
+			// virtual threads do not keep the JVM alive
+			ExecutionPolicy.awaitThreads();
+		} catch (IOException | InterruptedException e) {
 			e.printStackTrace();
 		}
 	}
@@ -0,0 +1,82 @@
+package de.uni_stuttgart.caas.cache;
+
+import java.io.InterruptedIOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.uni_stuttgart.caas.base.LocationOfNode;
+import de.uni_stuttgart.caas.base.SpatialObject;
+
+/**
+ * In-process stand-in for a real backing store. The objects of a cell are
+ * derived from the cell key, i.e. the same cell always yields the same
+ * objects, and every fetch takes a fixed latency to simulate the round trip to
+ * a remote data source.
+ */
+public class SyntheticOrigin implements Origin {
+
+	/**
+	 * Maximum number of objects in a cell and maximum payload size of an
+	 * object.
+	 */
+	public static final int MAX_OBJECTS_PER_CELL = 8;
+	public static final int MAX_PAYLOAD_BYTES = 512;
+
+	/**
+	 * @param _latencyMillis
+	 *            Time every fetch takes, in milliseconds
+	 */
+	public SyntheticOrigin(long _latencyMillis) {
+		assert _latencyMillis >= 0;
+		latencyMillis = _latencyMillis;
+	}
+
+	@Override
+	public SpatialObject[] fetch(long cell) throws InterruptedIOException {
+		fetchCount.incrementAndGet();
+		if (latencyMillis > 0) {
+			try {
+				Thread.sleep(latencyMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("(SyntheticOrigin) interrupted while fetching cell " + cell);
+			}
+		}
+		return generate(cell);
+	}
+
+	public long getLatencyMillis() {
+		return latencyMillis;
+	}
+
+	/**
+	 * Get the number of fetches so far.
+	 */
+	public long getFetchCount() {
+		return fetchCount.get();
+	}
+
+	/**
+	 * Produce the objects of a cell.
+	 */
+	public static SpatialObject[] generate(long cell) {
+		final Random random = new Random(cell);
+		final long x0 = (long) SpatialCache.cellX(cell) << SpatialCache.CELL_SHIFT;
+		final long y0 = (long) SpatialCache.cellY(cell) << SpatialCache.CELL_SHIFT;
+
+		final SpatialObject[] objects = new SpatialObject[1 + random.nextInt(MAX_OBJECTS_PER_CELL)];
+		for (int i = 0; i < objects.length; ++i) {
+			// cells at the edge of the int range may reach beyond it
+			final int x = (int) Math.min(Integer.MAX_VALUE, x0 + random.nextInt(1 << SpatialCache.CELL_SHIFT));
+			final int y = (int) Math.min(Integer.MAX_VALUE, y0 + random.nextInt(1 << SpatialCache.CELL_SHIFT));
+
+			final byte[] payload = new byte[random.nextInt(MAX_PAYLOAD_BYTES + 1)];
+			random.nextBytes(payload);
+			objects[i] = new SpatialObject(new LocationOfNode(x, y), payload);
+		}
+		return objects;
+	}
+
+	private final long latencyMillis;
+	private final AtomicLong fetchCount = new AtomicLong(0);
+}
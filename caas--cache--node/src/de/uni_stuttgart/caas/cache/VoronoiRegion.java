@@ -0,0 +1,246 @@
+package de.uni_stuttgart.caas.cache;
+
+import java.util.Collection;
+
+import de.uni_stuttgart.caas.base.LocationOfNode;
+import de.uni_stuttgart.caas.base.NodeInfo;
+
+/**
+ * The Voronoi cell of a node as far as the node can tell: all points closer to
+ * its own location (the site) than to the location of any of its neighbors.
+ * Since the neighbors of a node are its Delaunay neighbors, this is its actual
+ * Voronoi cell.
+ *
+ * If the sites are weighted (see NodeInfo.getWeight()), distances are power
+ * distances, the squared distance minus the weight, and the region is the
+ * node's cell of the power diagram. Its bisectors are shifted towards the
+ * site of smaller weight. Weights are kept small enough for the neighbors to
+ * stay those of the unweighted cell, see CacheNode.MAX_WEIGHT_FRACTION.
+ *
+ * Points at the same distance from two sites belong to the site that is
+ * smaller in (x, y) order, so that any point is owned by exactly one node
+ * regardless of which node decides it.
+ *
+ * Instances are immutable snapshots, build a new one when the neighbors
+ * change.
+ */
+public final class VoronoiRegion {
+
+	/**
+	 * @param site
+	 *            Location of the node
+	 * @param neighborSites
+	 *            Locations of its neighbors
+	 */
+	public VoronoiRegion(LocationOfNode site, Collection<LocationOfNode> neighborSites) {
+		assert site != null;
+		assert neighborSites != null;
+
+		siteX = site.x;
+		siteY = site.y;
+		siteWeight = 0;
+		neighborX = new int[neighborSites.size()];
+		neighborY = new int[neighborSites.size()];
+		neighborWeight = new double[neighborSites.size()];
+		int i = 0;
+		for (LocationOfNode n : neighborSites) {
+			neighborX[i] = n.x;
+			neighborY[i] = n.y;
+			++i;
+		}
+	}
+
+	/**
+	 * Region of a weighted site
+	 *
+	 * @param site
+	 *            Location of the node
+	 * @param weight
+	 *            Weight of the node
+	 * @param neighbors
+	 *            Neighbors of the node, with their locations and last known
+	 *            weights
+	 */
+	public VoronoiRegion(LocationOfNode site, double weight, Collection<NodeInfo> neighbors) {
+		assert site != null;
+		assert neighbors != null;
+
+		siteX = site.x;
+		siteY = site.y;
+		siteWeight = weight;
+		neighborX = new int[neighbors.size()];
+		neighborY = new int[neighbors.size()];
+		neighborWeight = new double[neighbors.size()];
+		int i = 0;
+		for (NodeInfo n : neighbors) {
+			final LocationOfNode l = n.getLocationOfNode();
+			neighborX[i] = l.x;
+			neighborY[i] = l.y;
+			neighborWeight[i] = n.getWeight();
+			++i;
+		}
+	}
+
+	/**
+	 * Check whether a point lies in the region
+	 */
+	public boolean contains(LocationOfNode p) {
+		return contains(p.x, p.y);
+	}
+
+	public boolean contains(int x, int y) {
+		return contains((long) x, (long) y);
+	}
+
+	/**
+	 * Check whether a cell of the SpatialCache grid may overlap the region.
+	 * Cells that lie entirely on a neighbor's side of the bisector between the
+	 * site and that neighbor do not, for other cells the result is
+	 * conservative.
+	 */
+	public boolean mayIntersect(long cell) {
+		final long side = 1L << SpatialCache.CELL_SHIFT;
+		final long x0 = (long) SpatialCache.cellX(cell) << SpatialCache.CELL_SHIFT;
+		final long y0 = (long) SpatialCache.cellY(cell) << SpatialCache.CELL_SHIFT;
+		final long x1 = x0 + side - 1, y1 = y0 + side - 1;
+
+		for (int i = 0; i < neighborX.length; ++i) {
+			// the half plane of the neighbor is convex, so the cell lies in it
+			// if all of its corners do
+			if (closerToNeighbor(i, x0, y0) && closerToNeighbor(i, x1, y0) && closerToNeighbor(i, x0, y1) && closerToNeighbor(i, x1, y1)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check whether a cell of the SpatialCache grid lies entirely in the
+	 * region
+	 */
+	public boolean containsCell(long cell) {
+		final long x0 = (long) SpatialCache.cellX(cell) << SpatialCache.CELL_SHIFT;
+		final long y0 = (long) SpatialCache.cellY(cell) << SpatialCache.CELL_SHIFT;
+		return containsSquare(x0, y0, 1L << SpatialCache.CELL_SHIFT);
+	}
+
+	/**
+	 * Check whether the square of the given side whose lower corner is (x0,
+	 * y0) lies entirely in the region
+	 */
+	public boolean containsSquare(long x0, long y0, long side) {
+		final long x1 = x0 + side - 1, y1 = y0 + side - 1;
+
+		// the region is convex, so it holds the square if it holds its corners
+		return contains(x0, y0) && contains(x1, y0) && contains(x0, y1) && contains(x1, y1);
+	}
+
+	/**
+	 * Check whether a circle reaches over the bisector between two sites to
+	 * the side of the other site, i.e. whether the other site's Voronoi cell
+	 * may overlap the circle.
+	 *
+	 * @param site
+	 *            Site on whose side the check is made from
+	 * @param other
+	 *            Site whose side of the bisector the circle must reach
+	 */
+	public static boolean reaches(LocationOfNode site, LocationOfNode other, LocationOfNode center, double radius) {
+		return bisectorDistance(site, other, center) + radius >= 0;
+	}
+
+	/**
+	 * Same as reaches(site, other, center, radius) for weighted sites, see
+	 * bisectorDistance(site, siteWeight, other, otherWeight, p).
+	 */
+	public static boolean reaches(LocationOfNode site, double siteWeight, LocationOfNode other, double otherWeight, LocationOfNode center, double radius) {
+		return bisectorDistance(site, siteWeight, other, otherWeight, center) + radius >= 0;
+	}
+
+	/**
+	 * Get the signed distance of a point from the bisector between two sites,
+	 * positive on the side of the other site. If it is negative, the other
+	 * site's Voronoi cell is at least that far away from the point.
+	 */
+	public static double bisectorDistance(LocationOfNode site, LocationOfNode other, LocationOfNode p) {
+		return bisectorDistance(site, 0, other, 0, p);
+	}
+
+	/**
+	 * Get the signed distance of a point from the bisector between two
+	 * weighted sites in the power diagram, the line of points whose power
+	 * distances from both sites are equal.
+	 */
+	public static double bisectorDistance(LocationOfNode site, double siteWeight, LocationOfNode other, double otherWeight, LocationOfNode p) {
+		final double dx = (double) other.x - site.x, dy = (double) other.y - site.y;
+		final double siteDistance = Math.sqrt(dx * dx + dy * dy);
+		if (siteDistance == 0) {
+			return 0;
+		}
+		final double own = squareDistance(site.x, site.y, p.x, p.y) - siteWeight;
+		return (own - squareDistance(other.x, other.y, p.x, p.y) + otherWeight) / (2 * siteDistance);
+	}
+
+	/**
+	 * Get the distance between a point and the nearest point of a cell of
+	 * the SpatialCache grid, 0 if the point lies in the cell.
+	 */
+	public static double minDistance(long cell, LocationOfNode p) {
+		final long side = 1L << SpatialCache.CELL_SHIFT;
+		final long x0 = (long) SpatialCache.cellX(cell) << SpatialCache.CELL_SHIFT;
+		final long y0 = (long) SpatialCache.cellY(cell) << SpatialCache.CELL_SHIFT;
+		final double dx = Math.max(0, Math.max(x0 - p.x, p.x - (x0 + side - 1)));
+		final double dy = Math.max(0, Math.max(y0 - p.y, p.y - (y0 + side - 1)));
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	/**
+	 * Get the distance between a point and the farthest point of a cell of
+	 * the SpatialCache grid.
+	 */
+	public static double maxDistance(long cell, LocationOfNode p) {
+		final long side = 1L << SpatialCache.CELL_SHIFT;
+		final long x0 = (long) SpatialCache.cellX(cell) << SpatialCache.CELL_SHIFT;
+		final long y0 = (long) SpatialCache.cellY(cell) << SpatialCache.CELL_SHIFT;
+		final double dx = Math.max(Math.abs(p.x - x0), Math.abs(p.x - (x0 + side - 1)));
+		final double dy = Math.max(Math.abs(p.y - y0), Math.abs(p.y - (y0 + side - 1)));
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	public static double distance(LocationOfNode a, LocationOfNode b) {
+		return Math.sqrt(squareDistance(a.x, a.y, b.x, b.y));
+	}
+
+	// ---------------------------------
+	// Implementation
+	// ---------------------------------
+
+	private final int siteX, siteY;
+	private final double siteWeight;
+	private final int[] neighborX, neighborY;
+	private final double[] neighborWeight;
+
+	private boolean contains(long x, long y) {
+		for (int i = 0; i < neighborX.length; ++i) {
+			if (closerToNeighbor(i, x, y)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean closerToNeighbor(int i, long x, long y) {
+		final double own = squareDistance(siteX, siteY, x, y) - siteWeight;
+		final double other = squareDistance(neighborX[i], neighborY[i], x, y) - neighborWeight[i];
+		return other < own || (other == own && before(neighborX[i], neighborY[i], siteX, siteY));
+	}
+
+	private static boolean before(int ax, int ay, int bx, int by) {
+		return ax < bx || (ax == bx && ay < by);
+	}
+
+	private static double squareDistance(long ax, long ay, long bx, long by) {
+		final double dx = ax - bx, dy = ay - by;
+		return dx * dx + dy * dy;
+	}
+}
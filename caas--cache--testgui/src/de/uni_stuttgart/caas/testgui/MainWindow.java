@@ -27,6 +27,7 @@ import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
 
 import de.uni_stuttgart.caas.admin.AdminNode;
+import de.uni_stuttgart.caas.base.ExecutionPolicy;
 import de.uni_stuttgart.caas.base.LogReceiver;
 import de.uni_stuttgart.caas.cache.CacheBehaviourFlags;
 import de.uni_stuttgart.caas.cache.CacheNode;
@@ -130,7 +131,7 @@ public class MainWindow {
 				} else {
 					// start the log receiver
 					receiver = new LogReceiver(DEFAULT_LOG_RECEIVER_PORT, false, true);
-					(new Thread(receiver)).start();
+					ExecutionPolicy.get().start("caas-log-receiver", receiver);
 					System.out.println("launching admin node with a capacity of " + adminCapacityField.getText() + ", listening on port number "
 							+ adminPortField.getText());
 					int numOfNodes = Integer.parseInt(adminCapacityField.getText());
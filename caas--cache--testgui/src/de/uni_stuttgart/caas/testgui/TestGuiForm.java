@@ -13,6 +13,7 @@ import java.util.regex.Pattern;
 import javax.swing.*;
 
 import de.uni_stuttgart.caas.admin.AdminNode;
+import de.uni_stuttgart.caas.base.ExecutionPolicy;
 import de.uni_stuttgart.caas.cache.CacheNode;
 
 public class TestGuiForm extends JFrame {
@@ -136,8 +137,7 @@ public class TestGuiForm extends JFrame {
 						}
 					}
 				};
-				Thread t = new Thread(r);
-				t.start();
+				ExecutionPolicy.get().start("caas-testgui-launcher", r);
 			}
 		});
 		btn.setBounds(WIDTH - 250, 300, 200, 50);
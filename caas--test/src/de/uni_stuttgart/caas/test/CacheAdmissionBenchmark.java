@@ -0,0 +1,80 @@
+package de.uni_stuttgart.caas.test;
+
+import de.uni_stuttgart.caas.admin.Grid;
+import de.uni_stuttgart.caas.base.LocationOfNode;
+import de.uni_stuttgart.caas.cache.SpatialCache;
+import de.uni_stuttgart.caas.cache.SyntheticOrigin;
+
+/**
+ * Compares the hit ratio of the node caches with plain LRU and with
+ * frequency admission (TinyLFU) for the query distributions of QuerySender.
+ *
+ * Rather than running a grid, the grid area is split into REGIONS x REGIONS
+ * squares, each standing in for the area of one cache node with a
+ * SpatialCache of its own. Queries are drawn like QuerySender does and served
+ * by the cache of the square they fall into, fetching the cell from a
+ * SyntheticOrigin without latency on a miss.
+ *
+ * Run as a plain Java application, optionally passing the number of queries.
+ */
+public class CacheAdmissionBenchmark {
+
+	private static final int REGIONS = 6;
+	private static final int DEFAULT_QUERIES = 2000000;
+	private static final long[] CAPACITIES = { 256 * 1024, 1024 * 1024, 4 * 1024 * 1024 };
+
+	/** Same as QuerySender */
+	private static final LocationOfNode HOTSPOT = new LocationOfNode(Grid.MAX_GRID_INDEX / 5, Grid.MAX_GRID_INDEX / 5);
+	private static final double HOTSPOT_STDDEV = 0.18;
+
+	public static void main(String[] args) {
+		final int queries = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_QUERIES;
+		System.out.println(queries + " queries, " + REGIONS * REGIONS + " nodes");
+
+		for (boolean uniform : new boolean[] { true, false }) {
+			System.out.println(uniform ? "uniform distribution:" : "gaussian distribution:");
+			for (long capacity : CAPACITIES) {
+				final double lru = run(queries, uniform, capacity, false);
+				final double tinyLfu = run(queries, uniform, capacity, true);
+				System.out.println(String.format("  %5dKB per node: LRU %.4f  TinyLFU %.4f  difference %+.4f", capacity / 1024, lru, tinyLfu, tinyLfu
+						- lru));
+			}
+		}
+	}
+
+	/**
+	 * @return Hit ratio over all nodes
+	 */
+	private static double run(int queries, boolean uniform, long capacity, boolean admission) {
+		final SpatialCache[] caches = new SpatialCache[REGIONS * REGIONS];
+		for (int i = 0; i < caches.length; ++i) {
+			caches[i] = new SpatialCache(capacity, false, admission);
+		}
+
+		for (int i = 0; i < queries; ++i) {
+			final LocationOfNode point = uniform ? Grid.RandomPoint() : Grid.SampleGaussian(HOTSPOT, HOTSPOT_STDDEV);
+			final SpatialCache cache = caches[regionOf(point.x) * REGIONS + regionOf(point.y)];
+
+			final long cell = SpatialCache.cellOf(point);
+			if (cache.get(cell) == null) {
+				cache.put(cell, SyntheticOrigin.generate(cell));
+			}
+		}
+
+		long hits = 0, lookups = 0;
+		for (SpatialCache cache : caches) {
+			hits += cache.getHitCount();
+			lookups += cache.getHitCount() + cache.getMissCount();
+		}
+		return (double) hits / lookups;
+	}
+
+	/**
+	 * Gaussian samples may lie outside the grid, they go to the nodes at its
+	 * border.
+	 */
+	private static int regionOf(int coordinate) {
+		final long region = (long) coordinate * REGIONS / Grid.MAX_GRID_INDEX;
+		return (int) Math.max(0, Math.min(REGIONS - 1, region));
+	}
+}
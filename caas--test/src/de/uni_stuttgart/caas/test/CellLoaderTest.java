@@ -0,0 +1,109 @@
+package de.uni_stuttgart.caas.test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import de.uni_stuttgart.caas.base.SpatialObject;
+import de.uni_stuttgart.caas.cache.CellLoader;
+import de.uni_stuttgart.caas.cache.Origin;
+import de.uni_stuttgart.caas.cache.SpatialCache;
+import de.uni_stuttgart.caas.cache.SyntheticOrigin;
+
+public class CellLoaderTest {
+
+	private static final int THREADS = 8;
+
+	/**
+	 * Origin that blocks every fetch until released.
+	 */
+	private static class GatedOrigin implements Origin {
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger fetches = new AtomicInteger(0);
+		volatile boolean fail = false;
+
+		@Override
+		public SpatialObject[] fetch(long cell) throws IOException {
+			fetches.incrementAndGet();
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (fail) {
+				throw new IOException("origin down");
+			}
+			return SyntheticOrigin.generate(cell);
+		}
+	}
+
+	/**
+	 * Start THREADS threads loading the same cell, wait until all but the
+	 * leader are waiting for its fetch, then release the origin.
+	 *
+	 * @return Number of threads that got the objects
+	 */
+	private static int loadConcurrently(final CellLoader loader, GatedOrigin origin) throws InterruptedException {
+		final AtomicInteger succeeded = new AtomicInteger(0);
+		final Thread[] threads = new Thread[THREADS];
+		for (int i = 0; i < threads.length; ++i) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if (loader.load(42).length > 0) {
+							succeeded.incrementAndGet();
+						}
+					} catch (IOException e) {
+						// expected if the origin fails
+					}
+				}
+			});
+			threads[i].start();
+		}
+
+		for (int i = 0; i < 500 && loader.getCoalescedCount() < THREADS - 1; ++i) {
+			Thread.sleep(10);
+		}
+		origin.release.countDown();
+		for (Thread t : threads) {
+			t.join();
+		}
+		return succeeded.get();
+	}
+
+	@Test
+	public void testConcurrentMissesShareOneFetch() throws InterruptedException {
+		final SpatialCache cache = new SpatialCache(1024 * 1024);
+		final GatedOrigin origin = new GatedOrigin();
+		final CellLoader loader = new CellLoader(cache, origin);
+
+		assertEquals(THREADS, loadConcurrently(loader, origin));
+		assertEquals(1, origin.fetches.get());
+		assertEquals(1, loader.getFetchCount());
+		assertEquals(THREADS - 1, loader.getCoalescedCount());
+		assertTrue(cache.contains(42));
+	}
+
+	@Test
+	public void testFailureReachesAllWaiters() throws InterruptedException, IOException {
+		final SpatialCache cache = new SpatialCache(1024 * 1024);
+		final GatedOrigin origin = new GatedOrigin();
+		origin.fail = true;
+		final CellLoader loader = new CellLoader(cache, origin);
+
+		assertEquals(0, loadConcurrently(loader, origin));
+		assertEquals(1, origin.fetches.get());
+		assertFalse(cache.contains(42));
+
+		// the next miss tries again
+		origin.fail = false;
+		assertNotNull(loader.load(42));
+		assertEquals(2, origin.fetches.get());
+	}
+}
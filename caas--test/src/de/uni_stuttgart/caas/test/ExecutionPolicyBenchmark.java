@@ -0,0 +1,93 @@
+package de.uni_stuttgart.caas.test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.EnumSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import de.uni_stuttgart.caas.admin.AdminNode;
+import de.uni_stuttgart.caas.admin.QuerySender;
+import de.uni_stuttgart.caas.base.ExecutionPolicy;
+import de.uni_stuttgart.caas.base.FullDuplexMPI;
+import de.uni_stuttgart.caas.cache.CacheBehaviourFlags;
+import de.uni_stuttgart.caas.cache.CacheNode;
+
+/**
+ * Runs an admin node and a large number of cache nodes in one JVM, then sends
+ * them queries for QuerySender.totalBenchmarkTime seconds. Meant to compare the
+ * thread modes of ExecutionPolicy, so it should be run once per mode:
+ *
+ * ExecutionPolicyBenchmark nodes k platform|virtual [threads|nio]
+ *
+ * with k being the number of queries per node and second. Besides the query
+ * latency (printed by QuerySender), the time to set up the grid, the number of
+ * platform threads, and the heap in use are printed. Run as a plain Java
+ * application, virtual threads require JDK 21 or later.
+ */
+public class ExecutionPolicyBenchmark {
+
+	/** Time given to query responses to arrive after the last query was sent */
+	private static final int DRAIN_SECONDS = 15;
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 3) {
+			System.out.println("usage: ExecutionPolicyBenchmark nodes k platform|virtual [threads|nio]");
+			return;
+		}
+
+		final int nodes = Integer.parseInt(args[0]);
+		final int k = Integer.parseInt(args[1]);
+		final ExecutionPolicy policy = ExecutionPolicy.setDefault(ExecutionPolicy.Mode.valueOf(args[2].toUpperCase()));
+		final boolean nio = args.length > 3 && args[3].equals("nio");
+
+		System.out.println(nodes + " nodes, " + k + " queries per node and second, " + policy.getMode() + " threads, " + (nio ? "NIO" : "THREADS")
+				+ " transport");
+
+		final EnumSet<CacheBehaviourFlags> config = EnumSet.noneOf(CacheBehaviourFlags.class);
+		if (nio) {
+			config.add(CacheBehaviourFlags.NIO_TRANSPORT);
+		}
+
+		final CountDownLatch initComplete = new CountDownLatch(1);
+		final int port = PortFinder.findOpen();
+		final long start = System.nanoTime();
+
+		final AdminNode admin = new AdminNode(port, nodes, nio ? FullDuplexMPI.Transport.NIO : FullDuplexMPI.Transport.THREADS) {
+			@Override
+			protected void onInitComplete() {
+				initComplete.countDown();
+			}
+		};
+
+		for (int i = 0; i < nodes; ++i) {
+			new CacheNode("localhost", port, config.clone());
+		}
+
+		if (!initComplete.await(10 * 60, TimeUnit.SECONDS)) {
+			System.out.println("grid setup did not complete");
+			System.exit(1);
+		}
+
+		final long setupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		System.out.println("grid set up in " + setupMillis + "ms");
+		printResources();
+
+		admin.generateQueriesUniformlyDistributed(k);
+		Thread.sleep(TimeUnit.SECONDS.toMillis(QuerySender.totalBenchmarkTime / 2));
+		printResources();
+
+		Thread.sleep(TimeUnit.SECONDS.toMillis(QuerySender.totalBenchmarkTime / 2 + DRAIN_SECONDS));
+		System.exit(0);
+	}
+
+	private static void printResources() {
+		final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		final Runtime runtime = Runtime.getRuntime();
+
+		// ThreadMXBean only knows about platform threads
+		System.out.println("platform threads: " + threads.getThreadCount() + " (peak " + threads.getPeakThreadCount() + "), heap used: "
+				+ (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024) + "MB");
+	}
+}
@@ -2,10 +2,14 @@ package de.uni_stuttgart.caas.test;
 
 import static org.junit.Assert.*;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -14,9 +18,11 @@ import org.junit.Test;
 
 import de.uni_stuttgart.caas.base.FullDuplexMPI;
 import de.uni_stuttgart.caas.base.FullDuplexMPI.IResponseHandler;
+import de.uni_stuttgart.caas.base.FullDuplexMPI.Transport;
 import de.uni_stuttgart.caas.messages.ConfirmationMessage;
 import de.uni_stuttgart.caas.messages.IMessage;
 import de.uni_stuttgart.caas.messages.IMessage.MessageType;
+import de.uni_stuttgart.caas.messages.IMessageCodec;
 
 public class FullDuplexMPITest {
 
@@ -55,6 +61,11 @@ public class FullDuplexMPITest {
 			public void onConnectionAborted() {
 				fail("onConnectionAborted() unexpected");
 			}
+
+			@Override
+			public void onTimeout() {
+				fail("onTimeout() unexpected");
+			}
 		});
 	}
 
@@ -67,6 +78,26 @@ public class FullDuplexMPITest {
 	 */
 	@Test
 	public void testBidirectionalCommunicationWithResponses() {
+		runBidirectionalCommunication(Transport.THREADS, false);
+	}
+
+	/** Same as testBidirectionalCommunicationWithResponses(), using NIO */
+	@Test
+	public void testBidirectionalCommunicationWithResponsesNio() {
+		runBidirectionalCommunication(Transport.NIO, false);
+	}
+
+	/**
+	 * Same as testBidirectionalCommunicationWithResponses(), letting both
+	 * parties detect that they live in the same JVM.
+	 */
+	@Test
+	public void testBidirectionalCommunicationWithResponsesLoopback() {
+		runBidirectionalCommunication(Transport.THREADS, true);
+	}
+
+	private void runBidirectionalCommunication(final Transport transport, final boolean allowLoopback) {
+		final Transport expectedTransport = allowLoopback ? Transport.LOOPBACK : transport;
 
 		// due to TIME_WAIT after closing a connection we cannot reuse a fixed
 		// port since this would cause multiple test runs in a row to fail.
@@ -80,14 +111,19 @@ public class FullDuplexMPITest {
 			return;
 		}
 
-		final Socket sock1 = new Socket();
+		final Socket sock1;
+		try {
+			sock1 = transport.newSocket();
+		} catch (IOException e2) {
+			fail("could not create socket");
+			return;
+		}
 
 		Thread adminThread = null;
 
 		// sock0 is "server", waiting for sock1 to connect
 		try {
-			final ServerSocket tempServer = new ServerSocket();
-			tempServer.bind(new InetSocketAddress("localhost", port0));
+			final ServerSocket tempServer = transport.newServerSocket(port0);
 
 			adminThread = new Thread(new Runnable() {
 
@@ -111,7 +147,12 @@ public class FullDuplexMPITest {
 
 					FullDuplexMPI party0 = null;
 					try {
-						party0 = new FullDuplexMPI(sock0, System.out, true) {
+						party0 = new FullDuplexMPI(sock0, System.out, FullDuplexMPI.DEFAULT_CODEC, transport, true) {
+
+							@Override
+							protected boolean isLoopbackAllowed() {
+								return allowLoopback;
+							}
 
 							@Override
 							public IMessage processIncomingMessage(IMessage message) {
@@ -120,6 +161,7 @@ public class FullDuplexMPITest {
 								return new ConfirmationMessage(--party1Counter, null);
 							}
 						};
+						assertEquals(expectedTransport, party0.getTransport());
 						sendRecursiveAsyncMessages(party0, true);
 					} catch (IOException e) {
 						fail("connection failed (0)");
@@ -151,7 +193,12 @@ public class FullDuplexMPITest {
 		try {
 			sock1.bind(new InetSocketAddress("localhost", port1));
 			sock1.connect(new InetSocketAddress("localhost", port0));
-			party1 = new FullDuplexMPI(sock1, System.out, true) {
+			party1 = new FullDuplexMPI(sock1, System.out, FullDuplexMPI.DEFAULT_CODEC, transport, true) {
+
+				@Override
+				protected boolean isLoopbackAllowed() {
+					return allowLoopback;
+				}
 
 				@Override
 				public IMessage processIncomingMessage(IMessage message) {
@@ -166,6 +213,7 @@ public class FullDuplexMPITest {
 		}
 
 		assert party1 != null;
+		assertEquals(expectedTransport, party1.getTransport());
 		sendRecursiveAsyncMessages(party1, false);
 
 		try {
@@ -192,4 +240,650 @@ public class FullDuplexMPITest {
 			fail("unexpected interruption (2)");
 		}
 	}
+
+	/**
+	 * Have the other party take longer to respond than the timeout given when
+	 * sending. The handler must receive onTimeout() exactly once, and the late
+	 * response must be dropped.
+	 */
+	@Test
+	public void testResponseTimeout() throws Exception {
+		final ServerSocket server = Transport.THREADS.newServerSocket(0);
+		final FullDuplexMPI[] slowParty = new FullDuplexMPI[1];
+		final CountDownLatch released = new CountDownLatch(1);
+
+		final Thread serverThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					slowParty[0] = new FullDuplexMPI(server.accept(), System.out, true) {
+						@Override
+						public IMessage processIncomingMessage(IMessage message) {
+							try {
+								released.await(5, TimeUnit.SECONDS);
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+							}
+							return new ConfirmationMessage(0, null);
+						}
+					};
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		serverThread.start();
+
+		final FullDuplexMPI party = new FullDuplexMPI(Transport.THREADS.connect(new InetSocketAddress("localhost", server.getLocalPort())),
+				System.out, true) {
+			@Override
+			public IMessage processIncomingMessage(IMessage message) {
+				return new ConfirmationMessage(0, null);
+			}
+		};
+		serverThread.join();
+		server.close();
+
+		final CountDownLatch timedOut = new CountDownLatch(1);
+		final int[] calls = new int[1];
+		party.sendMessageAsync(new ConfirmationMessage(1, null), new IResponseHandler() {
+
+			@Override
+			public void onResponseReceived(IMessage response) {
+				fail("onResponseReceived() unexpected");
+			}
+
+			@Override
+			public void onConnectionAborted() {
+				fail("onConnectionAborted() unexpected");
+			}
+
+			@Override
+			public void onTimeout() {
+				++calls[0];
+				timedOut.countDown();
+			}
+		}, 100, TimeUnit.MILLISECONDS);
+
+		assertTrue(timedOut.await(5, TimeUnit.SECONDS));
+		assertEquals(1, party.getTimeoutCount(MessageType.CONFIRM));
+		assertEquals(0, party.getTimeoutCount(MessageType.QUERY_MESSAGE));
+
+		// let the late response arrive, then make sure the connection is
+		// still usable
+		released.countDown();
+
+		final CountDownLatch answered = new CountDownLatch(1);
+		party.sendMessageAsync(new ConfirmationMessage(2, null), new IResponseHandler() {
+
+			@Override
+			public void onResponseReceived(IMessage response) {
+				answered.countDown();
+			}
+
+			@Override
+			public void onConnectionAborted() {
+			}
+
+			@Override
+			public void onTimeout() {
+				fail("onTimeout() unexpected");
+			}
+		}, 5, TimeUnit.SECONDS);
+
+		assertTrue(answered.await(5, TimeUnit.SECONDS));
+		assertEquals(1, calls[0]);
+
+		party.close();
+		slowParty[0].close();
+	}
+
+	/**
+	 * Have the other party hold back the responses to two messages and send
+	 * them later from another thread, in reverse order. Each response must
+	 * reach the handler of the message it belongs to.
+	 */
+	@Test
+	public void testDeferredResponse() throws Exception {
+		final ServerSocket server = Transport.THREADS.newServerSocket(0);
+		final FullDuplexMPI[] deferringParty = new FullDuplexMPI[1];
+		final List<FullDuplexMPI.Responder> responders = new ArrayList<>();
+		final List<Integer> codes = new ArrayList<>();
+
+		final Thread serverThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					deferringParty[0] = new FullDuplexMPI(server.accept(), System.out, true) {
+						@Override
+						public IMessage processIncomingMessage(IMessage message) {
+							fail("processIncomingMessage() unexpected");
+							return null;
+						}
+
+						@Override
+						protected void processIncomingMessage(IMessage message, Responder responder) {
+							synchronized (responders) {
+								responders.add(responder);
+								codes.add(((ConfirmationMessage) message).STATUS_CODE);
+								if (responders.size() < 2) {
+									return;
+								}
+							}
+
+							new Thread(new Runnable() {
+								@Override
+								public void run() {
+									for (int i = 1; i >= 0; --i) {
+										responders.get(i).respond(new ConfirmationMessage(codes.get(i) * 10, null));
+									}
+								}
+							}).start();
+						}
+					};
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		serverThread.start();
+
+		final FullDuplexMPI party = new FullDuplexMPI(Transport.THREADS.connect(new InetSocketAddress("localhost", server.getLocalPort())),
+				System.out, true) {
+			@Override
+			public IMessage processIncomingMessage(IMessage message) {
+				return new ConfirmationMessage(0, null);
+			}
+		};
+		serverThread.join();
+		server.close();
+
+		final CountDownLatch answered = new CountDownLatch(2);
+		final int[] received = new int[2];
+		for (int i = 0; i < 2; ++i) {
+			final int index = i;
+			party.sendMessageAsync(new ConfirmationMessage(i + 1, null), new IResponseHandler() {
+
+				@Override
+				public void onResponseReceived(IMessage response) {
+					received[index] = ((ConfirmationMessage) response).STATUS_CODE;
+					answered.countDown();
+				}
+
+				@Override
+				public void onConnectionAborted() {
+					fail("onConnectionAborted() unexpected");
+				}
+
+				@Override
+				public void onTimeout() {
+					fail("onTimeout() unexpected");
+				}
+			}, 5, TimeUnit.SECONDS);
+		}
+
+		assertTrue(answered.await(5, TimeUnit.SECONDS));
+		assertEquals(10, received[0]);
+		assertEquals(20, received[1]);
+
+		party.close();
+		deferringParty[0].close();
+	}
+
+	/**
+	 * Have the other party hold on to all messages it receives. Once the
+	 * receive window is used up, sending must fail (FAIL_FAST) or divert the
+	 * message (DIVERT) until responses return the credits.
+	 */
+	@Test
+	public void testCreditFlowControl() throws Exception {
+		final ServerSocket server = Transport.THREADS.newServerSocket(0);
+		final FullDuplexMPI[] slowParty = new FullDuplexMPI[1];
+		final CountDownLatch released = new CountDownLatch(1);
+
+		final Thread serverThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					slowParty[0] = new FullDuplexMPI(server.accept(), System.out, true) {
+						@Override
+						protected int getReceiveWindow() {
+							return MIN_RECEIVE_WINDOW;
+						}
+
+						@Override
+						protected Dispatch getDispatch(IMessage message) {
+							return Dispatch.CONCURRENT;
+						}
+
+						@Override
+						public IMessage processIncomingMessage(IMessage message) {
+							try {
+								released.await(5, TimeUnit.SECONDS);
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+							}
+							return new ConfirmationMessage(0, null);
+						}
+					};
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		serverThread.start();
+
+		final IMessage[] diverted = new IMessage[1];
+		final FullDuplexMPI party = new FullDuplexMPI(Transport.THREADS.connect(new InetSocketAddress("localhost", server.getLocalPort())),
+				System.out, true) {
+			@Override
+			public IMessage processIncomingMessage(IMessage message) {
+				return new ConfirmationMessage(0, null);
+			}
+
+			@Override
+			protected void onNoCredit(IMessage message, IResponseHandler futureResponse) {
+				diverted[0] = message;
+			}
+		};
+		serverThread.join();
+		server.close();
+
+		party.setCreditPolicy(FullDuplexMPI.CreditPolicy.FAIL_FAST);
+		final CountDownLatch answered = new CountDownLatch(FullDuplexMPI.MIN_RECEIVE_WINDOW);
+		final IResponseHandler handler = new IResponseHandler() {
+
+			@Override
+			public void onResponseReceived(IMessage response) {
+				answered.countDown();
+			}
+
+			@Override
+			public void onConnectionAborted() {
+			}
+
+			@Override
+			public void onTimeout() {
+			}
+		};
+
+		for (int i = 0; i < FullDuplexMPI.MIN_RECEIVE_WINDOW; ++i) {
+			assertTrue(party.sendMessageAsync(new ConfirmationMessage(i, null), handler));
+		}
+		assertEquals(0, party.getAvailableCredits());
+		assertFalse(party.sendMessageAsync(new ConfirmationMessage(-1, null), handler));
+		assertEquals(1, party.getNoCreditCount());
+
+		party.setCreditPolicy(FullDuplexMPI.CreditPolicy.DIVERT);
+		final ConfirmationMessage extra = new ConfirmationMessage(-2, null);
+		assertFalse(party.sendMessageAsync(extra, handler));
+		assertSame(extra, diverted[0]);
+		assertEquals(2, party.getNoCreditCount());
+
+		// responses bring the credits back
+		released.countDown();
+		assertTrue(answered.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 100 && party.getAvailableCredits() < FullDuplexMPI.MIN_RECEIVE_WINDOW; ++i) {
+			Thread.sleep(10);
+		}
+		assertEquals(FullDuplexMPI.MIN_RECEIVE_WINDOW, party.getAvailableCredits());
+		assertTrue(party.sendMessageAsync(new ConfirmationMessage(0, null)));
+
+		party.close();
+		slowParty[0].close();
+	}
+
+	/**
+	 * Stall the NORMAL lane of the other party until the send credits are
+	 * used up. A HIGH lane message must still get through and be handled
+	 * before the stalled ones.
+	 */
+	@Test
+	public void testHighLaneOvertakesStalledLane() throws Exception {
+		final ServerSocket server = Transport.THREADS.newServerSocket(0);
+		final FullDuplexMPI[] slowParty = new FullDuplexMPI[1];
+		final CountDownLatch released = new CountDownLatch(1);
+		final CountDownLatch controlHandled = new CountDownLatch(1);
+
+		final Thread serverThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					slowParty[0] = new FullDuplexMPI(server.accept(), System.out, true) {
+						@Override
+						protected int getReceiveWindow() {
+							return MIN_RECEIVE_WINDOW;
+						}
+
+						@Override
+						protected Lane getLane(IMessage message) {
+							return ((ConfirmationMessage) message).STATUS_CODE < 0 ? Lane.HIGH : Lane.NORMAL;
+						}
+
+						@Override
+						protected Dispatch getDispatch(IMessage message) {
+							return Dispatch.ORDERED;
+						}
+
+						@Override
+						public IMessage processIncomingMessage(IMessage message) {
+							if (getLane(message) == Lane.HIGH) {
+								controlHandled.countDown();
+							} else {
+								try {
+									released.await(5, TimeUnit.SECONDS);
+								} catch (InterruptedException e) {
+									Thread.currentThread().interrupt();
+								}
+							}
+							return new ConfirmationMessage(0, null);
+						}
+					};
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		serverThread.start();
+
+		final FullDuplexMPI party = new FullDuplexMPI(Transport.THREADS.connect(new InetSocketAddress("localhost", server.getLocalPort())),
+				System.out, true) {
+			@Override
+			protected Lane getLane(IMessage message) {
+				return ((ConfirmationMessage) message).STATUS_CODE < 0 ? Lane.HIGH : Lane.NORMAL;
+			}
+
+			@Override
+			public IMessage processIncomingMessage(IMessage message) {
+				return new ConfirmationMessage(0, null);
+			}
+		};
+		serverThread.join();
+		server.close();
+
+		party.setCreditPolicy(FullDuplexMPI.CreditPolicy.FAIL_FAST);
+		for (int i = 0; i < FullDuplexMPI.MIN_RECEIVE_WINDOW; ++i) {
+			assertTrue(party.sendMessageAsync(new ConfirmationMessage(i, null)));
+		}
+		assertEquals(0, party.getAvailableCredits());
+
+		assertTrue(party.sendMessageAsync(new ConfirmationMessage(-1, null)));
+		assertTrue(controlHandled.await(5, TimeUnit.SECONDS));
+		released.countDown();
+
+		party.close();
+		slowParty[0].close();
+	}
+
+	/**
+	 * Codec that claims to be the default codec, but appends a stray byte to
+	 * every message
+	 */
+	private static final IMessageCodec PADDING_CODEC = new IMessageCodec() {
+
+		@Override
+		public int getCodecId() {
+			return FullDuplexMPI.DEFAULT_CODEC.getCodecId();
+		}
+
+		@Override
+		public int getVersion() {
+			return FullDuplexMPI.DEFAULT_CODEC.getVersion();
+		}
+
+		@Override
+		public void encode(IMessage message, DataOutput out) throws IOException {
+			FullDuplexMPI.DEFAULT_CODEC.encode(message, out);
+			out.writeByte(0);
+		}
+
+		@Override
+		public IMessage decode(DataInput in) throws IOException {
+			return FullDuplexMPI.DEFAULT_CODEC.decode(in);
+		}
+	};
+
+	@Test
+	public void testFrameNotConsumedByCodec() throws Exception {
+		checkFrameNotConsumedByCodec(Transport.THREADS);
+	}
+
+	@Test
+	public void testFrameNotConsumedByCodecNio() throws Exception {
+		checkFrameNotConsumedByCodec(Transport.NIO);
+	}
+
+	/**
+	 * Send a message the receiving codec does not consume all bytes of (over
+	 * the network, a loopback connection does not frame it). The receiver
+	 * must not handle it, but give up on the connection, which aborts the
+	 * sender's pending response.
+	 */
+	private void checkFrameNotConsumedByCodec(final Transport transport) throws Exception {
+		final ServerSocket server = transport.newServerSocket(0);
+		final FullDuplexMPI[] receiver = new FullDuplexMPI[1];
+		final int[] handled = new int[1];
+
+		final Thread serverThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					receiver[0] = new FullDuplexMPI(server.accept(), System.out, FullDuplexMPI.DEFAULT_CODEC, transport, true) {
+						@Override
+						protected boolean isLoopbackAllowed() {
+							return false;
+						}
+
+						@Override
+						public IMessage processIncomingMessage(IMessage message) {
+							++handled[0];
+							return new ConfirmationMessage(0, null);
+						}
+					};
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		serverThread.start();
+
+		final FullDuplexMPI party = new FullDuplexMPI(transport.connect(new InetSocketAddress("localhost", server.getLocalPort())),
+				System.out, PADDING_CODEC, transport, true) {
+			@Override
+			protected boolean isLoopbackAllowed() {
+				return false;
+			}
+
+			@Override
+			public IMessage processIncomingMessage(IMessage message) {
+				return new ConfirmationMessage(0, null);
+			}
+		};
+		serverThread.join();
+		server.close();
+
+		final CountDownLatch aborted = new CountDownLatch(1);
+		party.sendMessageAsync(new ConfirmationMessage(1, null), new IResponseHandler() {
+
+			@Override
+			public void onResponseReceived(IMessage response) {
+				fail("onResponseReceived() unexpected");
+			}
+
+			@Override
+			public void onConnectionAborted() {
+				aborted.countDown();
+			}
+
+			@Override
+			public void onTimeout() {
+				fail("onTimeout() unexpected");
+			}
+		}, 5, TimeUnit.SECONDS);
+
+		assertTrue(aborted.await(5, TimeUnit.SECONDS));
+		assertTrue(receiver[0].isErrorState());
+		assertEquals(0, handled[0]);
+
+		party.close();
+		receiver[0].close();
+	}
+
+	/**
+	 * Queue a burst of messages on a connection that lingers before writing.
+	 * They must be written in batches, and arrive and be answered in the
+	 * order they were sent.
+	 */
+	@Test
+	public void testWriteLingerBatchesBurst() throws Exception {
+		final int count = 100;
+		final List<Integer> received = new ArrayList<>();
+		final FullDuplexMPI[] echoParty = new FullDuplexMPI[1];
+		final FullDuplexMPI party = connectToEchoParty(echoParty, received);
+		party.setWriteLingerMicros(50000);
+
+		final List<Integer> responses = new ArrayList<>();
+		final CountDownLatch answered = new CountDownLatch(count);
+		final IResponseHandler handler = new IResponseHandler() {
+
+			@Override
+			public void onResponseReceived(IMessage response) {
+				synchronized (responses) {
+					responses.add(((ConfirmationMessage) response).STATUS_CODE);
+				}
+				answered.countDown();
+			}
+
+			@Override
+			public void onConnectionAborted() {
+				fail("onConnectionAborted() unexpected");
+			}
+
+			@Override
+			public void onTimeout() {
+				fail("onTimeout() unexpected");
+			}
+		};
+
+		for (int i = 0; i < count; ++i) {
+			assertTrue(party.sendMessageAsync(new ConfirmationMessage(i, null), handler));
+		}
+		assertTrue(answered.await(5, TimeUnit.SECONDS));
+
+		final List<Integer> expected = new ArrayList<>();
+		for (int i = 0; i < count; ++i) {
+			expected.add(i);
+		}
+		synchronized (received) {
+			assertEquals(expected, received);
+		}
+		synchronized (responses) {
+			assertEquals(expected, responses);
+		}
+		// the writer counts a batch after writing it
+		for (int i = 0; i < 100 && party.getWrittenMessageCount() < count; ++i) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, party.getWrittenMessageCount());
+		assertTrue(party.getAverageWriteBatchSize() > 1);
+
+		party.close();
+		echoParty[0].close();
+	}
+
+	/**
+	 * Without lingering, a single message must be written on its own and
+	 * right away.
+	 */
+	@Test
+	public void testNoWriteLingerSingleMessage() throws Exception {
+		final List<Integer> received = new ArrayList<>();
+		final FullDuplexMPI[] echoParty = new FullDuplexMPI[1];
+		final FullDuplexMPI party = connectToEchoParty(echoParty, received);
+		party.setWriteLingerMicros(0);
+
+		final CountDownLatch answered = new CountDownLatch(1);
+		final long start = System.nanoTime();
+		assertTrue(party.sendMessageAsync(new ConfirmationMessage(7, null), new IResponseHandler() {
+
+			@Override
+			public void onResponseReceived(IMessage response) {
+				answered.countDown();
+			}
+
+			@Override
+			public void onConnectionAborted() {
+				fail("onConnectionAborted() unexpected");
+			}
+
+			@Override
+			public void onTimeout() {
+				fail("onTimeout() unexpected");
+			}
+		}));
+		assertTrue(answered.await(5, TimeUnit.SECONDS));
+
+		// far below the linger time of testWriteLingerBatchesBurst()
+		assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(50));
+		for (int i = 0; i < 100 && party.getWriteBatchCount() < 1; ++i) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, party.getWriteBatchCount());
+		assertEquals(1, party.getWrittenMessageCount());
+
+		party.close();
+		echoParty[0].close();
+	}
+
+	/**
+	 * Connect to a party that records the status codes of the messages it
+	 * receives and answers each with the same code. Both use the THREADS
+	 * transport without loopback, so messages go through the writer.
+	 */
+	private FullDuplexMPI connectToEchoParty(final FullDuplexMPI[] echoParty, final List<Integer> received) throws Exception {
+		final ServerSocket server = Transport.THREADS.newServerSocket(0);
+
+		final Thread serverThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					echoParty[0] = new FullDuplexMPI(server.accept(), System.out, FullDuplexMPI.DEFAULT_CODEC, Transport.THREADS, true) {
+						@Override
+						protected boolean isLoopbackAllowed() {
+							return false;
+						}
+
+						@Override
+						public IMessage processIncomingMessage(IMessage message) {
+							final int code = ((ConfirmationMessage) message).STATUS_CODE;
+							synchronized (received) {
+								received.add(code);
+							}
+							return new ConfirmationMessage(code, null);
+						}
+					};
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+		serverThread.start();
+
+		final FullDuplexMPI party = new FullDuplexMPI(Transport.THREADS.connect(new InetSocketAddress("localhost", server.getLocalPort())),
+				System.out, FullDuplexMPI.DEFAULT_CODEC, Transport.THREADS, true) {
+			@Override
+			protected boolean isLoopbackAllowed() {
+				return false;
+			}
+
+			@Override
+			public IMessage processIncomingMessage(IMessage message) {
+				return new ConfirmationMessage(0, null);
+			}
+		};
+		serverThread.join();
+		server.close();
+		assertEquals(Transport.THREADS, party.getTransport());
+		return party;
+	}
 }
@@ -0,0 +1,80 @@
+package de.uni_stuttgart.caas.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.uni_stuttgart.caas.cache.LoadBalancing;
+import de.uni_stuttgart.caas.cache.LoadGossip;
+
+public class LoadBalancingTest {
+
+	@Test
+	public void testGossipRateLimit() {
+		final LoadGossip gossip = new LoadGossip(100, 0.1, 2000);
+		assertTrue(gossip.shouldSend(0.5, 1000));
+
+		// not again within the interval, however much the load changed
+		assertFalse(gossip.shouldSend(2.0, 1050));
+		assertFalse(gossip.shouldSend(2.0, 1099));
+		assertTrue(gossip.shouldSend(2.0, 1100));
+	}
+
+	@Test
+	public void testGossipDelta() {
+		final LoadGossip gossip = new LoadGossip(100, 0.1, 2000);
+		assertTrue(gossip.shouldSend(0.5, 1000));
+
+		// small changes are not sent until the refresh is due
+		assertFalse(gossip.shouldSend(0.55, 1200));
+		assertFalse(gossip.shouldSend(0.45, 2999));
+		assertTrue(gossip.shouldSend(0.45, 3000));
+
+		// the change is taken relative to the load sent last
+		assertFalse(gossip.shouldSend(0.54, 3200));
+		assertTrue(gossip.shouldSend(0.56, 3300));
+		assertTrue(gossip.shouldSend(0.3, 3400));
+	}
+
+	@Test
+	public void testTwoChoices() {
+		final Random random = new Random(42);
+		assertEquals(0, LoadBalancing.pickLessLoadedOfTwo(new double[] { 3 }, random));
+		for (int i = 0; i < 100; ++i) {
+			assertEquals(1, LoadBalancing.pickLessLoadedOfTwo(new double[] { 0.9, 0.2 }, random));
+		}
+
+		// the least loaded node wins whenever it is one of the two, i.e. half
+		// of the time for four nodes, the most loaded one never
+		final double[] loads = { 0.1, 0.5, 0.5, 0.9 };
+		final int[] picked = new int[loads.length];
+		for (int i = 0; i < 10000; ++i) {
+			++picked[LoadBalancing.pickLessLoadedOfTwo(loads, random)];
+		}
+		assertEquals(5000, picked[0], 300);
+		assertEquals(0, picked[3]);
+		assertEquals(picked[1], picked[2], 300);
+	}
+
+	@Test
+	public void testPickByLoad() {
+		final Random random = new Random(42);
+		final double inf = Double.POSITIVE_INFINITY;
+		assertEquals(-1, LoadBalancing.pickByLoad(new double[] { inf, inf }, random));
+		for (int i = 0; i < 100; ++i) {
+			assertEquals(1, LoadBalancing.pickByLoad(new double[] { inf, 5, inf }, random));
+		}
+
+		// weights 1, 1/2 and 1/4
+		final double[] loads = { 0, 1, 3 };
+		final int[] picked = new int[loads.length];
+		for (int i = 0; i < 7000; ++i) {
+			++picked[LoadBalancing.pickByLoad(loads, random)];
+		}
+		assertEquals(4000, picked[0], 200);
+		assertEquals(2000, picked[1], 200);
+		assertEquals(1000, picked[2], 200);
+	}
+}
@@ -0,0 +1,85 @@
+package de.uni_stuttgart.caas.test;
+
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.uni_stuttgart.caas.base.LocationOfNode;
+import de.uni_stuttgart.caas.base.NodeInfo;
+import de.uni_stuttgart.caas.cache.LongRangeLinks;
+import de.uni_stuttgart.caas.cache.RoutingTable;
+
+public class LongRangeLinksTest {
+
+	private static final LocationOfNode SELF = new LocationOfNode(1000, 1000);
+
+	private static NodeInfo node(int id, int x, int y) {
+		final InetSocketAddress address = new InetSocketAddress("127.0.0.1", 10000 + id);
+		return new NodeInfo(address, new LocationOfNode(x, y), address, address, id);
+	}
+
+	@Test
+	public void testDistinct() {
+		final List<NodeInfo> nodes = new ArrayList<>();
+		nodes.add(node(0, SELF.x, SELF.y));
+		for (int i = 1; i < 20; ++i) {
+			nodes.add(node(i, SELF.x + 10 * i, SELF.y - 7 * i));
+		}
+
+		final Random random = new Random(42);
+		for (int round = 0; round < 100; ++round) {
+			final List<NodeInfo> chosen = LongRangeLinks.choose(SELF, nodes, 5, random);
+			assertEquals(5, chosen.size());
+			assertEquals(5, new HashSet<>(chosen).size());
+			assertFalse(chosen.contains(nodes.get(0)));
+		}
+
+		// not enough nodes, the one at the node's own location never counts
+		assertEquals(19, LongRangeLinks.choose(SELF, nodes, 25, random).size());
+		assertTrue(LongRangeLinks.choose(SELF, nodes, 0, random).isEmpty());
+		assertTrue(LongRangeLinks.choose(SELF, Collections.<NodeInfo> emptyList(), 3, random).isEmpty());
+	}
+
+	@Test
+	public void testDistribution() {
+		// twice the distance, a quarter of the probability
+		final NodeInfo near = node(1, SELF.x + 100, SELF.y);
+		final NodeInfo far = node(2, SELF.x, SELF.y - 200);
+		final List<NodeInfo> nodes = new ArrayList<>();
+		nodes.add(near);
+		nodes.add(far);
+
+		final Random random = new Random(7);
+		final int rounds = 20000;
+		int nearCount = 0;
+		for (int round = 0; round < rounds; ++round) {
+			if (LongRangeLinks.choose(SELF, nodes, 1, random).get(0) == near) {
+				++nearCount;
+			}
+		}
+		assertEquals(0.8, (double) nearCount / rounds, 0.02);
+	}
+
+	@Test
+	public void testRoutingAlongLinks() {
+		final HashMap<NodeInfo, String> neighbors = new HashMap<>();
+		neighbors.put(node(1, SELF.x + 100, SELF.y), "neighbor");
+		final HashMap<NodeInfo, String> links = new HashMap<>();
+		links.put(node(2, SELF.x + 10000, SELF.y), "link");
+		links.put(node(3, SELF.x - 10000, SELF.y), null);
+
+		final RoutingTable<String> table = new RoutingTable<>(SELF, neighbors, links);
+		assertEquals(2, table.size());
+		assertEquals("neighbor", table.getTarget(table.nextHop(new LocationOfNode(SELF.x + 200, SELF.y))));
+		assertEquals("link", table.getTarget(table.nextHop(new LocationOfNode(SELF.x + 9000, SELF.y))));
+		assertEquals(-1, table.nextHop(new LocationOfNode(SELF.x - 9000, SELF.y)));
+	}
+}
@@ -0,0 +1,162 @@
+package de.uni_stuttgart.caas.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+
+import de.uni_stuttgart.caas.base.LocationOfNode;
+import de.uni_stuttgart.caas.messages.BinaryCodec;
+import de.uni_stuttgart.caas.messages.ConfirmationMessage;
+import de.uni_stuttgart.caas.messages.IMessage;
+import de.uni_stuttgart.caas.messages.IMessageCodec;
+import de.uni_stuttgart.caas.messages.LoadMessage;
+import de.uni_stuttgart.caas.messages.QueryMessage;
+import de.uni_stuttgart.caas.messages.SerializationCodec;
+
+/**
+ * Side-by-side comparison of the wire formats available to FullDuplexMPI:
+ *
+ * - "stream": one long-lived ObjectOutputStream per connection, writing
+ * envelope objects. This is how FullDuplexMPI worked before codecs were
+ * introduced.
+ *
+ * - SerializationCodec and BinaryCodec as used by FullDuplexMPI now, including
+ * the frame header (length + uid).
+ *
+ * For each message type, the number of bytes per message and the number of
+ * messages encoded and decoded per second are printed. Run as a plain Java
+ * application.
+ */
+public class MessageCodecBenchmark {
+
+	private static final int WARMUP_ROUNDS = 3;
+	private static final int MESSAGES_PER_ROUND = 200000;
+
+	private static class Envelope implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		public Envelope(IMessage _message, int _uid) {
+			message = _message;
+			uid = _uid;
+		}
+
+		public final IMessage message;
+		public final int uid;
+	}
+
+	private interface MessageFactory {
+		IMessage create(int i);
+	}
+
+	public static void main(String[] args) throws IOException, ClassNotFoundException {
+		final InetSocketAddress entry = new InetSocketAddress("127.0.0.1", 5007);
+
+		run("QueryMessage", new MessageFactory() {
+			@Override
+			public IMessage create(int i) {
+				final QueryMessage m = new QueryMessage(new LocationOfNode(i * 31, i * 17), "127.0.0.1", 40000, entry, i);
+				m.appendToDebuggingInfo("12-7-");
+				return m;
+			}
+		});
+
+		run("LoadMessage", new MessageFactory() {
+			@Override
+			public IMessage create(int i) {
+				return new LoadMessage(i * 0.01);
+			}
+		});
+
+		run("ConfirmationMessage", new MessageFactory() {
+			@Override
+			public IMessage create(int i) {
+				return new ConfirmationMessage(1, "message processed");
+			}
+		});
+	}
+
+	private static void run(String name, MessageFactory factory) throws IOException, ClassNotFoundException {
+		final IMessage[] messages = new IMessage[MESSAGES_PER_ROUND];
+		for (int i = 0; i < messages.length; ++i) {
+			messages[i] = factory.create(i);
+		}
+
+		System.out.println(name + ":");
+		for (int round = 0; round <= WARMUP_ROUNDS; ++round) {
+			final boolean report = round == WARMUP_ROUNDS;
+			benchmarkStream(messages, report);
+			benchmarkCodec("SerializationCodec", SerializationCodec.INSTANCE, messages, report);
+			benchmarkCodec("BinaryCodec", BinaryCodec.INSTANCE, messages, report);
+		}
+		System.out.println();
+	}
+
+	private static void benchmarkStream(IMessage[] messages, boolean report) throws IOException, ClassNotFoundException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		final long start = System.nanoTime();
+		final ObjectOutputStream out = new ObjectOutputStream(bytes);
+		for (int i = 0; i < messages.length; ++i) {
+			out.writeObject(new Envelope(messages[i], i));
+		}
+		out.flush();
+
+		final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		for (int i = 0; i < messages.length; ++i) {
+			if (((Envelope) in.readObject()).uid != i) {
+				throw new IllegalStateException();
+			}
+		}
+		final long end = System.nanoTime();
+
+		if (report) {
+			print("stream", bytes.size(), messages.length, end - start);
+		}
+	}
+
+	private static void benchmarkCodec(String name, IMessageCodec codec, IMessage[] messages, boolean report) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+
+		// same framing as FullDuplexMPI
+		final ByteArrayOutputStream frameBuffer = new ByteArrayOutputStream(256);
+		final DataOutputStream frameOut = new DataOutputStream(frameBuffer);
+
+		final long start = System.nanoTime();
+		for (int i = 0; i < messages.length; ++i) {
+			frameBuffer.reset();
+			frameOut.writeInt(i);
+			codec.encode(messages[i], frameOut);
+
+			out.writeInt(frameBuffer.size());
+			frameBuffer.writeTo(out);
+		}
+		out.flush();
+
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		for (int i = 0; i < messages.length; ++i) {
+			in.readInt();
+			if (in.readInt() != i) {
+				throw new IllegalStateException();
+			}
+			codec.decode(in);
+		}
+		final long end = System.nanoTime();
+
+		if (report) {
+			print(name, bytes.size(), messages.length, end - start);
+		}
+	}
+
+	private static void print(String name, long totalBytes, int count, long nanos) {
+		final double bytesPerMessage = (double) totalBytes / count;
+		final double messagesPerSecond = count / (nanos / 1e9);
+		System.out.println(String.format("  %-20s %8.1f bytes/msg %12.0f msgs/s (encode + decode)", name, bytesPerMessage, messagesPerSecond));
+	}
+}
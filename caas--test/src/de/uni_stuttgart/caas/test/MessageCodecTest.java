@@ -0,0 +1,344 @@
+package de.uni_stuttgart.caas.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.uni_stuttgart.caas.base.Aggregate;
+import de.uni_stuttgart.caas.base.LocationOfNode;
+import de.uni_stuttgart.caas.base.NodeInfo;
+import de.uni_stuttgart.caas.base.OwnershipTable;
+import de.uni_stuttgart.caas.base.SpatialObject;
+import de.uni_stuttgart.caas.messages.ActivateNodeMessage;
+import de.uni_stuttgart.caas.messages.AddToGridMessage;
+import de.uni_stuttgart.caas.messages.AggregateQueryMessage;
+import de.uni_stuttgart.caas.messages.BinaryCodec;
+import de.uni_stuttgart.caas.messages.CellHandoverMessage;
+import de.uni_stuttgart.caas.messages.ConfirmationMessage;
+import de.uni_stuttgart.caas.messages.IMessage;
+import de.uni_stuttgart.caas.messages.IMessageCodec;
+import de.uni_stuttgart.caas.messages.JoinMessage;
+import de.uni_stuttgart.caas.messages.KnnQueryMessage;
+import de.uni_stuttgart.caas.messages.LoadMessage;
+import de.uni_stuttgart.caas.messages.OwnershipTableMessage;
+import de.uni_stuttgart.caas.messages.PublishIdMessage;
+import de.uni_stuttgart.caas.messages.QueryMessage;
+import de.uni_stuttgart.caas.messages.QueryResult;
+import de.uni_stuttgart.caas.messages.RangeQueryMessage;
+import de.uni_stuttgart.caas.messages.ReplicaMessage;
+import de.uni_stuttgart.caas.messages.SubdivisionCommitMessage;
+import de.uni_stuttgart.caas.messages.SubdivisionConfirmMessage;
+import de.uni_stuttgart.caas.messages.SubdivisionRequestMessage;
+import de.uni_stuttgart.caas.messages.WeightMessage;
+
+public class MessageCodecTest {
+
+	private final IMessageCodec codec = BinaryCodec.INSTANCE;
+
+	private IMessage roundTrip(IMessage message) {
+		try {
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			codec.encode(message, new DataOutputStream(bytes));
+
+			final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+			final IMessage result = codec.decode(in);
+
+			// all bytes must have been consumed
+			assertEquals(0, in.available());
+			assertEquals(message.getMessageType(), result.getMessageType());
+			return result;
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail("unexpected IOException");
+			return null;
+		}
+	}
+
+	@Test
+	public void testConfirmationMessage() {
+		ConfirmationMessage m = (ConfirmationMessage) roundTrip(new ConfirmationMessage(-5, "failure"));
+		assertEquals(-5, m.STATUS_CODE);
+		assertEquals("failure", m.MESSAGE);
+
+		m = (ConfirmationMessage) roundTrip(new ConfirmationMessage(0, null));
+		assertEquals(0, m.STATUS_CODE);
+		assertNull(m.MESSAGE);
+	}
+
+	/**
+	 * Encode a message, let `corruption` overwrite an int at an offset
+	 * from the end, and expect decoding to fail with an IOException.
+	 */
+	private void assertMalformed(IMessage message, int fromEnd, int corruption) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		codec.encode(message, new DataOutputStream(bytes));
+		final byte[] encoded = bytes.toByteArray();
+		final int offset = encoded.length - fromEnd;
+		encoded[offset] = (byte) (corruption >>> 24);
+		encoded[offset + 1] = (byte) (corruption >>> 16);
+		encoded[offset + 2] = (byte) (corruption >>> 8);
+		encoded[offset + 3] = (byte) corruption;
+		try {
+			codec.decode(new DataInputStream(new ByteArrayInputStream(encoded)));
+			fail("malformed message decoded");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testMalformedCounts() throws IOException {
+		// the object count of a result is followed by a flag for the aggregate
+		final QueryResult empty = new QueryResult("5-", 9);
+		assertMalformed(empty, 5, -1);
+		assertMalformed(empty, 5, Integer.MAX_VALUE);
+		assertMalformed(empty, 5, BinaryCodec.MAX_ELEMENTS + 1);
+
+		// payload length of the only object
+		final List<SpatialObject> objects = Arrays.asList(new SpatialObject(new LocationOfNode(1, 2), new byte[] { 1, 2, 3 }));
+		final QueryResult result = new QueryResult("5-", 9, true, objects);
+		assertMalformed(result, 1 + 3 + 4, -7);
+		assertMalformed(result, 1 + 3 + 4, Integer.MAX_VALUE);
+
+		// visited nodes of a subquery, -1 stands for none, followed by the
+		// timeout
+		final RangeQueryMessage range = new RangeQueryMessage(new LocationOfNode(5, 6), 1e6, 20, "10.0.0.1", 4711, new InetSocketAddress(
+				"127.0.0.1", 5007), 77);
+		assertMalformed(range, 8 + 4, -2);
+		assertMalformed(range, 8 + 4, Integer.MAX_VALUE);
+	}
+
+	@Test
+	public void testQueryMessage() {
+		final QueryMessage original = new QueryMessage(new LocationOfNode(17, 42), "10.0.0.1", 4711, new InetSocketAddress("127.0.0.1", 5007), 1234);
+		original.appendToDebuggingInfo("1-2-");
+		original.stopPropagationOfTheMessage();
+
+		final QueryMessage m = (QueryMessage) roundTrip(original);
+		assertEquals(original.QUERY_LOCATION, m.QUERY_LOCATION);
+		assertEquals("10.0.0.1", m.CLIENT_IP);
+		assertEquals(4711, m.CLIENT_PORT);
+		assertEquals(original.ENTRY_LOCATION, m.ENTRY_LOCATION);
+		assertEquals(1234, m.ID);
+		assertEquals("1-2-", m.getDebuggingInfo());
+		assertFalse(m.isPropagtionThroughNetworkAllowed());
+	}
+
+	@Test
+	public void testVisitedNodeCount() {
+		final QueryMessage m = new QueryMessage(new LocationOfNode(17, 42), "10.0.0.1", 4711, 1234);
+		assertEquals(0, m.getVisitedNodeCount());
+		m.appendToDebuggingInfo("-7-");
+		assertEquals(1, m.getVisitedNodeCount());
+		m.appendToDebuggingInfo("3-");
+		m.appendToDebuggingInfo("-9223372036854775808-");
+		assertEquals(3, m.getVisitedNodeCount());
+		assertEquals(3, ((QueryMessage) roundTrip(m)).getVisitedNodeCount());
+	}
+
+	@Test
+	public void testQueryResult() {
+		final QueryResult m = (QueryResult) roundTrip(new QueryResult("3-4-", 99));
+		assertEquals("3-4-", m.getDebuggingInfo());
+		assertEquals(99, m.ID);
+	}
+
+	@Test
+	public void testQueryResultWithObjects() {
+		final List<SpatialObject> objects = Arrays.asList(new SpatialObject(new LocationOfNode(1, 2), new byte[] { 1, 2, 3 }), new SpatialObject(
+				new LocationOfNode(3, 4), new byte[0]));
+		final QueryResult m = (QueryResult) roundTrip(new QueryResult("5-", 7, true, objects));
+		assertTrue(m.isCacheHit());
+		assertEquals(2, m.getObjects().size());
+		assertEquals(new LocationOfNode(1, 2), m.getObjects().get(0).LOCATION);
+		assertArrayEquals(new byte[] { 1, 2, 3 }, m.getObjects().get(0).PAYLOAD);
+		assertEquals(0, m.getObjects().get(1).PAYLOAD.length);
+	}
+
+	@Test
+	public void testRegionQueries() {
+		final RangeQueryMessage range = new RangeQueryMessage(new LocationOfNode(5, 6), 1e6, 20, "10.0.0.1", 4711, new InetSocketAddress(
+				"127.0.0.1", 5007), 12);
+		range.appendToDebuggingInfo("1-");
+		final RangeQueryMessage r = (RangeQueryMessage) roundTrip(range.subquery(5e5, new long[] { 1, 3 }, 900));
+		assertEquals(new LocationOfNode(5, 6), r.QUERY_LOCATION);
+		assertEquals(5e5, r.RADIUS, 0.0);
+		assertEquals(20, r.LIMIT);
+		assertEquals(12, r.ID);
+		assertEquals("1-", r.getDebuggingInfo());
+		assertTrue(r.isSubquery());
+		assertTrue(r.wasSentTo(3));
+		assertFalse(r.wasSentTo(2));
+		assertEquals(900, r.getTimeoutMillis());
+		assertFalse(r.isPropagtionThroughNetworkAllowed());
+
+		final KnnQueryMessage knn = (KnnQueryMessage) roundTrip(new KnnQueryMessage(new LocationOfNode(7, 8), 10, "10.0.0.1", 4711, 13));
+		assertEquals(10, knn.K);
+		assertEquals(Double.POSITIVE_INFINITY, knn.MAX_DISTANCE, 0.0);
+		assertEquals(KnnQueryMessage.Search.BROADCAST, knn.SEARCH);
+		assertFalse(knn.isSubquery());
+		assertEquals(0, knn.getVisited().length);
+		assertTrue(knn.isPropagtionThroughNetworkAllowed());
+
+		final KnnQueryMessage sub = (KnnQueryMessage) roundTrip(knn.subquery(2.5, new long[0], 100));
+		assertEquals(2.5, sub.MAX_DISTANCE, 0.0);
+		assertTrue(sub.isSubquery());
+
+		final KnnQueryMessage ring = new KnnQueryMessage(new LocationOfNode(7, 8), 3, KnnQueryMessage.Search.EXPANDING_RING, "10.0.0.1", 4711,
+				null, 14);
+		assertEquals(KnnQueryMessage.Search.EXPANDING_RING, ((KnnQueryMessage) roundTrip(ring)).SEARCH);
+		assertEquals(KnnQueryMessage.Search.EXPANDING_RING, ((KnnQueryMessage) roundTrip(ring.subquery(1.0, new long[] { 4 }, 100))).SEARCH);
+
+		final AggregateQueryMessage aggregate = (AggregateQueryMessage) roundTrip(new AggregateQueryMessage(new LocationOfNode(9, 10), 3e6,
+				"10.0.0.1", 4711, 15).subquery(2e6, new long[] { 5 }, 300));
+		assertEquals(2e6, aggregate.RADIUS, 0.0);
+		assertTrue(aggregate.wasSentTo(5));
+		assertEquals(0, aggregate.getLimit());
+	}
+
+	@Test
+	public void testAggregateResult() {
+		final Aggregate a = new Aggregate();
+		a.add(new SpatialObject(new LocationOfNode(1, 2), new byte[0]));
+		a.add(new SpatialObject(new LocationOfNode(3, 4), new byte[5]));
+		a.add(new SpatialObject(new LocationOfNode(5, 6), new byte[7]));
+
+		final QueryResult m = (QueryResult) roundTrip(new QueryResult("5-", 8, true, a));
+		assertEquals(3, m.getAggregate().getCount());
+		assertEquals(12, m.getAggregate().getPayloadBytes());
+		assertEquals(1, m.getAggregate().getHistogram()[Aggregate.binOf(0)]);
+		assertEquals(2, m.getAggregate().getHistogram()[Aggregate.binOf(4)]);
+		assertTrue(m.getObjects().isEmpty());
+
+		assertNull(((QueryResult) roundTrip(new QueryResult("5-", 9))).getAggregate());
+	}
+
+	@Test
+	public void testSmallMessages() {
+		roundTrip(new ActivateNodeMessage());
+		assertEquals(77, ((PublishIdMessage) roundTrip(new PublishIdMessage(77))).ID);
+		assertEquals(1.5, ((LoadMessage) roundTrip(new LoadMessage(1.5))).LOAD, 0.0);
+
+		final JoinMessage join = (JoinMessage) roundTrip(new JoinMessage(new InetSocketAddress("127.0.0.1", 1), InetSocketAddress.createUnresolved(
+				"some.host", 2)));
+		assertEquals(new InetSocketAddress("127.0.0.1", 1), join.ADDRESS_FOR_CACHENODE_NEIGHBORCONNECTOR);
+		assertEquals(InetSocketAddress.createUnresolved("some.host", 2), join.ADDRESS_FOR_CACHENODE_QUERYLISTENER);
+	}
+
+	@Test
+	public void testSubdivisionMessages() {
+		final SubdivisionRequestMessage request = new SubdivisionRequestMessage(1, 2);
+		request.AddTriangleVertexLoad(0.75);
+
+		final SubdivisionRequestMessage r = (SubdivisionRequestMessage) roundTrip(request);
+		assertEquals(1, r.ORIGIN_VERTEX);
+		assertEquals(2, r.FIRST_VERTEX);
+		assertEquals(2, r.ttl);
+		assertEquals(0.75, r.accumLoad, 0.0);
+
+		final SubdivisionConfirmMessage c = (SubdivisionConfirmMessage) roundTrip(new SubdivisionConfirmMessage(3, 4, 5));
+		assertEquals(3, c.V0);
+		assertEquals(4, c.V1);
+		assertEquals(5, c.V2);
+
+		final NodeInfo info = new NodeInfo(new InetSocketAddress("127.0.0.1", 10), new LocationOfNode(5, 6), new InetSocketAddress("127.0.0.1", 11), null, 8);
+		final SubdivisionCommitMessage commit = (SubdivisionCommitMessage) roundTrip(new SubdivisionCommitMessage(8, info));
+		assertEquals(8, commit.NEW_NODE_ID);
+		assertEquals(info, commit.NEW_NODE_INFO);
+		assertEquals(info.getLocationOfNode(), commit.NEW_NODE_INFO.getLocationOfNode());
+		assertNull(commit.NEW_NODE_INFO.ADDRESS_FOR_CACHENODE_QUERYLISTENER);
+	}
+
+	@Test
+	public void testAddToGridMessage() {
+		final List<NodeInfo> neighbors = new ArrayList<>();
+		for (int i = 0; i < 6; ++i) {
+			neighbors.add(new NodeInfo(new InetSocketAddress("127.0.0.1", 100 + i), new LocationOfNode(i, -i), new InetSocketAddress("127.0.0.1", 200 + i),
+					new InetSocketAddress("127.0.0.1", 300 + i), i));
+		}
+
+		final AddToGridMessage m = (AddToGridMessage) roundTrip(new AddToGridMessage(new LocationOfNode(1, 2), neighbors, 42));
+		assertEquals(42, m.id);
+		assertEquals(new LocationOfNode(1, 2), m.locationOfNode);
+		assertEquals(neighbors, new ArrayList<>(m.getNeighboringNodes()));
+	}
+
+	@Test
+	public void testOwnershipTableMessage() {
+		final List<NodeInfo> nodes = new ArrayList<>();
+		for (int i = 0; i < 20; ++i) {
+			nodes.add(new NodeInfo(new InetSocketAddress("127.0.0.1", 100 + i), new LocationOfNode(37 * i % 100, 53 * i % 100), new InetSocketAddress(
+					"127.0.0.1", 200 + i), i % 2 == 0 ? new InetSocketAddress("127.0.0.1", 300 + i) : null, i));
+			nodes.get(i).setWeight((i % 5 - 2) * 50.0);
+		}
+		final OwnershipTable original = OwnershipTable.compile(3, nodes, 100);
+
+		final OwnershipTable t = ((OwnershipTableMessage) roundTrip(new OwnershipTableMessage(original))).TABLE;
+		assertEquals(3, t.getVersion());
+		assertEquals(original.getOwnerCount(), t.getOwnerCount());
+		assertArrayEquals(original.getBucketStart(), t.getBucketStart());
+		assertArrayEquals(original.getCandidates(), t.getCandidates());
+		for (int i = 0; i < t.getOwnerCount(); ++i) {
+			assertEquals(original.getWeight(i), t.getWeight(i), 0.0);
+		}
+		for (int x = 0; x < 100; x += 7) {
+			for (int y = 0; y < 100; y += 3) {
+				final LocationOfNode l = new LocationOfNode(x, y);
+				assertEquals(original.getOwner(original.ownerOf(l)).ID, t.getOwner(t.ownerOf(l)).ID);
+			}
+		}
+		assertNull(t.getOwner(1).ADDRESS_FOR_CACHENODE_QUERYLISTENER);
+	}
+
+	@Test
+	public void testReplicaMessage() {
+		final List<SpatialObject> objects = Arrays.asList(new SpatialObject(new LocationOfNode(5, 6), new byte[] { 7, 8 }));
+		final ReplicaMessage m = (ReplicaMessage) roundTrip(new ReplicaMessage(-42L << 32 | 17, 9, 3, 4000, objects));
+		assertEquals(-42L << 32 | 17, m.CELL);
+		assertEquals(9, m.OWNER_ID);
+		assertEquals(3, m.VERSION);
+		assertEquals(4000, m.LEASE_MILLIS);
+		assertEquals(1, m.OBJECTS.size());
+		assertEquals(new LocationOfNode(5, 6), m.OBJECTS.get(0).LOCATION);
+		assertArrayEquals(new byte[] { 7, 8 }, m.OBJECTS.get(0).PAYLOAD);
+	}
+
+	@Test
+	public void testWeightMessages() {
+		final WeightMessage w = (WeightMessage) roundTrip(new WeightMessage(12, -3.5e12));
+		assertEquals(12, w.ID);
+		assertEquals(-3.5e12, w.WEIGHT, 0.0);
+
+		final List<SpatialObject> objects = Arrays.asList(new SpatialObject(new LocationOfNode(1, 2), new byte[] { 3 }));
+		final CellHandoverMessage h = (CellHandoverMessage) roundTrip(new CellHandoverMessage(5L << 32 | 6, objects));
+		assertEquals(5L << 32 | 6, h.CELL);
+		assertEquals(1, h.OBJECTS.size());
+		assertEquals(new LocationOfNode(1, 2), h.OBJECTS.get(0).LOCATION);
+	}
+
+	/** Subclasses of known messages go through the serialization fallback */
+	@Test
+	public void testUnknownMessageFallback() {
+		final IMessage m = roundTrip(new CustomConfirmationMessage(3, "sub"));
+		assertTrue(m instanceof CustomConfirmationMessage);
+		assertEquals(3, ((ConfirmationMessage) m).STATUS_CODE);
+	}
+
+	private static class CustomConfirmationMessage extends ConfirmationMessage {
+		private static final long serialVersionUID = 1L;
+
+		public CustomConfirmationMessage(int statusCode, String message) {
+			super(statusCode, message);
+		}
+	}
+}
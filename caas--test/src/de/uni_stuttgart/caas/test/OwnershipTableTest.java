@@ -0,0 +1,143 @@
+package de.uni_stuttgart.caas.test;
+
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.uni_stuttgart.caas.base.LocationOfNode;
+import de.uni_stuttgart.caas.base.NodeInfo;
+import de.uni_stuttgart.caas.base.OwnershipTable;
+import de.uni_stuttgart.caas.cache.RoutingTable;
+import de.uni_stuttgart.caas.cache.VoronoiRegion;
+
+public class OwnershipTableTest {
+
+	private static final int EXTENT = 2000000000;
+
+	private static List<NodeInfo> randomNodes(Random random, int count) {
+		final List<NodeInfo> nodes = new ArrayList<>();
+		for (int i = 0; i < count; ++i) {
+			final InetSocketAddress address = new InetSocketAddress("127.0.0.1", 10000 + i);
+			nodes.add(new NodeInfo(address, new LocationOfNode(random.nextInt(EXTENT), random.nextInt(EXTENT)), address, address, i));
+		}
+		return nodes;
+	}
+
+	/**
+	 * The owner must be the node whose VoronoiRegion holds the location
+	 */
+	private static void assertOwners(List<NodeInfo> nodes, OwnershipTable table, Random random) {
+		for (int q = 0; q < 2000; ++q) {
+			final LocationOfNode l = new LocationOfNode(random.nextInt(EXTENT), random.nextInt(EXTENT));
+			final NodeInfo owner = table.getOwner(table.ownerOf(l));
+
+			final List<LocationOfNode> others = new ArrayList<>();
+			for (NodeInfo n : nodes) {
+				if (n != owner) {
+					others.add(n.getLocationOfNode());
+				}
+			}
+			assertTrue(new VoronoiRegion(owner.getLocationOfNode(), others).contains(l));
+		}
+	}
+
+	@Test
+	public void testOwnerOf() {
+		final Random random = new Random(3);
+		for (int count : new int[] { 1, 2, 15, 100, 700 }) {
+			final List<NodeInfo> nodes = randomNodes(random, count);
+			final OwnershipTable table = OwnershipTable.compile(1, nodes, EXTENT);
+			assertOwners(nodes, table, random);
+
+			// buckets hold few candidates
+			assertTrue(table.getCandidates().length <= 16 * Math.max(count, table.getColumns() * table.getColumns()));
+		}
+	}
+
+	/**
+	 * With weights, the owner minimizes the power distance, and the
+	 * VoronoiRegion and the RoutingTable of the owner agree
+	 */
+	@Test
+	public void testWeighted() {
+		final Random random = new Random(5);
+		final List<NodeInfo> nodes = randomNodes(random, 60);
+		for (NodeInfo n : nodes) {
+			n.setWeight((random.nextDouble() - 0.5) * 1e16);
+		}
+		final OwnershipTable table = OwnershipTable.compile(1, nodes, EXTENT);
+
+		for (int q = 0; q < 2000; ++q) {
+			final LocationOfNode l = new LocationOfNode(random.nextInt(EXTENT), random.nextInt(EXTENT));
+			final NodeInfo owner = table.getOwner(table.ownerOf(l));
+
+			NodeInfo expected = null;
+			double min = Double.POSITIVE_INFINITY;
+			for (NodeInfo n : nodes) {
+				final double d = VoronoiRegion.distance(n.getLocationOfNode(), l);
+				if (d * d - n.getWeight() < min) {
+					min = d * d - n.getWeight();
+					expected = n;
+				}
+			}
+			assertEquals(expected.ID, owner.ID);
+
+			final List<NodeInfo> others = new ArrayList<>(nodes);
+			others.remove(owner);
+			assertTrue(new VoronoiRegion(owner.getLocationOfNode(), owner.getWeight(), others).contains(l));
+
+			final HashMap<NodeInfo, String> neighbors = new HashMap<>();
+			for (NodeInfo n : others) {
+				neighbors.put(n, "other");
+			}
+			assertEquals(-1, new RoutingTable<>(owner.getLocationOfNode(), owner.getWeight(), neighbors, Collections.<NodeInfo, String> emptyMap()).nextHop(l));
+		}
+
+		// without weights, the table is the Voronoi partition again
+		for (NodeInfo n : nodes) {
+			n.setWeight(0);
+		}
+		assertOwners(nodes, OwnershipTable.compile(2, nodes, EXTENT), random);
+	}
+
+	@Test
+	public void testOutside() {
+		final OwnershipTable table = OwnershipTable.compile(1, randomNodes(new Random(4), 10), EXTENT);
+		assertEquals(-1, table.ownerOf(new LocationOfNode(-1, 5)));
+		assertEquals(-1, table.ownerOf(new LocationOfNode(5, EXTENT)));
+		assertEquals(-1, OwnershipTable.compile(1, Collections.<NodeInfo> emptyList(), EXTENT).ownerOf(new LocationOfNode(5, 5)));
+	}
+
+	/**
+	 * Sites on a lattice put many locations on bisectors, ties must be broken
+	 * as VoronoiRegion does
+	 */
+	@Test
+	public void testTies() {
+		final List<NodeInfo> nodes = new ArrayList<>();
+		for (int i = 0; i < 36; ++i) {
+			final InetSocketAddress address = new InetSocketAddress("127.0.0.1", 10000 + i);
+			nodes.add(new NodeInfo(address, new LocationOfNode(i % 6 * 100, i / 6 * 100), address, address, i));
+		}
+		final OwnershipTable table = OwnershipTable.compile(1, nodes, 600);
+		for (int x = 0; x < 600; x += 25) {
+			for (int y = 0; y < 600; y += 25) {
+				final NodeInfo owner = table.getOwner(table.ownerOf(new LocationOfNode(x, y)));
+				final List<LocationOfNode> others = new ArrayList<>();
+				for (NodeInfo n : nodes) {
+					if (n != owner) {
+						others.add(n.getLocationOfNode());
+					}
+				}
+				assertTrue(new VoronoiRegion(owner.getLocationOfNode(), others).contains(new LocationOfNode(x, y)));
+			}
+		}
+	}
+}
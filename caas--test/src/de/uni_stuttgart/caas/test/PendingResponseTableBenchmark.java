@@ -0,0 +1,181 @@
+package de.uni_stuttgart.caas.test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.uni_stuttgart.caas.base.PendingResponseTable;
+
+/**
+ * Compares PendingResponseTable with ConcurrentHashMap<Integer, ...>, which
+ * FullDuplexMPI used to keep track of messages awaiting a response.
+ *
+ * The access pattern mimics a connection with a fixed number of messages in
+ * flight: the sender adds entries with increasing uids, the receiver removes
+ * them in the same order once their response arrives. This is run with both
+ * roles on one thread, and with a sender and a receiver thread.
+ *
+ * For each variant, the time and the number of bytes allocated per message
+ * (one put() plus one remove()) is printed. Run as a plain Java application.
+ */
+public class PendingResponseTableBenchmark {
+
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int MESSAGES_PER_ROUND = 2000000;
+	private static final int[] IN_FLIGHT = { 64, 1024, 8192 };
+
+	/** Table capacity as used by FullDuplexMPI */
+	private static final int CAPACITY = 4096;
+
+	private static class Message implements PendingResponseTable.Entry {
+		private final int uid;
+
+		public Message(int _uid) {
+			uid = _uid;
+		}
+
+		@Override
+		public int getUid() {
+			return uid;
+		}
+	}
+
+	/** Common interface for both candidates */
+	private interface Table {
+		void put(Message m);
+
+		Message remove(int uid);
+	}
+
+	private interface TableFactory {
+		Table create();
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		final Message[] messages = new Message[MESSAGES_PER_ROUND];
+		for (int i = 0; i < messages.length; ++i) {
+			messages[i] = new Message(i);
+		}
+
+		final TableFactory map = new TableFactory() {
+			@Override
+			public Table create() {
+				final ConcurrentHashMap<Integer, Message> m = new ConcurrentHashMap<>();
+				return new Table() {
+					@Override
+					public void put(Message message) {
+						m.put(message.uid, message);
+					}
+
+					@Override
+					public Message remove(int uid) {
+						return m.remove(uid);
+					}
+				};
+			}
+		};
+
+		final TableFactory table = new TableFactory() {
+			@Override
+			public Table create() {
+				final PendingResponseTable<Message> t = new PendingResponseTable<>(CAPACITY);
+				return new Table() {
+					@Override
+					public void put(Message message) {
+						t.put(message);
+					}
+
+					@Override
+					public Message remove(int uid) {
+						return t.remove(uid);
+					}
+				};
+			}
+		};
+
+		// the threads busy-wait on each other, which is pointless on one core
+		final boolean twoThreads = Runtime.getRuntime().availableProcessors() > 1;
+		if (!twoThreads) {
+			System.out.println("single core machine, skipping the 2 thread variants");
+		}
+
+		for (int inFlight : IN_FLIGHT) {
+			System.out.println(inFlight + " messages in flight:");
+			for (int round = 0; round <= WARMUP_ROUNDS; ++round) {
+				final boolean report = round == WARMUP_ROUNDS;
+				benchmarkSingleThread("ConcurrentHashMap", map.create(), messages, inFlight, report);
+				benchmarkSingleThread("PendingResponseTable", table.create(), messages, inFlight, report);
+				if (twoThreads) {
+					benchmarkTwoThreads("ConcurrentHashMap", map.create(), messages, inFlight, report);
+					benchmarkTwoThreads("PendingResponseTable", table.create(), messages, inFlight, report);
+				}
+			}
+			System.out.println();
+		}
+	}
+
+	private static void benchmarkSingleThread(String name, Table table, Message[] messages, int inFlight, boolean report) {
+		final long bytesBefore = allocatedBytes();
+		final long start = System.nanoTime();
+
+		for (int i = 0; i < messages.length; ++i) {
+			table.put(messages[i]);
+			if (i >= inFlight) {
+				if (table.remove(i - inFlight) == null) {
+					throw new IllegalStateException();
+				}
+			}
+		}
+
+		final long end = System.nanoTime();
+		if (report) {
+			print(name + ", 1 thread", allocatedBytes() - bytesBefore, messages.length, end - start);
+		}
+	}
+
+	private static void benchmarkTwoThreads(String name, final Table table, final Message[] messages, final int inFlight, boolean report)
+			throws InterruptedException {
+		final long[] receiverBytes = new long[1];
+		final AtomicInteger received = new AtomicInteger(0);
+
+		final Thread receiver = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				final long bytesBefore = allocatedBytes();
+				for (int i = 0; i < messages.length; ++i) {
+					while (table.remove(i) == null) {
+						// spin until the sender got there
+					}
+					received.lazySet(i + 1);
+				}
+				receiverBytes[0] = allocatedBytes() - bytesBefore;
+			}
+		});
+
+		final long bytesBefore = allocatedBytes();
+		final long start = System.nanoTime();
+		receiver.start();
+
+		for (int i = 0; i < messages.length; ++i) {
+			// do not run away from the receiver, keep the window bounded
+			while (i - received.get() >= inFlight) {
+				Thread.yield();
+			}
+			table.put(messages[i]);
+		}
+		receiver.join();
+
+		final long end = System.nanoTime();
+		if (report) {
+			print(name + ", 2 threads", allocatedBytes() - bytesBefore + receiverBytes[0], messages.length, end - start);
+		}
+	}
+
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static void print(String name, long bytes, int count, long nanos) {
+		System.out.println(String.format("  %-34s %8.1f ns/msg %8.1f bytes/msg", name, (double) nanos / count, (double) bytes / count));
+	}
+}
@@ -0,0 +1,91 @@
+package de.uni_stuttgart.caas.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.uni_stuttgart.caas.base.PendingResponseTable;
+
+public class PendingResponseTableTest {
+
+	private static class Entry implements PendingResponseTable.Entry {
+		private final int uid;
+
+		public Entry(int _uid) {
+			uid = _uid;
+		}
+
+		@Override
+		public int getUid() {
+			return uid;
+		}
+	}
+
+	@Test
+	public void testPutRemove() {
+		final PendingResponseTable<Entry> table = new PendingResponseTable<>(16);
+		final Entry a = new Entry(3);
+		final Entry b = new Entry(3 + 16); // same slot as a
+
+		table.put(a);
+		table.put(b);
+		assertNull(table.remove(4));
+		assertSame(b, table.remove(3 + 16));
+		assertNull(table.remove(3 + 16));
+		assertSame(a, table.remove(3));
+		assertEquals(0, table.getOverflowCount());
+	}
+
+	@Test
+	public void testRemoveEntry() {
+		final PendingResponseTable<Entry> table = new PendingResponseTable<>(16);
+		final Entry a = new Entry(5);
+
+		table.put(a);
+		assertFalse(table.remove(new Entry(5)));
+		assertTrue(table.remove(a));
+		assertFalse(table.remove(a));
+	}
+
+	/** More colliding entries than probed slots go to the overflow map */
+	@Test
+	public void testOverflow() {
+		final PendingResponseTable<Entry> table = new PendingResponseTable<>(16);
+		final int count = PendingResponseTable.MAX_PROBES * 3;
+		for (int i = 0; i < count; ++i) {
+			table.put(new Entry(i * 16));
+		}
+		assertTrue(table.getOverflowCount() > 0);
+
+		// removing from the middle of the probe sequence must not hide the rest
+		assertEquals(16, table.remove(16).getUid());
+		for (int i = count - 1; i >= 0; --i) {
+			if (i != 1) {
+				assertEquals(i * 16, table.remove(i * 16).getUid());
+			}
+		}
+		assertEquals(0, table.getOverflowCount());
+	}
+
+	@Test
+	public void testDrain() {
+		final PendingResponseTable<Entry> table = new PendingResponseTable<>(16);
+		final HashSet<Integer> uids = new HashSet<>();
+		for (int i = 0; i < 40; ++i) {
+			table.put(new Entry(i * 7));
+			uids.add(i * 7);
+		}
+
+		final List<Entry> drained = new ArrayList<>();
+		assertEquals(40, table.drainTo(drained));
+		for (Entry e : drained) {
+			assertTrue(uids.remove(e.getUid()));
+		}
+		assertTrue(uids.isEmpty());
+		assertEquals(0, table.drainTo(drained));
+	}
+}
@@ -0,0 +1,118 @@
+package de.uni_stuttgart.caas.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import de.uni_stuttgart.caas.base.LocationOfNode;
+import de.uni_stuttgart.caas.base.SpatialObject;
+import de.uni_stuttgart.caas.cache.HotCellTracker;
+import de.uni_stuttgart.caas.cache.ReplicaSet;
+import de.uni_stuttgart.caas.cache.ReplicaStore;
+
+public class ReplicaStoreTest {
+
+	private static final SpatialObject[] A = { new SpatialObject(new LocationOfNode(1, 2), new byte[] { 1 }) };
+	private static final SpatialObject[] B = { new SpatialObject(new LocationOfNode(3, 4), new byte[] { 2 }) };
+
+	@Test
+	public void testVersions() {
+		final ReplicaStore store = new ReplicaStore(16);
+		assertNull(store.get(5));
+		assertEquals(-1, store.getVersion(5));
+
+		assertTrue(store.put(5, 1, 2, 10000, A));
+		assertSame(A, store.get(5));
+
+		// older versions of the same owner are rejected, newer ones replace
+		assertFalse(store.put(5, 1, 1, 10000, B));
+		assertSame(A, store.get(5));
+		assertTrue(store.put(5, 1, 3, 10000, B));
+		assertSame(B, store.get(5));
+		assertEquals(3, store.getVersion(5));
+
+		// another owner, e.g. after the grid changed, always replaces
+		assertTrue(store.put(5, 2, 1, 10000, A));
+		assertSame(A, store.get(5));
+		assertEquals(4, store.getHitCount());
+		assertEquals(1, store.getMissCount());
+	}
+
+	@Test
+	public void testLease() throws InterruptedException {
+		final ReplicaStore store = new ReplicaStore(16);
+		store.put(1, 1, 1, 50, A);
+		store.put(2, 1, 1, 10000, B);
+		Thread.sleep(100);
+		assertNull(store.get(1));
+		assertSame(B, store.get(2));
+		assertEquals(1, store.getReplicaCount());
+
+		// renewing with the same version extends the lease
+		store.put(2, 1, 1, 50, B);
+		store.put(2, 1, 1, 10000, B);
+		Thread.sleep(100);
+		assertSame(B, store.get(2));
+	}
+
+	@Test
+	public void testBounded() {
+		final ReplicaStore store = new ReplicaStore(4);
+		for (int i = 0; i < 10; ++i) {
+			store.put(i, 1, 1, 10000, A);
+			assertNotNull(store.get(0));
+		}
+		assertEquals(4, store.getReplicaCount());
+		assertNotNull(store.get(0));
+		assertNull(store.get(5));
+	}
+
+	@Test
+	public void testHotCells() throws InterruptedException {
+		final HotCellTracker tracker = new HotCellTracker(3, 100);
+		assertFalse(tracker.record(1));
+		assertFalse(tracker.record(1));
+		assertFalse(tracker.record(2));
+		assertTrue(tracker.record(1));
+		assertTrue(tracker.isHot(1));
+		assertFalse(tracker.isHot(2));
+
+		// hot for one more window, then cold
+		Thread.sleep(120);
+		assertTrue(tracker.isHot(1));
+		Thread.sleep(250);
+		assertFalse(tracker.isHot(1));
+	}
+
+	@Test
+	public void testHotCellsStayHot() throws InterruptedException {
+		final HotCellTracker tracker = new HotCellTracker(3, 100);
+		for (int i = 0; i < 3; ++i) {
+			tracker.record(1);
+		}
+
+		// a hot cell stays hot through the next window, but one query in it
+		// does not keep it hot any longer
+		Thread.sleep(120);
+		assertTrue(tracker.record(1));
+		assertFalse(tracker.record(2));
+		Thread.sleep(120);
+		assertFalse(tracker.record(1));
+		assertFalse(tracker.isHot(2));
+	}
+
+	@Test
+	public void testReplicaSetLease() {
+		final ReplicaSet<String> set = new ReplicaSet<>(7, 1000, 400, Arrays.asList("a", "b"));
+		assertEquals(7, set.getVersion());
+		assertEquals(Arrays.asList("a", "b"), set.getHolders());
+
+		// renewed halfway through the lease
+		assertFalse(set.isRenewalDue(1199));
+		assertTrue(set.isRenewalDue(1200));
+		assertFalse(set.isExpired(1399));
+		assertTrue(set.isExpired(1400));
+	}
+}
@@ -0,0 +1,66 @@
+package de.uni_stuttgart.caas.test;
+
+import static org.junit.Assert.*;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import de.uni_stuttgart.caas.base.LocationOfNode;
+import de.uni_stuttgart.caas.cache.RouteCache;
+import de.uni_stuttgart.caas.cache.SpatialCache;
+import de.uni_stuttgart.caas.cache.VoronoiRegion;
+
+public class RouteCacheTest {
+
+	private static final int SIDE = 1 << RouteCache.SHIFT;
+
+	private static final InetSocketAddress A = new InetSocketAddress("127.0.0.1", 1000);
+	private static final InetSocketAddress B = new InetSocketAddress("127.0.0.1", 1001);
+
+	@Test
+	public void testRoutes() {
+		final RouteCache cache = new RouteCache(16);
+		final LocationOfNode inside = new LocationOfNode(3 * SIDE + 5, 7 * SIDE + 9);
+		final LocationOfNode negative = new LocationOfNode(-SIDE / 2, 2 * SIDE);
+
+		assertNull(cache.get(inside));
+		cache.put(new long[] { RouteCache.bucketAt(3, 7), RouteCache.bucketAt(-1, 2) }, 1, A);
+		assertEquals(1, cache.get(inside).OWNER_ID);
+		assertEquals(A, cache.get(negative).OWNER_ADDRESS);
+		assertNull(cache.get(new LocationOfNode(4 * SIDE, 7 * SIDE)));
+		assertEquals(2, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+
+		// a newer route replaces the old one
+		cache.put(new long[] { RouteCache.bucketOf(inside) }, 2, B);
+		assertEquals(2, cache.get(inside).OWNER_ID);
+
+		cache.remove(inside);
+		assertNull(cache.get(inside));
+		assertNotNull(cache.get(negative));
+		cache.clear();
+		assertEquals(0, cache.getRouteCount());
+	}
+
+	@Test
+	public void testBounded() {
+		final RouteCache cache = new RouteCache(4);
+		for (int i = 0; i < 10; ++i) {
+			cache.put(new long[] { RouteCache.bucketAt(i, 0) }, i, A);
+		}
+		assertEquals(4, cache.getRouteCount());
+		assertNull(cache.get(new LocationOfNode(0, 0)));
+		assertEquals(9, cache.get(new LocationOfNode(9 * SIDE, 0)).OWNER_ID);
+	}
+
+	@Test
+	public void testContainsSquare() {
+		final int cell = 1 << SpatialCache.CELL_SHIFT;
+		final VoronoiRegion region = new VoronoiRegion(new LocationOfNode(0, 0), Arrays.asList(new LocationOfNode(8 * cell, 0)));
+		assertTrue(region.containsSquare(0, 0, 4 * cell));
+		assertFalse(region.containsSquare(2 * cell, 0, 4 * cell));
+		assertTrue(region.containsSquare(-16 * cell, 0, 16 * cell));
+	}
+}
@@ -0,0 +1,127 @@
+package de.uni_stuttgart.caas.test;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import de.uni_stuttgart.caas.base.LocationOfNode;
+import de.uni_stuttgart.caas.base.NodeInfo;
+import de.uni_stuttgart.caas.cache.RoutingTable;
+
+/**
+ * Compares picking the next hop of a query with RoutingTable to the loop
+ * CacheNode.processQuery() used before: iterating the neighbor map and
+ * computing distances from NodeInfo.getLocationOfNode() with Math.pow().
+ *
+ * The neighbors of a node are placed on a ring around it, queries are spread
+ * over a square around the node several times as large. For each number of
+ * neighbors, the time and the number of bytes allocated per route are
+ * printed. Run as a plain Java application.
+ */
+public class RoutingBenchmark {
+
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int ROUTES_PER_ROUND = 5000000;
+	private static final int[] NEIGHBORS = { 6, 10, 14, 20 };
+
+	private static final int SELF = 1000000000;
+	private static final int SPACING = 10000000;
+
+	/** Common interface for both candidates */
+	private interface Router {
+		/**
+		 * @return Some value depending on the next hop, so the JIT cannot
+		 *         leave the routing out
+		 */
+		int route(LocationOfNode location);
+	}
+
+	public static void main(String[] args) {
+		final Random random = new Random(42);
+		final LocationOfNode self = new LocationOfNode(SELF, SELF);
+
+		final LocationOfNode[] queries = new LocationOfNode[4096];
+		for (int i = 0; i < queries.length; ++i) {
+			queries[i] = new LocationOfNode(SELF + random.nextInt(8 * SPACING) - 4 * SPACING, SELF + random.nextInt(8 * SPACING) - 4 * SPACING);
+		}
+
+		for (int n : NEIGHBORS) {
+			final HashMap<NodeInfo, Object> neighbors = new HashMap<>();
+			for (int i = 0; i < n; ++i) {
+				final double angle = 2 * Math.PI * i / n;
+				final double distance = SPACING * (0.8 + 0.4 * random.nextDouble());
+				final LocationOfNode location = new LocationOfNode((int) (SELF + distance * Math.cos(angle)), (int) (SELF + distance
+						* Math.sin(angle)));
+				final InetSocketAddress address = new InetSocketAddress("127.0.0.1", 10000 + i);
+				neighbors.put(new NodeInfo(address, location, address, address, i), "connector " + i);
+			}
+
+			final Router map = new Router() {
+				@Override
+				public int route(LocationOfNode queryLocation) {
+					Entry<NodeInfo, Object> closest = null;
+					double minDistance = Math.pow(self.x - queryLocation.x, 2) + Math.pow(self.y - queryLocation.y, 2), tempDistance;
+					for (Entry<NodeInfo, Object> tempNode : neighbors.entrySet()) {
+						final LocationOfNode location = tempNode.getKey().getLocationOfNode();
+						tempDistance = Math.pow(location.x - queryLocation.x, 2) + Math.pow(location.y - queryLocation.y, 2);
+						if (tempDistance < minDistance) {
+							minDistance = tempDistance;
+							closest = tempNode;
+						}
+					}
+					return closest == null ? -1 : closest.getValue().hashCode();
+				}
+			};
+
+			final RoutingTable<Object> routes = new RoutingTable<>(self, neighbors);
+			final Router table = new Router() {
+				@Override
+				public int route(LocationOfNode queryLocation) {
+					final int nextHop = routes.nextHop(queryLocation);
+					return nextHop < 0 ? -1 : routes.getTarget(nextHop).hashCode();
+				}
+			};
+
+			// both must route the same way
+			for (LocationOfNode q : queries) {
+				if (map.route(q) != table.route(q)) {
+					throw new IllegalStateException("routes differ for " + q);
+				}
+			}
+
+			System.out.println(n + " neighbors:");
+			for (int round = 0; round <= WARMUP_ROUNDS; ++round) {
+				final boolean report = round == WARMUP_ROUNDS;
+				benchmark("HashMap, Math.pow", map, queries, report);
+				benchmark("RoutingTable", table, queries, report);
+			}
+			System.out.println();
+		}
+	}
+
+	private static void benchmark(String name, Router router, LocationOfNode[] queries, boolean report) {
+		final long bytesBefore = allocatedBytes();
+		final long start = System.nanoTime();
+
+		int sink = 0;
+		for (int i = 0; i < ROUTES_PER_ROUND; ++i) {
+			sink += router.route(queries[i & (queries.length - 1)]);
+		}
+
+		final long end = System.nanoTime();
+		if (report) {
+			print(name, allocatedBytes() - bytesBefore, ROUTES_PER_ROUND, end - start, sink);
+		}
+	}
+
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static void print(String name, long bytes, int count, long nanos, int sink) {
+		System.out.println(String.format("  %-34s %8.1f ns/route %8.1f bytes/route (%d)", name, (double) nanos / count, (double) bytes / count,
+				sink));
+	}
+}
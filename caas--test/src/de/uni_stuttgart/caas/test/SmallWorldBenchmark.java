@@ -0,0 +1,133 @@
+package de.uni_stuttgart.caas.test;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import de.uni_stuttgart.caas.admin.AdminNode;
+import de.uni_stuttgart.caas.admin.Grid;
+import de.uni_stuttgart.caas.cache.CacheBehaviourFlags;
+import de.uni_stuttgart.caas.cache.CacheNode;
+import de.uni_stuttgart.caas.cache.SyntheticOrigin;
+import de.uni_stuttgart.caas.messages.QueryMessage;
+import de.uni_stuttgart.caas.messages.QueryResult;
+
+/**
+ * Compares greedy routing over the Delaunay neighbors alone to routing over
+ * the neighbors and CacheNode.LONG_RANGE_LINK_COUNT long-range links (see
+ * CacheBehaviourFlags.LONG_RANGE_LINKS), for several grid sizes:
+ *
+ * SmallWorldBenchmark [queries [nodes...]]
+ *
+ * For each size, a grid is run in this JVM once without and once with the
+ * links. Queries for uniformly distributed locations enter it one after the
+ * other at random nodes, and the mean number of hops and the mean latency
+ * per query are printed. The origin answers misses right away and neighbor
+ * messages are delayed by CacheNode.FAKE_NEIGHBOR_LATENCY, so the latency is
+ * mostly that of the hops. Run as a plain Java application, the link count
+ * is set with -Dcaas.longRangeLinks.
+ */
+public class SmallWorldBenchmark {
+
+	private static final int DEFAULT_QUERIES = 500;
+	private static final int[] DEFAULT_NODES = { 16, 32, 64, 128 };
+
+	/** Time given to the nodes to open their long-range links */
+	private static final long LINK_SETUP_MILLIS = 10000;
+
+	public static void main(String[] args) throws Exception {
+		final int queries = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_QUERIES;
+		int[] sizes = DEFAULT_NODES;
+		if (args.length > 1) {
+			sizes = new int[args.length - 1];
+			for (int i = 1; i < args.length; ++i) {
+				sizes[i - 1] = Integer.parseInt(args[i]);
+			}
+		}
+
+		System.out.println(queries + " queries per run, " + CacheNode.LONG_RANGE_LINK_COUNT + " long-range links per node");
+		for (int n : sizes) {
+			run(n, queries, false);
+			run(n, queries, true);
+		}
+		System.exit(0);
+	}
+
+	private static void run(int nodes, int queries, boolean links) throws IOException, InterruptedException, ClassNotFoundException {
+		final EnumSet<CacheBehaviourFlags> config = EnumSet.of(CacheBehaviourFlags.ADD_FAKE_NEIGHBOR_LATENCY);
+		if (links) {
+			config.add(CacheBehaviourFlags.LONG_RANGE_LINKS);
+		}
+
+		final CountDownLatch initComplete = new CountDownLatch(1);
+		final int port = PortFinder.findOpen();
+		final AdminNode admin = new AdminNode(port, nodes) {
+			@Override
+			protected void onInitComplete() {
+				initComplete.countDown();
+			}
+		};
+
+		final List<CacheNode> grid = new ArrayList<>();
+		for (int i = 0; i < nodes; ++i) {
+			grid.add(new CacheNode(new InetSocketAddress("localhost", port), config.clone(), new SyntheticOrigin(0), CacheNode.CACHE_CAPACITY_BYTES));
+		}
+		if (!initComplete.await(5, TimeUnit.MINUTES)) {
+			System.out.println("grid setup did not complete");
+			System.exit(1);
+		}
+		if (links) {
+			awaitLinks(grid, CacheNode.LONG_RANGE_LINK_COUNT);
+		}
+
+		final Random random = new Random(42);
+		long hops = 0, nanos = 0;
+		try (ServerSocket client = new ServerSocket(0)) {
+			for (int i = 0; i < queries; ++i) {
+				final QueryMessage message = new QueryMessage(Grid.RandomPoint(), "localhost", client.getLocalPort(), i);
+				final CacheNode entry = grid.get(random.nextInt(nodes));
+
+				final long start = System.nanoTime();
+				entry.processQuery(message);
+				final QueryResult result;
+				try (Socket sock = client.accept()) {
+					result = (QueryResult) new ObjectInputStream(sock.getInputStream()).readObject();
+				}
+				nanos += System.nanoTime() - start;
+
+				// each node on the path appended "id-", hops are between them
+				hops += QueryMessage.getVisitedNodeCount(result.getDebuggingInfo()) - 1;
+			}
+		}
+
+		System.out.println(String.format("%5d nodes, %-19s %6.2f hops/query %8.2f ms/query", nodes, links ? "long-range links:" : "neighbors only:",
+				(double) hops / queries, nanos / 1e6 / queries));
+
+		for (CacheNode node : grid) {
+			node.close();
+		}
+		admin.close();
+	}
+
+	/**
+	 * Wait until all nodes opened their links, or LINK_SETUP_MILLIS passed.
+	 * In small grids, nodes may not find enough nodes other than their
+	 * neighbors to link to.
+	 */
+	private static void awaitLinks(List<CacheNode> grid, int links) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + LINK_SETUP_MILLIS;
+		for (CacheNode node : grid) {
+			while (node.getLongRangeLinkCount() < links && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package de.uni_stuttgart.caas.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.uni_stuttgart.caas.base.LocationOfNode;
+import de.uni_stuttgart.caas.base.SpatialObject;
+import de.uni_stuttgart.caas.cache.SpatialCache;
+import de.uni_stuttgart.caas.cache.SyntheticOrigin;
+
+public class SpatialCacheTest {
+
+	private static SpatialObject[] cellOfSize(int payloadBytes) {
+		return new SpatialObject[] { new SpatialObject(new LocationOfNode(0, 0), new byte[payloadBytes]) };
+	}
+
+	@Test
+	public void testCellOf() {
+		final int side = 1 << SpatialCache.CELL_SHIFT;
+		assertEquals(SpatialCache.cellOf(0, 0), SpatialCache.cellOf(side - 1, side - 1));
+		assertNotEquals(SpatialCache.cellOf(0, 0), SpatialCache.cellOf(side, 0));
+		assertNotEquals(SpatialCache.cellOf(0, 0), SpatialCache.cellOf(-1, 0));
+
+		final long cell = SpatialCache.cellOf(-1, 3 * side);
+		assertEquals(-1, SpatialCache.cellX(cell));
+		assertEquals(3, SpatialCache.cellY(cell));
+	}
+
+	@Test
+	public void testHitMiss() {
+		final SpatialCache cache = new SpatialCache(1024 * 1024);
+		assertNull(cache.get(1));
+		cache.put(1, cellOfSize(10));
+		assertNotNull(cache.get(1));
+		assertNotNull(cache.get(1));
+
+		assertEquals(2, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(2.0 / 3, cache.getHitRatio(), 1e-9);
+	}
+
+	@Test
+	public void testLruEviction() {
+		final long cellSize = SpatialCache.sizeOf(cellOfSize(100));
+		final SpatialCache cache = new SpatialCache(3 * cellSize);
+		cache.put(1, cellOfSize(100));
+		cache.put(2, cellOfSize(100));
+		cache.put(3, cellOfSize(100));
+
+		// touch 1, so 2 is the least recently used cell
+		cache.get(1);
+		cache.put(4, cellOfSize(100));
+
+		assertTrue(cache.contains(1));
+		assertFalse(cache.contains(2));
+		assertTrue(cache.contains(3));
+		assertTrue(cache.contains(4));
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(3 * cellSize, cache.getSizeBytes());
+
+		// too large to be cached at all
+		cache.put(5, cellOfSize(10000));
+		assertFalse(cache.contains(5));
+		assertEquals(3, cache.getCellCount());
+
+		// listing the cells does not touch them, 3 is evicted next
+		final long[] cells = cache.cells();
+		Arrays.sort(cells);
+		assertArrayEquals(new long[] { 1, 3, 4 }, cells);
+		cache.put(6, cellOfSize(100));
+		assertFalse(cache.contains(3));
+	}
+
+	private static void assertSameObjects(SpatialObject[] expected, SpatialObject[] actual) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; ++i) {
+			assertEquals(expected[i].LOCATION, actual[i].LOCATION);
+			assertArrayEquals(expected[i].PAYLOAD, actual[i].PAYLOAD);
+		}
+	}
+
+	@Test
+	public void testOffHeapRoundTrip() {
+		final SpatialCache cache = new SpatialCache(1024 * 1024, true, false);
+		assertTrue(cache.isOffHeap());
+
+		final SpatialObject[] objects = SyntheticOrigin.generate(SpatialCache.cellOf(12345, -6789));
+		cache.put(7, objects);
+		assertSameObjects(objects, cache.get(7));
+		cache.put(8, new SpatialObject[0]);
+		assertEquals(0, cache.get(8).length);
+
+		assertTrue(cache.getOffHeapBytes() > 0);
+		assertTrue(cache.getOccupancy() > 0 && cache.getOccupancy() <= 1);
+		assertTrue(cache.getFragmentation() >= 0 && cache.getFragmentation() < 1);
+
+		cache.invalidate(7);
+		cache.invalidate(8);
+		assertEquals(0, cache.getCellCount());
+		assertEquals(0, cache.getSizeBytes());
+	}
+
+	/**
+	 * Random puts, gets and removals on a cache too small for all cells. What
+	 * is cached must always be the objects put last, and the index must agree
+	 * with the cell count.
+	 */
+	@Test
+	public void testOffHeapUnderEviction() {
+		final int keys = 2000;
+		final SpatialCache cache = new SpatialCache(256 * 1024, true, false);
+		final Random random = new Random(1);
+
+		for (int i = 0; i < 50000; ++i) {
+			final long cell = random.nextInt(keys);
+			final int op = random.nextInt(10);
+			if (op < 5) {
+				cache.put(cell, SyntheticOrigin.generate(cell));
+			} else if (op < 9) {
+				final SpatialObject[] objects = cache.get(cell);
+				if (objects != null) {
+					assertSameObjects(SyntheticOrigin.generate(cell), objects);
+				}
+			} else {
+				cache.invalidate(cell);
+				assertFalse(cache.contains(cell));
+			}
+			assertTrue(cache.getSizeBytes() <= cache.getCapacityBytes());
+		}
+
+		int cached = 0;
+		for (long cell = 0; cell < keys; ++cell) {
+			if (cache.contains(cell)) {
+				++cached;
+			}
+		}
+		assertEquals(cached, cache.getCellCount());
+		assertTrue(cache.getEvictionCount() > 0);
+
+		final long[] cells = cache.cells();
+		assertEquals(cached, cells.length);
+		for (long cell : cells) {
+			assertTrue(cache.contains(cell));
+		}
+	}
+
+	/**
+	 * A scan of cells queried once must not flush out cells queried
+	 * frequently, unlike with plain LRU.
+	 */
+	@Test
+	public void testFrequencyAdmission() {
+		final long cellSize = SpatialCache.sizeOf(cellOfSize(100));
+		final SpatialCache lru = new SpatialCache(10 * cellSize, false, false);
+		final SpatialCache tinyLfu = new SpatialCache(10 * cellSize, false, true);
+
+		for (SpatialCache cache : new SpatialCache[] { lru, tinyLfu }) {
+			for (int round = 0; round < 5; ++round) {
+				for (long hot = 0; hot < 5; ++hot) {
+					if (cache.get(hot) == null) {
+						cache.put(hot, cellOfSize(100));
+					}
+				}
+			}
+			for (long cold = 100; cold < 200; ++cold) {
+				if (cache.get(cold) == null) {
+					cache.put(cold, cellOfSize(100));
+				}
+			}
+		}
+
+		for (long hot = 0; hot < 5; ++hot) {
+			assertFalse(lru.contains(hot));
+			assertTrue(tinyLfu.contains(hot));
+		}
+		assertTrue(tinyLfu.getRejectionCount() > 0);
+		assertEquals(0, lru.getRejectionCount());
+	}
+}
@@ -0,0 +1,180 @@
+package de.uni_stuttgart.caas.test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import de.uni_stuttgart.caas.base.Aggregate;
+import de.uni_stuttgart.caas.base.LocationOfNode;
+import de.uni_stuttgart.caas.base.SpatialObject;
+import de.uni_stuttgart.caas.cache.CellLoader;
+import de.uni_stuttgart.caas.cache.DensityGrid;
+import de.uni_stuttgart.caas.cache.SpatialCache;
+import de.uni_stuttgart.caas.cache.SpatialIndex;
+import de.uni_stuttgart.caas.cache.SyntheticOrigin;
+import de.uni_stuttgart.caas.cache.VoronoiRegion;
+
+public class SpatialIndexTest {
+
+	private static final int SIDE = 1 << SpatialCache.CELL_SHIFT;
+
+	private static final LocationOfNode A = new LocationOfNode(10 * SIDE, 10 * SIDE);
+	private static final LocationOfNode B = new LocationOfNode(14 * SIDE, 11 * SIDE);
+
+	private static SpatialIndex newIndex() {
+		return new SpatialIndex(new CellLoader(new SpatialCache(16 * 1024 * 1024), new SyntheticOrigin(0)));
+	}
+
+	private static VoronoiRegion everything() {
+		return new VoronoiRegion(A, Collections.<LocationOfNode> emptyList());
+	}
+
+	/**
+	 * All objects within radius of center, by scanning the cells around it
+	 */
+	private static List<SpatialObject> scan(final LocationOfNode center, double radius) {
+		final List<SpatialObject> found = new ArrayList<>();
+		final int cells = (int) Math.ceil(radius / SIDE) + 1;
+		final int cx = center.x >> SpatialCache.CELL_SHIFT, cy = center.y >> SpatialCache.CELL_SHIFT;
+		for (int x = cx - cells; x <= cx + cells; ++x) {
+			for (int y = cy - cells; y <= cy + cells; ++y) {
+				for (SpatialObject o : SyntheticOrigin.generate(SpatialCache.cellOf(x * SIDE, y * SIDE))) {
+					if (VoronoiRegion.distance(o.LOCATION, center) <= radius) {
+						found.add(o);
+					}
+				}
+			}
+		}
+		Collections.sort(found, new Comparator<SpatialObject>() {
+			@Override
+			public int compare(SpatialObject a, SpatialObject b) {
+				return Double.compare(VoronoiRegion.distance(a.LOCATION, center), VoronoiRegion.distance(b.LOCATION, center));
+			}
+		});
+		return found;
+	}
+
+	private static Set<LocationOfNode> locations(List<SpatialObject> objects) {
+		final Set<LocationOfNode> locations = new HashSet<>();
+		for (SpatialObject o : objects) {
+			locations.add(o.LOCATION);
+		}
+		return locations;
+	}
+
+	@Test
+	public void testRegion() {
+		final VoronoiRegion a = new VoronoiRegion(A, Arrays.asList(B));
+		final VoronoiRegion b = new VoronoiRegion(B, Arrays.asList(A));
+
+		assertTrue(a.contains(A));
+		assertFalse(b.contains(A));
+		assertFalse(a.mayIntersect(SpatialCache.cellOf(B)));
+		assertTrue(a.mayIntersect(SpatialCache.cellOf(12 * SIDE, 10 * SIDE)));
+
+		// points on the bisector belong to exactly one of the two
+		final LocationOfNode between = new LocationOfNode((A.x + B.x) / 2, (A.y + B.y) / 2);
+		assertTrue(a.contains(between) ^ b.contains(between));
+
+		assertTrue(VoronoiRegion.reaches(A, B, A, 2.1 * SIDE));
+		assertFalse(VoronoiRegion.reaches(A, B, A, 1.9 * SIDE));
+		assertEquals(-VoronoiRegion.distance(A, B) / 2, VoronoiRegion.bisectorDistance(A, B, A), 1e-6);
+		assertEquals(0, VoronoiRegion.bisectorDistance(A, B, between), 1.0);
+	}
+
+	@Test
+	public void testRange() throws IOException {
+		final SpatialIndex index = newIndex();
+		final LocationOfNode center = new LocationOfNode(A.x + SIDE / 3, A.y - SIDE / 5);
+		final double radius = 2.5 * SIDE;
+
+		final SpatialIndex.Result result = index.range(everything(), center, radius);
+		assertEquals(locations(scan(center, radius)), locations(result.objects));
+		assertEquals(scan(center, radius).size(), result.objects.size());
+		assertFalse(result.cacheHit);
+
+		// all cells are cached now
+		assertTrue(index.range(everything(), center, radius).cacheHit);
+	}
+
+	@Test
+	public void testNearest() throws IOException {
+		final SpatialIndex index = newIndex();
+		final LocationOfNode center = new LocationOfNode(A.x + SIDE / 2, A.y + SIDE / 7);
+
+		for (int k : new int[] { 1, 5, 40 }) {
+			final List<SpatialObject> expected = scan(center, 8 * SIDE).subList(0, k);
+			final SpatialIndex.Result result = index.nearest(everything(), center, k, Double.POSITIVE_INFINITY);
+			assertEquals(k, result.objects.size());
+			for (int i = 0; i < k; ++i) {
+				assertEquals(expected.get(i).LOCATION, result.objects.get(i).LOCATION);
+			}
+		}
+
+		final double maxDistance = SIDE / 4;
+		assertEquals(scan(center, maxDistance).size(), index.nearest(everything(), center, 1000, maxDistance).objects.size());
+	}
+
+	@Test
+	public void testAggregate() throws IOException {
+		final DensityGrid grid = new DensityGrid(1024);
+		final SpatialIndex index = new SpatialIndex(new CellLoader(new SpatialCache(16 * 1024 * 1024), new SyntheticOrigin(0)), grid);
+		final LocationOfNode center = new LocationOfNode(A.x + SIDE / 3, A.y - SIDE / 5);
+		final double radius = 4.5 * SIDE;
+
+		final Aggregate expected = new Aggregate();
+		for (SpatialObject o : scan(center, radius)) {
+			expected.add(o);
+		}
+
+		final SpatialIndex.Result first = index.aggregate(everything(), center, radius);
+		assertTrue(first.objects.isEmpty());
+		assertEquals(expected.getCount(), first.aggregate.getCount());
+		assertEquals(expected.getPayloadBytes(), first.aggregate.getPayloadBytes());
+		assertArrayEquals(expected.getHistogram(), first.aggregate.getHistogram());
+		assertTrue(grid.getCellCount() > 0);
+
+		// cells covered entirely come from the grid now
+		final SpatialIndex.Result second = index.aggregate(everything(), center, radius);
+		assertTrue(grid.getHitCount() > 0);
+		assertEquals(expected.getCount(), second.aggregate.getCount());
+		assertArrayEquals(expected.getHistogram(), second.aggregate.getHistogram());
+
+		// the aggregates of two regions add up to the whole
+		final Aggregate both = index.aggregate(new VoronoiRegion(A, Arrays.asList(B)), center, radius).aggregate;
+		both.add(index.aggregate(new VoronoiRegion(B, Arrays.asList(A)), center, radius).aggregate);
+		assertEquals(expected.getCount(), both.getCount());
+		assertEquals(expected.getPayloadBytes(), both.getPayloadBytes());
+	}
+
+	/**
+	 * Two nodes each answering for their own region must together find each
+	 * object exactly once.
+	 */
+	@Test
+	public void testPartitioned() throws IOException {
+		final SpatialIndex index = newIndex();
+		final VoronoiRegion a = new VoronoiRegion(A, Arrays.asList(B));
+		final VoronoiRegion b = new VoronoiRegion(B, Arrays.asList(A));
+		final LocationOfNode center = new LocationOfNode(12 * SIDE, 10 * SIDE);
+		final double radius = 3 * SIDE;
+
+		final List<SpatialObject> both = new ArrayList<>(index.range(a, center, radius).objects);
+		both.addAll(index.range(b, center, radius).objects);
+		assertEquals(scan(center, radius).size(), both.size());
+		assertEquals(locations(scan(center, radius)), locations(both));
+
+		final List<SpatialObject> nearest = new ArrayList<>(index.nearest(a, center, 10, Double.POSITIVE_INFINITY).objects);
+		nearest.addAll(index.nearest(b, center, 10, Double.POSITIVE_INFINITY).objects);
+		assertTrue(locations(nearest).containsAll(locations(scan(center, 8 * SIDE).subList(0, 10))));
+	}
+}